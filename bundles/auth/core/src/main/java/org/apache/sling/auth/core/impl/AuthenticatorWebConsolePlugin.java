@@ -69,6 +69,10 @@ public class AuthenticatorWebConsolePlugin extends HttpServlet {
 
         printAuthenticationRequirements(pw);
 
+        pw.println("<tr><td colspan='2'>&nbsp;</td></tr>");
+
+        printResolverCache(pw);
+
         pw.println("</table>");
     }
 
@@ -117,4 +121,31 @@ public class AuthenticatorWebConsolePlugin extends HttpServlet {
 
     }
 
+    private void printResolverCache(PrintWriter pw) {
+        pw.println("<tr>");
+        pw.println("<th class='content container' colspan='3'>Resource Resolver Cache</td>");
+        pw.println("</tr>");
+
+        final ResourceResolverCache cache = slingAuthenticator.getResolverCache();
+        if (cache == null) {
+            pw.println("<tr class='content'>");
+            pw.println("<td class='content' colspan='3'>Disabled</td>");
+            pw.println("</tr>");
+            return;
+        }
+
+        printCacheValue(pw, "Cached Resolvers", String.valueOf(cache.getSize()));
+        printCacheValue(pw, "Hits", String.valueOf(cache.getHits()));
+        printCacheValue(pw, "Misses (Logins)", String.valueOf(cache.getMisses()));
+        printCacheValue(pw, "Estimated Login Time Saved",
+            cache.getLoginTimeSaved() + " ms");
+    }
+
+    private void printCacheValue(PrintWriter pw, String name, String value) {
+        pw.println("<tr class='content'>");
+        pw.println("<td class='content'>" + name + "</td>");
+        pw.println("<td class='content' colspan='2'>" + value + "</td>");
+        pw.println("</tr>");
+    }
+
 }
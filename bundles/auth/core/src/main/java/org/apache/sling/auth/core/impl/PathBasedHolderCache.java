@@ -20,125 +20,288 @@ package org.apache.sling.auth.core.impl;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.servlet.http.HttpServletRequest;
 
+/**
+ * The <code>PathBasedHolderCache</code> keeps {@link PathBasedHolder}
+ * instances by protocol and host and finds the holders applicable to a
+ * request path.
+ * <p>
+ * The holders of each protocol and host are arranged in a trie of the path
+ * segments of the holder paths. Finding the holders applicable to a path
+ * therefore only walks the segments of the path instead of checking each
+ * registered holder. Modifications build a new trie which is published as an
+ * immutable snapshot, such that lookups do not need any locking.
+ */
 public class PathBasedHolderCache<Type extends PathBasedHolder> {
 
-    private final Map<String, Map<String, List<Type>>> cache = new HashMap<String, Map<String, List<Type>>>();
+    /** The registered holders by protocol and host, guarded by this */
+    private final Map<String, Map<String, List<Type>>> holders = new HashMap<String, Map<String, List<Type>>>();
 
-    /** Read/write lock to synchronize the cache access. */
-    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    /** The immutable snapshot of the tries by protocol and host */
+    private volatile Map<String, Map<String, Node<Type>>> cache = Collections.emptyMap();
 
-    public void clear() {
-        this.rwLock.writeLock().lock();
-        try {
-            cache.clear();
-        } finally {
-            this.rwLock.writeLock().unlock();
-        }
+    public synchronized void clear() {
+        holders.clear();
+        cache = Collections.emptyMap();
     }
 
-    public void addHolder(final Type holder) {
-        this.rwLock.writeLock().lock();
-        try {
+    public synchronized void addHolder(final Type holder) {
+        Map<String, List<Type>> byHostMap = holders.get(holder.protocol);
+        if (byHostMap == null) {
+            byHostMap = new HashMap<String, List<Type>>();
+            holders.put(holder.protocol, byHostMap);
+        }
+
+        List<Type> byPathList = byHostMap.get(holder.host);
+        if (byPathList == null) {
+            byPathList = new ArrayList<Type>();
+            byHostMap.put(holder.host, byPathList);
+        }
+        byPathList.add(holder);
+
+        publish(holder.protocol, holder.host);
+    }
 
-            Map<String, List<Type>> byHostMap = cache.get(holder.protocol);
-            if (byHostMap == null) {
-                byHostMap = new HashMap<String, List<Type>>();
-                cache.put(holder.protocol, byHostMap);
+    public synchronized void removeHolder(final Type holder) {
+        final Map<String, List<Type>> byHostMap = holders.get(holder.protocol);
+        if (byHostMap != null) {
+            final List<Type> byPathList = byHostMap.get(holder.host);
+            if (byPathList != null && byPathList.remove(holder)) {
+                if (byPathList.isEmpty()) {
+                    byHostMap.remove(holder.host);
+                    if (byHostMap.isEmpty()) {
+                        holders.remove(holder.protocol);
+                    }
+                }
+                publish(holder.protocol, holder.host);
             }
+        }
+    }
 
-            final List<Type> byPathList = new ArrayList<Type>();
+    /**
+     * Returns the holders applicable to the given path for the protocol and
+     * host of the request. The result contains four lists, which may be
+     * <code>null</code>: the holders registered for the protocol and host of
+     * the request, for the protocol and any host, for any protocol and the
+     * host and for any protocol and any host. Each list only contains holders
+     * whose path is a prefix of the given path, longest path first.
+     */
+    public List<Type>[] findApplicableHolders(final HttpServletRequest request,
+            final String path) {
+        final String hostname = request.getServerName()
+              + (request.getServerPort() != 80 && request.getServerPort() != 443
+                ? ":" + request.getServerPort()
+                : "");
+        return findApplicableHolders(request.getScheme(), hostname, path);
+    }
+
+    List<Type>[] findApplicableHolders(final String scheme,
+            final String hostname, final String path) {
+        @SuppressWarnings("unchecked")
+        final List<Type>[] result = new List[4];
 
-            // preset with current list
-            final List<Type> currentPathList = byHostMap.get(holder.host);
-            if (currentPathList != null) {
-                byPathList.addAll(currentPathList);
+        final Map<String, Map<String, Node<Type>>> cache = this.cache;
+        final Map<String, Node<Type>> byHostMap = cache.get(scheme);
+        if ( byHostMap != null ) {
+            result[0] = find(byHostMap.get(hostname), path);
+            result[1] = find(byHostMap.get(""), path);
+        }
+        final Map<String, Node<Type>> defaultByHostMap = cache.get("");
+        if ( defaultByHostMap != null ) {
+            result[2] = find(defaultByHostMap.get(hostname), path);
+            result[3] = find(defaultByHostMap.get(""), path);
+        }
+        return result;
+    }
+
+    public List<Type> getHolders() {
+        final List<Type> result = new ArrayList<Type>();
+        for (Map<String, Node<Type>> byHostEntry : cache.values()) {
+            for (Node<Type> root : byHostEntry.values()) {
+                root.collect(result);
             }
+        }
+        Collections.sort(result);
+        return result;
+    }
 
-            // add the new holder
-            byPathList.add(holder);
+    /**
+     * Builds a new trie for the holders of the given protocol and host and
+     * publishes a new snapshot containing it. Must be called while
+     * synchronized on this instance.
+     */
+    private void publish(final String protocol, final String host) {
+        final Map<String, Map<String, Node<Type>>> newCache = new HashMap<String, Map<String, Node<Type>>>(cache);
 
-            // sort the list according to the path length (longest path first)
-            Collections.sort(byPathList);
+        final Map<String, List<Type>> byHostMap = holders.get(protocol);
+        final List<Type> byPathList = (byHostMap == null) ? null : byHostMap.get(host);
 
-            // replace old list with new list
-            byHostMap.put(holder.host, byPathList);
-        } finally {
-            this.rwLock.writeLock().unlock();
+        Map<String, Node<Type>> nodesByHost = newCache.get(protocol);
+        nodesByHost = (nodesByHost == null)
+                ? new HashMap<String, Node<Type>>()
+                : new HashMap<String, Node<Type>>(nodesByHost);
+        if (byPathList == null) {
+            nodesByHost.remove(host);
+        } else {
+            final Node<Type> root = new Node<Type>();
+            for (final Type holder : byPathList) {
+                root.add(split(holder.path), 0, holder);
+            }
+            root.seal();
+            nodesByHost.put(host, root);
+        }
+
+        if (nodesByHost.isEmpty()) {
+            newCache.remove(protocol);
+        } else {
+            newCache.put(protocol, nodesByHost);
         }
+
+        cache = newCache;
     }
 
-    public void removeHolder(final Type holder) {
-        this.rwLock.writeLock().lock();
-        try {
-            final Map<String, List<Type>> byHostMap = cache.get(holder.protocol);
-            if (byHostMap != null) {
-                final List<Type> byPathList = byHostMap.get(holder.host);
-                if (byPathList != null) {
-
-                    // create a new list without the removed holder
-                    final List<Type> list = new ArrayList<Type>();
-                    list.addAll(byPathList);
-                    list.remove(holder);
-
-                    // replace the old list with the new one (or remove if empty)
-                    if (list.isEmpty()) {
-                        byHostMap.remove(holder.host);
-                    } else {
-                        byHostMap.put(holder.host, list);
-                    }
+    /**
+     * Returns the holders of the trie whose path is a prefix of the given
+     * path, longest path first, or <code>null</code> if there are none.
+     */
+    private List<Type> find(final Node<Type> root, final String path) {
+        if (root == null) {
+            return null;
+        }
+
+        // collect the matches from the shortest to the longest path
+        final List<List<Type>> matches = new ArrayList<List<Type>>();
+        Node<Type> node = root;
+        int start = 0;
+        while (node != null) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            final String segment = path.substring(start, end);
+
+            // holders whose last segment is a prefix of this segment
+            for (final Node<Type> child : node.holderChildren) {
+                if (segment.startsWith(child.segment)) {
+                    matches.add(child.holders);
                 }
             }
-        } finally {
-            this.rwLock.writeLock().unlock();
+
+            if (end == path.length()) {
+                break;
+            }
+            node = node.children.get(segment);
+            start = end + 1;
+        }
+
+        if (matches.isEmpty()) {
+            return null;
+        }
+
+        final List<Type> result = new ArrayList<Type>();
+        for (int i = matches.size() - 1; i >= 0; i--) {
+            result.addAll(matches.get(i));
         }
+        return result;
     }
 
-    public List<Type>[] findApplicableHolder(final HttpServletRequest request) {
-        this.rwLock.readLock().lock();
-        try {
-            final String hostname = request.getServerName()
-                  + (request.getServerPort() != 80 && request.getServerPort() != 443
-                    ? ":" + request.getServerPort()
-                    : "");
-
-            @SuppressWarnings("unchecked")
-            final List<Type>[] result = new ArrayList[4];
-
-            final Map<String, List<Type>> byHostMap = cache.get(request.getScheme());
-            if ( byHostMap != null ) {
-                result[0] = byHostMap.get(hostname);
-                result[1] = byHostMap.get("");
+    /**
+     * Splits the path into segments at the slashes. The result has one more
+     * element than there are slashes in the path.
+     */
+    private static String[] split(final String path) {
+        final List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int end;
+        while ((end = path.indexOf('/', start)) >= 0) {
+            segments.add(path.substring(start, end));
+            start = end + 1;
+        }
+        segments.add(path.substring(start));
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * A node of the trie. The holders of a node are the holders whose path
+     * ends with the segment of the node. A holder path matches a path if all
+     * but its last segment are equal to the respective segments of the path
+     * and its last segment is a prefix of the respective segment of the path.
+     * Nodes are not modified anymore after being {@link #seal() sealed}.
+     */
+    private static final class Node<Type extends PathBasedHolder> {
+
+        private final String segment;
+
+        private Map<String, Node<Type>> children = new HashMap<String, Node<Type>>();
+
+        /** The holders ending at this node, sorted by their natural order */
+        private List<Type> holders = new ArrayList<Type>();
+
+        /**
+         * The children having holders, sorted by segment length such that
+         * shorter paths are matched first
+         */
+        private List<Node<Type>> holderChildren;
+
+        Node() {
+            this("");
+        }
+
+        Node(final String segment) {
+            this.segment = segment;
+        }
+
+        void add(final String[] segments, final int index, final Type holder) {
+            Node<Type> child = children.get(segments[index]);
+            if (child == null) {
+                child = new Node<Type>(segments[index]);
+                children.put(segments[index], child);
             }
-            final Map<String, List<Type>> defaultByHostMap = cache.get("");
-            if ( defaultByHostMap != null ) {
-                result[0] = defaultByHostMap.get(hostname);
-                result[1] = defaultByHostMap.get("");
+
+            if (index == segments.length - 1) {
+                child.holders.add(holder);
+            } else {
+                child.add(segments, index + 1, holder);
             }
-            return result;
-        } finally {
-            this.rwLock.readLock().unlock();
         }
-    }
 
-    public List<Type> getHolders() {
-        this.rwLock.readLock().lock();
-        try {
-            final List<Type> result = new ArrayList<Type>();
-            for (Map<String, List<Type>> byHostEntry : cache.values()) {
-                for (List<Type> holderList : byHostEntry.values()) {
-                    result.addAll(holderList);
+        void seal() {
+            final List<Node<Type>> withHolders = new ArrayList<Node<Type>>();
+            for (final Node<Type> child : children.values()) {
+                child.seal();
+                if (!child.holders.isEmpty()) {
+                    withHolders.add(child);
                 }
             }
-            return result;
-        } finally {
-            this.rwLock.readLock().unlock();
+            Collections.sort(withHolders, SEGMENT_LENGTH_ORDER);
+
+            Collections.sort(holders);
+            holders = Collections.unmodifiableList(holders);
+            children = children.isEmpty()
+                    ? Collections.<String, Node<Type>> emptyMap()
+                    : children;
+            holderChildren = withHolders.isEmpty()
+                    ? Collections.<Node<Type>> emptyList()
+                    : withHolders;
         }
+
+        void collect(final List<Type> result) {
+            result.addAll(holders);
+            for (final Node<Type> child : children.values()) {
+                child.collect(result);
+            }
+        }
+
+        private static final Comparator<Node<?>> SEGMENT_LENGTH_ORDER = new Comparator<Node<?>>() {
+            public int compare(final Node<?> n1, final Node<?> n2) {
+                return n1.segment.length() - n2.segment.length();
+            }
+        };
     }
 }
@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.auth.core.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.auth.core.spi.AuthenticationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ResourceResolverCache</code> keeps the resource resolvers of
+ * authenticated requests after the request has terminated to be reused for
+ * further requests presenting the same credentials. This prevents a
+ * repository login for each request.
+ * <p>
+ * A cached resource resolver is only ever used by a single request at a time:
+ * It is taken out of the cache with {@link #acquire(String)} and put back into
+ * the cache with {@link #release(ResourceResolver)} at the end of the request.
+ * Before being handed out again, any pending changes of the session of the
+ * resolver are discarded.
+ * <p>
+ * The credentials of a key are only trusted for the validation interval after
+ * the last successful login with these credentials. After that interval
+ * {@link #acquire(String)} reports a cache miss, such that the credentials are
+ * validated again by a login. If this login succeeds, the new resolver is
+ * {@link #add(String, ResourceResolver, long) added} and the cached resolvers
+ * of the key are used again. If it fails, the key must be
+ * {@link #invalidate(String) invalidated}. Thus credentials which have expired
+ * or have been revoked without a modification of the user in the repository
+ * are not accepted longer than the validation interval.
+ * <p>
+ * Resource resolvers are closed and removed from the cache if they have not
+ * been used for the idle time, if they have been created longer than the time
+ * to live ago or if they are invalidated because the user logs out or access
+ * control or user information is modified.
+ */
+class ResourceResolverCache {
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(ResourceResolverCache.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The maximum number of resource resolvers kept in the cache */
+    private final int maxSize;
+
+    /** The time in milliseconds after which resolvers are discarded */
+    private final long timeToLive;
+
+    /** The time in milliseconds after which unused resolvers are discarded */
+    private final long idleTime;
+
+    /**
+     * The time in milliseconds after the last login for a key after which
+     * the credentials of the key must be validated again.
+     */
+    private final long validationInterval;
+
+    /** The entries of the cache indexed by their key */
+    private final Map<String, KeyEntries> keyEntries = new HashMap<String, KeyEntries>();
+
+    /** The idle resolvers in the order of their release */
+    private final LinkedHashSet<Entry> idleEntries = new LinkedHashSet<Entry>();
+
+    /** The resolvers currently used by requests */
+    private final Map<ResourceResolver, Entry> usedEntries = new IdentityHashMap<ResourceResolver, Entry>();
+
+    private long hits;
+
+    private long misses;
+
+    /** The accumulated time in milliseconds of the logins on cache misses */
+    private long loginTime;
+
+    ResourceResolverCache(final int maxSize, final long timeToLive,
+            final long idleTime, final long validationInterval) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.idleTime = idleTime;
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Returns the cache key for the given authentication info or
+     * <code>null</code> if the authentication info contains values which
+     * cannot be used to build a key. The key is a hash of the properties of
+     * the authentication info such that the credentials are not kept in the
+     * cache.
+     */
+    static String getKey(final AuthenticationInfo authInfo) {
+        final Map<String, Object> sorted = new TreeMap<String, Object>(authInfo);
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (final Map.Entry<String, Object> entry : sorted.entrySet()) {
+                final Object value = entry.getValue();
+                final String stringValue;
+                if (value instanceof String) {
+                    stringValue = (String) value;
+                } else if (value instanceof char[]) {
+                    stringValue = new String((char[]) value);
+                } else if (value == null) {
+                    continue;
+                } else {
+                    // credentials objects cannot be compared
+                    return null;
+                }
+                md.update(entry.getKey().getBytes("UTF-8"));
+                md.update((byte) 0);
+                md.update(stringValue.getBytes("UTF-8"));
+                md.update((byte) 0);
+            }
+
+            final byte[] hash = md.digest();
+            final StringBuilder buf = new StringBuilder(hash.length * 2);
+            for (final byte b : hash) {
+                buf.append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            // SHA-256 is required to be supported by all platforms
+            throw new IllegalStateException(nsae);
+        } catch (UnsupportedEncodingException uee) {
+            // UTF-8 is required to be supported by all platforms
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * Returns a cached resource resolver for the given key or
+     * <code>null</code> if none is available or the credentials of the key
+     * must be validated again. The returned resolver is exclusively used by
+     * the caller until it is released.
+     */
+    ResourceResolver acquire(final String key) {
+        final List<Entry> expired = new ArrayList<Entry>();
+        Entry found = null;
+        synchronized (this) {
+            final long now = currentTimeMillis();
+            collectExpired(now, expired);
+
+            final KeyEntries forKey = keyEntries.get(key);
+            if (forKey != null && now <= forKey.validUntil) {
+                // use the most recently released resolver of the key
+                while (found == null && !forKey.idle.isEmpty()) {
+                    final Entry entry = forKey.idle.removeLast();
+                    idleEntries.remove(entry);
+                    if (now - entry.created > timeToLive) {
+                        expired.add(entry);
+                    } else {
+                        found = entry;
+                    }
+                }
+            }
+
+            if (found != null) {
+                forKey.used++;
+                usedEntries.put(found.resolver, found);
+                hits++;
+            } else if (forKey != null) {
+                removeIfEmpty(forKey);
+            }
+        }
+        closeAll(expired);
+
+        if (found != null) {
+            if (refresh(found.resolver)) {
+                return found.resolver;
+            }
+
+            // unusable resolver, forget about it
+            synchronized (this) {
+                removeUsed(found);
+                hits--;
+            }
+            found.resolver.close();
+        }
+
+        return null;
+    }
+
+    /**
+     * Registers a resource resolver freshly created for the given key after a
+     * cache miss. The resolver is considered used until it is released. As
+     * the resolver has just been created by a login, the credentials of the
+     * key are considered valid for the validation interval again.
+     *
+     * @param loginTime The time in milliseconds it took to create the resolver
+     */
+    synchronized void add(final String key, final ResourceResolver resolver,
+            final long loginTime) {
+        misses++;
+        this.loginTime += loginTime;
+
+        final long now = currentTimeMillis();
+        KeyEntries forKey = keyEntries.get(key);
+        if (forKey == null) {
+            forKey = new KeyEntries(key);
+            keyEntries.put(key, forKey);
+        }
+        forKey.validUntil = now + validationInterval;
+        forKey.used++;
+        usedEntries.put(resolver, new Entry(key, resolver, now));
+    }
+
+    /**
+     * Puts a resource resolver back into the cache at the end of a request.
+     *
+     * @return <code>true</code> if the resolver has been acquired from or
+     *         added to this cache. In this case the caller must not close the
+     *         resolver. <code>false</code> if the resolver does not belong to
+     *         this cache.
+     */
+    boolean release(final ResourceResolver resolver) {
+        final List<Entry> expired = new ArrayList<Entry>();
+        synchronized (this) {
+            final Entry entry = usedEntries.get(resolver);
+            if (entry == null) {
+                return false;
+            }
+
+            final long now = currentTimeMillis();
+            collectExpired(now, expired);
+            if (entry.invalid || now - entry.created > timeToLive
+                || !resolver.isLive()) {
+                removeUsed(entry);
+                expired.add(entry);
+            } else {
+                usedEntries.remove(resolver);
+                final KeyEntries forKey = keyEntries.get(entry.key);
+                forKey.used--;
+                forKey.idle.addLast(entry);
+                entry.lastUsed = now;
+                idleEntries.add(entry);
+                if (idleEntries.size() > maxSize) {
+                    final Entry eldest = idleEntries.iterator().next();
+                    removeIdle(eldest);
+                    expired.add(eldest);
+                }
+            }
+        }
+        closeAll(expired);
+        return true;
+    }
+
+    /**
+     * Closes the resource resolvers cached for the given key. Resolvers of the
+     * key currently in use are closed when they are released.
+     */
+    void invalidate(final String key) {
+        final List<Entry> removed = new ArrayList<Entry>();
+        synchronized (this) {
+            final KeyEntries forKey = keyEntries.get(key);
+            if (forKey != null) {
+                invalidate(forKey, removed);
+                removeIfEmpty(forKey);
+            }
+        }
+        closeAll(removed);
+    }
+
+    /**
+     * Returns the key of the given resource resolver if it is currently used
+     * or <code>null</code> if it does not belong to this cache.
+     */
+    synchronized String getKey(final ResourceResolver resolver) {
+        final Entry entry = usedEntries.get(resolver);
+        return (entry == null) ? null : entry.key;
+    }
+
+    /**
+     * Closes all cached resource resolvers. Resolvers currently in use are
+     * closed when they are released.
+     */
+    void clear() {
+        final List<Entry> removed = new ArrayList<Entry>();
+        synchronized (this) {
+            for (final Iterator<KeyEntries> iter = keyEntries.values().iterator(); iter.hasNext();) {
+                final KeyEntries forKey = iter.next();
+                invalidate(forKey, removed);
+                if (forKey.used == 0) {
+                    iter.remove();
+                }
+            }
+        }
+        closeAll(removed);
+    }
+
+    synchronized int getSize() {
+        return idleEntries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the estimated login time in milliseconds saved by reusing
+     * cached resource resolvers, which is the average login time of the cache
+     * misses for each cache hit.
+     */
+    synchronized long getLoginTimeSaved() {
+        return (misses == 0) ? 0 : hits * loginTime / misses;
+    }
+
+    /**
+     * Returns the current time in milliseconds. Overwritten by tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Removes the idle entries which have not been used for the idle time.
+     * As the idle entries are kept in the order of their release, only the
+     * eldest entries have to be checked. Entries exceeding their time to live
+     * are removed when they are acquired. Must be called while synchronized
+     * on this instance.
+     */
+    private void collectExpired(final long now, final List<Entry> expired) {
+        for (final Iterator<Entry> iter = idleEntries.iterator(); iter.hasNext();) {
+            final Entry entry = iter.next();
+            if (now - entry.lastUsed <= idleTime) {
+                break;
+            }
+            iter.remove();
+            final KeyEntries forKey = keyEntries.get(entry.key);
+            forKey.idle.remove(entry);
+            removeIfEmpty(forKey);
+            expired.add(entry);
+        }
+    }
+
+    /**
+     * Removes the idle entries of the key and marks the used entries invalid
+     * such that they are closed when released. Must be called while
+     * synchronized on this instance.
+     */
+    private void invalidate(final KeyEntries forKey, final List<Entry> removed) {
+        for (final Entry entry : forKey.idle) {
+            idleEntries.remove(entry);
+            removed.add(entry);
+        }
+        forKey.idle.clear();
+        forKey.validUntil = Long.MIN_VALUE;
+        if (forKey.used > 0) {
+            for (final Entry entry : usedEntries.values()) {
+                if (entry.key.equals(forKey.key)) {
+                    entry.invalid = true;
+                }
+            }
+        }
+    }
+
+    private void removeIdle(final Entry entry) {
+        idleEntries.remove(entry);
+        final KeyEntries forKey = keyEntries.get(entry.key);
+        forKey.idle.remove(entry);
+        removeIfEmpty(forKey);
+    }
+
+    private void removeUsed(final Entry entry) {
+        usedEntries.remove(entry.resolver);
+        final KeyEntries forKey = keyEntries.get(entry.key);
+        forKey.used--;
+        removeIfEmpty(forKey);
+    }
+
+    private void removeIfEmpty(final KeyEntries forKey) {
+        if (forKey.used == 0 && forKey.idle.isEmpty()) {
+            keyEntries.remove(forKey.key);
+        }
+    }
+
+    /**
+     * Discards any pending changes of the session of the resource resolver.
+     * Returns <code>false</code> if the resolver cannot be used any longer.
+     */
+    private boolean refresh(final ResourceResolver resolver) {
+        if (!resolver.isLive()) {
+            return false;
+        }
+
+        final Session session = resolver.adaptTo(Session.class);
+        if (session != null) {
+            try {
+                session.refresh(false);
+            } catch (RepositoryException re) {
+                log.debug("refresh: Cannot refresh session of cached resolver",
+                    re);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void closeAll(final List<Entry> entries) {
+        for (final Entry entry : entries) {
+            try {
+                entry.resolver.close();
+            } catch (RuntimeException re) {
+                log.debug("closeAll: Problem closing cached resolver", re);
+            }
+        }
+    }
+
+    /**
+     * The entries of a single key
+     */
+    private static final class KeyEntries {
+
+        final String key;
+
+        /** The idle resolvers of the key in the order of their release */
+        final LinkedList<Entry> idle = new LinkedList<Entry>();
+
+        /** The number of resolvers of the key currently in use */
+        int used;
+
+        /**
+         * The time until which the credentials of the key are trusted without
+         * another login
+         */
+        long validUntil = Long.MIN_VALUE;
+
+        KeyEntries(final String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Entry {
+
+        final String key;
+
+        final ResourceResolver resolver;
+
+        final long created;
+
+        long lastUsed;
+
+        boolean invalid;
+
+        Entry(final String key, final ResourceResolver resolver,
+                final long created) {
+            this.key = key;
+            this.resolver = resolver;
+            this.created = created;
+            this.lastUsed = created;
+        }
+    }
+}
@@ -42,6 +42,7 @@ import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.felix.scr.annotations.Services;
+import org.apache.sling.api.SlingConstants;
 import org.apache.sling.api.auth.Authenticator;
 import org.apache.sling.api.auth.NoAuthenticationHandlerException;
 import org.apache.sling.api.resource.LoginException;
@@ -63,6 +64,9 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.osgi.service.http.HttpContext;
 import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
@@ -154,6 +158,52 @@ public class SlingAuthenticator implements Authenticator,
     @Property(value = DEFAULT_REALM)
     public static final String PAR_REALM_NAME = "auth.http.realm";
 
+    /** The default value for caching the resolvers of authenticated requests */
+    private static final boolean DEFAULT_CACHE_ENABLED = false;
+
+    /**
+     * The name of the configuration property enabling the cache of resource
+     * resolvers of authenticated requests.
+     */
+    @Property(boolValue = DEFAULT_CACHE_ENABLED)
+    private static final String PAR_CACHE_ENABLED = "auth.cache.enabled";
+
+    /** The default maximum number of cached resource resolvers */
+    private static final int DEFAULT_CACHE_SIZE = 100;
+
+    @Property(intValue = DEFAULT_CACHE_SIZE)
+    private static final String PAR_CACHE_SIZE = "auth.cache.size";
+
+    /** The default time to live of cached resource resolvers in seconds */
+    private static final int DEFAULT_CACHE_TTL = 300;
+
+    @Property(intValue = DEFAULT_CACHE_TTL)
+    private static final String PAR_CACHE_TTL = "auth.cache.ttl";
+
+    /** The default idle time of cached resource resolvers in seconds */
+    private static final int DEFAULT_CACHE_IDLE = 60;
+
+    @Property(intValue = DEFAULT_CACHE_IDLE)
+    private static final String PAR_CACHE_IDLE = "auth.cache.idle";
+
+    /**
+     * The default number of seconds after a login after which the credentials
+     * of cached resource resolvers are validated by another login
+     */
+    private static final int DEFAULT_CACHE_VALIDATION = 30;
+
+    @Property(intValue = DEFAULT_CACHE_VALIDATION)
+    private static final String PAR_CACHE_VALIDATION = "auth.cache.validation";
+
+    /**
+     * The name of the configuration property listing the paths below which
+     * modifications flush the resource resolver cache, because they may
+     * concern users or groups. Modifications of access control policies
+     * always flush the cache.
+     */
+    @Property(value = { "/home", "/rep:security" })
+    private static final String PAR_CACHE_INVALIDATION_PATHS = "auth.cache.invalidation.paths";
+
     /**
      * The name of the {@link AuthenticationInfo} property providing the option
      * {@link org.apache.sling.auth.core.spi.AuthenticationFeedbackHandler}
@@ -212,6 +262,18 @@ public class SlingAuthenticator implements Authenticator,
     /** Web Console Plugin service registration */
     private ServiceRegistration webConsolePlugin;
 
+    /**
+     * The cache of resource resolvers of authenticated requests or
+     * <code>null</code> if caching is disabled.
+     */
+    private volatile ResourceResolverCache resolverCache;
+
+    /** The paths below which modifications flush the resolver cache */
+    private volatile String[] cacheInvalidationPaths;
+
+    /** The event handler flushing the resolver cache */
+    private ServiceRegistration cacheInvalidator;
+
     /**
      * The listener for services registered with "sling.auth.requirements" to
      * update the internal authentication requirements
@@ -263,6 +325,17 @@ public class SlingAuthenticator implements Authenticator,
             bundleContext, authHandlerCache);
         authInfoPostProcessorTracker = new ServiceTracker(bundleContext, AuthenticationInfoPostProcessor.SERVICE_NAME, null);
         authInfoPostProcessorTracker.open();
+
+        Hashtable<String, Object> handlerProps = new Hashtable<String, Object>();
+        handlerProps.put(Constants.SERVICE_DESCRIPTION,
+            "Sling Request Authenticator Resolver Cache Invalidator");
+        handlerProps.put(Constants.SERVICE_VENDOR,
+            properties.get(Constants.SERVICE_VENDOR));
+        handlerProps.put(EventConstants.EVENT_TOPIC,
+            "org/apache/sling/api/resource/*");
+        cacheInvalidator = bundleContext.registerService(
+            EventHandler.class.getName(), new ResolverCacheInvalidator(this),
+            handlerProps);
     }
 
     @Modified
@@ -332,11 +405,50 @@ public class SlingAuthenticator implements Authenticator,
             httpBasicHandler = new HttpBasicAuthenticationHandler(realm,
                 HTTP_AUTH_ENABLED.equals(http));
         }
+
+        // replace the resolver cache, resolvers in use are closed when
+        // they are released at the end of their request
+        final ResourceResolverCache oldCache = resolverCache;
+        if (OsgiUtil.toBoolean(properties.get(PAR_CACHE_ENABLED),
+            DEFAULT_CACHE_ENABLED)) {
+            final int size = OsgiUtil.toInteger(properties.get(PAR_CACHE_SIZE),
+                DEFAULT_CACHE_SIZE);
+            final int ttl = OsgiUtil.toInteger(properties.get(PAR_CACHE_TTL),
+                DEFAULT_CACHE_TTL);
+            final int idle = OsgiUtil.toInteger(properties.get(PAR_CACHE_IDLE),
+                DEFAULT_CACHE_IDLE);
+            final int validation = OsgiUtil.toInteger(
+                properties.get(PAR_CACHE_VALIDATION), DEFAULT_CACHE_VALIDATION);
+            resolverCache = new ResourceResolverCache(size, ttl * 1000L,
+                idle * 1000L, validation * 1000L);
+        } else {
+            resolverCache = null;
+        }
+        if (oldCache != null) {
+            oldCache.clear();
+        }
+
+        String[] invalidationPaths = OsgiUtil.toStringArray(properties.get(PAR_CACHE_INVALIDATION_PATHS));
+        if (invalidationPaths == null) {
+            invalidationPaths = new String[0];
+        }
+        cacheInvalidationPaths = invalidationPaths;
     }
 
     @SuppressWarnings("unused")
     @Deactivate
     private void deactivate(final BundleContext bundleContext) {
+        if (cacheInvalidator != null) {
+            cacheInvalidator.unregister();
+            cacheInvalidator = null;
+        }
+
+        final ResourceResolverCache cache = resolverCache;
+        if (cache != null) {
+            resolverCache = null;
+            cache.clear();
+        }
+
         if (engineAuthHandlerTracker != null) {
             engineAuthHandlerTracker.close();
             engineAuthHandlerTracker = null;
@@ -465,26 +577,24 @@ public class SlingAuthenticator implements Authenticator,
         }
 
         // select path used for authentication handler selection
-        final List<AbstractAuthenticationHandlerHolder>[] holderListArray = this.authHandlerCache.findApplicableHolder(request);
         final String path = getHandlerSelectionPath(request);
+        final List<AbstractAuthenticationHandlerHolder>[] holderListArray = this.authHandlerCache.findApplicableHolders(request, path);
         boolean done = false;
         for(int m = 0; !done && m < holderListArray.length; m++) {
             final List<AbstractAuthenticationHandlerHolder> holderList = holderListArray[m];
             if ( holderList != null ) {
                 for (int i = 0; !done && i < holderList.size(); i++) {
                     final AbstractAuthenticationHandlerHolder holder = holderList.get(i);
-                    if (path.startsWith(holder.path)) {
-                        log.debug("login: requesting authentication using handler: {}",
-                            holder);
-
-                        try {
-                            done = holder.requestCredentials(request, response);
-                        } catch (IOException ioe) {
-                            log.error(
-                                "login: Failed sending authentication request through handler "
-                                    + holder + ", access forbidden", ioe);
-                            done = true;
-                        }
+                    log.debug("login: requesting authentication using handler: {}",
+                        holder);
+
+                    try {
+                        done = holder.requestCredentials(request, response);
+                    } catch (IOException ioe) {
+                        log.error(
+                            "login: Failed sending authentication request through handler "
+                                + holder + ", access forbidden", ioe);
+                        done = true;
                     }
                 }
             }
@@ -520,24 +630,32 @@ public class SlingAuthenticator implements Authenticator,
             throw new IllegalStateException("Response already committed");
         }
 
+        // do not reuse the resolver of the user any longer
+        final ResourceResolverCache cache = resolverCache;
+        final Object resolverAttr = request.getAttribute(REQUEST_ATTRIBUTE_RESOLVER);
+        if (cache != null && resolverAttr instanceof ResourceResolver) {
+            final String key = cache.getKey((ResourceResolver) resolverAttr);
+            if (key != null) {
+                cache.invalidate(key);
+            }
+        }
+
         final String path = getHandlerSelectionPath(request);
-        final List<AbstractAuthenticationHandlerHolder>[] holderListArray = this.authHandlerCache.findApplicableHolder(request);
+        final List<AbstractAuthenticationHandlerHolder>[] holderListArray = this.authHandlerCache.findApplicableHolders(request, path);
         for(int m = 0; m < holderListArray.length; m++) {
             final List<AbstractAuthenticationHandlerHolder> holderList = holderListArray[m];
             if ( holderList != null ) {
                 for (int i = 0; i < holderList.size(); i++) {
                     AbstractAuthenticationHandlerHolder holder = holderList.get(i);
-                    if (path.startsWith(holder.path)) {
-                        log.debug("logout: dropping authentication using handler: {}",
-                            holder);
-
-                        try {
-                            holder.dropCredentials(request, response);
-                        } catch (IOException ioe) {
-                            log.error(
-                                "logout: Failed dropping authentication through handler "
-                                    + holder, ioe);
-                        }
+                    log.debug("logout: dropping authentication using handler: {}",
+                        holder);
+
+                    try {
+                        holder.dropCredentials(request, response);
+                    } catch (IOException ioe) {
+                        log.error(
+                            "logout: Failed dropping authentication through handler "
+                                + holder, ioe);
                     }
                 }
             }
@@ -560,7 +678,7 @@ public class SlingAuthenticator implements Authenticator,
         ServletRequest request = sre.getServletRequest();
         Object resolverAttr = request.getAttribute(REQUEST_ATTRIBUTE_RESOLVER);
         if (resolverAttr instanceof ResourceResolver) {
-            ((ResourceResolver) resolverAttr).close();
+            closeResolver((ResourceResolver) resolverAttr);
             request.removeAttribute(REQUEST_ATTRIBUTE_RESOLVER);
         }
     }
@@ -596,6 +714,14 @@ public class SlingAuthenticator implements Authenticator,
         return authRequiredCache.getHolders();
     }
 
+    /**
+     * Returns the cache of resource resolvers or <code>null</code> if caching
+     * is disabled.
+     */
+    ResourceResolverCache getResolverCache() {
+        return resolverCache;
+    }
+
     // ---------- internal
 
     private AuthenticationInfo getAuthenticationInfo(
@@ -610,26 +736,24 @@ public class SlingAuthenticator implements Authenticator,
             pathInfo = "/";
         }
 
-        final List<AbstractAuthenticationHandlerHolder>[] localArray = this.authHandlerCache.findApplicableHolder(request);
+        final List<AbstractAuthenticationHandlerHolder>[] localArray = this.authHandlerCache.findApplicableHolders(request, pathInfo);
         for(int m = 0; m < localArray.length; m++) {
             final List<AbstractAuthenticationHandlerHolder> local = localArray[m];
             if ( local != null ) {
                 for (int i = 0; i < local.size(); i++) {
                     AbstractAuthenticationHandlerHolder holder = local.get(i);
-                    if (pathInfo.startsWith(holder.path)) {
-                        final AuthenticationInfo authInfo = holder.extractCredentials(
-                            request, response);
+                    final AuthenticationInfo authInfo = holder.extractCredentials(
+                        request, response);
 
-                        if (authInfo != null) {
-                            // post process the AuthenticationInfo object
-                            postProcess(authInfo, request, response);
+                    if (authInfo != null) {
+                        // post process the AuthenticationInfo object
+                        postProcess(authInfo, request, response);
 
-                            // add the feedback handler to the info (may be null)
-                            authInfo.put(AUTH_INFO_PROP_FEEDBACK_HANDLER,
-                                holder.getFeedbackHandler());
+                        // add the feedback handler to the info (may be null)
+                        authInfo.put(AUTH_INFO_PROP_FEEDBACK_HANDLER,
+                            holder.getFeedbackHandler());
 
-                            return authInfo;
-                        }
+                        return authInfo;
                     }
                 }
             }
@@ -685,7 +809,7 @@ public class SlingAuthenticator implements Authenticator,
         // try to connect
         try {
             handleImpersonation(request, authInfo);
-            ResourceResolver resolver = resourceResolverFactory.getResourceResolver(authInfo);
+            ResourceResolver resolver = getResourceResolver(authInfo);
 
             setSudoCookie(request, response, authInfo);
 
@@ -702,7 +826,7 @@ public class SlingAuthenticator implements Authenticator,
 
                     // request will now be terminated, so close the resolver
                     // to release resources
-                    resolver.close();
+                    closeResolver(resolver);
 
                     return false;
                 }
@@ -716,7 +840,7 @@ public class SlingAuthenticator implements Authenticator,
 
                     // request will now be terminated, so close the resolver
                     // to release resources
-                    resolver.close();
+                    closeResolver(resolver);
 
                     return false;
                 }
@@ -727,7 +851,7 @@ public class SlingAuthenticator implements Authenticator,
             // success response and close the resolver
             if (AbstractAuthenticationHandler.isValidateRequest(request)) {
                 AbstractAuthenticationHandler.sendValid(response);
-                resolver.close();
+                closeResolver(resolver);
                 return false;
             }
 
@@ -758,6 +882,83 @@ public class SlingAuthenticator implements Authenticator,
 
     }
 
+    /**
+     * Returns a resource resolver for the authentication info. If the resolver
+     * cache is enabled and the authentication info can be used as a cache key
+     * a cached resolver is returned if available and the credentials have been
+     * validated within the validation interval. Otherwise a new resolver is
+     * created and added to the cache. If the credentials are rejected, the
+     * cached resolvers of the credentials are closed.
+     */
+    private ResourceResolver getResourceResolver(final AuthenticationInfo authInfo)
+            throws LoginException {
+        final ResourceResolverCache cache = resolverCache;
+        final String key = (cache == null)
+                ? null
+                : ResourceResolverCache.getKey(authInfo);
+        if (key == null) {
+            return resourceResolverFactory.getResourceResolver(authInfo);
+        }
+
+        ResourceResolver resolver = cache.acquire(key);
+        if (resolver == null) {
+            final long start = System.currentTimeMillis();
+            try {
+                resolver = resourceResolverFactory.getResourceResolver(authInfo);
+            } catch (LoginException le) {
+                // the credentials are not valid (any longer)
+                cache.invalidate(key);
+                throw le;
+            }
+            cache.add(key, resolver, System.currentTimeMillis() - start);
+        } else {
+            log.debug("getResourceResolver: Reusing cached resolver for {}",
+                authInfo.getUser());
+        }
+        return resolver;
+    }
+
+    /**
+     * Puts the resource resolver back into the resolver cache if it has been
+     * taken from there or closes it otherwise.
+     */
+    private void closeResolver(final ResourceResolver resolver) {
+        final ResourceResolverCache cache = resolverCache;
+        if (cache == null || !cache.release(resolver)) {
+            resolver.close();
+        }
+    }
+
+    /**
+     * Flushes the resolver cache if a resource event indicates a modification
+     * of access control policies or of users and groups.
+     */
+    void handleResourceEvent(final Event event) {
+        final ResourceResolverCache cache = resolverCache;
+        String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (cache == null || path == null) {
+            return;
+        }
+
+        // strip an optional workspace name
+        if (path.indexOf(':') >= 0 && !path.startsWith("/")) {
+            path = path.substring(path.indexOf(':') + 1);
+        }
+
+        boolean flush = path.contains("rep:policy")
+            || path.contains("rep:repoPolicy");
+        final String[] paths = cacheInvalidationPaths;
+        for (int i = 0; !flush && i < paths.length; i++) {
+            flush = path.equals(paths[i]) || path.startsWith(paths[i] + "/");
+        }
+
+        if (flush) {
+            log.debug("handleResourceEvent: Flushing resolver cache for {}",
+                path);
+            cache.clear();
+        }
+    }
+
     /** Try to acquire an anonymous ResourceResolver */
     private boolean getAnonymousResolver(final HttpServletRequest request,
             final HttpServletResponse response) {
@@ -812,16 +1013,13 @@ public class SlingAuthenticator implements Authenticator,
             pathInfo = "/";
         }
 
-        final List<AuthenticationRequirementHolder>[] holderListArray = authRequiredCache.findApplicableHolder(request);
+        final List<AuthenticationRequirementHolder>[] holderListArray = authRequiredCache.findApplicableHolders(request, pathInfo);
         for(int m = 0; m < holderListArray.length; m++) {
             final List<AuthenticationRequirementHolder> holderList = holderListArray[m];
-            if ( holderList != null ) {
-                for (int i = 0; i < holderList.size(); i++) {
-                    final AuthenticationRequirementHolder holder = holderList.get(i);
-                    if (pathInfo.startsWith(holder.path)) {
-                        return !holder.requiresAuthentication();
-                    }
-                }
+            if ( holderList != null && !holderList.isEmpty() ) {
+                // the first holder has the longest matching path
+                final AuthenticationRequirementHolder holder = holderList.get(0);
+                return !holder.requiresAuthentication();
             }
         }
 
@@ -1462,6 +1660,19 @@ public class SlingAuthenticator implements Authenticator,
         }
     }
 
+    private static class ResolverCacheInvalidator implements EventHandler {
+
+        private final SlingAuthenticator authenticator;
+
+        ResolverCacheInvalidator(final SlingAuthenticator authenticator) {
+            this.authenticator = authenticator;
+        }
+
+        public void handleEvent(final Event event) {
+            authenticator.handleResourceEvent(event);
+        }
+    }
+
     private static class AuthenticationHandlerTracker extends ServiceTracker {
 
         private final PathBasedHolderCache<AbstractAuthenticationHandlerHolder> authHandlerCache;
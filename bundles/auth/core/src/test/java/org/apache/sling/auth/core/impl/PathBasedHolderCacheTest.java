@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.auth.core.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PathBasedHolderCacheTest extends TestCase {
+
+    private static final String[] HOLDERS = { "/", "/content", "/content/",
+        "/content/a", "/content/ab", "/content/a/b", "/con", "/apps",
+        "-/libs", "http:///content/a", "//localhost/content",
+        "http://localhost/content/a/b", "https:///" };
+
+    private static final String[] PATHS = { "/", "", "/content",
+        "/content/", "/content/a", "/content/abc", "/content/a/b/c",
+        "/contentx", "/apps/x", "/libs", "/other", "/c" };
+
+    private PathBasedHolderCache<AuthenticationRequirementHolder> cache;
+
+    private List<AuthenticationRequirementHolder> holders;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new PathBasedHolderCache<AuthenticationRequirementHolder>();
+        holders = new ArrayList<AuthenticationRequirementHolder>();
+        for (final String config : HOLDERS) {
+            final AuthenticationRequirementHolder holder = AuthenticationRequirementHolder.fromConfig(
+                config, null);
+            holders.add(holder);
+            cache.addHolder(holder);
+        }
+    }
+
+    public void test_findApplicableHolders() {
+        for (final String path : PATHS) {
+            check("http", "localhost", path);
+            check("https", "localhost", path);
+            check("http", "otherhost", path);
+        }
+    }
+
+    public void test_longestPathFirst() {
+        final List<AuthenticationRequirementHolder>[] result = cache.findApplicableHolders(
+            "ftp", "otherhost", "/content/abc");
+        final List<AuthenticationRequirementHolder> list = result[3];
+        assertEquals(6, list.size());
+        assertEquals("/content/ab", list.get(0).path);
+        assertEquals("/content/a", list.get(1).path);
+        assertEquals("/content/", list.get(2).path);
+        assertEquals("/content", list.get(3).path);
+        assertEquals("/con", list.get(4).path);
+        assertEquals("/", list.get(5).path);
+    }
+
+    public void test_removeHolder() {
+        for (final AuthenticationRequirementHolder holder : holders) {
+            cache.removeHolder(holder);
+        }
+        assertTrue(cache.getHolders().isEmpty());
+        final List<AuthenticationRequirementHolder>[] result = cache.findApplicableHolders(
+            "http", "localhost", "/content");
+        for (final List<AuthenticationRequirementHolder> list : result) {
+            assertNull(list);
+        }
+    }
+
+    public void test_getHolders() {
+        assertEquals(holders.size(), cache.getHolders().size());
+    }
+
+    private void check(final String scheme, final String host,
+            final String path) {
+        final List<AuthenticationRequirementHolder>[] result = cache.findApplicableHolders(
+            scheme, host, path);
+        final String[][] keys = { { scheme, host }, { scheme, "" },
+            { "", host }, { "", "" } };
+        for (int i = 0; i < keys.length; i++) {
+            final List<String> expected = new ArrayList<String>();
+            for (final AuthenticationRequirementHolder holder : holders) {
+                if (holder.protocol.equals(keys[i][0])
+                    && holder.host.equals(keys[i][1])
+                    && path.startsWith(holder.path)) {
+                    expected.add(holder.path);
+                }
+            }
+            final List<String> actual = new ArrayList<String>();
+            if (result[i] != null) {
+                for (final AuthenticationRequirementHolder holder : result[i]) {
+                    actual.add(holder.path);
+                }
+            }
+            Collections.sort(expected);
+            Collections.reverse(expected);
+            assertEquals(scheme + "://" + host + path + " [" + i + "]",
+                expected, actual);
+        }
+    }
+}
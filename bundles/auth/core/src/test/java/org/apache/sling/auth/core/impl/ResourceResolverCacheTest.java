@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.auth.core.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.auth.core.spi.AuthenticationInfo;
+
+public class ResourceResolverCacheTest extends TestCase {
+
+    private static final long TTL = 300000L;
+
+    private static final long IDLE = 60000L;
+
+    private static final long VALIDATION = 30000L;
+
+    private long now;
+
+    private ResourceResolverCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        now = 1000L;
+        cache = new ResourceResolverCache(2, TTL, IDLE, VALIDATION) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    public void test_getKey() {
+        final String key = getKey("admin", "admin");
+        assertNotNull(key);
+        assertEquals(key, getKey("admin", "admin"));
+
+        // credential mismatch
+        assertFalse(key.equals(getKey("admin", "wrong")));
+        assertFalse(key.equals(getKey("other", "admin")));
+
+        // credentials objects cannot be used
+        final AuthenticationInfo authInfo = new AuthenticationInfo("BASIC",
+            "admin", "admin".toCharArray());
+        authInfo.put("user.jcr.credentials", new Object());
+        assertNull(ResourceResolverCache.getKey(authInfo));
+    }
+
+    public void test_miss() {
+        assertNull(cache.acquire(getKey("admin", "admin")));
+        assertEquals(0, cache.getHits());
+    }
+
+    public void test_hit() {
+        final String key = getKey("admin", "admin");
+        final MockResolver resolver = new MockResolver();
+        cache.add(key, resolver.proxy, 10L);
+        assertEquals(key, cache.getKey(resolver.proxy));
+
+        // used resolvers are not handed out
+        assertNull(cache.acquire(key));
+
+        assertTrue(cache.release(resolver.proxy));
+        assertFalse(resolver.closed);
+        assertEquals(1, cache.getSize());
+
+        now += 1000L;
+        assertSame(resolver.proxy, cache.acquire(key));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(10L, cache.getLoginTimeSaved());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void test_credential_mismatch() {
+        final MockResolver resolver = new MockResolver();
+        cache.add(getKey("admin", "admin"), resolver.proxy, 10L);
+        cache.release(resolver.proxy);
+
+        assertNull(cache.acquire(getKey("admin", "wrong")));
+        assertNull(cache.acquire(getKey("other", "admin")));
+        assertFalse(resolver.closed);
+    }
+
+    public void test_release_unknown() {
+        final MockResolver resolver = new MockResolver();
+        assertFalse(cache.release(resolver.proxy));
+        assertNull(cache.getKey(resolver.proxy));
+    }
+
+    public void test_idle_expiry() {
+        final String key = getKey("admin", "admin");
+        final MockResolver resolver = new MockResolver();
+        cache.add(key, resolver.proxy, 10L);
+        cache.release(resolver.proxy);
+
+        now += IDLE + 1;
+        assertNull(cache.acquire(key));
+        assertTrue(resolver.closed);
+        assertEquals(0, cache.getSize());
+    }
+
+    public void test_ttl_expiry() {
+        cache = new ResourceResolverCache(2, 5000L, IDLE, VALIDATION) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        final String key = getKey("admin", "admin");
+        final MockResolver resolver = new MockResolver();
+        cache.add(key, resolver.proxy, 10L);
+        cache.release(resolver.proxy);
+
+        now += 4000L;
+        assertSame(resolver.proxy, cache.acquire(key));
+        cache.release(resolver.proxy);
+        assertFalse(resolver.closed);
+
+        // used recently but created too long ago
+        now += 2000L;
+        assertNull(cache.acquire(key));
+        assertTrue(resolver.closed);
+    }
+
+    public void test_validation() {
+        final String key = getKey("admin", "admin");
+        final MockResolver resolver = new MockResolver();
+        cache.add(key, resolver.proxy, 10L);
+        cache.release(resolver.proxy);
+
+        // credentials must be validated again by a login
+        now += VALIDATION + 1;
+        assertNull(cache.acquire(key));
+        assertFalse(resolver.closed);
+
+        // successful login: the cached resolver is used again
+        final MockResolver fresh = new MockResolver();
+        cache.add(key, fresh.proxy, 10L);
+        assertSame(resolver.proxy, cache.acquire(key));
+
+        // failed login: the resolvers of the key are closed
+        cache.release(resolver.proxy);
+        cache.release(fresh.proxy);
+        now += VALIDATION + 1;
+        assertNull(cache.acquire(key));
+        cache.invalidate(key);
+        assertTrue(resolver.closed);
+        assertTrue(fresh.closed);
+        assertEquals(0, cache.getSize());
+    }
+
+    public void test_invalidate() {
+        final String key = getKey("admin", "admin");
+        final MockResolver idle = new MockResolver();
+        final MockResolver used = new MockResolver();
+        cache.add(key, idle.proxy, 10L);
+        cache.add(key, used.proxy, 10L);
+        cache.release(idle.proxy);
+
+        cache.invalidate(key);
+        assertTrue(idle.closed);
+        assertFalse(used.closed);
+
+        // a used resolver is closed when released
+        assertTrue(cache.release(used.proxy));
+        assertTrue(used.closed);
+        assertNull(cache.acquire(key));
+    }
+
+    public void test_clear() {
+        final MockResolver admin = new MockResolver();
+        final MockResolver other = new MockResolver();
+        cache.add(getKey("admin", "admin"), admin.proxy, 10L);
+        cache.add(getKey("other", "other"), other.proxy, 10L);
+        cache.release(admin.proxy);
+
+        cache.clear();
+        assertTrue(admin.closed);
+        assertFalse(other.closed);
+        assertTrue(cache.release(other.proxy));
+        assertTrue(other.closed);
+        assertEquals(0, cache.getSize());
+    }
+
+    public void test_max_size() {
+        final MockResolver first = new MockResolver();
+        final MockResolver second = new MockResolver();
+        final MockResolver third = new MockResolver();
+        cache.add(getKey("first", "first"), first.proxy, 10L);
+        cache.add(getKey("second", "second"), second.proxy, 10L);
+        cache.add(getKey("third", "third"), third.proxy, 10L);
+        cache.release(first.proxy);
+        cache.release(second.proxy);
+        cache.release(third.proxy);
+
+        // the eldest idle resolver is closed
+        assertEquals(2, cache.getSize());
+        assertTrue(first.closed);
+        assertFalse(second.closed);
+        assertFalse(third.closed);
+    }
+
+    private String getKey(final String user, final String password) {
+        return ResourceResolverCache.getKey(new AuthenticationInfo("BASIC",
+            user, password.toCharArray()));
+    }
+
+    private static class MockResolver implements InvocationHandler {
+
+        final ResourceResolver proxy = (ResourceResolver) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { ResourceResolver.class },
+            this);
+
+        boolean closed;
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if ("close".equals(name)) {
+                closed = true;
+                return null;
+            } else if ("isLive".equals(name)) {
+                return !closed;
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            return null;
+        }
+    }
+}
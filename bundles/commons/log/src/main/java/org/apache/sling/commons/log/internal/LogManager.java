@@ -43,6 +43,12 @@ public class LogManager {
 
     public static final String LOG_FILE_SIZE = "org.apache.sling.commons.log.file.size";
 
+    public static final String LOG_FILE_BUFFER = "org.apache.sling.commons.log.file.buffer";
+
+    public static final String LOG_FILE_OVERFLOW = "org.apache.sling.commons.log.file.overflow";
+
+    public static final String LOG_FILE_OVERFLOW_LEVEL = "org.apache.sling.commons.log.file.overflow.level";
+
     public static final String LOG_PATTERN = "org.apache.sling.commons.log.pattern";
 
     public static final String LOG_PATTERN_DEFAULT = "{0,date,dd.MM.yyyy HH:mm:ss.SSS} *{4}* [{2}] {3} {5}";
@@ -55,6 +61,12 @@ public class LogManager {
 
     public static final String LOG_FILE_SIZE_DEFAULT = "'.'yyyy-MM-dd";
 
+    public static final int LOG_FILE_BUFFER_DEFAULT = 0;
+
+    public static final String LOG_FILE_OVERFLOW_DEFAULT = "block";
+
+    public static final String LOG_FILE_OVERFLOW_LEVEL_DEFAULT = "WARN";
+
     public static final String PID = "org.apache.sling.commons.log.LogManager";
 
     public static final String FACTORY_PID_WRITERS = PID + ".factory.writer";
@@ -164,7 +176,8 @@ public class LogManager {
         Dictionary<String, String> config = new Hashtable<String, String>();
 
         final String[] props = { LOG_LEVEL, LOG_LEVEL, LOG_FILE,
-            LOG_FILE_NUMBER, LOG_FILE_SIZE, LOG_PATTERN };
+            LOG_FILE_NUMBER, LOG_FILE_SIZE, LOG_FILE_BUFFER, LOG_FILE_OVERFLOW,
+            LOG_FILE_OVERFLOW_LEVEL, LOG_PATTERN };
         for (String prop : props) {
             String value = bundleContext.getProperty(prop);
             if (value != null) {
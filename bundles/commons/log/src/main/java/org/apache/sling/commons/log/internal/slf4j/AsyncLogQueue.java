@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.log.internal.slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The <code>AsyncLogQueue</code> decouples the threads logging messages from
+ * the file I/O of a {@link SlingLoggerWriter}. Messages are put into a bounded
+ * lock-free ring buffer and written by a single writer thread, which flushes
+ * the writer once for all messages taken from the buffer in one go.
+ * <p>
+ * If the buffer is full, the configured {@link OverflowPolicy} decides
+ * whether the logging thread waits for free space or whether the message is
+ * dropped. Dropped messages are counted.
+ */
+class AsyncLogQueue implements Runnable {
+
+    /**
+     * The policy applied when a message is logged while the buffer is full.
+     */
+    enum OverflowPolicy {
+        /** Wait until the writer thread has freed space in the buffer */
+        BLOCK,
+        /** Drop the message */
+        DROP,
+        /**
+         * Drop the message if its level is below the overflow level,
+         * otherwise wait like {@link #BLOCK}
+         */
+        DROP_BELOW_LEVEL;
+
+        /**
+         * Returns the policy for the given name ignoring case and dashes,
+         * e.g. <code>drop-below-level</code>, or <code>null</code> if the
+         * name is not a valid policy name.
+         */
+        static OverflowPolicy fromName(String name) {
+            if (name != null) {
+                final String normalized = name.trim().replace('-', '_');
+                for (OverflowPolicy policy : values()) {
+                    if (policy.name().equalsIgnoreCase(normalized)) {
+                        return policy;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /** The time in nanoseconds the writer thread waits for new messages */
+    private static final long IDLE_WAIT = 100L * 1000 * 1000;
+
+    /** The time in nanoseconds a blocked logging thread waits for space */
+    private static final long BLOCK_WAIT = 1000L * 1000;
+
+    /** The time in milliseconds to wait for the writer thread on close */
+    private static final long CLOSE_WAIT = 5000;
+
+    private final SlingLoggerWriter writer;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final SlingLoggerLevel overflowLevel;
+
+    /** The messages of the ring buffer */
+    private final AtomicReferenceArray<Message> messages;
+
+    /**
+     * The sequence of each slot of the ring buffer: A slot may be written
+     * for position <code>p</code> if its sequence is <code>p</code> and read
+     * if its sequence is <code>p + 1</code>.
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /** The next position to write to, claimed by the logging threads */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** The next position to read from, only advanced by the writer thread */
+    private volatile long head;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /** Whether the writer thread is waiting for new messages */
+    private volatile boolean idle;
+
+    AsyncLogQueue(SlingLoggerWriter writer, int capacity,
+            OverflowPolicy overflowPolicy, SlingLoggerLevel overflowLevel) {
+        this.writer = writer;
+        this.overflowPolicy = overflowPolicy;
+        this.overflowLevel = overflowLevel;
+
+        // round the capacity up to a power of two
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.messages = new AtomicReferenceArray<Message>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+
+        final String name = writer.getPath();
+        this.thread = new Thread(this, "Apache Sling Log Writer "
+            + ((name != null) ? name : "[stdout]"));
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    SlingLoggerLevel getOverflowLevel() {
+        return overflowLevel;
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of messages waiting to be written.
+     */
+    int getQueueDepth() {
+        final long depth = tail.get() - head;
+        return (int) Math.max(0, Math.min(depth, getCapacity()));
+    }
+
+    /**
+     * Returns the number of messages dropped because the buffer was full.
+     */
+    long getDroppedMessages() {
+        return dropped.get();
+    }
+
+    /**
+     * Queues the message for writing.
+     */
+    void printMessage(String message, boolean needsEOL, SlingLoggerLevel level) {
+        final Message msg = new Message(message, needsEOL);
+        while (!offer(msg)) {
+            if (!running || overflowPolicy == OverflowPolicy.DROP
+                || (overflowPolicy == OverflowPolicy.DROP_BELOW_LEVEL && level.compareTo(overflowLevel) < 0)) {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            // wake the writer and wait for free space
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(BLOCK_WAIT);
+        }
+
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stops the writer thread after all queued messages have been written.
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(CLOSE_WAIT);
+            } catch (InterruptedException ie) {
+                // don't care
+            }
+        }
+    }
+
+    /**
+     * The writer thread: writes all queued messages and flushes the writer
+     * when the buffer has been emptied.
+     */
+    public void run() {
+        while (running || getQueueDepth() > 0) {
+            if (!writeQueued()) {
+                idle = true;
+                // recheck to not miss a message queued before idle was set
+                if (running && getQueueDepth() == 0) {
+                    LockSupport.parkNanos(IDLE_WAIT);
+                }
+                idle = false;
+            }
+        }
+    }
+
+    /**
+     * Writes the queued messages and flushes the writer once.
+     *
+     * @return <code>true</code> if any message has been written
+     */
+    private boolean writeQueued() {
+        Message msg = poll();
+        if (msg == null) {
+            return false;
+        }
+
+        try {
+            while (msg != null) {
+                writer.writeMessage(msg.message, msg.needsEOL);
+                msg = poll();
+            }
+        } catch (IOException ioe) {
+            LogConfigManager.internalFailure("Failed logging message", ioe);
+        }
+
+        try {
+            writer.flush();
+        } catch (IOException ioe) {
+            LogConfigManager.internalFailure("Failed flushing log messages", ioe);
+        }
+        return true;
+    }
+
+    private boolean offer(Message msg) {
+        while (true) {
+            final long pos = tail.get();
+            final int index = (int) (pos & mask);
+            final long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    messages.set(index, msg);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // the slot has not been read yet: the buffer is full
+                return false;
+            }
+            // otherwise another thread claimed the position, try again
+        }
+    }
+
+    private Message poll() {
+        final long pos = head;
+        final int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        final Message msg = messages.get(index);
+        messages.set(index, null);
+        sequences.set(index, pos + mask + 1);
+        head = pos + 1;
+        return msg;
+    }
+
+    private static final class Message {
+
+        final String message;
+
+        final boolean needsEOL;
+
+        Message(String message, boolean needsEOL) {
+            this.message = message;
+            this.needsEOL = needsEOL;
+        }
+    }
+}
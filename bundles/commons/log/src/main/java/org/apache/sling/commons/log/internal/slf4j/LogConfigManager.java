@@ -299,6 +299,16 @@ public class LogConfigManager implements ILoggerFactory {
      * cannot be converted to a number, the default value
      * {@link LogManager#LOG_FILE_NUMBER_DEFAULT} is assumed. If the writer
      * writes standard output this property is ignored.</dd>
+     * <dt>{@link LogManager#LOG_FILE_BUFFER}</dt>
+     * <dd>The maximum number of messages buffered for writing by a background
+     * thread. If this property is missing or not a positive number, messages
+     * are written synchronously by the logging threads, which is the default.</dd>
+     * <dt>{@link LogManager#LOG_FILE_OVERFLOW}</dt>
+     * <dd>What to do if a message is logged while the buffer is full:
+     * <code>block</code> waits for free space, <code>drop</code> drops the
+     * message and <code>drop-below-level</code> drops messages below the
+     * {@link LogManager#LOG_FILE_OVERFLOW_LEVEL} and waits for the others. The
+     * default is {@link LogManager#LOG_FILE_OVERFLOW_DEFAULT}.</dd>
      * </dl>
      *
      * @param pid The identifier of the log writer to update or remove
@@ -369,10 +379,44 @@ public class LogConfigManager implements ILoggerFactory {
                 fileSize = fileSizeProp.toString();
             }
 
-            if (configureLogWriter(slw, pid, logFileName, fileNum, fileSize) == null) {
+            // get the asynchronous writing setup
+            Object bufferProp = configuration.get(LogManager.LOG_FILE_BUFFER);
+            int bufferSize = LogManager.LOG_FILE_BUFFER_DEFAULT;
+            if (bufferProp instanceof Number) {
+                bufferSize = ((Number) bufferProp).intValue();
+            } else if (bufferProp != null) {
+                try {
+                    bufferSize = Integer.parseInt(bufferProp.toString());
+                } catch (NumberFormatException nfe) {
+                    // don't care
+                }
+            }
+
+            Object overflowProp = configuration.get(LogManager.LOG_FILE_OVERFLOW);
+            final AsyncLogQueue.OverflowPolicy overflowPolicy = AsyncLogQueue.OverflowPolicy.fromName(
+                (overflowProp == null) ? LogManager.LOG_FILE_OVERFLOW_DEFAULT : overflowProp.toString());
+            if (overflowPolicy == null) {
+                throw new ConfigurationException(LogManager.LOG_FILE_OVERFLOW,
+                    "Unsupported overflow policy " + overflowProp);
+            }
+
+            Object overflowLevelProp = configuration.get(LogManager.LOG_FILE_OVERFLOW_LEVEL);
+            final SlingLoggerLevel overflowLevel;
+            try {
+                overflowLevel = SlingLoggerLevel.valueOf(((overflowLevelProp == null)
+                        ? LogManager.LOG_FILE_OVERFLOW_LEVEL_DEFAULT
+                        : overflowLevelProp.toString()).toUpperCase());
+            } catch (IllegalArgumentException iae) {
+                throw new ConfigurationException(LogManager.LOG_FILE_OVERFLOW_LEVEL,
+                    "Unsupported log level " + overflowLevelProp);
+            }
+
+            slw = configureLogWriter(slw, pid, logFileName, fileNum, fileSize);
+            if (slw == null) {
                 throw new ConfigurationException(LogManager.LOG_FILE,
                     "Cannot create writer for log file " + logFileName);
             }
+            slw.configureAsync(bufferSize, overflowPolicy, overflowLevel);
 
         } else {
 
@@ -774,6 +818,8 @@ public class LogConfigManager implements ILoggerFactory {
                         logWriter.configure(logWriter.getPath(),
                             LogManager.LOG_FILE_NUMBER_DEFAULT,
                             LogManager.LOG_FILE_SIZE_DEFAULT);
+                        logWriter.configureAsync(
+                            LogManager.LOG_FILE_BUFFER_DEFAULT, null, null);
                     } catch (IOException ioe) {
                         internalFailure(
                             "Cannot reset the log writer to default configuration",
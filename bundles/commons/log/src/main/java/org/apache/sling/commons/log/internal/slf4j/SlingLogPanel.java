@@ -133,6 +133,7 @@ public class SlingLogPanel extends HttpServlet {
         pw.println("<tr>");
         pw.println("<th>Log File</th>");
         pw.println("<th>Rotator</th>");
+        pw.println("<th>Buffered / Dropped Messages</th>");
         pw.println("<th>" + cfgColTitle + "</th>");
         pw.println("</tr>");
         pw.println("</thead>");
@@ -144,6 +145,12 @@ public class SlingLogPanel extends HttpServlet {
             pw.println("<tr>");
             pw.println("<td>" + getPath(writer) + "</td>");
             pw.println("<td>" + writer.getFileRotator() + "</td>");
+            if (writer.isAsync()) {
+                pw.println("<td>" + writer.getQueueDepth() + " / "
+                    + writer.getDroppedMessages() + "</td>");
+            } else {
+                pw.println("<td>-</td>");
+            }
             pw.println("<td>" + formatPid(consoleAppRoot, writer.getConfigurationPID())
                 + "</td>");
             pw.println("</tr>");
@@ -84,7 +84,7 @@ class SlingLogger implements LocationAwareLogger {
 
         // use a local copy because the field may be exchanged while we are
         // trying to use it
-        config.printMessage(writer.toString(), needsEOL);
+        config.printMessage(writer.toString(), needsEOL, level);
     }
 
     // ---------- Logger interface ---------------------------------------------
@@ -18,7 +18,6 @@
  */
 package org.apache.sling.commons.log.internal.slf4j;
 
-import java.io.IOException;
 import java.text.FieldPosition;
 import java.text.MessageFormat;
 import java.util.Date;
@@ -102,31 +101,11 @@ class SlingLoggerConfig {
         }
     }
 
-    void printMessage(String message, boolean needsEOL) {
+    void printMessage(String message, boolean needsEOL, SlingLoggerLevel level) {
         // use a local copy because the field may be exchanged while we are
         // trying to use it
         SlingLoggerWriter myOutput = writer;
-        synchronized (myOutput) {
-            try {
-
-                // check whether we have to rotate the log file before
-                // writing to it
-                myOutput.checkRotate();
-
-                myOutput.write(message);
-
-                // write line termination or flush, whatever is needed
-                if (needsEOL) {
-                    myOutput.writeln();
-                } else {
-                    myOutput.flush();
-                }
-
-            } catch (IOException ioe) {
-                LogConfigManager.internalFailure("Failed logging message: "
-                    + message, ioe);
-            }
-        }
+        myOutput.printMessage(message, needsEOL, level);
     }
 
 }
@@ -91,6 +91,12 @@ class SlingLoggerWriter extends Writer {
 	 */
     private FileRotator fileRotator;
 
+    /**
+     * The queue decoupling the logging threads from writing the messages or
+     * <code>null</code> if messages are written synchronously.
+     */
+    private volatile AsyncLogQueue asyncQueue;
+
     /**
      * Creates a new instance of this class to be configured from the given
      * <code>configurationPID</code>. This new instance is not ready until
@@ -122,7 +128,7 @@ class SlingLoggerWriter extends Writer {
             if (logFileName == null || !logFileName.equals(path)) {
 
                 // close the current file
-                close();
+                closeDelegatee();
 
                 if (logFileName == null) {
 
@@ -163,6 +169,44 @@ class SlingLoggerWriter extends Writer {
         }
     }
 
+    /**
+     * (Re)configures whether this instance writes messages asynchronously.
+     * Messages queued with the previous settings are written before the new
+     * settings apply.
+     *
+     * @param bufferSize The maximum number of messages waiting to be written.
+     *            If this is zero or negative, messages are written
+     *            synchronously by the logging thread.
+     * @param overflowPolicy The policy applied if a message is logged while
+     *            the buffer is full.
+     * @param overflowLevel The level below which messages are dropped if the
+     *            buffer is full and the overflow policy is
+     *            {@link AsyncLogQueue.OverflowPolicy#DROP_BELOW_LEVEL}.
+     */
+    void configureAsync(int bufferSize,
+            AsyncLogQueue.OverflowPolicy overflowPolicy,
+            SlingLoggerLevel overflowLevel) {
+        synchronized (this) {
+            final AsyncLogQueue oldQueue = asyncQueue;
+            if (oldQueue == null && bufferSize <= 0) {
+                return;
+            }
+            if (oldQueue != null && bufferSize > 0
+                && oldQueue.getCapacity() >= bufferSize
+                && oldQueue.getOverflowPolicy() == overflowPolicy
+                && oldQueue.getOverflowLevel() == overflowLevel) {
+                // unchanged
+                return;
+            }
+
+            asyncQueue = (bufferSize > 0) ? new AsyncLogQueue(this,
+                bufferSize, overflowPolicy, overflowLevel) : null;
+            if (oldQueue != null) {
+                oldQueue.close();
+            }
+        }
+    }
+
     /**
      * Returns the PID of the configuration configuring this instance. This may
      * be <code>null</code> if this is an implicitly defined log writer
@@ -193,10 +237,105 @@ class SlingLoggerWriter extends Writer {
         return file;
     }
 
+    boolean isAsync() {
+        return asyncQueue != null;
+    }
+
+    /**
+     * Returns the number of messages waiting to be written asynchronously.
+     */
+    int getQueueDepth() {
+        final AsyncLogQueue queue = asyncQueue;
+        return (queue == null) ? 0 : queue.getQueueDepth();
+    }
+
+    /**
+     * Returns the number of messages dropped because the asynchronous buffer
+     * was full.
+     */
+    long getDroppedMessages() {
+        final AsyncLogQueue queue = asyncQueue;
+        return (queue == null) ? 0 : queue.getDroppedMessages();
+    }
+
+    // ---------- Message writing ----------------------------------------------
+
+    /**
+     * Writes the log message. If this instance is configured to write
+     * asynchronously, the message is queued for the writer thread. Otherwise
+     * the message is written and the writer flushed immediately.
+     *
+     * @param message The formatted message
+     * @param needsEOL Whether a line separator is to be written after the
+     *            message
+     * @param level The level of the message
+     */
+    void printMessage(String message, boolean needsEOL, SlingLoggerLevel level) {
+        final AsyncLogQueue queue = asyncQueue;
+        if (queue != null) {
+            queue.printMessage(message, needsEOL, level);
+            return;
+        }
+
+        synchronized (lock) {
+            try {
+
+                // check whether we have to rotate the log file before
+                // writing to it
+                checkRotate();
+
+                write(message);
+
+                // write line termination or flush, whatever is needed
+                if (needsEOL) {
+                    writeln();
+                } else {
+                    flush();
+                }
+
+            } catch (IOException ioe) {
+                LogConfigManager.internalFailure("Failed logging message: "
+                    + message, ioe);
+            }
+        }
+    }
+
+    /**
+     * Writes the log message without flushing. This is used by the writer
+     * thread of the {@link AsyncLogQueue} which flushes once for a series of
+     * messages.
+     */
+    void writeMessage(String message, boolean needsEOL) throws IOException {
+        synchronized (lock) {
+            // check whether we have to rotate the log file before writing
+            checkRotate();
+
+            write(message);
+            if (needsEOL) {
+                write(LINE_SEPARATOR);
+            }
+        }
+    }
+
     // ---------- Writer Overwrite ---------------------------------------------
 
     @Override
     public void close() throws IOException {
+        // write queued messages first (outside of the lock, the writer
+        // thread needs it)
+        final AsyncLogQueue queue;
+        synchronized (this) {
+            queue = asyncQueue;
+            asyncQueue = null;
+        }
+        if (queue != null) {
+            queue.close();
+        }
+
+        closeDelegatee();
+    }
+
+    private void closeDelegatee() throws IOException {
         synchronized (lock) {
             if (delegatee != null) {
                 flush();
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.log.internal.slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class AsyncLogQueueTest extends AbstractSlingLogTest {
+
+    public void test_overflow_policy_names() {
+        assertEquals(AsyncLogQueue.OverflowPolicy.BLOCK,
+            AsyncLogQueue.OverflowPolicy.fromName("block"));
+        assertEquals(AsyncLogQueue.OverflowPolicy.DROP,
+            AsyncLogQueue.OverflowPolicy.fromName("DROP"));
+        assertEquals(AsyncLogQueue.OverflowPolicy.DROP_BELOW_LEVEL,
+            AsyncLogQueue.OverflowPolicy.fromName("drop-below-level"));
+        assertNull(AsyncLogQueue.OverflowPolicy.fromName("ignore"));
+        assertNull(AsyncLogQueue.OverflowPolicy.fromName(null));
+    }
+
+    public void test_async_write() throws IOException {
+        final File file = getBaseFile();
+        final SlingLoggerWriter slw = new SlingLoggerWriter(getClass().getName());
+        slw.configure(file.getAbsolutePath(), -1, "1GB");
+        slw.configureAsync(16, AsyncLogQueue.OverflowPolicy.BLOCK,
+            SlingLoggerLevel.WARN);
+        assertTrue(slw.isAsync());
+
+        for (int i = 0; i < 1000; i++) {
+            slw.printMessage("message " + i, true, SlingLoggerLevel.INFO);
+        }
+        slw.close();
+
+        final List<String> lines = readLines(file);
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("message " + i, lines.get(i));
+        }
+        assertEquals(0, slw.getDroppedMessages());
+    }
+
+    public void test_async_rotation() throws IOException {
+        final File file = getBaseFile();
+        final SlingLoggerWriter slw = new SlingLoggerWriter(getClass().getName());
+        slw.configure(file.getAbsolutePath(), 2, "100");
+        slw.configureAsync(16, AsyncLogQueue.OverflowPolicy.BLOCK,
+            SlingLoggerLevel.WARN);
+
+        for (int i = 0; i < 100; i++) {
+            slw.printMessage("message " + i, true, SlingLoggerLevel.INFO);
+        }
+        slw.close();
+
+        assertTrue(new File(file.getAbsolutePath() + ".0").exists());
+        assertTrue(file.length() <= 100 + 20);
+    }
+
+    public void test_async_drop() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final SlingLoggerWriter slw = createBlockedWriter(release, writing);
+        slw.configureAsync(4, AsyncLogQueue.OverflowPolicy.DROP,
+            SlingLoggerLevel.WARN);
+
+        // the writer thread blocks writing the first message
+        slw.printMessage("first", true, SlingLoggerLevel.ERROR);
+        writing.await();
+
+        for (int i = 0; i < 10; i++) {
+            slw.printMessage("message " + i, true, SlingLoggerLevel.ERROR);
+        }
+        assertEquals(6, slw.getDroppedMessages());
+        assertEquals(4, slw.getQueueDepth());
+
+        release.countDown();
+        slw.close();
+    }
+
+    public void test_async_drop_below_level() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final File file = getBaseFile();
+        final SlingLoggerWriter slw = createBlockedWriter(release, writing);
+        slw.configure(file.getAbsolutePath(), -1, "1GB");
+        slw.configureAsync(4, AsyncLogQueue.OverflowPolicy.DROP_BELOW_LEVEL,
+            SlingLoggerLevel.WARN);
+
+        // the writer thread blocks writing the first message
+        slw.printMessage("first", true, SlingLoggerLevel.DEBUG);
+        writing.await();
+
+        for (int i = 0; i < 10; i++) {
+            slw.printMessage("debug " + i, true, SlingLoggerLevel.DEBUG);
+        }
+        assertEquals(6, slw.getDroppedMessages());
+
+        // an error message waits for free space
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                slw.printMessage("error", true, SlingLoggerLevel.ERROR);
+            }
+        };
+        t.start();
+        t.join(200);
+        assertTrue(t.isAlive());
+
+        release.countDown();
+        t.join();
+        slw.close();
+
+        final List<String> lines = readLines(file);
+        assertEquals(6, lines.size());
+        assertEquals("first", lines.get(0));
+        assertEquals("error", lines.get(lines.size() - 1));
+    }
+
+    private SlingLoggerWriter createBlockedWriter(final CountDownLatch release,
+            final CountDownLatch writing) throws IOException {
+        final SlingLoggerWriter slw = new SlingLoggerWriter(getClass().getName()) {
+            @Override
+            void writeMessage(String message, boolean needsEOL)
+                    throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    // ignore
+                }
+                super.writeMessage(message, needsEOL);
+            }
+        };
+        slw.configure(getBase(), -1, "1GB");
+        return slw;
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
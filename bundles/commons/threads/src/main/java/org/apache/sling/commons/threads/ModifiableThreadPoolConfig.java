@@ -33,9 +33,30 @@ import java.util.concurrent.ThreadFactory;
  * - priority: NORM
  * - daemon: false
  * - factory: null (= default jvm thread factory)
+ * - mode: FIXED
  */
 public final class ModifiableThreadPoolConfig implements ThreadPoolConfig {
 
+    /**
+     * The thread pool modes.
+     * @since 3.2
+     */
+    public enum ThreadPoolMode {
+        /**
+         * Tasks are queued as soon as the min pool size threads are
+         * running. Threads up to the max pool size are only started
+         * if the queue is full.
+         */
+        FIXED,
+        /**
+         * Threads are started up to the max pool size before tasks are
+         * queued. Threads above the min pool size are stopped again after
+         * the keep alive time. The max pool size limits the number of
+         * concurrently running tasks.
+         */
+        ELASTIC
+    };
+
     /** Configuration property for the min pool size. */
     public static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     /** Configuration property for the max pool size. */
@@ -56,6 +77,8 @@ public final class ModifiableThreadPoolConfig implements ThreadPoolConfig {
     public static final String PROPERTY_DAEMON = "daemon";
     /** Configuration property for the thread pool name. */
     public static final String PROPERTY_NAME = "name";
+    /** Configuration property for the mode. */
+    public static final String PROPERTY_MODE = "mode";
 
     /** The min pool size. */
     private int minPoolSize = 5;
@@ -87,6 +110,9 @@ public final class ModifiableThreadPoolConfig implements ThreadPoolConfig {
     /** Create daemon threads? */
     private  boolean isDaemon = false;
 
+    /** The pool mode. Default is FIXED. */
+    private ThreadPoolMode mode = ThreadPoolMode.FIXED;
+
     /**
      * Create a new default configuration.
      */
@@ -110,6 +136,9 @@ public final class ModifiableThreadPoolConfig implements ThreadPoolConfig {
             this.factory = copy.getFactory();
             this.priority = copy.getPriority();
             this.isDaemon = copy.isDaemon();
+            if ( copy instanceof ModifiableThreadPoolConfig ) {
+                this.mode = ((ModifiableThreadPoolConfig)copy).getMode();
+            }
         }
     }
 
@@ -272,6 +301,27 @@ public final class ModifiableThreadPoolConfig implements ThreadPoolConfig {
         this.isDaemon = isDaemon;
     }
 
+    /**
+     * Return the mode of the pool.
+     * @return The mode of the pool.
+     * @since 3.2
+     */
+    public ThreadPoolMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Set the pool mode.
+     * @param mode The pool mode.
+     * @throws IllegalArgumentException If mode is null.
+     */
+    public void setMode(final ThreadPoolMode mode) {
+        if ( mode == null ) {
+            throw new IllegalArgumentException("Mode must not be null.");
+        }
+        this.mode = mode;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if ( obj instanceof ModifiableThreadPoolConfig ) {
@@ -284,7 +334,8 @@ public final class ModifiableThreadPoolConfig implements ThreadPoolConfig {
                 && this.shutdownGraceful == o.shutdownGraceful
                 && this.shutdownWaitTimeMs == o.shutdownWaitTimeMs
                 && this.priority.equals(o.priority)
-                && this.isDaemon == o.isDaemon;
+                && this.isDaemon == o.isDaemon
+                && this.mode.equals(o.mode);
         }
         return false;
     }
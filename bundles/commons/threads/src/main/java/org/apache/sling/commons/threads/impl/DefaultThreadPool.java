@@ -24,8 +24,11 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig.ThreadPoolMode;
 import org.apache.sling.commons.threads.ThreadPool;
 import org.apache.sling.commons.threads.ThreadPoolConfig;
 import org.apache.sling.commons.threads.ThreadPoolManager;
@@ -51,6 +54,21 @@ public class DefaultThreadPool
 
     protected final ModifiableThreadPoolConfig configuration;
 
+    /** The queue of the executor in elastic mode. */
+    private final ElasticTaskQueue elasticQueue;
+
+    /** The number of rejected tasks. */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** The largest number of queued tasks. */
+    private final AtomicInteger peakQueueSize = new AtomicInteger();
+
+    /** The time tasks wait in the queue. */
+    private final TimeHistogram waitTime = new TimeHistogram();
+
+    /** The time it takes to run the tasks. */
+    private final TimeHistogram runTime = new TimeHistogram();
+
     /**
      * Create a new thread pool.
      * @param name - The name of the thread pool. If null {@link DefaultThreadPoolManager#DEFAULT_THREADPOOL_NAME}
@@ -99,13 +117,22 @@ public class DefaultThreadPool
 
         // Queue
         final BlockingQueue<Runnable> queue;
-        if (this.configuration.getQueueSize() != 0) {
+        if (this.configuration.getMode() == ThreadPoolMode.ELASTIC && this.configuration.getQueueSize() != 0) {
+            this.elasticQueue = new ElasticTaskQueue(this.configuration.getQueueSize() > 0
+                    ? this.configuration.getQueueSize() : Integer.MAX_VALUE);
+            queue = this.elasticQueue;
+        } else if (this.configuration.getQueueSize() != 0) {
+            this.elasticQueue = null;
             if (this.configuration.getQueueSize() > 0) {
                 queue = new java.util.concurrent.ArrayBlockingQueue<Runnable>(this.configuration.getQueueSize());
             } else {
                 queue = new LinkedBlockingQueue<Runnable>();
             }
         } else {
+            if (this.configuration.getMode() == ThreadPoolMode.ELASTIC) {
+                this.logger.warn("queue-size = 0 for elastic pool \"" + this.name + "\". Tasks are handed off to threads directly.");
+            }
+            this.elasticQueue = null;
             queue = new SynchronousQueue<Runnable>();
         }
 
@@ -130,7 +157,18 @@ public class DefaultThreadPool
                 TimeUnit.MILLISECONDS,
                 queue,
                 threadFactory,
-                handler);
+                new CountingRejectedExecutionHandler(handler)) {
+
+            @Override
+            protected void afterExecute(final Runnable r, final Throwable t) {
+                if ( elasticQueue != null ) {
+                    elasticQueue.taskFinished();
+                }
+            }
+        };
+        if ( this.elasticQueue != null ) {
+            this.elasticQueue.setExecutor(this.executor);
+        }
         this.logger.info("Thread pool [{}] initialized.", name);
     }
 
@@ -149,6 +187,13 @@ public class DefaultThreadPool
         return this.configuration;
     }
 
+    /**
+     * Return the mode of this pool.
+     */
+    public ThreadPoolMode getMode() {
+        return this.configuration.getMode();
+    }
+
     /**
      * @see org.apache.sling.commons.threads.ThreadPool#execute(java.lang.Runnable)
      */
@@ -167,7 +212,16 @@ public class DefaultThreadPool
                                       this.executor.getQueue().size()});
             }
 
-        	this.executor.execute(runnable);
+            if ( this.elasticQueue != null ) {
+                this.elasticQueue.taskSubmitted();
+            }
+        	this.executor.execute(new TimedTask(runnable));
+
+            final int queueSize = this.executor.getQueue().size();
+            int peak = this.peakQueueSize.get();
+            while ( queueSize > peak && !this.peakQueueSize.compareAndSet(peak, queueSize) ) {
+                peak = this.peakQueueSize.get();
+            }
         }
     }
 
@@ -203,4 +257,90 @@ public class DefaultThreadPool
     public ThreadPoolExecutor getExecutor() {
         return this.executor;
     }
+
+    /**
+     * Return the number of tasks rejected because the pool and its
+     * queue were full or the pool has been shut down.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Return the largest number of tasks waiting in the queue.
+     */
+    public int getPeakQueueSize() {
+        return this.peakQueueSize.get();
+    }
+
+    /**
+     * Return the histogram of the time in microseconds tasks wait
+     * in the queue before they are run.
+     */
+    TimeHistogram getWaitTime() {
+        return this.waitTime;
+    }
+
+    /**
+     * Return the histogram of the time in microseconds it takes
+     * to run the tasks.
+     */
+    TimeHistogram getRunTime() {
+        return this.runTime;
+    }
+
+    /**
+     * Wrapper for the executed tasks recording the wait and run time.
+     */
+    private final class TimedTask implements Runnable {
+
+        private final Runnable task;
+
+        private final long submitted = System.nanoTime();
+
+        public TimedTask(final Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            final long started = System.nanoTime();
+            waitTime.record((started - this.submitted) / 1000);
+            try {
+                this.task.run();
+            } finally {
+                runTime.record((System.nanoTime() - started) / 1000);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.task.toString();
+        }
+    }
+
+    /**
+     * Rejected execution handler which counts the rejected tasks before
+     * passing them on to the handler of the configured block policy.
+     * In elastic mode tasks are queued if the executor could not start
+     * a new thread for them.
+     */
+    private final class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+
+        private final RejectedExecutionHandler delegatee;
+
+        public CountingRejectedExecutionHandler(final RejectedExecutionHandler delegatee) {
+            this.delegatee = delegatee;
+        }
+
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor tpe) {
+            if ( elasticQueue != null ) {
+                if ( elasticQueue.force(r) ) {
+                    return;
+                }
+                elasticQueue.taskFinished();
+            }
+            rejectedCount.incrementAndGet();
+            this.delegatee.rejectedExecution(r, tpe);
+        }
+    }
 }
@@ -23,6 +23,7 @@ import java.util.UUID;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig.ThreadPoolMode;
 import org.apache.sling.commons.threads.ThreadPool;
 import org.apache.sling.commons.threads.ThreadPoolConfig;
 import org.apache.sling.commons.threads.ThreadPoolConfig.ThreadPoolPolicy;
@@ -110,6 +111,9 @@ public class DefaultThreadPoolManager
         if ( props.get(ModifiableThreadPoolConfig.PROPERTY_DAEMON) != null ) {
             config.setDaemon((Boolean)props.get(ModifiableThreadPoolConfig.PROPERTY_DAEMON));
         }
+        if ( props.get(ModifiableThreadPoolConfig.PROPERTY_MODE) != null ) {
+            config.setMode(ThreadPoolMode.valueOf(props.get(ModifiableThreadPoolConfig.PROPERTY_MODE).toString()));
+        }
         return config;
     }
 
@@ -277,6 +281,9 @@ public class DefaultThreadPoolManager
         /** The corresponding pool - might be null if unused. */
         private volatile ThreadPoolFacade pool;
 
+        /** The statistics MBean of the pool - might be null if unused. */
+        private volatile ThreadPoolStatistics statistics;
+
         public Entry(final String pid, final ThreadPoolConfig config, final String name) {
             this.pid = pid;
             this.config = config;
@@ -288,6 +295,10 @@ public class DefaultThreadPoolManager
         }
 
         public void shutdown() {
+            if ( this.statistics != null ) {
+                this.statistics.unregister();
+                this.statistics = null;
+            }
             if ( this.pool != null ) {
                 this.pool.shutdown();
                 this.pool = null;
@@ -297,6 +308,8 @@ public class DefaultThreadPoolManager
         public ThreadPoolFacade incUsage() {
             if ( pool == null ) {
                 pool = new ThreadPoolFacade(new DefaultThreadPool(name, this.config));
+                statistics = new ThreadPoolStatistics(pool);
+                statistics.register();
             }
             this.count++;
             return pool;
@@ -311,10 +324,14 @@ public class DefaultThreadPoolManager
 
         public void update(final ThreadPoolConfig config, final String name, final String pid) {
             if ( this.pool != null ) {
+                final boolean renamed = !name.equals(this.pool.getName());
                 this.pool.setName(name);
                 if ( !this.config.equals(config) ) {
                     this.pool.setPool(new DefaultThreadPool(name, config));
                 }
+                if ( renamed && this.statistics != null ) {
+                    this.statistics.register();
+                }
             }
             this.config = config;
             this.name = name;
@@ -339,5 +356,17 @@ public class DefaultThreadPoolManager
             }
             return null;
         }
+
+        public ThreadPoolStatistics getStatistics() {
+            return this.statistics;
+        }
+
+        public long getRejectedCount() {
+            final ThreadPoolFacade tpf = this.pool;
+            if ( tpf != null ) {
+                return tpf.getRejectedCount();
+            }
+            return 0;
+        }
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The task queue of a thread pool in elastic mode.
+ *
+ * A thread pool executor only starts threads above the core pool size
+ * if the queue refuses a task. This queue refuses tasks as long as no
+ * thread is idle and the pool has not reached its maximum size, so that
+ * the executor starts a new thread instead of queueing the task.
+ * Tasks refused while the pool is growing are put into the queue by
+ * {@link #force(Runnable)} if the executor cannot start a thread after all.
+ */
+class ElasticTaskQueue extends LinkedBlockingQueue<Runnable> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The executor using this queue. */
+    private transient volatile ThreadPoolExecutor executor;
+
+    /** The number of submitted tasks which have not finished yet. */
+    private final AtomicInteger submitted = new AtomicInteger();
+
+    public ElasticTaskQueue(final int capacity) {
+        super(capacity);
+    }
+
+    public void setExecutor(final ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * A task is about to be executed by the pool.
+     */
+    public void taskSubmitted() {
+        this.submitted.incrementAndGet();
+    }
+
+    /**
+     * A task has been finished or rejected.
+     */
+    public void taskFinished() {
+        this.submitted.decrementAndGet();
+    }
+
+    /**
+     * Return the number of submitted tasks which have not finished yet.
+     */
+    int getSubmittedCount() {
+        return this.submitted.get();
+    }
+
+    /**
+     * @see java.util.concurrent.LinkedBlockingQueue#offer(java.lang.Object)
+     */
+    @Override
+    public boolean offer(final Runnable task) {
+        final ThreadPoolExecutor tpe = this.executor;
+        if ( tpe != null ) {
+            final int poolSize = tpe.getPoolSize();
+            // if a thread is idle it takes the task from the queue, otherwise
+            // start a new thread if the pool may still grow
+            if ( this.submitted.get() > poolSize && poolSize < tpe.getMaximumPoolSize() ) {
+                return false;
+            }
+        }
+        return super.offer(task);
+    }
+
+    /**
+     * Put a task into the queue which has been refused by {@link #offer(Runnable)}
+     * but could not be run by a new thread.
+     * @return <code>true</code> if the task has been queued.
+     */
+    public boolean force(final Runnable task) {
+        final ThreadPoolExecutor tpe = this.executor;
+        if ( tpe != null && tpe.isShutdown() ) {
+            return false;
+        }
+        return super.offer(task);
+    }
+}
@@ -84,7 +84,18 @@ public final class ThreadPoolFacade implements ThreadPool {
         oldPool.shutdown();
     }
 
+    /**
+     * Return the current pool.
+     */
+    public DefaultThreadPool getPool() {
+        return this.delegatee;
+    }
+
     public ThreadPoolExecutor getExecutor() {
         return this.delegatee.getExecutor();
     }
+
+    public long getRejectedCount() {
+        return this.delegatee.getRejectedCount();
+    }
 }
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+/**
+ * The management interface of a thread pool.
+ *
+ * All times are in microseconds. The wait time is the time a task waits
+ * in the queue before it is run, the run time is the time it takes to
+ * run the task. The statistics are reset when the pool is reconfigured.
+ */
+public interface ThreadPoolMBean {
+
+    String getName();
+
+    String getMode();
+
+    int getMinPoolSize();
+
+    int getMaxPoolSize();
+
+    int getPoolSize();
+
+    int getActiveCount();
+
+    int getQueueSize();
+
+    int getPeakQueueSize();
+
+    long getCompletedTaskCount();
+
+    long getRejectedTaskCount();
+
+    long getWaitTimeMean();
+
+    long getWaitTime95thPercentile();
+
+    long getWaitTime99thPercentile();
+
+    long getWaitTimeMax();
+
+    long getRunTimeMean();
+
+    long getRunTime95thPercentile();
+
+    long getRunTime99thPercentile();
+
+    long getRunTimeMax();
+}
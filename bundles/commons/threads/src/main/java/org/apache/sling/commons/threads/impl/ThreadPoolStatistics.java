@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The statistics of a managed thread pool which are registered as an MBean
+ * with the platform MBean server.
+ *
+ * The statistics are read from the current pool of the facade, so they
+ * survive replacing the pool on reconfiguration, but the counters and
+ * histograms start again for the new pool.
+ */
+public class ThreadPoolStatistics implements ThreadPoolMBean {
+
+    /** The domain and type of the object names. */
+    private static final String OBJECT_NAME_PREFIX = "org.apache.sling:type=ThreadPool,name=";
+
+    /** By default we use the logger for this class. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final ThreadPoolFacade facade;
+
+    /** The name the MBean is registered with or <code>null</code>. */
+    private ObjectName objectName;
+
+    public ThreadPoolStatistics(final ThreadPoolFacade facade) {
+        this.facade = facade;
+    }
+
+    /**
+     * Register the MBean with the current name of the pool.
+     */
+    public synchronized void register() {
+        this.unregister();
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(this.facade.getName()));
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(this, ThreadPoolMBean.class), name);
+            this.objectName = name;
+        } catch (final JMException e) {
+            this.logger.warn("Unable to register MBean for thread pool " + this.facade.getName(), e);
+        }
+    }
+
+    /**
+     * Unregister the MBean if it is registered.
+     */
+    public synchronized void unregister() {
+        if ( this.objectName != null ) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (final JMException e) {
+                this.logger.debug("Unable to unregister MBean " + this.objectName, e);
+            }
+            this.objectName = null;
+        }
+    }
+
+    private DefaultThreadPool getPool() {
+        return this.facade.getPool();
+    }
+
+    public String getName() {
+        return this.facade.getName();
+    }
+
+    public String getMode() {
+        return this.getPool().getMode().name();
+    }
+
+    public int getMinPoolSize() {
+        return this.facade.getConfiguration().getMinPoolSize();
+    }
+
+    public int getMaxPoolSize() {
+        return this.facade.getConfiguration().getMaxPoolSize();
+    }
+
+    public int getPoolSize() {
+        final DefaultThreadPool pool = this.getPool();
+        return (pool.getExecutor() == null ? 0 : pool.getExecutor().getPoolSize());
+    }
+
+    public int getActiveCount() {
+        final DefaultThreadPool pool = this.getPool();
+        return (pool.getExecutor() == null ? 0 : pool.getExecutor().getActiveCount());
+    }
+
+    public int getQueueSize() {
+        final DefaultThreadPool pool = this.getPool();
+        return (pool.getExecutor() == null ? 0 : pool.getExecutor().getQueue().size());
+    }
+
+    public int getPeakQueueSize() {
+        return this.getPool().getPeakQueueSize();
+    }
+
+    public long getCompletedTaskCount() {
+        final DefaultThreadPool pool = this.getPool();
+        return (pool.getExecutor() == null ? 0 : pool.getExecutor().getCompletedTaskCount());
+    }
+
+    public long getRejectedTaskCount() {
+        return this.getPool().getRejectedCount();
+    }
+
+    public long getWaitTimeMean() {
+        return this.getPool().getWaitTime().getMean();
+    }
+
+    public long getWaitTime95thPercentile() {
+        return this.getPool().getWaitTime().getPercentile(95);
+    }
+
+    public long getWaitTime99thPercentile() {
+        return this.getPool().getWaitTime().getPercentile(99);
+    }
+
+    public long getWaitTimeMax() {
+        return this.getPool().getWaitTime().getMax();
+    }
+
+    public long getRunTimeMean() {
+        return this.getPool().getRunTime().getMean();
+    }
+
+    public long getRunTime95thPercentile() {
+        return this.getPool().getRunTime().getPercentile(95);
+    }
+
+    public long getRunTime99thPercentile() {
+        return this.getPool().getRunTime().getPercentile(99);
+    }
+
+    public long getRunTimeMax() {
+        return this.getPool().getRunTime().getMax();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in microseconds.
+ *
+ * Values below 16 have their own bucket. Larger values are put into
+ * eight buckets per power of two, so the value reported for a percentile
+ * is at most 12.5% above the recorded value. Recording a value is a few
+ * shifts and an atomic increment.
+ */
+class TimeHistogram {
+
+    /** The number of buckets for the values below {@link #LINEAR_LIMIT}. */
+    private static final int LINEAR_LIMIT = 16;
+
+    /** The number of buckets per power of two, as bit count. */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The exponent of {@link #LINEAR_LIMIT}. */
+    private static final int FIRST_EXPONENT = 4;
+
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - FIRST_EXPONENT) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration.
+     * @param micros The duration in microseconds.
+     */
+    public void record(final long micros) {
+        final long value = (micros < 0 ? 0 : micros);
+        this.counts.incrementAndGet(index(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        long current = this.max.get();
+        while ( value > current && !this.max.compareAndSet(current, value) ) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * Return the number of recorded durations.
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Return the mean of the recorded durations in microseconds.
+     */
+    public long getMean() {
+        final long c = this.count.get();
+        return (c == 0 ? 0 : this.total.get() / c);
+    }
+
+    /**
+     * Return the maximum recorded duration in microseconds.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Return the duration in microseconds below which the given percentage
+     * of the recorded durations are.
+     * @param percentile The percentile between 0 and 100.
+     */
+    public long getPercentile(final double percentile) {
+        final long c = this.count.get();
+        if ( c == 0 ) {
+            return 0;
+        }
+        final long limit = Math.max(1, (long) Math.ceil(c * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if ( seen >= limit ) {
+                return Math.min(upperBound(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    static int index(final long value) {
+        if ( value < LINEAR_LIMIT ) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(final int index) {
+        if ( index < LINEAR_LIMIT ) {
+            return index;
+        }
+        final int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + FIRST_EXPONENT;
+        final int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
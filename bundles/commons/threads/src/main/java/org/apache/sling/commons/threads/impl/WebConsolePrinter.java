@@ -23,6 +23,7 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
 import org.apache.sling.commons.threads.ThreadPoolConfig;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -104,6 +105,10 @@ public class WebConsolePrinter {
                 pw.println(config.getShutdownWaitTimeMs());
                 pw.print("- daemon : ");
                 pw.println(config.isDaemon());
+                if ( config instanceof ModifiableThreadPoolConfig ) {
+                    pw.print("- mode : ");
+                    pw.println(((ModifiableThreadPoolConfig)config).getMode());
+                }
                 final ThreadPoolExecutor tpe = entry.getExecutor();
                 if ( tpe != null ) {
                     pw.print("- active count : ");
@@ -120,6 +125,21 @@ public class WebConsolePrinter {
                     pw.println(tpe.getPoolSize());
                     pw.print("- task count : ");
                     pw.println(tpe.getTaskCount());
+                    pw.print("- queued task count : ");
+                    pw.println(tpe.getQueue().size());
+                    pw.print("- rejected task count : ");
+                    pw.println(entry.getRejectedCount());
+                    final ThreadPoolStatistics stats = entry.getStatistics();
+                    if ( stats != null ) {
+                        pw.print("- peak queued task count : ");
+                        pw.println(stats.getPeakQueueSize());
+                        pw.print("- wait time (mean/95%/99%/max) : ");
+                        printTimes(pw, stats.getWaitTimeMean(), stats.getWaitTime95thPercentile(),
+                                stats.getWaitTime99thPercentile(), stats.getWaitTimeMax());
+                        pw.print("- run time (mean/95%/99%/max) : ");
+                        printTimes(pw, stats.getRunTimeMean(), stats.getRunTime95thPercentile(),
+                                stats.getRunTime99thPercentile(), stats.getRunTimeMax());
+                    }
                 }
                 pw.println();
             }
@@ -127,4 +147,26 @@ public class WebConsolePrinter {
             pw.println("No pools configured.");
         }
     }
+
+    /**
+     * Print the times given in microseconds as milliseconds.
+     */
+    private void printTimes(final PrintWriter pw, final long... times) {
+        for (int i = 0; i < times.length; i++) {
+            if ( i > 0 ) {
+                pw.print(" / ");
+            }
+            pw.print(times[i] / 1000);
+            pw.print('.');
+            final long fraction = times[i] % 1000;
+            if ( fraction < 100 ) {
+                pw.print('0');
+            }
+            if ( fraction < 10 ) {
+                pw.print('0');
+            }
+            pw.print(fraction);
+        }
+        pw.println(" ms");
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig;
+import org.apache.sling.commons.threads.ModifiableThreadPoolConfig.ThreadPoolMode;
+import org.apache.sling.commons.threads.ThreadPoolConfig.ThreadPoolPolicy;
+import org.junit.After;
+import org.junit.Test;
+
+public class ElasticTaskQueueTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private DefaultThreadPool pool;
+
+    @After
+    public void shutdown() {
+        this.release.countDown();
+        if ( this.pool != null ) {
+            this.pool.shutdown();
+        }
+    }
+
+    private DefaultThreadPool createPool(final int maxPoolSize, final int queueSize) {
+        final ModifiableThreadPoolConfig config = new ModifiableThreadPoolConfig();
+        config.setMode(ThreadPoolMode.ELASTIC);
+        config.setMinPoolSize(1);
+        config.setMaxPoolSize(maxPoolSize);
+        config.setQueueSize(queueSize);
+        config.setBlockPolicy(ThreadPoolPolicy.ABORT);
+        config.setShutdownGraceful(false);
+        this.pool = new DefaultThreadPool("test", config);
+        return this.pool;
+    }
+
+    private Runnable createBlockingTask() {
+        return new Runnable() {
+            public void run() {
+                try {
+                    release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException ignore) {
+                    // ignore
+                }
+            }
+        };
+    }
+
+    private static ElasticTaskQueue getQueue(final DefaultThreadPool pool) {
+        return (ElasticTaskQueue) pool.getExecutor().getQueue();
+    }
+
+    private static void waitForIdle(final DefaultThreadPool pool) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while ( getQueue(pool).getSubmittedCount() > 0 && System.currentTimeMillis() < end ) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testThreadsAreStartedBeforeTasksAreQueued() {
+        final DefaultThreadPool pool = this.createPool(3, 10);
+        for (int i = 0; i < 3; i++) {
+            pool.execute(this.createBlockingTask());
+            assertEquals("Task " + i + " must start a thread", i + 1, pool.getExecutor().getPoolSize());
+            assertEquals(0, pool.getExecutor().getQueue().size());
+        }
+        // the pool has reached its maximum size
+        pool.execute(this.createBlockingTask());
+        assertEquals(3, pool.getExecutor().getPoolSize());
+        assertEquals(1, pool.getExecutor().getQueue().size());
+    }
+
+    @Test
+    public void testOfferRefusesWhileThePoolMayGrow() throws InterruptedException {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 2, 1, TimeUnit.SECONDS, new ElasticTaskQueue(10));
+        try {
+            final ElasticTaskQueue queue = (ElasticTaskQueue) executor.getQueue();
+            queue.setExecutor(executor);
+            executor.prestartCoreThread();
+            queue.taskSubmitted();
+            assertTrue("An idle thread takes the task", queue.offer(this.createBlockingTask()));
+            final long end = System.currentTimeMillis() + TIMEOUT;
+            while ( !queue.isEmpty() && System.currentTimeMillis() < end ) {
+                Thread.sleep(10);
+            }
+
+            queue.taskSubmitted();
+            assertFalse("A new thread is started", queue.offer(this.createBlockingTask()));
+            assertTrue("The refused task is queued if no thread is started", queue.force(this.createBlockingTask()));
+            assertEquals(1, queue.size());
+
+            executor.shutdown();
+            assertFalse("No tasks are queued after shut down", queue.force(this.createBlockingTask()));
+            assertEquals(1, queue.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSubmittedCountIsBalanced() throws InterruptedException {
+        final DefaultThreadPool pool = this.createPool(2, 1);
+        pool.execute(this.createBlockingTask());
+        pool.execute(this.createBlockingTask());
+        pool.execute(this.createBlockingTask());
+        assertEquals(3, getQueue(pool).getSubmittedCount());
+        try {
+            pool.execute(this.createBlockingTask());
+            fail("Pool and queue are full");
+        } catch (final RejectedExecutionException expected) {
+            // expected
+        }
+        assertEquals(1, pool.getRejectedCount());
+        assertEquals(3, getQueue(pool).getSubmittedCount());
+
+        this.release.countDown();
+        waitForIdle(pool);
+        assertEquals(0, getQueue(pool).getSubmittedCount());
+
+        // failing tasks are finished as well
+        pool.execute(new Runnable() {
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        waitForIdle(pool);
+        assertEquals(0, getQueue(pool).getSubmittedCount());
+    }
+}
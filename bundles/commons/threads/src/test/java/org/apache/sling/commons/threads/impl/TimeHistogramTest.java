@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimeHistogramTest {
+
+    @Test
+    public void testLinearBuckets() {
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, TimeHistogram.index(i));
+            assertEquals(i, TimeHistogram.upperBound(i));
+        }
+    }
+
+    @Test
+    public void testLogarithmicBuckets() {
+        // 16 to 31 is split into eight buckets of two values
+        assertEquals(16, TimeHistogram.index(16));
+        assertEquals(16, TimeHistogram.index(17));
+        assertEquals(17, TimeHistogram.upperBound(16));
+        assertEquals(17, TimeHistogram.index(18));
+        assertEquals(23, TimeHistogram.index(31));
+        assertEquals(31, TimeHistogram.upperBound(23));
+        // 32 to 63 is split into eight buckets of four values
+        assertEquals(24, TimeHistogram.index(32));
+        assertEquals(35, TimeHistogram.upperBound(24));
+        assertEquals(25, TimeHistogram.index(36));
+    }
+
+    @Test
+    public void testBoundariesAreConsistent() {
+        long lowerBound = 0;
+        for (int i = 0; TimeHistogram.upperBound(i) != Long.MAX_VALUE; i++) {
+            final long upperBound = TimeHistogram.upperBound(i);
+            assertTrue("Bucket " + i, upperBound >= lowerBound);
+            assertEquals("Lower bound of bucket " + i, i, TimeHistogram.index(lowerBound));
+            assertEquals("Upper bound of bucket " + i, i, TimeHistogram.index(upperBound));
+            assertEquals("First value of bucket " + (i + 1), i + 1, TimeHistogram.index(upperBound + 1));
+            // the bucket width is at most an eighth of its values
+            assertTrue("Width of bucket " + i, lowerBound < 16 || (upperBound - lowerBound + 1) * 8 <= lowerBound);
+            lowerBound = upperBound + 1;
+        }
+        assertEquals(TimeHistogram.index(Long.MAX_VALUE), TimeHistogram.index(lowerBound));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final TimeHistogram histogram = new TimeHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        assertEquals(101, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0));
+        // 50 is in the bucket from 48 to 51
+        assertEquals(51, histogram.getPercentile(50));
+        // the maximum limits the last bucket from 96 to 103
+        assertEquals(100, histogram.getPercentile(100));
+    }
+}
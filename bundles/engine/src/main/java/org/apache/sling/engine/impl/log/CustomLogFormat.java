@@ -47,6 +47,23 @@ class CustomLogFormat {
      */
     Parameter[] logParameters;
 
+    /**
+     * The buffers used by the request threads to build the log messages. The
+     * buffers are reused for all messages of a thread.
+     */
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /**
+     * The maximum capacity of a reused buffer. Buffers grown beyond this size
+     * by a very long message are replaced to not keep the memory.
+     */
+    private static final int MAX_BUFFER_SIZE = 8192;
+
     /**
      * Creates a new instance from of this class parsing the log format pattern.
      *
@@ -75,11 +92,16 @@ class CustomLogFormat {
      */
     String format(SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
         if (this.logParameters != null) {
-            StringBuffer buf = new StringBuffer();
+            StringBuilder buf = buffers.get();
+            buf.setLength(0);
             for (int i=0; i < this.logParameters.length; i++) {
                 this.logParameters[i].print(buf, request, response);
             }
-            return buf.toString();
+            final String message = buf.toString();
+            if (buf.capacity() > MAX_BUFFER_SIZE) {
+                buffers.remove();
+            }
+            return message;
         }
 
         return null;
@@ -346,7 +368,7 @@ class CustomLogFormat {
     //---------- Parameter support --------------------------------------------
 
     static interface Parameter {
-        void print(StringBuffer dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response);
+        void print(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response);
     }
 
     static class PlainTextParameter implements Parameter {
@@ -354,7 +376,7 @@ class CustomLogFormat {
         PlainTextParameter(String value) {
             this.value = value;
         }
-        public void print(StringBuffer dest, SlingHttpServletRequest request,
+        public void print(StringBuilder dest, SlingHttpServletRequest request,
                 SlingHttpServletResponseImpl response) {
             dest.append(this.value);
         }
@@ -396,7 +418,7 @@ class CustomLogFormat {
         protected abstract String getValue(SlingHttpServletRequest request);
         protected abstract String getValue(SlingHttpServletResponseImpl response);
 
-        public final void print(StringBuffer dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+        public final void print(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
             if (this.printOk(response.getStatus())) {
                 String value = this.isRequest ? this.getValue(request) : this.getValue(response);
                 dest.append((value == null) ? "-" : value);
@@ -592,25 +614,16 @@ class CustomLogFormat {
 
     static class TimeParameter extends BaseParameter {
 
-        /** date format - see access logging in service() */
-        private static final SimpleDateFormat accessLogFmt = new SimpleDateFormat(
-            "dd/MMM/yyyy:HH:mm:ss ", Locale.US);
-
-        /** time format for GMT offset - see access logging in service() */
-        private static final DecimalFormat dfmt = new DecimalFormat("+0000;-0000");
-
-        /** the timezone for the timezone offset calculation */
-        private static final Calendar calendar = Calendar.getInstance();
-
-        /** last zone offset (cached by hours) */
-        private static String lastZoneOffset = "";
-
-        private static long lastZoneOffsetHour = -1;
-
-        /** last formatted time (cached in seconds) */
-        private static String lastTimeFormatted = "";
-
-        private static long lastTimeFormattedSeconds = -1;
+        /**
+         * The time formatters of the request threads. The formats are not
+         * thread safe and are thus kept per thread instead of being shared.
+         */
+        private static final ThreadLocal<TimeFormatter> formatters = new ThreadLocal<TimeFormatter>() {
+            @Override
+            protected TimeFormatter initialValue() {
+                return new TimeFormatter();
+            }
+        };
 
         private final boolean requestStart;
 
@@ -632,10 +645,37 @@ class CustomLogFormat {
         // ---------- internal -----------------------------------------------------
 
         static String timeFormatted(long time) {
+            return formatters.get().format(time);
+        }
+    }
+
+    private static class TimeFormatter {
+
+        /** date format - see access logging in service() */
+        private final SimpleDateFormat accessLogFmt = new SimpleDateFormat(
+            "dd/MMM/yyyy:HH:mm:ss ", Locale.US);
+
+        /** time format for GMT offset - see access logging in service() */
+        private final DecimalFormat dfmt = new DecimalFormat("+0000;-0000");
+
+        /** the timezone for the timezone offset calculation */
+        private final Calendar calendar = Calendar.getInstance();
+
+        /** last zone offset (cached by hours) */
+        private String lastZoneOffset = "";
+
+        private long lastZoneOffsetHour = -1;
+
+        /** last formatted time (cached in seconds) */
+        private String lastTimeFormatted = "";
+
+        private long lastTimeFormattedSeconds = -1;
+
+        String format(long time) {
             if (time / 1000 != lastTimeFormattedSeconds) {
                 lastTimeFormattedSeconds = time / 1000;
                 Date date = new Date(time);
-                StringBuffer buf = new StringBuffer(accessLogFmt.format(date));
+                StringBuilder buf = new StringBuilder(accessLogFmt.format(date));
                 if (time / 3600000 != lastZoneOffsetHour) {
                     lastZoneOffsetHour = time / 3600000;
                     calendar.setTime(date);
@@ -19,10 +19,7 @@
 package org.apache.sling.engine.impl.log;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,58 +29,61 @@ import org.apache.sling.engine.RequestLog;
  * The <code>FileRequestLog</code> class is an implementation of the
  * {@link RequestLog} interface writing the log messages to an plain file. This
  * class supports sharing the files for different log formatters, in that an
- * internal map of log files is kept and access to the <code>PrintWriter</code>s
- * to write to the file is synchronized.
+ * internal map of log files is kept and the messages for a file are written by
+ * a shared {@link RequestLogWriter}. Writing a message only queues it, the
+ * messages are written to the file by a background thread.
  * <p>
  * This class has a defined lifecycle to ensure correct operation: Before using
- * the class to instantiate it, the {@link #init(String)} method should be
- * called mainly to set the root directory for relative log file paths. It is
- * not recommended to call the {@link #init(String)} method multiple times. When
- * the class is not used any more the {@link #dispose()} method should be called
- * to clean up, namely to close all open files. This lifecycle behaviour is
- * forced by the {@link RequestLogger} component, which calls the
- * {@link #init(String)} method on filter component activation and calls the
- * {@link #dispose()} metod on filter component deactivation.
+ * the class to instantiate it, the {@link #init(String, long, long)} method
+ * should be called mainly to set the root directory for relative log file
+ * paths and the log file rotation. It is not recommended to call the
+ * {@link #init(String, long, long)} method multiple times. When the class is
+ * not used any more the {@link #dispose()} method should be called to clean
+ * up, namely to write the pending messages and close all open files. This
+ * lifecycle behaviour is forced by the {@link RequestLogger} component, which
+ * calls the {@link #init(String, long, long)} method on filter component
+ * activation and calls the {@link #dispose()} metod on filter component
+ * deactivation.
  * <p>
  * Note: Currently, each log file is kept open from the moment the log file is
  * first moment until the {@link #dispose()} method is called. Future
- * development should probably focus on the following issues: (1) Implement an
- * open/write/close cycle when logging a message, (2) close log files when the
- * last user has closed the log, (3) optimize the first strategy by keeping the
- * files open for some time.
- * <p>
- * Note: Currently, the <code>PrintWriter</code> used to log the message is
- * flushed after each log message written. Future development should probably
- * implement better buffering in conjunction with the temporary open/close
- * cycles of the files.
+ * development should probably close log files when the last user has closed
+ * the log.
  */
 class FileRequestLog implements RequestLog {
 
     // The file representing the root directory for relative log file paths
     private static File relPathRoot;
 
-    // The map of shared open files (actually PrintWriter instances)
-    private static Map<String, PrintWriter> logFiles = new HashMap<String, PrintWriter>();
+    // The size in bytes at which log files are rotated, 0 to not rotate
+    private static long maxSize;
+
+    // The time in milliseconds after which log files are rotated, 0 to not rotate
+    private static long rotationInterval;
+
+    // The map of shared open files (actually RequestLogWriter instances)
+    private static Map<String, RequestLogWriter> logFiles = new HashMap<String, RequestLogWriter>();
 
     // Initialize class with the root directory for relative log file paths
-    static void init(String relPathRoot) {
+    // and the rotation of the log files
+    static void init(String relPathRoot, long maxSize, long rotationInterval) {
         FileRequestLog.relPathRoot = new File(relPathRoot).getAbsoluteFile();
+        FileRequestLog.maxSize = maxSize;
+        FileRequestLog.rotationInterval = rotationInterval;
     }
 
-    // Dispose class by closing all open PrintWeiter instances
+    // Dispose class by closing all open RequestLogWriter instances
     static void dispose() {
-        for (final Writer w : logFiles.values()) {
-            try {
+        synchronized (logFiles) {
+            for (final RequestLogWriter w : logFiles.values()) {
                 w.close();
-            } catch (IOException ioe) {
-                // don't care
             }
+            logFiles.clear();
         }
-        logFiles.clear();
     }
 
-    // The PrintWriter used by this instance to write the messages
-    private PrintWriter output;
+    // The RequestLogWriter used by this instance to write the messages
+    private volatile RequestLogWriter output;
 
     FileRequestLog(String fileName) throws IOException {
         // ensure the path is absolute
@@ -98,12 +98,8 @@ class FileRequestLog implements RequestLog {
         synchronized (logFiles) {
             this.output = logFiles.get(fileName);
             if (this.output == null) {
-
-                // ensure location of the log file
-                file.getParentFile().mkdirs();
-
-                FileWriter fw = new FileWriter(file, true);
-                this.output = new PrintWriter(fw);
+                this.output = new RequestLogWriter(file, maxSize,
+                    rotationInterval);
                 logFiles.put(fileName, this.output);
             }
         }
@@ -116,12 +112,9 @@ class FileRequestLog implements RequestLog {
         // use a local copy of the reference to not encounter NPE when this
         // log happens to be closed asynchronously while at the same time not
         // requiring synchronization
-        PrintWriter writer = this.output;
+        RequestLogWriter writer = this.output;
         if (writer != null) {
-            synchronized (writer) {
-                writer.println(message);
-                writer.flush();
-            }
+            writer.write(message);
         }
     }
 
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>RequestLogWriter</code> writes the messages of the
+ * {@link FileRequestLog} instances sharing a log file.
+ * <p>
+ * Messages are only queued by the request threads. A background thread takes
+ * the queued messages, encodes them into a reused byte buffer and writes them
+ * to the file channel in batches. The queue is bounded: If the background
+ * thread cannot keep up, the request threads wait for space in the queue
+ * such that no messages are lost.
+ * <p>
+ * The log file is rotated when it has reached the configured maximum size or
+ * when the configured rotation interval has elapsed since the file has been
+ * opened. The current file is renamed by appending the date and time of the
+ * rotation to its name and a new file is started.
+ */
+class RequestLogWriter implements Runnable {
+
+    /** The maximum number of messages waiting to be written */
+    static final int QUEUE_SIZE = 10000;
+
+    /** The maximum number of messages written in one batch */
+    private static final int BATCH_SIZE = 512;
+
+    /** The size of the byte buffer used to write to the file */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The time in milliseconds the writer thread waits for new messages */
+    private static final long POLL_WAIT = 1000;
+
+    /** The time in milliseconds to wait for the writer thread on close */
+    private static final long CLOSE_WAIT = 5000;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * The marker queued to wake up the writer thread on close. The thread is
+     * not interrupted as this would close the file channel.
+     */
+    private static final String CLOSE_MARKER = new String("close");
+
+    private final File file;
+
+    /** The size in bytes at which the file is rotated, 0 to not rotate */
+    private final long maxSize;
+
+    /** The time in milliseconds after which the file is rotated, 0 to not rotate */
+    private final long rotationInterval;
+
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>(QUEUE_SIZE);
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final CharsetEncoder encoder;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private FileChannel channel;
+
+    /** The time at which the current file has been opened */
+    private long opened;
+
+    RequestLogWriter(final File file, final long maxSize,
+            final long rotationInterval) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.rotationInterval = rotationInterval;
+        this.encoder = Charset.defaultCharset().newEncoder().onMalformedInput(
+            CodingErrorAction.REPLACE).onUnmappableCharacter(
+            CodingErrorAction.REPLACE);
+
+        // ensure location of the log file
+        file.getParentFile().mkdirs();
+        open();
+
+        this.thread = new Thread(this, "Apache Sling Request Log Writer "
+            + file.getName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues the message for writing. If the queue is full, this method waits
+     * for the writer thread to make space.
+     */
+    void write(final String message) {
+        if (!running) {
+            return;
+        }
+        try {
+            queue.put(message);
+        } catch (InterruptedException ie) {
+            // keep the interrupt status for the caller
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the writer thread after all queued messages have been written and
+     * closes the file.
+     */
+    void close() {
+        running = false;
+        queue.offer(CLOSE_MARKER);
+        try {
+            thread.join(CLOSE_WAIT);
+        } catch (InterruptedException ie) {
+            // don't care
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting to be written.
+     */
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * The writer thread: writes the queued messages in batches until closed.
+     */
+    public void run() {
+        final List<String> batch = new ArrayList<String>(BATCH_SIZE);
+        try {
+            while (running) {
+                try {
+                    final String message = queue.poll(POLL_WAIT,
+                        TimeUnit.MILLISECONDS);
+                    if (message != null) {
+                        batch.add(message);
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                        writeBatch(batch);
+                    }
+                } catch (InterruptedException ie) {
+                    // not expected, just check whether we are still running
+                }
+            }
+
+            // write the messages queued before closing
+            while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+                writeBatch(batch);
+            }
+        } finally {
+            closeChannel();
+        }
+    }
+
+    private void writeBatch(final List<String> batch) {
+        try {
+            if (channel == null) {
+                open();
+            } else if (needsRotation()) {
+                rotate();
+            }
+            for (final String message : batch) {
+                if (message != CLOSE_MARKER) {
+                    encode(message);
+                    encode(LINE_SEPARATOR);
+                }
+            }
+            flushBuffer();
+        } catch (IOException ioe) {
+            getLog().error("Failed writing request log " + file, ioe);
+            buffer.clear();
+        }
+        batch.clear();
+    }
+
+    /**
+     * Encodes the string into the byte buffer, writing the buffer to the file
+     * whenever it is full.
+     */
+    private void encode(final String string) throws IOException {
+        final CharBuffer chars = CharBuffer.wrap(string);
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, buffer, true);
+        while (result.isOverflow()) {
+            flushBuffer();
+            result = encoder.encode(chars, buffer, true);
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private boolean needsRotation() throws IOException {
+        if (maxSize > 0 && channel.size() >= maxSize) {
+            return true;
+        }
+        return rotationInterval > 0
+            && System.currentTimeMillis() - opened >= rotationInterval;
+    }
+
+    /**
+     * Renames the current log file by appending the current date and time and
+     * opens a new log file.
+     */
+    private void rotate() throws IOException {
+        closeChannel();
+
+        final String suffix = new SimpleDateFormat("yyyy-MM-dd-HHmmss").format(new Date());
+        File rotated = new File(file.getPath() + "." + suffix);
+        for (int i = 1; rotated.exists(); i++) {
+            rotated = new File(file.getPath() + "." + suffix + "-" + i);
+        }
+        if (!file.renameTo(rotated)) {
+            getLog().warn("Cannot rotate request log {} to {}", file, rotated);
+        }
+
+        open();
+    }
+
+    private void open() throws IOException {
+        this.channel = new FileOutputStream(file, true).getChannel();
+        this.opened = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the logger for problems writing the log file, which is only
+     * retrieved when needed.
+     */
+    private Logger getLog() {
+        return LoggerFactory.getLogger(getClass());
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // don't care
+            }
+            channel = null;
+        }
+    }
+}
@@ -20,6 +20,8 @@ package org.apache.sling.engine.impl.log;
 
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
@@ -80,6 +82,18 @@ public class RequestLogger {
     @Property(boolValue=true)
     public static final String PROP_ACCESS_LOG_ENABLED = "access.log.enabled";
 
+    @Property(value="")
+    public static final String PROP_FILE_SIZE = "request.log.file.size";
+
+    @Property(intValue=0)
+    public static final String PROP_FILE_ROTATION = "request.log.file.rotation";
+
+    /**
+     * The pattern of the maximum log file size: a number optionally followed
+     * by a KB, MB or GB unit.
+     */
+    private static final Pattern SIZE_SPEC = Pattern.compile("([\\d]+)([kKmMgG][bB]?)?");
+
     /**
      * The log format string for the request log entry message (value is "%t
      * [%R] -> %m %U%q %H").
@@ -182,8 +196,13 @@ public class RequestLogger {
         Dictionary props = osgiContext.getProperties();
 
         // initialize the FileRequestLog with sling.home as the root for
-        // relative log file paths
-        FileRequestLog.init(bundleContext.getProperty("sling.home"));
+        // relative log file paths and the log file rotation
+        final Object rotation = props.get(PROP_FILE_ROTATION);
+        final long rotationInterval = (rotation instanceof Number)
+                ? ((Number) rotation).longValue() * 60L * 60L * 1000L
+                : 0;
+        FileRequestLog.init(bundleContext.getProperty("sling.home"),
+            getFileSize(props.get(PROP_FILE_SIZE)), rotationInterval);
 
         // prepare the request loggers if a name is configured and the
         // request loggers are enabled
@@ -320,6 +339,36 @@ public class RequestLogger {
         return new RequestLoggerService(bundleContext, config);
     }
 
+    /**
+     * Returns the maximum log file size in bytes from the size specification,
+     * which is a number optionally followed by a KB, MB or GB unit. Returns
+     * zero to not rotate the log files by size if the specification is missing
+     * or invalid.
+     */
+    static long getFileSize(Object sizeSpec) {
+        if (sizeSpec != null) {
+            Matcher sizeMatcher = SIZE_SPEC.matcher(sizeSpec.toString().trim());
+            if (sizeMatcher.matches()) {
+                final long baseSize = Long.parseLong(sizeMatcher.group(1));
+                final String factorString = sizeMatcher.group(2);
+                if (factorString == null) {
+                    return baseSize;
+                }
+                switch (factorString.charAt(0)) {
+                    case 'k':
+                    case 'K':
+                        return baseSize * 1024L;
+                    case 'm':
+                    case 'M':
+                        return baseSize * 1024L * 1024L;
+                    default:
+                        return baseSize * 1024L * 1024L * 1024L;
+                }
+            }
+        }
+        return 0;
+    }
+
     /**
      * Creates a new list of request logger services from the existing list
      * appending the new logger. This method does not check, whether the logger
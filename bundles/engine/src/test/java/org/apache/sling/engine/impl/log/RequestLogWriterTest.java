@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * The <code>RequestLogWriterTest</code> class tests the
+ * <code>RequestLogWriter</code> class.
+ */
+public class RequestLogWriterTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File("target/" + getClass().getSimpleName() + "/"
+            + getName() + "-" + System.currentTimeMillis());
+    }
+
+    public void testWrite() throws IOException {
+        final File file = new File(dir, "request.log");
+        final RequestLogWriter writer = new RequestLogWriter(file, 0, 0);
+        for (int i = 0; i < 5000; i++) {
+            writer.write("message " + i);
+        }
+        writer.close();
+
+        final List<String> lines = readLines(file);
+        assertEquals(5000, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals("message " + i, lines.get(i));
+        }
+    }
+
+    public void testWriteAfterClose() throws IOException {
+        final File file = new File(dir, "request.log");
+        final RequestLogWriter writer = new RequestLogWriter(file, 0, 0);
+        writer.write("before");
+        writer.close();
+        writer.write("after");
+
+        final List<String> lines = readLines(file);
+        assertEquals(1, lines.size());
+        assertEquals("before", lines.get(0));
+    }
+
+    public void testSizeRotation() throws Exception {
+        final File file = new File(dir, "request.log");
+        final RequestLogWriter writer = new RequestLogWriter(file, 100, 0);
+        for (int i = 0; i < 20; i++) {
+            writer.write("message " + i);
+            // give the writer thread a chance to write each message
+            while (writer.getQueueDepth() > 0) {
+                Thread.sleep(1);
+            }
+        }
+        writer.close();
+
+        final File[] files = dir.listFiles();
+        assertTrue(files.length > 1);
+
+        int lines = 0;
+        for (final File f : files) {
+            lines += readLines(f).size();
+            if (!f.equals(file)) {
+                assertTrue(f.getName().startsWith("request.log."));
+            }
+        }
+        assertEquals(20, lines);
+    }
+
+    public void testGetFileSize() {
+        assertEquals(0, RequestLogger.getFileSize(null));
+        assertEquals(0, RequestLogger.getFileSize(""));
+        assertEquals(0, RequestLogger.getFileSize("invalid"));
+        assertEquals(100, RequestLogger.getFileSize("100"));
+        assertEquals(10 * 1024, RequestLogger.getFileSize("10KB"));
+        assertEquals(10 * 1024 * 1024, RequestLogger.getFileSize("10m"));
+        assertEquals(2L * 1024 * 1024 * 1024, RequestLogger.getFileSize("2GB"));
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
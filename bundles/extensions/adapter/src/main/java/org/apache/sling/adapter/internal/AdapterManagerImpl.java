@@ -22,12 +22,16 @@ import static org.apache.sling.api.adapter.AdapterFactory.ADAPTABLE_CLASSES;
 import static org.apache.sling.api.adapter.AdapterFactory.ADAPTER_CLASSES;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.sling.api.SlingConstants;
 import org.apache.sling.api.adapter.AdapterFactory;
@@ -35,6 +39,7 @@ import org.apache.sling.api.adapter.AdapterManager;
 import org.apache.sling.api.resource.SyntheticResource;
 import org.apache.sling.commons.osgi.OsgiUtil;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
@@ -92,8 +97,23 @@ public class AdapterManagerImpl implements AdapterManager {
      * This cache is built on demand by calling the
      * {@link #getAdapterFactories(Class)} class. It is removed altogether
      * whenever an adapter factory is registered on unregistered.
+     * <p>
+     * The secondary maps are never modified once they have been added to the
+     * cache. Reading from the cache therefore does not require any locking.
+     */
+    private volatile ConcurrentMap<String, Map<String, AdapterFactory>> factoryCache;
+
+    /**
+     * The number of calls to {@link #getAdapter(Object, Class)} primarily
+     * indexed by the fully qualified name of the class to be adapted and
+     * secondarily indexed by the fully qualified name of the target class.
+     * Contrary to the {@link #factoryCache} these counters are kept when
+     * adapter factories are registered or unregistered.
      */
-    private Map<String, Map<String, AdapterFactory>> factoryCache;
+    private final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> adaptCounters = new ConcurrentHashMap<String, ConcurrentMap<String, AtomicLong>>();
+
+    /** The registration of the web console configuration printer */
+    private ServiceRegistration printerRegistration;
 
     /**
      * The service tracker for the event admin
@@ -113,6 +133,8 @@ public class AdapterManagerImpl implements AdapterManager {
         // get the adapter factories for the type of adaptable object
         Map<String, AdapterFactory> factories = getAdapterFactories(adaptable.getClass());
 
+        countAdapt(adaptable.getClass().getName(), type.getName());
+
         // get the factory for the target type
         AdapterFactory factory = factories.get(type.getName());
 
@@ -152,12 +174,19 @@ public class AdapterManagerImpl implements AdapterManager {
 
         // final "enable" this manager by setting the instance
         SyntheticResource.setAdapterManager(this);
+
+        this.printerRegistration = AdapterWebConsolePrinter.register(
+            context.getBundleContext(), this);
     }
 
     /**
      * @param context Not used
      */
     protected void deactivate(ComponentContext context) {
+        if (this.printerRegistration != null) {
+            this.printerRegistration.unregister();
+            this.printerRegistration = null;
+        }
         SyntheticResource.unsetAdapterManager(this);
         this.context = null;
     }
@@ -203,8 +232,45 @@ public class AdapterManagerImpl implements AdapterManager {
         return factoryCache;
     }
 
+    /**
+     * Returns the number of calls to {@link #getAdapter(Object, Class)} by
+     * name of the adaptable class and name of the target class.
+     */
+    Map<String, Map<String, Long>> getAdaptCounters() {
+        final Map<String, Map<String, Long>> result = new HashMap<String, Map<String, Long>>();
+        for (final Map.Entry<String, ConcurrentMap<String, AtomicLong>> adaptable : adaptCounters.entrySet()) {
+            final Map<String, Long> targets = new HashMap<String, Long>();
+            for (final Map.Entry<String, AtomicLong> target : adaptable.getValue().entrySet()) {
+                targets.put(target.getKey(), target.getValue().get());
+            }
+            result.put(adaptable.getKey(), targets);
+        }
+        return result;
+    }
+
     // ---------- internal -----------------------------------------------------
 
+    private void countAdapt(final String adaptable, final String target) {
+        ConcurrentMap<String, AtomicLong> targets = adaptCounters.get(adaptable);
+        if (targets == null) {
+            final ConcurrentMap<String, AtomicLong> newTargets = new ConcurrentHashMap<String, AtomicLong>();
+            targets = adaptCounters.putIfAbsent(adaptable, newTargets);
+            if (targets == null) {
+                targets = newTargets;
+            }
+        }
+
+        AtomicLong counter = targets.get(target);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong();
+            counter = targets.putIfAbsent(target, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
     private void log(int level, String message, Throwable t) {
         LogService logger = this.log;
         if (logger != null) {
@@ -321,15 +387,13 @@ public class AdapterManagerImpl implements AdapterManager {
      *         registered for this type, the returned map is empty.
      */
     private Map<String, AdapterFactory> getAdapterFactories(Class<?> clazz) {
-        Map<String, Map<String, AdapterFactory>> cache = factoryCache;
+        ConcurrentMap<String, Map<String, AdapterFactory>> cache = factoryCache;
         if (cache == null) {
-            cache = new HashMap<String, Map<String, AdapterFactory>>();
+            cache = new ConcurrentHashMap<String, Map<String, AdapterFactory>>();
             factoryCache = cache;
         }
 
-        synchronized (cache) {
-            return getAdapterFactories(clazz, cache);
-        }
+        return getAdapterFactories(clazz, cache);
     }
 
     /**
@@ -345,14 +409,19 @@ public class AdapterManagerImpl implements AdapterManager {
      *         <code>clazz</code>.
      */
     private Map<String, AdapterFactory> getAdapterFactories(Class<?> clazz,
-            Map<String, Map<String, AdapterFactory>> cache) {
+            ConcurrentMap<String, Map<String, AdapterFactory>> cache) {
 
         String className = clazz.getName();
         Map<String, AdapterFactory> entry = cache.get(className);
         if (entry == null) {
-            // create entry
+            // create entry, concurrent threads may create the same entry in
+            // which case the first one wins
             entry = createAdapterFactoryMap(clazz, cache);
-            cache.put(className, entry);
+            final Map<String, AdapterFactory> existing = cache.putIfAbsent(
+                className, entry);
+            if (existing != null) {
+                entry = existing;
+            }
         }
 
         return entry;
@@ -373,16 +442,20 @@ public class AdapterManagerImpl implements AdapterManager {
      *         <code>clazz</code>.
      */
     private Map<String, AdapterFactory> createAdapterFactoryMap(Class<?> clazz,
-            Map<String, Map<String, AdapterFactory>> cache) {
+            ConcurrentMap<String, Map<String, AdapterFactory>> cache) {
         Map<String, AdapterFactory> afm = new HashMap<String, AdapterFactory>();
 
-        // AdapterFactories for this class
-        AdapterFactoryDescriptorMap afdMap;
+        // AdapterFactories for this class, copied as the descriptor map may
+        // be modified while the cache entry is being created
+        List<AdapterFactoryDescriptor> afdList = null;
         synchronized (factories) {
-            afdMap = factories.get(clazz.getName());
+            final AdapterFactoryDescriptorMap afdMap = factories.get(clazz.getName());
+            if (afdMap != null) {
+                afdList = new ArrayList<AdapterFactoryDescriptor>(afdMap.values());
+            }
         }
-        if (afdMap != null) {
-            for (AdapterFactoryDescriptor afd : afdMap.values()) {
+        if (afdList != null) {
+            for (AdapterFactoryDescriptor afd : afdList) {
                 String[] adapters = afd.getAdapters();
                 for (String adapter : adapters) {
                     if (!afm.containsKey(adapter)) {
@@ -407,7 +480,9 @@ public class AdapterManagerImpl implements AdapterManager {
             copyAdapterFactories(afm, superClazz, cache);
         }
 
-        return afm;
+        return afm.isEmpty()
+                ? Collections.<String, AdapterFactory> emptyMap()
+                : Collections.unmodifiableMap(afm);
     }
 
     /**
@@ -426,7 +501,7 @@ public class AdapterManagerImpl implements AdapterManager {
      *            <code>dest</code>.
      */
     private void copyAdapterFactories(Map<String, AdapterFactory> dest,
-            Class<?> clazz, Map<String, Map<String, AdapterFactory>> cache) {
+            Class<?> clazz, ConcurrentMap<String, Map<String, AdapterFactory>> cache) {
 
         // get the adapter factories for the adaptable clazz
         Map<String, AdapterFactory> scMap = getAdapterFactories(clazz, cache);
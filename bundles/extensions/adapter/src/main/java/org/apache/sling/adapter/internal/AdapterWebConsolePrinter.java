@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.adapter.internal;
+
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * This is a configuration printer for the web console which prints out the
+ * number of adaptations done by the adapter manager.
+ */
+public class AdapterWebConsolePrinter {
+
+    private static final String HEADLINE = "Apache Sling Adapter Manager";
+
+    private final AdapterManagerImpl adapterManager;
+
+    public static ServiceRegistration register(final BundleContext bundleContext,
+            final AdapterManagerImpl adapterManager) {
+        final AdapterWebConsolePrinter printer = new AdapterWebConsolePrinter(adapterManager);
+
+        final Dictionary<String, String> props = new Hashtable<String, String>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Apache Sling Adapter Manager Configuration Printer");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put("felix.webconsole.label", "slingadapters");
+        props.put("felix.webconsole.title", "Sling Adapters");
+        props.put("felix.webconsole.configprinter.modes", "always");
+
+        return bundleContext.registerService(AdapterWebConsolePrinter.class.getName(),
+            printer, props);
+    }
+
+    public AdapterWebConsolePrinter(final AdapterManagerImpl adapterManager) {
+        this.adapterManager = adapterManager;
+    }
+
+    /**
+     * Print out the adaptations per adaptable and target class.
+     * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
+     */
+    public void printConfiguration(final PrintWriter pw) {
+        pw.println(HEADLINE);
+        pw.println();
+
+        final Map<String, Map<String, Long>> counters = new TreeMap<String, Map<String, Long>>(
+            adapterManager.getAdaptCounters());
+        if (counters.isEmpty()) {
+            pw.println("No adaptations yet.");
+            return;
+        }
+
+        for (final Map.Entry<String, Map<String, Long>> adaptable : counters.entrySet()) {
+            pw.print("Adaptable ");
+            pw.println(adaptable.getKey());
+            final Map<String, Long> targets = new TreeMap<String, Long>(adaptable.getValue());
+            for (final Map.Entry<String, Long> target : targets.entrySet()) {
+                pw.print("- ");
+                pw.print(target.getKey());
+                pw.print(" : ");
+                pw.println(target.getValue());
+            }
+            pw.println();
+        }
+    }
+}
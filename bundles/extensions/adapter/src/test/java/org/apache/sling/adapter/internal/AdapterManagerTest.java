@@ -23,6 +23,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Dictionary;
 import java.util.Map;
 
 import org.apache.sling.adapter.mock.MockAdapterFactory;
@@ -39,6 +40,7 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 
 @RunWith(JMock.class)
@@ -75,6 +77,7 @@ public class AdapterManagerTest {
         final BundleContext bundleCtx = this.context.mock(BundleContext.class);
         final Filter filter = this.context.mock(Filter.class);
         final ComponentContext ctx = this.context.mock(ComponentContext.class);
+        final ServiceRegistration reg = this.context.mock(ServiceRegistration.class);
         this.context.checking(new Expectations() {{
             allowing(ctx).locateService(with(any(String.class)), with(any(ServiceReference.class)));
             will(returnValue(new MockAdapterFactory()));
@@ -86,6 +89,9 @@ public class AdapterManagerTest {
             allowing(bundleCtx).getServiceReferences(with(any(String.class)), with(any(String.class)));
             will(returnValue(null));
             allowing(bundleCtx).removeServiceListener(with(any(ServiceListener.class)));
+            allowing(bundleCtx).registerService(with(any(String.class)), with(any(Object.class)), with(any(Dictionary.class)));
+            will(returnValue(reg));
+            allowing(reg).unregister();
         }});
         return ctx;
     }
@@ -259,6 +265,29 @@ public class AdapterManagerTest {
         assertTrue(adapter instanceof TestAdapter);
     }
 
+    @org.junit.Test public void testAdaptCounters() throws Exception {
+        am.activate(this.createComponentContext());
+
+        final ServiceReference ref = createServiceReference();
+        am.bindAdapterFactory(ref);
+
+        TestSlingAdaptable data = new TestSlingAdaptable();
+        am.getAdapter(data, ITestAdapter.class);
+        am.getAdapter(data, ITestAdapter.class);
+        am.getAdapter(data, TestAdapter.class);
+
+        Map<String, Long> counters = am.getAdaptCounters().get(TestSlingAdaptable.class.getName());
+        assertNotNull(counters);
+        assertEquals(Long.valueOf(2), counters.get(ITestAdapter.class.getName()));
+        assertEquals(Long.valueOf(1), counters.get(TestAdapter.class.getName()));
+
+        // counters are kept when the factory cache is flushed
+        am.unbindAdapterFactory(ref);
+        assertNull(am.getFactoryCache());
+        counters = am.getAdaptCounters().get(TestSlingAdaptable.class.getName());
+        assertEquals(Long.valueOf(2), counters.get(ITestAdapter.class.getName()));
+    }
+
     //---------- Test Adaptable and Adapter Classes ---------------------------
 
     public static class TestSlingAdaptable extends SlingAdaptable {
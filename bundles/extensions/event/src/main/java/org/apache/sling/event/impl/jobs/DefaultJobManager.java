@@ -19,13 +19,10 @@
 package org.apache.sling.event.impl.jobs;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -47,6 +44,7 @@ import org.apache.sling.event.impl.jobs.config.ConfigurationConstants;
 import org.apache.sling.event.impl.jobs.config.InternalQueueConfiguration;
 import org.apache.sling.event.impl.jobs.config.QueueConfigurationManager;
 import org.apache.sling.event.impl.jobs.queues.AbstractJobQueue;
+import org.apache.sling.event.impl.jobs.queues.DirectParallelJobQueue;
 import org.apache.sling.event.impl.jobs.queues.OrderedJobQueue;
 import org.apache.sling.event.impl.jobs.queues.ParallelJobQueue;
 import org.apache.sling.event.impl.jobs.queues.TopicRoundRobinJobQueue;
@@ -131,10 +129,7 @@ public class DefaultJobManager
     private long lastUpdatedStatistics;
 
     /** All existing events. */
-    private final Map<String, JobEvent> allEvents = new HashMap<String, JobEvent>();
-
-    /** All existing events by topic. */
-    private final Map<String, List<JobEvent>> allEventsByTopic = new HashMap<String, List<JobEvent>>();
+    private final JobIndex allEvents = new JobIndex();
 
     /** Statistics per topic. */
     private final ConcurrentMap<String, TopicStatistics> topicStatistics = new ConcurrentHashMap<String, TopicStatistics>();
@@ -320,6 +315,8 @@ public class DefaultJobManager
                     queue = new ParallelJobQueue(queueName, config, this.environment, this.scheduler);
                 } else if ( config.getType() == QueueConfiguration.Type.TOPIC_ROUND_ROBIN ) {
                     queue = new TopicRoundRobinJobQueue(queueName, config, this.environment, this.scheduler);
+                } else if ( config.getType() == QueueConfiguration.Type.DIRECT_PARALLEL ) {
+                    queue = new DirectParallelJobQueue(queueName, config, this.environment, this.scheduler);
                 }
                 if ( queue == null ) {
                     // this is just a sanety check, actually we can never get here
@@ -401,192 +398,28 @@ public class DefaultJobManager
      * Add a job to all jobs.
      */
     public void notifyAddJob(final JobEvent job) {
-        final String key = job.uniqueId;
-        final String topic = (String)job.event.getProperty(JobUtil.PROPERTY_JOB_TOPIC);
-        final JobEvent oldJob;
-        synchronized ( this.allEvents ) {
-            oldJob = this.allEvents.put(key, job);
-        }
-        List<JobEvent> l;
-        synchronized ( this.allEventsByTopic ) {
-            l = this.allEventsByTopic.get(topic);
-            if ( l == null ) {
-                l = new ArrayList<JobEvent>();
-                this.allEventsByTopic.put(topic, l);
-            }
-        }
-        synchronized ( l ) {
-            if ( oldJob != null ) {
-                l.remove(oldJob);
-            }
-            l.add(job);
-        }
+        this.allEvents.add(job);
     }
 
     /**
      * Remove a job from all jobs.
      */
     public void notifyRemoveJob(final String key) {
-        final JobEvent oldJob;
-        synchronized ( this.allEvents ) {
-            oldJob = this.allEvents.remove(key);
-        }
-        if ( oldJob != null ) {
-            final String topic = (String)oldJob.event.getProperty(JobUtil.PROPERTY_JOB_TOPIC);
-            final List<JobEvent> l;
-            synchronized ( this.allEventsByTopic ) {
-                l = this.allEventsByTopic.get(topic);
-            }
-            if ( l != null ) {
-                synchronized ( l ) {
-                    l.remove(oldJob);
-                }
-            }
-        }
+        this.allEvents.remove(key);
     }
 
     /**
      * Job started
      */
     public void notifyActiveJob(final String key) {
-        final JobEvent job;
-        synchronized ( this.allEvents ) {
-            job = this.allEvents.get(key);
-        }
-        if ( job != null ) {
-            job.started = 1;
-        }
+        this.allEvents.setActive(key, true);
     }
 
     /**
      * Job started
      */
     public void notifyRescheduleJob(final String key) {
-        final JobEvent job;
-        synchronized ( this.allEvents ) {
-            job = this.allEvents.get(key);
-        }
-        if ( job != null ) {
-            job.started = -1;
-        }
-    }
-
-    /**
-     * Check the requested job type
-     */
-    private boolean checkType(final QueryType type, final JobEvent event) {
-        if ( type == QueryType.ALL ) {
-            return true;
-        }
-        if ( type == QueryType.ACTIVE && event.started == 1 ) {
-            return true;
-        }
-        if ( type == QueryType.QUEUED && event.started == -1 ) {
-            return true;
-        }
-        return false;
-    }
-
-    private enum Operation {
-        LESS,
-        LESS_OR_EQUALS,
-        EQUALS,
-        GREATER_OR_EQUALS,
-        GREATER
-    }
-    /**
-     * Check if the job matches the template
-     */
-    private boolean match(final JobEvent job, final Map<String, Object> template) {
-        if ( template != null ) {
-            for(final Map.Entry<String, Object> current : template.entrySet()) {
-                final String key = current.getKey();
-                final char firstChar = key.length() > 0 ? key.charAt(0) : 0;
-                final String propName;
-                final Operation op;
-                if ( firstChar == '=' ) {
-                    propName = key.substring(1);
-                    op  = Operation.EQUALS;
-                } else if ( firstChar == '<' ) {
-                    final char secondChar = key.length() > 1 ? key.charAt(1) : 0;
-                    if ( secondChar == '=' ) {
-                        op = Operation.LESS_OR_EQUALS;
-                        propName = key.substring(2);
-                    } else {
-                        op = Operation.LESS;
-                        propName = key.substring(1);
-                    }
-                } else if ( firstChar == '>' ) {
-                    final char secondChar = key.length() > 1 ? key.charAt(1) : 0;
-                    if ( secondChar == '=' ) {
-                        op = Operation.GREATER_OR_EQUALS;
-                        propName = key.substring(2);
-                    } else {
-                        op = Operation.GREATER;
-                        propName = key.substring(1);
-                    }
-                } else {
-                    propName = key;
-                    op  = Operation.EQUALS;
-                }
-                final Object value = current.getValue();
-
-                if ( op == Operation.EQUALS ) {
-                    if ( !value.equals(job.event.getProperty(propName)) ) {
-                        return false;
-                    }
-                } else {
-                    if ( value instanceof Comparable ) {
-                        @SuppressWarnings({ "unchecked", "rawtypes" })
-                        final int result = ((Comparable)value).compareTo(job.event.getProperty(propName));
-                        if ( op == Operation.LESS && result != -1 ) {
-                            return false;
-                        } else if ( op == Operation.LESS_OR_EQUALS && result == 1 ) {
-                            return false;
-                        } else if ( op == Operation.GREATER_OR_EQUALS && result == -1 ) {
-                            return false;
-                        } else if ( op == Operation.GREATER && result != 1 ) {
-                            return false;
-                        }
-                    } else {
-                        // if the value is not comparable we simply don't match
-                        return false;
-                    }
-                }
-            }
-        }
-        return true;
-    }
-
-    private boolean queryCollection(
-            final List<Event> result,
-            final QueryType type,
-            final Collection<JobEvent> collection,
-            final long limit,
-            final Map<String, Object>... filterProps) {
-        synchronized ( collection ) {
-            final Iterator<JobEvent> iter = collection.iterator();
-            while ( iter.hasNext() ) {
-                final JobEvent job = iter.next();
-                boolean add = checkType(type, job);
-                if ( add && filterProps != null && filterProps.length != 0 ) {
-                    add = false;
-                    for (Map<String,Object> template : filterProps) {
-                        add = this.match(job, template);
-                        if ( add ) {
-                            break;
-                        }
-                    }
-                }
-                if ( add ) {
-                    result.add(job.event);
-                    if ( limit > 0 && result.size() == limit ) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        this.allEvents.setActive(key, false);
     }
 
     /**
@@ -605,49 +438,34 @@ public class DefaultJobManager
             final String topic,
             final long limit,
             final Map<String, Object>... filterProps) {
-        final List<Event> result = new ArrayList<Event>();
-        if ( topic != null ) {
-            final List<JobEvent> l;
-            synchronized ( this.allEventsByTopic ) {
-                l = this.allEventsByTopic.get(topic);
-            }
-            if ( l != null ) {
-                queryCollection(result, type, l, limit, filterProps);
-            }
-        } else {
-            final Set<Collection<JobEvent>> topics;
-            synchronized ( this.allEventsByTopic ) {
-                topics = new HashSet<Collection<JobEvent>>(this.allEventsByTopic.values());
-            }
-            boolean done = false;
-            final Iterator<Collection<JobEvent>> i = topics.iterator();
-            while ( !done && i.hasNext() ) {
-                final Collection<JobEvent> l = i.next();
-                done = queryCollection(result, type, l, limit, filterProps);
-            }
-        }
-        return new JobsIteratorImpl(result);
+        return new JobsIteratorImpl(this.allEvents.getJobs(topic, type), type, limit, filterProps);
     }
 
     /**
      * @see org.apache.sling.event.jobs.JobManager#findJob(java.lang.String, java.util.Map)
      */
+    @SuppressWarnings("unchecked")
     public Event findJob(final String topic, final Map<String, Object> template) {
         Event result = null;
         if ( topic != null ) {
-            final List<JobEvent> l;
-            synchronized ( this.allEventsByTopic ) {
-                l = this.allEventsByTopic.get(topic);
+            // use the job name index if the template contains the job name
+            Object jobName = null;
+            if ( template != null ) {
+                jobName = template.get(JobUtil.PROPERTY_JOB_NAME);
+                if ( jobName == null ) {
+                    jobName = template.get('=' + JobUtil.PROPERTY_JOB_NAME);
+                }
             }
-            if ( l != null ) {
-                synchronized ( l ) {
-                    final Iterator<JobEvent> iter = l.iterator();
-                    while ( result == null && iter.hasNext() ) {
-                        final JobEvent job = iter.next();
-                        if ( match(job, template) ) {
-                            result = job.event;
-                        }
-                    }
+            if ( jobName instanceof String ) {
+                final JobEvent job = this.allEvents.getByName(topic, (String)jobName);
+                if ( job != null && JobsIteratorImpl.matches(job, QueryType.ALL, template) ) {
+                    result = job.event;
+                }
+            } else {
+                final Iterator<Event> iter = new JobsIteratorImpl(this.allEvents.getJobs(topic, QueryType.ALL),
+                        QueryType.ALL, 1, template);
+                if ( iter.hasNext() ) {
+                    result = iter.next();
                 }
             }
         }
@@ -658,10 +476,7 @@ public class DefaultJobManager
      * @see org.apache.sling.event.jobs.JobManager#removeJob(java.lang.String)
      */
     public boolean removeJob(final String jobId) {
-        final JobEvent job;
-        synchronized ( this.allEvents ) {
-            job = this.allEvents.get(jobId);
-        }
+        final JobEvent job = this.allEvents.get(jobId);
         boolean result = true;
         if ( job != null ) {
             if ( job.started != 1 ) {
@@ -777,14 +592,7 @@ public class DefaultJobManager
         // reset statistics
         this.reset();
         // restart all jobs - we first copy all of them
-        final List<JobEvent> jobs;
-        synchronized ( this.allEvents ) {
-            jobs = new ArrayList<JobEvent>(this.allEvents.values());
-            this.allEvents.clear();
-        }
-        synchronized ( this.allEventsByTopic ) {
-            this.allEventsByTopic.clear();
-        }
+        final List<JobEvent> jobs = this.allEvents.clear();
         for(final JobEvent job : jobs) {
             job.restart();
         }
@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.event.jobs.JobManager.QueryType;
+import org.apache.sling.event.jobs.JobUtil;
+
+/**
+ * The job index keeps all known jobs and provides lookups by
+ * unique id, by topic, by topic and job name and by state.
+ *
+ * All structures are concurrent: jobs can be added and removed while
+ * queries are iterating over the index without any locking. Only the
+ * live job count of a topic is updated under the lock of its index. Iterators
+ * are weakly consistent, they reflect the state of the index at some
+ * point at or since their creation.
+ *
+ * The jobs of a topic are kept in the order they were added. Removed jobs
+ * are only marked as removed and are purged from the topic list once
+ * enough of them have accumulated. The index of a topic is dropped
+ * once its last job is removed.
+ */
+class JobIndex {
+
+    /** Minimum number of removed entries before a topic list is purged. */
+    private static final int PURGE_THRESHOLD = 32;
+
+    /** All jobs by unique id. */
+    private final ConcurrentMap<String, Entry> jobsById = new ConcurrentHashMap<String, Entry>();
+
+    /** All jobs by topic. */
+    private final ConcurrentMap<String, TopicIndex> jobsByTopic = new ConcurrentHashMap<String, TopicIndex>();
+
+    /**
+     * Add a job. A job with the same unique id is replaced.
+     */
+    public void add(final JobEvent job) {
+        final String topic = (String)job.event.getProperty(JobUtil.PROPERTY_JOB_TOPIC);
+        Entry entry;
+        do {
+            entry = new Entry(job, this.getTopicIndex(topic));
+            // retry if the topic index has been dropped concurrently
+        } while ( !entry.add() );
+        final Entry oldEntry = this.jobsById.put(job.uniqueId, entry);
+        if ( oldEntry != null ) {
+            this.remove(oldEntry);
+        }
+    }
+
+    /**
+     * Remove a job.
+     * @return The removed job or <code>null</code>
+     */
+    public JobEvent remove(final String key) {
+        final Entry entry = this.jobsById.remove(key);
+        if ( entry != null ) {
+            this.remove(entry);
+            return entry.job;
+        }
+        return null;
+    }
+
+    /**
+     * Remove an entry and drop the index of its topic if it is empty now.
+     */
+    private void remove(final Entry entry) {
+        if ( entry.remove() ) {
+            this.jobsByTopic.remove(entry.topicIndex.topic, entry.topicIndex);
+        }
+    }
+
+    /**
+     * Return the number of topics with jobs.
+     */
+    int getTopicCount() {
+        return this.jobsByTopic.size();
+    }
+
+    /**
+     * Get a job by its unique id.
+     */
+    public JobEvent get(final String key) {
+        final Entry entry = this.jobsById.get(key);
+        return (entry == null ? null : entry.job);
+    }
+
+    /**
+     * Get a job by topic and job name.
+     */
+    public JobEvent getByName(final String topic, final String jobName) {
+        final TopicIndex index = this.jobsByTopic.get(topic);
+        if ( index != null ) {
+            final Entry entry = index.jobsByName.get(jobName);
+            if ( entry != null ) {
+                return entry.job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mark a job as active or queued.
+     * @return The job or <code>null</code> if the job is not known.
+     */
+    public JobEvent setActive(final String key, final boolean active) {
+        final Entry entry = this.jobsById.get(key);
+        if ( entry != null ) {
+            entry.job.started = (active ? 1 : -1);
+            if ( active ) {
+                entry.topicIndex.activeJobs.put(key, entry);
+                // check for a concurrent remove
+                if ( entry.removed ) {
+                    entry.topicIndex.activeJobs.remove(key, entry);
+                }
+            } else {
+                entry.topicIndex.activeJobs.remove(key, entry);
+            }
+            return entry.job;
+        }
+        return null;
+    }
+
+    /**
+     * Remove all jobs.
+     * @return The removed jobs.
+     */
+    public List<JobEvent> clear() {
+        final List<JobEvent> jobs = new ArrayList<JobEvent>();
+        final Iterator<String> i = this.jobsById.keySet().iterator();
+        while ( i.hasNext() ) {
+            final JobEvent job = this.remove(i.next());
+            if ( job != null ) {
+                jobs.add(job);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Return the jobs of the topic (or all topics if the topic is
+     * <code>null</code>) which might be of the given type.
+     * For active jobs only the active jobs are returned. For all other
+     * types all jobs are returned as the state of a job might change
+     * at any time and is checked by the caller.
+     */
+    public Iterable<JobEvent> getJobs(final String topic, final QueryType type) {
+        final Iterable<TopicIndex> indexes;
+        if ( topic != null ) {
+            final TopicIndex index = this.jobsByTopic.get(topic);
+            if ( index == null ) {
+                return Collections.emptyList();
+            }
+            indexes = Collections.singletonList(index);
+        } else {
+            indexes = this.jobsByTopic.values();
+        }
+        final boolean activeOnly = (type == QueryType.ACTIVE);
+        return new Iterable<JobEvent>() {
+
+            public Iterator<JobEvent> iterator() {
+                return new JobIterator(indexes.iterator(), activeOnly);
+            }
+        };
+    }
+
+    private TopicIndex getTopicIndex(final String topic) {
+        TopicIndex index = this.jobsByTopic.get(topic);
+        if ( index == null || index.isClosed() ) {
+            if ( index != null ) {
+                this.jobsByTopic.remove(topic, index);
+            }
+            index = new TopicIndex(topic);
+            final TopicIndex oldIndex = this.jobsByTopic.putIfAbsent(topic, index);
+            if ( oldIndex != null ) {
+                index = oldIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The index of a single topic.
+     */
+    private static final class TopicIndex {
+
+        /** The topic. */
+        final String topic;
+
+        /** All jobs in the order they were added, including removed ones. */
+        final ConcurrentLinkedQueue<Entry> jobs = new ConcurrentLinkedQueue<Entry>();
+
+        /** The jobs with a job name. */
+        final ConcurrentMap<String, Entry> jobsByName = new ConcurrentHashMap<String, Entry>();
+
+        /** The active jobs. */
+        final ConcurrentMap<String, Entry> activeJobs = new ConcurrentHashMap<String, Entry>();
+
+        /** The number of entries in the list which are removed. */
+        final AtomicInteger removedCount = new AtomicInteger();
+
+        /** The number of entries in the list. */
+        final AtomicInteger count = new AtomicInteger();
+
+        /** The number of jobs which are not removed, guarded by this index. */
+        private int liveCount;
+
+        /** Whether the index is empty and dropped, guarded by this index. */
+        private boolean closed;
+
+        TopicIndex(final String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Register a new job.
+         * @return <code>false</code> if the index has already been dropped.
+         */
+        synchronized boolean open() {
+            if ( this.closed ) {
+                return false;
+            }
+            this.liveCount++;
+            return true;
+        }
+
+        /**
+         * Unregister a removed job.
+         * @return <code>true</code> if this was the last job and the index
+         *         has been closed.
+         */
+        synchronized boolean close() {
+            this.liveCount--;
+            if ( this.liveCount == 0 ) {
+                this.closed = true;
+            }
+            return this.closed;
+        }
+
+        synchronized boolean isClosed() {
+            return this.closed;
+        }
+
+        /**
+         * Purge removed entries if they are taking more than half of the list.
+         */
+        void purge() {
+            final int removed = this.removedCount.get();
+            if ( removed >= PURGE_THRESHOLD && removed * 2 > this.count.get() ) {
+                final Iterator<Entry> i = this.jobs.iterator();
+                while ( i.hasNext() ) {
+                    final Entry entry = i.next();
+                    if ( entry.removed && entry.purged.compareAndSet(false, true) ) {
+                        i.remove();
+                        this.removedCount.decrementAndGet();
+                        this.count.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An entry of the index.
+     */
+    private static final class Entry {
+
+        final JobEvent job;
+
+        final TopicIndex topicIndex;
+
+        final String jobName;
+
+        volatile boolean removed;
+
+        final AtomicBoolean purged = new AtomicBoolean();
+
+        Entry(final JobEvent job, final TopicIndex topicIndex) {
+            this.job = job;
+            this.topicIndex = topicIndex;
+            this.jobName = (String)job.event.getProperty(JobUtil.PROPERTY_JOB_NAME);
+        }
+
+        /**
+         * Add the entry to its topic index.
+         * @return <code>false</code> if the topic index has been dropped.
+         */
+        boolean add() {
+            if ( !this.topicIndex.open() ) {
+                return false;
+            }
+            this.topicIndex.count.incrementAndGet();
+            this.topicIndex.jobs.add(this);
+            if ( this.jobName != null ) {
+                this.topicIndex.jobsByName.put(this.jobName, this);
+            }
+            return true;
+        }
+
+        /**
+         * Remove the entry from its topic index.
+         * @return <code>true</code> if the topic index is empty now.
+         */
+        boolean remove() {
+            this.removed = true;
+            if ( this.jobName != null ) {
+                this.topicIndex.jobsByName.remove(this.jobName, this);
+            }
+            this.topicIndex.activeJobs.remove(this.job.uniqueId, this);
+            this.topicIndex.removedCount.incrementAndGet();
+            this.topicIndex.purge();
+            return this.topicIndex.close();
+        }
+    }
+
+    /**
+     * Iterator over the jobs of several topics skipping removed jobs.
+     */
+    private static final class JobIterator implements Iterator<JobEvent> {
+
+        private final Iterator<TopicIndex> indexes;
+
+        private final boolean activeOnly;
+
+        private Iterator<Entry> current;
+
+        private JobEvent next;
+
+        JobIterator(final Iterator<TopicIndex> indexes, final boolean activeOnly) {
+            this.indexes = indexes;
+            this.activeOnly = activeOnly;
+        }
+
+        public boolean hasNext() {
+            while ( this.next == null ) {
+                if ( this.current != null && this.current.hasNext() ) {
+                    final Entry entry = this.current.next();
+                    if ( !entry.removed ) {
+                        this.next = entry.job;
+                    }
+                } else if ( this.indexes.hasNext() ) {
+                    final TopicIndex index = this.indexes.next();
+                    this.current = (this.activeOnly ? index.activeJobs.values().iterator() : index.jobs.iterator());
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public JobEvent next() {
+            if ( !this.hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            final JobEvent job = this.next;
+            this.next = null;
+            return job;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -18,30 +18,63 @@
  */
 package org.apache.sling.event.impl.jobs;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
+import org.apache.sling.event.jobs.JobManager.QueryType;
 import org.apache.sling.event.jobs.JobsIterator;
 import org.osgi.service.event.Event;
 
 /**
  * Jobs iterator.
+ * The iterator lazily filters the jobs it is created with, therefore
+ * iterating and skipping does not require to collect the result first.
+ * The size is calculated on demand by collecting the remaining matching
+ * jobs once; iteration continues with this snapshot so the size and the
+ * returned jobs always agree even if the index changes in between.
  */
 public class JobsIteratorImpl implements JobsIterator {
 
-    /** The events list size. */
-    private final long size;
+    private enum Operation {
+        LESS,
+        LESS_OR_EQUALS,
+        EQUALS,
+        GREATER_OR_EQUALS,
+        GREATER
+    }
+
+    /** The requested job type. */
+    private final QueryType type;
+
+    /** The maximum number of jobs or a value smaller than one for all. */
+    private final long limit;
+
+    /** The filter templates. */
+    private final Map<String, Object>[] templates;
+
+    /** The events list size, calculated on demand. */
+    private long size = -1;
 
     /** The current position. */
-    private int index = 0;
+    private long index = 0;
+
+    /** The iterator, replaced by the snapshot once the size is calculated. */
+    private Iterator<JobEvent> iter;
 
-    /** The iterator. */
-    private final Iterator<Event> iter;
+    /** The next matching event. */
+    private Event next;
 
-    public JobsIteratorImpl(final List<Event> events) {
-        this.size = events.size();
-        this.iter = events.iterator();
+    public JobsIteratorImpl(final Iterable<JobEvent> jobs,
+            final QueryType type,
+            final long limit,
+            final Map<String, Object>... templates) {
+        this.type = type;
+        this.limit = limit;
+        this.templates = templates;
+        this.iter = jobs.iterator();
     }
 
     /**
@@ -55,6 +88,19 @@ public class JobsIteratorImpl implements JobsIterator {
      * @see org.apache.sling.event.jobs.JobsIterator#getSize()
      */
     public long getSize() {
+        if ( this.size == -1 ) {
+            final List<JobEvent> snapshot = new ArrayList<JobEvent>();
+            long count = this.index + (this.next != null ? 1 : 0);
+            while ( this.iter.hasNext() && (this.limit < 1 || count < this.limit) ) {
+                final JobEvent job = this.iter.next();
+                if ( matches(job, this.type, this.templates) ) {
+                    snapshot.add(job);
+                    count++;
+                }
+            }
+            this.iter = snapshot.iterator();
+            this.size = count;
+        }
         return this.size;
     }
 
@@ -65,27 +111,39 @@ public class JobsIteratorImpl implements JobsIterator {
         if ( skipNum < 0 ) {
             throw new IllegalArgumentException();
         }
-        if ( this.index + skipNum >= this.size ) {
-            throw new NoSuchElementException();
-        }
         for(long i=0; i<skipNum; i++) {
-            this.iter.next();
+            this.next();
         }
-        this.index += skipNum;
     }
 
     /**
      * @see java.util.Iterator#hasNext()
      */
     public boolean hasNext() {
-        return this.iter.hasNext();
+        if ( this.limit > 0 && this.index >= this.limit ) {
+            return false;
+        }
+        while ( this.next == null && this.iter.hasNext() ) {
+            final JobEvent job = this.iter.next();
+            // the jobs of the snapshot have already been matched
+            if ( this.size != -1 || matches(job, this.type, this.templates) ) {
+                this.next = job.event;
+            }
+        }
+        return this.next != null;
     }
 
     /**
      * @see java.util.Iterator#next()
      */
     public Event next() {
-        return this.iter.next();
+        if ( !this.hasNext() ) {
+            throw new NoSuchElementException();
+        }
+        final Event event = this.next;
+        this.next = null;
+        this.index++;
+        return event;
     }
 
     /**
@@ -101,4 +159,105 @@ public class JobsIteratorImpl implements JobsIterator {
     public Iterator<Event> iterator() {
         return this;
     }
+
+    /**
+     * Check if the job is of the requested type and matches one
+     * of the templates.
+     */
+    static boolean matches(final JobEvent job,
+            final QueryType type,
+            final Map<String, Object>... templates) {
+        if ( !checkType(type, job) ) {
+            return false;
+        }
+        if ( templates != null && templates.length != 0 ) {
+            for (Map<String,Object> template : templates) {
+                if ( match(job, template) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check the requested job type
+     */
+    private static boolean checkType(final QueryType type, final JobEvent event) {
+        if ( type == QueryType.ALL ) {
+            return true;
+        }
+        if ( type == QueryType.ACTIVE && event.started == 1 ) {
+            return true;
+        }
+        if ( type == QueryType.QUEUED && event.started == -1 ) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if the job matches the template
+     */
+    private static boolean match(final JobEvent job, final Map<String, Object> template) {
+        if ( template != null ) {
+            for(final Map.Entry<String, Object> current : template.entrySet()) {
+                final String key = current.getKey();
+                final char firstChar = key.length() > 0 ? key.charAt(0) : 0;
+                final String propName;
+                final Operation op;
+                if ( firstChar == '=' ) {
+                    propName = key.substring(1);
+                    op  = Operation.EQUALS;
+                } else if ( firstChar == '<' ) {
+                    final char secondChar = key.length() > 1 ? key.charAt(1) : 0;
+                    if ( secondChar == '=' ) {
+                        op = Operation.LESS_OR_EQUALS;
+                        propName = key.substring(2);
+                    } else {
+                        op = Operation.LESS;
+                        propName = key.substring(1);
+                    }
+                } else if ( firstChar == '>' ) {
+                    final char secondChar = key.length() > 1 ? key.charAt(1) : 0;
+                    if ( secondChar == '=' ) {
+                        op = Operation.GREATER_OR_EQUALS;
+                        propName = key.substring(2);
+                    } else {
+                        op = Operation.GREATER;
+                        propName = key.substring(1);
+                    }
+                } else {
+                    propName = key;
+                    op  = Operation.EQUALS;
+                }
+                final Object value = current.getValue();
+
+                if ( op == Operation.EQUALS ) {
+                    if ( !value.equals(job.event.getProperty(propName)) ) {
+                        return false;
+                    }
+                } else {
+                    if ( value instanceof Comparable ) {
+                        @SuppressWarnings({ "unchecked", "rawtypes" })
+                        final int result = ((Comparable)value).compareTo(job.event.getProperty(propName));
+                        if ( op == Operation.LESS && result != -1 ) {
+                            return false;
+                        } else if ( op == Operation.LESS_OR_EQUALS && result == 1 ) {
+                            return false;
+                        } else if ( op == Operation.GREATER_OR_EQUALS && result == -1 ) {
+                            return false;
+                        } else if ( op == Operation.GREATER && result != 1 ) {
+                            return false;
+                        }
+                    } else {
+                        // if the value is not comparable we simply don't match
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
 }
@@ -110,6 +110,17 @@ public class StatisticsImpl implements Statistics {
         return averageProcessingTime;
     }
 
+    /**
+     * Return the number of processed jobs per second since the start time.
+     */
+    public synchronized double getThroughput() {
+        final long duration = System.currentTimeMillis() - startTime;
+        if ( duration <= 0 ) {
+            return 0;
+        }
+        return getNumberOfProcessedJobs() * 1000.0 / duration;
+    }
+
     /**
      * @see org.apache.sling.event.jobs.Statistics#getNumberOfFinishedJobs()
      */
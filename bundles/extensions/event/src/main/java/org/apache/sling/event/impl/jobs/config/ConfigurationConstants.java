@@ -31,11 +31,13 @@ public abstract class ConfigurationConstants {
     public static final int DEFAULT_RETRIES = 10;
     public static final long DEFAULT_RETRY_DELAY = 2000;
     public static final int DEFAULT_MAX_PARALLEL = 15;
+    public static final int DEFAULT_MAX_QUEUED = 0;
 
     public static final String PROP_NAME = "queue.name";
     public static final String PROP_TYPE = "queue.type";
     public static final String PROP_TOPICS = "queue.topics";
     public static final String PROP_MAX_PARALLEL = "queue.maxparallel";
+    public static final String PROP_MAX_QUEUED = "queue.maxqueued";
     public static final String PROP_RETRIES = "queue.retries";
     public static final String PROP_RETRY_DELAY = "queue.retrydelay";
     public static final String PROP_PRIORITY = "queue.priority";
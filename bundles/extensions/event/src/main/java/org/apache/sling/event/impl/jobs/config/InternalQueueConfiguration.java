@@ -49,11 +49,14 @@ import org.osgi.service.event.Event;
             options={@PropertyOption(name="UNORDERED",value="Parallel"),
                      @PropertyOption(name="ORDERED",value="Ordered"),
                      @PropertyOption(name="TOPIC_ROUND_ROBIN",value="Topic Round Robin"),
+                     @PropertyOption(name="DIRECT_PARALLEL",value="Parallel (Direct Dispatch)"),
                      @PropertyOption(name="IGNORE",value="Ignore")}),
     @Property(name=ConfigurationConstants.PROP_TOPICS,
             unbounded=PropertyUnbounded.ARRAY),
     @Property(name=ConfigurationConstants.PROP_MAX_PARALLEL,
             intValue=ConfigurationConstants.DEFAULT_MAX_PARALLEL),
+    @Property(name=ConfigurationConstants.PROP_MAX_QUEUED,
+            intValue=ConfigurationConstants.DEFAULT_MAX_QUEUED),
     @Property(name=ConfigurationConstants.PROP_RETRIES,
             intValue=ConfigurationConstants.DEFAULT_RETRIES),
     @Property(name=ConfigurationConstants.PROP_RETRY_DELAY,
@@ -92,6 +95,9 @@ public class InternalQueueConfiguration
     /** The maximum number of parallel processes (for non ordered queues) */
     private int maxParallelProcesses;
 
+    /** The maximum number of queued jobs (for direct parallel queues), 0 for no limit */
+    private int maxQueued;
+
     /** Optional application ids where this queue is running on. */
     private String[] applicationIds;
 
@@ -133,8 +139,11 @@ public class InternalQueueConfiguration
         this.runLocal = OsgiUtil.toBoolean(params.get(ConfigurationConstants.PROP_RUN_LOCAL), ConfigurationConstants.DEFAULT_RUN_LOCAL);
         this.retries = OsgiUtil.toInteger(params.get(ConfigurationConstants.PROP_RETRIES), ConfigurationConstants.DEFAULT_RETRIES);
         this.retryDelay = OsgiUtil.toLong(params.get(ConfigurationConstants.PROP_RETRY_DELAY), ConfigurationConstants.DEFAULT_RETRY_DELAY);
-        final int maxParallel = OsgiUtil.toInteger(params.get(ConfigurationConstants.PROP_MAX_PARALLEL), ConfigurationConstants.DEFAULT_MAX_PARALLEL);
+        // direct parallel queues use the number of processors by default
+        final int maxParallel = OsgiUtil.toInteger(params.get(ConfigurationConstants.PROP_MAX_PARALLEL),
+                (this.type == Type.DIRECT_PARALLEL ? -1 : ConfigurationConstants.DEFAULT_MAX_PARALLEL));
         this.maxParallelProcesses = (maxParallel == -1 ? ConfigurationConstants.NUMBER_OF_PROCESSORS : maxParallel);
+        this.maxQueued = OsgiUtil.toInteger(params.get(ConfigurationConstants.PROP_MAX_QUEUED), ConfigurationConstants.DEFAULT_MAX_QUEUED);
         final String appIds[] = OsgiUtil.toStringArray(params.get(ConfigurationConstants.PROP_APP_IDS));
         if ( appIds == null
              || appIds.length == 0
@@ -253,11 +262,14 @@ public class InternalQueueConfiguration
         if ( retries < -1 ) {
             return false;
         }
-        if ( type == Type.UNORDERED || type == Type.TOPIC_ROUND_ROBIN ) {
+        if ( type == Type.UNORDERED || type == Type.TOPIC_ROUND_ROBIN || type == Type.DIRECT_PARALLEL ) {
             if ( maxParallelProcesses < 1 ) {
                 return false;
             }
         }
+        if ( maxQueued < 0 ) {
+            return false;
+        }
         return true;
     }
 
@@ -356,6 +368,15 @@ public class InternalQueueConfiguration
         return this.maxParallelProcesses;
     }
 
+    /**
+     * Return the maximum number of queued jobs for direct parallel queues.
+     * If the queue is full, adding a job blocks until the queue has capacity
+     * again. 0 means no limit.
+     */
+    public int getMaxQueued() {
+        return this.maxQueued;
+    }
+
     /**
      * @see org.apache.sling.event.jobs.QueueConfiguration#isLocalQueue()
      */
@@ -395,6 +416,7 @@ public class InternalQueueConfiguration
             ", type=" + this.type +
             ", topics=" + (this.matchers == null ? "[]" : Arrays.toString(this.matchers)) +
             ", maxParallelProcesses=" + this.maxParallelProcesses +
+            ", maxQueued=" + this.maxQueued +
             ", retries=" + this.retries +
             ", retryDelayInMs= " + this.retryDelay +
             ", applicationIds= " + (this.applicationIds == null ? "[]" : Arrays.toString(this.applicationIds)) +
@@ -34,10 +34,15 @@ import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.event.impl.jobs.DefaultJobManager;
+import org.apache.sling.event.impl.jobs.StatisticsImpl;
 import org.apache.sling.event.impl.jobs.config.InternalQueueConfiguration;
 import org.apache.sling.event.impl.jobs.config.QueueConfigurationManager;
+import org.apache.sling.event.impl.jobs.jcr.PersistenceHandler;
+import org.apache.sling.event.impl.jobs.jcr.WriterStatistics;
 import org.apache.sling.event.jobs.JobManager;
 import org.apache.sling.event.jobs.Queue;
 import org.apache.sling.event.jobs.QueueConfiguration;
@@ -66,6 +71,9 @@ public class WebConsolePlugin extends HttpServlet {
     @Reference
     private QueueConfigurationManager queueConfigManager;
 
+    @Reference(policy=ReferencePolicy.DYNAMIC,cardinality=ReferenceCardinality.OPTIONAL_UNARY)
+    private volatile PersistenceHandler persistenceHandler;
+
     /** Escape the output for html. */
     private String escape(final String text) {
         if ( text == null ) {
@@ -125,6 +133,10 @@ public class WebConsolePlugin extends HttpServlet {
         } else if ( "reset".equals(cmd) ) {
             if ( req.getParameter(PAR_QUEUE) == null || req.getParameter(PAR_QUEUE).length() == 0 ) {
                 this.jobManager.getStatistics().reset();
+                final PersistenceHandler ph = this.persistenceHandler;
+                if ( ph != null ) {
+                    ph.getWriterStatistics().reset();
+                }
             } else {
                 final Queue q = this.getQueue(req);
                 if ( q != null ) {
@@ -198,9 +210,31 @@ public class WebConsolePlugin extends HttpServlet {
         pw.printf("<tr><td>Processed Jobs</td><td>%s</td></tr>", s.getNumberOfProcessedJobs());
         pw.printf("<tr><td>Average Processing Time</td><td>%s</td></tr>", formatTime(s.getAverageProcessingTime()));
         pw.printf("<tr><td>Average Waiting Time</td><td>%s</td></tr>", formatTime(s.getAverageWaitingTime()));
+        pw.printf("<tr><td>Jobs/sec</td><td>%s</td></tr>", formatThroughput(s));
         pw.println("</tbody></table>");
         pw.println("<br/>");
 
+        final PersistenceHandler ph = this.persistenceHandler;
+        if ( ph != null ) {
+            final WriterStatistics ws = ph.getWriterStatistics();
+            pw.println("<table class='nicetable'><tbody>");
+            pw.println("<tr><th colspan='2'>Job Writer Statistics</th></tr>");
+            pw.printf("<tr><td>Start Time</td><td>%s</td></tr>", formatDate(ws.getStartTime()));
+            pw.printf("<tr><td>Persisted Jobs</td><td>%s</td></tr>", ws.getNumberOfPersistedJobs());
+            pw.printf("<tr><td>Batches</td><td>%s</td></tr>", ws.getNumberOfBatches());
+            pw.printf("<tr><td>Conflicts</td><td>%s</td></tr>", ws.getNumberOfConflicts());
+            pw.printf("<tr><td>Average Batch Size</td><td>%.1f</td></tr>", ws.getAverageBatchSize());
+            pw.printf("<tr><td>Jobs/sec (overall)</td><td>%.1f</td></tr>", ws.getThroughput());
+            pw.printf("<tr><td>Jobs/sec (writing)</td><td>%.1f</td></tr>", ws.getWriteThroughput());
+            final String[] labels = ws.getHistogramLabels();
+            final long[] histogram = ws.getHistogram();
+            for(int i = 0; i < labels.length; i++) {
+                pw.printf("<tr><td>Batch Size %s</td><td>%s</td></tr>", labels[i], histogram[i]);
+            }
+            pw.println("</tbody></table>");
+            pw.println("<br/>");
+        }
+
         boolean isEmpty = true;
         for(final Queue q : this.jobManager.getQueues()) {
             isEmpty = false;
@@ -233,6 +267,7 @@ public class WebConsolePlugin extends HttpServlet {
             pw.printf("<tr><td>Processed Jobs</td><td>%s</td><td colspan='2'>&nbsp</td></tr>", s.getNumberOfProcessedJobs());
             pw.printf("<tr><td>Average Processing Time</td><td>%s</td><td colspan='2'>&nbsp</td></tr>", formatTime(s.getAverageProcessingTime()));
             pw.printf("<tr><td>Average Waiting Time</td><td>%s</td><td colspan='2'>&nbsp</td></tr>", formatTime(s.getAverageWaitingTime()));
+            pw.printf("<tr><td>Jobs/sec</td><td>%s</td><td colspan='2'>&nbsp</td></tr>", formatThroughput(s));
             pw.printf("<tr><td>Status Info</td><td colspan='3'>%s</td></tr>", escape(q.getStateInfo()));
             pw.println("</tbody></table>");
             pw.println("<br/>");
@@ -325,9 +360,20 @@ public class WebConsolePlugin extends HttpServlet {
             case ORDERED : return "Ordered";
             case TOPIC_ROUND_ROBIN : return "Topic Round Robin";
             case UNORDERED : return "Parallel";
+            case DIRECT_PARALLEL : return "Parallel (Direct Dispatch)";
         }
         return type.toString();
     }
+
+    /**
+     * Format the throughput of the statistics
+     */
+    private String formatThroughput(final Statistics s) {
+        if ( s instanceof StatisticsImpl ) {
+            return String.format("%.1f", ((StatisticsImpl)s).getThroughput());
+        }
+        return "-";
+    }
     /** Default date format used. */
     private final DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss:SSS yyyy-MMM-dd");
 
@@ -393,8 +439,28 @@ public class WebConsolePlugin extends HttpServlet {
         pw.printf("Processed Jobs : %s%n", s.getNumberOfProcessedJobs());
         pw.printf("Average Processing Time : %s%n", formatTime(s.getAverageProcessingTime()));
         pw.printf("Average Waiting Time : %s%n", formatTime(s.getAverageWaitingTime()));
+        pw.printf("Jobs/sec : %s%n", formatThroughput(s));
         pw.println();
 
+        final PersistenceHandler ph = this.persistenceHandler;
+        if ( ph != null ) {
+            final WriterStatistics ws = ph.getWriterStatistics();
+            pw.println("Job Writer Statistics");
+            pw.printf("Start Time : %s%n", formatDate(ws.getStartTime()));
+            pw.printf("Persisted Jobs : %s%n", ws.getNumberOfPersistedJobs());
+            pw.printf("Batches : %s%n", ws.getNumberOfBatches());
+            pw.printf("Conflicts : %s%n", ws.getNumberOfConflicts());
+            pw.printf("Average Batch Size : %.1f%n", ws.getAverageBatchSize());
+            pw.printf("Jobs/sec (overall) : %.1f%n", ws.getThroughput());
+            pw.printf("Jobs/sec (writing) : %.1f%n", ws.getWriteThroughput());
+            final String[] labels = ws.getHistogramLabels();
+            final long[] histogram = ws.getHistogram();
+            for(int i = 0; i < labels.length; i++) {
+                pw.printf("Batch Size %s : %s%n", labels[i], histogram[i]);
+            }
+            pw.println();
+        }
+
         boolean isEmpty = true;
         for(final Queue q : this.jobManager.getQueues()) {
             isEmpty = false;
@@ -416,6 +482,7 @@ public class WebConsolePlugin extends HttpServlet {
             pw.printf("Processed Jobs : %s%n", s.getNumberOfProcessedJobs());
             pw.printf("Average Processing Time : %s%n", formatTime(s.getAverageProcessingTime()));
             pw.printf("Average Waiting Time : %s%n", formatTime(s.getAverageWaitingTime()));
+            pw.printf("Jobs/sec : %s%n", formatThroughput(s));
             pw.printf("Status Info : %s%n", q.getStateInfo());
             pw.println("Configuration");
             pw.printf("Type : %s%n", formatType(c.getType()));
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs.jcr;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A consistent hash ring assigning keys to cluster nodes.
+ * Each cluster node is placed several times on the ring. A key is
+ * owned by the first cluster node following the hash of the key.
+ * As the assignment only depends on the set of cluster node ids, all
+ * cluster nodes seeing the same set of nodes agree on the owner
+ * of a key without any communication. If a node is added or removed,
+ * only the keys of this node change their owner.
+ */
+class ConsistentHashRing {
+
+    /** The number of positions of each cluster node on the ring. */
+    static final int DEFAULT_VIRTUAL_NODES = 100;
+
+    /** The ring. */
+    private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+
+    /** The sorted cluster node ids. */
+    private final Collection<String> nodeIds;
+
+    public ConsistentHashRing(final Collection<String> nodeIds, final int virtualNodes) {
+        final TreeSet<String> ids = new TreeSet<String>(nodeIds);
+        for(final String id : ids) {
+            for(int i = 0; i < virtualNodes; i++) {
+                final long hash = hash(id + '#' + i);
+                // on a collision the smaller id wins to be deterministic
+                if ( !this.ring.containsKey(hash) ) {
+                    this.ring.put(hash, id);
+                }
+            }
+        }
+        this.nodeIds = Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Return the id of the cluster node owning the key or
+     * <code>null</code> if the ring is empty.
+     */
+    public String getOwner(final String key) {
+        if ( this.ring.isEmpty() ) {
+            return null;
+        }
+        final SortedMap<Long, String> tail = this.ring.tailMap(hash(key));
+        return tail.isEmpty() ? this.ring.get(this.ring.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    /**
+     * Return the sorted ids of all cluster nodes on the ring.
+     */
+    public Collection<String> getNodeIds() {
+        return this.nodeIds;
+    }
+
+    /**
+     * Calculate the hash for a string: the first eight bytes of the MD5 digest.
+     */
+    static long hash(final String value) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("MD5");
+            final byte[] digest = md.digest(value.getBytes("UTF-8"));
+            long result = 0;
+            for(int i = 0; i < 8; i++) {
+                result = (result << 8) | (digest[i] & 0xff);
+            }
+            return result;
+        } catch (final NoSuchAlgorithmException nsae) {
+            // MD5 is required to be supported by all platforms
+            throw new IllegalStateException(nsae);
+        } catch (final UnsupportedEncodingException uee) {
+            // UTF-8 is required to be supported by all platforms
+            throw new IllegalStateException(uee);
+        }
+    }
+}
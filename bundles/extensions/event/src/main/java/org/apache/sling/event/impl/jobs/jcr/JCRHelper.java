@@ -77,6 +77,9 @@ public abstract class JCRHelper {
     /** The property for locks. */
     public static final String NODE_PROPERTY_LOCK_OWNER = "jcr:lockOwner";
 
+    /** The property for the cluster node processing a job in hash lock mode. */
+    public static final String NODE_PROPERTY_OWNER = "slingevent:owner";
+
     /** List of ignored properties to write to the repository. */
     private static final String[] IGNORE_PROPERTIES = new String[] {
         EventUtil.PROPERTY_DISTRIBUTE,
@@ -18,9 +18,13 @@
  */
 package org.apache.sling.event.impl.jobs.jcr;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -61,6 +65,17 @@ import org.slf4j.LoggerFactory;
 /**
  * The lock manager handles locking and unlocking nodes.
  * It can be configured to handle locks in different ways:
+ * - session: session scoped repository locks
+ * - open: open scoped repository locks, the lock manager unlocks
+ *   the nodes of dead cluster nodes
+ * - hash: no repository locks, each job is assigned to exactly one
+ *   cluster node using a consistent hash over all cluster nodes
+ *   with a recent heartbeat. The cluster node processing a job writes
+ *   its id into the job node while holding a short session scoped
+ *   repository lock; the job is not started by another cluster node
+ *   as long as this cluster node is alive. If cluster nodes join or
+ *   leave, the jobs are assigned again.
+ * - none: no locking at all
  */
 public class LockManager implements Runnable, EventListener {
 
@@ -71,10 +86,14 @@ public class LockManager implements Runnable, EventListener {
     private static final String MODE_SESSION = "session";
     private static final String MODE_OPEN = "open";
     private static final String MODE_NONE = "none";
+    private static final String MODE_HASH = "hash";
 
     /** Default lock mode. */
     private static final String DEFAULT_MODE = MODE_SESSION;
 
+    /** Cluster nodes without a heartbeat for this time are considered dead. */
+    private static final long HEARTBEAT_TIMEOUT = 120000;
+
     /** Property to be updated by the heartbeat. */
     private static final String LAST_MODIFIED_PROP = "lastModified";
 
@@ -92,12 +111,14 @@ public class LockManager implements Runnable, EventListener {
     @Property(value=DEFAULT_MODE,
             options={@PropertyOption(name=MODE_SESSION,value="Session Scoped"),
                      @PropertyOption(name=MODE_OPEN,value="Open Scoped"),
+                     @PropertyOption(name=MODE_HASH,value="Consistent Hash"),
                      @PropertyOption(name=MODE_NONE,value="None")})
     private static final String CONFIG_PROPERTY_MODE = "lm.mode";
 
     private static enum LockMode {
         session,
         open,
+        hash,
         none
     };
 
@@ -126,7 +147,16 @@ public class LockManager implements Runnable, EventListener {
     private String idNodePath;
 
     /** Lock mode .*/
-    private LockMode mode;
+    private volatile LockMode mode;
+
+    /** The hash ring of the live cluster nodes (hash mode). */
+    private volatile ConsistentHashRing ring;
+
+    /** The paths locked by this cluster node (hash mode). */
+    private final ConcurrentMap<String, Boolean> localLocks = new ConcurrentHashMap<String, Boolean>();
+
+    /** Listener informed if cluster nodes join or leave (hash mode). */
+    private volatile Runnable rebalanceListener;
 
     /**
      * Activate this component.
@@ -185,7 +215,12 @@ public class LockManager implements Runnable, EventListener {
         final String modeString = OsgiUtil.toString(props.get(CONFIG_PROPERTY_MODE), DEFAULT_MODE);
         this.mode = LockMode.valueOf(modeString);
         if ( oldMode != this.mode ) {
-            this.running = this.mode == LockMode.open;
+            this.running = this.mode == LockMode.open || this.mode == LockMode.hash;
+            if ( this.mode == LockMode.hash ) {
+                synchronized ( this.backgroundLock ) {
+                    this.updateRing();
+                }
+            }
         }
     }
 
@@ -285,17 +320,28 @@ public class LockManager implements Runnable, EventListener {
         if ( this.running ) {
             // we update last modified
             this.updateLastModified();
-            final long teeMinusTwo = System.currentTimeMillis() - 120000;
+            final long teeMinusTwo = System.currentTimeMillis() - HEARTBEAT_TIMEOUT;
+            boolean nodesLeft = false;
             synchronized ( this.backgroundLock ) {
                 for(final Map.Entry<String, Long> entry : this.lastModifiedMap.entrySet() ) {
                     if ( entry.getValue() != -1 ) {
                         logger.debug("Checking cluster node {}", entry.getKey());
                         if ( entry.getValue() <= teeMinusTwo ) {
-                            this.unlock(entry.getKey());
+                            if ( this.mode == LockMode.open ) {
+                                this.unlock(entry.getKey());
+                            }
                             entry.setValue(-1L);
+                            nodesLeft = true;
                         }
                     }
                 }
+                if ( nodesLeft && this.mode == LockMode.hash ) {
+                    this.updateRing();
+                }
+            }
+            final Runnable listener = this.rebalanceListener;
+            if ( nodesLeft && this.mode == LockMode.hash && listener != null ) {
+                listener.run();
             }
         }
 
@@ -338,6 +384,7 @@ public class LockManager implements Runnable, EventListener {
      * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
      */
     public void onEvent(final EventIterator events) {
+        boolean nodesJoined = false;
         synchronized ( this.backgroundLock ) {
             while ( events.hasNext() ) {
                 final Event event = events.nextEvent();
@@ -349,7 +396,13 @@ public class LockManager implements Runnable, EventListener {
                             final javax.jcr.Property prop = this.backgroundSession.getProperty(path);
                             final String id = prop.getParent().getName();
                             logger.debug("Updated heartbeat from {}", id);
-                            this.lastModifiedMap.put(id, prop.getLong());
+                            final Long oldValue = this.lastModifiedMap.put(id, prop.getLong());
+                            if ( this.mode == LockMode.hash && !Environment.APPLICATION_ID.equals(id)
+                                 && (oldValue == null || oldValue <= System.currentTimeMillis() - HEARTBEAT_TIMEOUT) ) {
+                                // a cluster node joined
+                                this.updateRing();
+                                nodesJoined = true;
+                            }
                         }
                     } catch (final RepositoryException re) {
                         this.ignoreException(re);
@@ -357,6 +410,72 @@ public class LockManager implements Runnable, EventListener {
                 }
             }
         }
+        final Runnable listener = this.rebalanceListener;
+        if ( nodesJoined && listener != null ) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Rebuild the hash ring from this cluster node and all cluster
+     * nodes with a recent heartbeat.
+     * This method must be called while holding the background lock.
+     */
+    private void updateRing() {
+        final long teeMinusTwo = System.currentTimeMillis() - HEARTBEAT_TIMEOUT;
+        final List<String> ids = new ArrayList<String>();
+        ids.add(Environment.APPLICATION_ID);
+        for(final Map.Entry<String, Long> entry : this.lastModifiedMap.entrySet() ) {
+            if ( entry.getValue() > teeMinusTwo && !Environment.APPLICATION_ID.equals(entry.getKey()) ) {
+                ids.add(entry.getKey());
+            }
+        }
+        this.ring = new ConsistentHashRing(ids, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        logger.info("Job assignment uses cluster nodes {}", this.ring.getNodeIds());
+    }
+
+    /**
+     * Set the listener which is informed if cluster nodes joined or left
+     * the cluster in hash mode. The jobs are now assigned differently and
+     * jobs which this cluster node skipped before need to be loaded again.
+     * @param listener The listener or <code>null</code>
+     */
+    public void setRebalanceListener(final Runnable listener) {
+        this.rebalanceListener = listener;
+    }
+
+    /**
+     * Check whether this cluster node is responsible for processing the
+     * node at the given path.
+     * In hash mode, each path is assigned to exactly one cluster node.
+     * In all other modes this method returns always <code>true</code>.
+     * @param path The path to the node
+     */
+    public boolean isResponsible(final String path) {
+        final ConsistentHashRing current = this.ring;
+        if ( this.mode != LockMode.hash || current == null ) {
+            return true;
+        }
+        return Environment.APPLICATION_ID.equals(current.getOwner(path));
+    }
+
+    /**
+     * Check whether the node at the given path is locked.
+     * In hash mode, a node is locked if it is processed by this
+     * cluster node or by another cluster node which is still alive.
+     * @param session The session to check the lock with
+     * @param path The path to the node
+     * @throws RepositoryException If anything goes wrong
+     */
+    public boolean isLocked(final Session session, final String path) throws RepositoryException {
+        if ( this.mode == LockMode.hash ) {
+            if ( this.localLocks.containsKey(path) ) {
+                return true;
+            }
+            final String owner = this.getOwner(session, path);
+            return owner != null && !Environment.APPLICATION_ID.equals(owner) && this.isAlive(owner);
+        }
+        return session.itemExists(path) && ((Node)session.getItem(path)).isLocked();
     }
 
     /**
@@ -366,7 +485,30 @@ public class LockManager implements Runnable, EventListener {
      * @throws RepositoryException If anything goes wrong
      */
     public void lock(final Session session, final String path) throws RepositoryException {
-        if ( this.mode != LockMode.none ) {
+        if ( this.mode == LockMode.hash ) {
+            if ( this.localLocks.putIfAbsent(path, Boolean.TRUE) != null ) {
+                throw new RepositoryException("Node is already locked: " + path);
+            }
+            try {
+                // a concurrent claim of another cluster node fails here
+                final javax.jcr.lock.LockManager lockManager = this.claim(session, path);
+                try {
+                    // the job might still be processed by its previous owner
+                    final String owner = this.getOwner(session, path);
+                    if ( owner != null && !Environment.APPLICATION_ID.equals(owner) && this.isAlive(owner) ) {
+                        throw new RepositoryException("Node is processed by cluster node " + owner + " : " + path);
+                    }
+                    ((Node)session.getItem(path)).setProperty(JCRHelper.NODE_PROPERTY_OWNER, Environment.APPLICATION_ID);
+                    session.save();
+                } finally {
+                    this.release(lockManager, path);
+                }
+            } catch (final RepositoryException re) {
+                session.refresh(false);
+                this.localLocks.remove(path);
+                throw re;
+            }
+        } else if ( this.mode != LockMode.none ) {
             session.getWorkspace().getLockManager().lock(path, false,
                     this.mode == LockMode.session, Long.MAX_VALUE,
                     OWNER_PREFIX + Environment.APPLICATION_ID);
@@ -381,8 +523,72 @@ public class LockManager implements Runnable, EventListener {
      */
     public void unlock(final Session session, final String path)
     throws RepositoryException {
-        if ( this.mode != LockMode.none ) {
+        if ( this.mode == LockMode.hash ) {
+            try {
+                final javax.jcr.lock.LockManager lockManager = this.claim(session, path);
+                try {
+                    if ( Environment.APPLICATION_ID.equals(this.getOwner(session, path)) ) {
+                        ((Node)session.getItem(path)).getProperty(JCRHelper.NODE_PROPERTY_OWNER).remove();
+                        session.save();
+                    }
+                } finally {
+                    this.release(lockManager, path);
+                }
+            } finally {
+                this.localLocks.remove(path);
+            }
+        } else if ( this.mode != LockMode.none ) {
             session.getWorkspace().getLockManager().unlock(path);
         }
     }
+
+    /**
+     * Lock the node at the given path with a session scoped repository
+     * lock while the owner is checked and updated in hash mode. This
+     * makes the check and the update atomic across the cluster.
+     * @return The repository lock manager to release the lock with.
+     * @throws RepositoryException If the node is locked by another session.
+     */
+    private javax.jcr.lock.LockManager claim(final Session session, final String path)
+    throws RepositoryException {
+        final javax.jcr.lock.LockManager lockManager = session.getWorkspace().getLockManager();
+        lockManager.lock(path, false, true, Long.MAX_VALUE, OWNER_PREFIX + Environment.APPLICATION_ID);
+        return lockManager;
+    }
+
+    /**
+     * Release the lock created by {@link #claim(Session, String)}.
+     * If this fails, the lock is released when the session is closed.
+     */
+    private void release(final javax.jcr.lock.LockManager lockManager, final String path) {
+        try {
+            lockManager.unlock(path);
+        } catch (final RepositoryException re) {
+            this.ignoreException(re);
+        }
+    }
+
+    /**
+     * Return the cluster node processing the node at the given path
+     * in hash mode.
+     * @return The id of the cluster node or <code>null</code>
+     */
+    private String getOwner(final Session session, final String path) throws RepositoryException {
+        final String propPath = path + '/' + JCRHelper.NODE_PROPERTY_OWNER;
+        if ( session.propertyExists(propPath) ) {
+            return session.getProperty(propPath).getString();
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the cluster node has a recent heartbeat.
+     * @param id The id of the cluster node
+     */
+    private boolean isAlive(final String id) {
+        synchronized ( this.backgroundLock ) {
+            final Long lastModified = this.lastModifiedMap.get(id);
+            return lastModified != null && lastModified > System.currentTimeMillis() - HEARTBEAT_TIMEOUT;
+        }
+    }
 }
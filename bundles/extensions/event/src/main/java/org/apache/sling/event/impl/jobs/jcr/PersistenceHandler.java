@@ -18,13 +18,16 @@
  */
 package org.apache.sling.event.impl.jobs.jcr;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Dictionary;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.jcr.ItemExistsException;
 import javax.jcr.Node;
@@ -131,6 +134,20 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
     @Property(longValue=DEFAULT_BACKGROUND_CHECK_DELAY)
     private static final String CONFIG_PROPERTY_BACKGROUND_CHECK_DELAY = "load.checkdelay";
 
+    /** Default write batch size. */
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 50;
+
+    /** The maximum number of jobs written to the repository with a single save. */
+    @Property(intValue=DEFAULT_WRITE_BATCH_SIZE)
+    private static final String CONFIG_PROPERTY_WRITE_BATCH_SIZE = "write.batch.size";
+
+    /** Default write batch wait. */
+    private static final long DEFAULT_WRITE_BATCH_WAIT = 0;
+
+    /** The writer waits this time of milliseconds for more jobs to fill a batch. */
+    @Property(longValue=DEFAULT_WRITE_BATCH_WAIT)
+    private static final String CONFIG_PROPERTY_WRITE_BATCH_WAIT = "write.batch.wait";
+
     /** We remove everything which is older than 5 min by default. */
     private int cleanupPeriod;
 
@@ -149,6 +166,15 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
     /** A local queue for writing received events into the repository. */
     private final BlockingQueue<Event> writeQueue = new LinkedBlockingQueue<Event>();
 
+    /** The maximum number of jobs written with a single save. */
+    private int writeBatchSize;
+
+    /** The time in ms to wait for more jobs to fill a batch. */
+    private long writeBatchWait;
+
+    /** Statistics of the writer. */
+    private final WriterStatistics writerStatistics = new WriterStatistics();
+
     /** Lock for the background session. */
     private final Object backgroundLock = new Object();
 
@@ -180,6 +206,11 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
             this.cleanupPeriod = DEFAULT_CLEANUP_PERIOD;
         }
         this.repositoryPath = OsgiUtil.toString(props.get(CONFIG_PROPERTY_REPOSITORY_PATH), DEFAULT_REPOSITORY_PATH);
+        this.writeBatchSize = OsgiUtil.toInteger(props.get(CONFIG_PROPERTY_WRITE_BATCH_SIZE), DEFAULT_WRITE_BATCH_SIZE);
+        if ( this.writeBatchSize < 1 ) {
+            this.writeBatchSize = 1;
+        }
+        this.writeBatchWait = OsgiUtil.toLong(props.get(CONFIG_PROPERTY_WRITE_BATCH_WAIT), DEFAULT_WRITE_BATCH_WAIT);
         this.running = true;
 
         // start writer background thread
@@ -216,6 +247,16 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
                 null,
                 null,
                 true);
+        this.lockManager.setRebalanceListener(new Runnable() {
+            public void run() {
+                // the lock manager calls us from its observation or scheduler thread
+                Environment.THREAD_POOL.execute(new Runnable() {
+                    public void run() {
+                        loadReassignedJobs();
+                    }
+                });
+            }
+        });
     }
 
     /**
@@ -225,6 +266,7 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
     @Deactivate
     protected void deactivate(final ComponentContext context) {
         this.running = false;
+        this.lockManager.setRebalanceListener(null);
         // stop write queue
         try {
             this.writeQueue.put(new Event("some", (Dictionary<String, Object>)null));
@@ -273,16 +315,20 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
                         final String propertyName = path.substring(pos+1);
 
                         // we are only interested in unlocks
-                        if ( JCRHelper.NODE_PROPERTY_LOCK_OWNER.equals(propertyName) ) {
+                        if ( JCRHelper.NODE_PROPERTY_LOCK_OWNER.equals(propertyName)
+                             || JCRHelper.NODE_PROPERTY_OWNER.equals(propertyName) ) {
                             loadNodePath = path.substring(0, pos);
                         }
                     } else if ( event.getType() == javax.jcr.observation.Event.PROPERTY_ADDED ) {
                         final int pos = path.lastIndexOf('/');
                         final String propertyName = path.substring(pos+1);
 
-                        // we are only interested in locks
-                        if ( JCRHelper.NODE_PROPERTY_LOCK_OWNER.equals(propertyName) ) {
+                        // we are only interested in locks and finished jobs
+                        if ( JCRHelper.NODE_PROPERTY_LOCK_OWNER.equals(propertyName)
+                             || JCRHelper.NODE_PROPERTY_OWNER.equals(propertyName) ) {
                             ((DefaultJobManager)this.jobManager).notifyActiveJob(path.substring(this.repositoryPath.length() + 1, pos));
+                        } else if ( JCRHelper.NODE_PROPERTY_FINISHED.equals(propertyName) ) {
+                            ((DefaultJobManager)this.jobManager).notifyRemoveJob(path.substring(this.repositoryPath.length() + 1, pos));
                         }
 
                     } else if ( event.getType() == javax.jcr.observation.Event.NODE_REMOVED) {
@@ -653,6 +699,54 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
         return eventCreated;
     }
 
+    /**
+     * Load the unfinished jobs which are now assigned to this cluster node
+     * because other cluster nodes joined or left the cluster.
+     * Jobs which are already queued are queued again; this is harmless
+     * as a job is only started once. Jobs which are still processed by
+     * a live cluster node are skipped; they are loaded again when that
+     * cluster node unlocks them.
+     */
+    private void loadReassignedJobs() {
+        if ( !this.running ) {
+            return;
+        }
+        logger.debug("Cluster changed. Loading reassigned jobs from {}", this.repositoryPath);
+        Session session = null;
+        try {
+            session = this.environment.createAdminSession();
+            final QueryObjectModelFactory qomf = session.getWorkspace().getQueryManager().getQOMFactory();
+            final String selectorName = "nodetype";
+            final Constraint constraint = qomf.and(
+                    qomf.descendantNode(selectorName, this.repositoryPath),
+                    qomf.not(qomf.propertyExistence(selectorName, JCRHelper.NODE_PROPERTY_FINISHED)));
+            final Query q = qomf.createQuery(
+                    qomf.selector(JCRHelper.JOB_NODE_TYPE, selectorName),
+                    constraint,
+                    new Ordering[] {qomf.ascending(qomf.propertyValue(selectorName, JCRHelper.NODE_PROPERTY_CREATED))},
+                    null
+            );
+            final NodeIterator result = q.execute().getNodes();
+            long count = 0;
+            while ( this.running && result.hasNext() ) {
+                final Node eventNode = result.nextNode();
+                final String path = eventNode.getPath();
+                if ( this.lockManager.isResponsible(path)
+                     && !this.lockManager.isLocked(session, path)
+                     && tryToLoadJob(eventNode, this.unloadedJobs) ) {
+                    count++;
+                }
+            }
+            logger.debug("Loaded {} reassigned jobs", count);
+        } catch (RepositoryException re) {
+            this.logger.error("Exception during loading of reassigned jobs.", re);
+        } finally {
+            if ( session != null ) {
+                session.logout();
+            }
+        }
+    }
+
     /**
      * Try to load a job from an event node in the repository.
      * @param eventNode       The node to read the event from
@@ -738,7 +832,8 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
                          true);
             rootNode = this.createPath(writerSession.getRootNode(),
                     this.repositoryPath.substring(1),
-                    JCRHelper.NODETYPE_ORDERED_FOLDER);
+                    JCRHelper.NODETYPE_ORDERED_FOLDER,
+                    true);
             writerSession.save();
 
             try {
@@ -765,64 +860,149 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
     }
 
     /**
-     * The writer queue. One job is written on each run.
+     * The writer queue. On each run all jobs available in the queue, up to
+     * the configured batch size, are written with a single save.
      */
     private void processWriteQueue(final Node rootNode) {
+        final List<Event> batch = new ArrayList<Event>(this.writeBatchSize);
         while ( this.running ) {
-            // so let's wait/get the next job from the queue
-            Event event = null;
-            try {
-                event = this.writeQueue.take();
-            } catch (InterruptedException e) {
-                // we ignore this
-                this.ignoreException(e);
+            // so let's wait/get the next jobs from the queue
+            batch.clear();
+            this.takeBatch(batch);
+            if ( !batch.isEmpty() && this.running ) {
+                this.writeBatch(rootNode, batch);
             }
-            if ( event != null && this.running ) {
-                if ( logger.isDebugEnabled() ) {
-                    logger.debug("Persisting job {}", EventUtil.toString(event));
-                }
-                final String jobId = (String)event.getProperty(JobUtil.PROPERTY_JOB_NAME);
-                final String jobTopic = (String)event.getProperty(JobUtil.PROPERTY_JOB_TOPIC);
-                final String nodePath = Utility.getUniquePath(jobTopic, jobId);
-
-                Node readAndProcess = null;
+        }
+    }
 
-                // if the job has no job id, we can just write the job to the repo and don't
-                // need locking
-                if ( jobId == null ) {
-                    try {
-                        readAndProcess = this.writeEvent(rootNode, event, nodePath);
-                    } catch (final RepositoryException re ) {
-                        // something went wrong, so let's log it
-                        this.logger.error("Exception during writing new job '" + EventUtil.toString(event) + "' to repository at " + nodePath, re);
+    /**
+     * Take the next batch of jobs from the write queue. This method blocks
+     * until at least one job is available.
+     */
+    private void takeBatch(final List<Event> batch) {
+        try {
+            batch.add(this.writeQueue.take());
+            this.writeQueue.drainTo(batch, this.writeBatchSize - batch.size());
+            if ( this.writeBatchWait > 0 ) {
+                final long end = System.currentTimeMillis() + this.writeBatchWait;
+                while ( this.running && batch.size() < this.writeBatchSize ) {
+                    final long wait = end - System.currentTimeMillis();
+                    if ( wait <= 0 ) {
+                        break;
                     }
-                } else {
-                    try {
-                        // let's first search for an existing node with the same id
-                        Node foundNode = null;
-                        if ( rootNode.hasNode(nodePath) ) {
-                            foundNode = rootNode.getNode(nodePath);
-                        }
-                        if ( foundNode == null ) {
-                            // We now write the event into the repository
-                            try {
-                                readAndProcess = this.writeEvent(rootNode, event, nodePath);
-                            } catch (ItemExistsException iee) {
-                                // someone else did already write this node in the meantime
-                                // nothing to do for us
-                            }
-                        }
-                    } catch (final RepositoryException re ) {
-                        // something went wrong, so let's log it
-                        this.logger.error("Exception during writing new job '" + EventUtil.toString(event) + "' to repository at " + nodePath, re);
+                    final Event event = this.writeQueue.poll(wait, TimeUnit.MILLISECONDS);
+                    if ( event == null ) {
+                        break;
                     }
+                    batch.add(event);
+                    this.writeQueue.drainTo(batch, this.writeBatchSize - batch.size());
                 }
+            }
+        } catch (InterruptedException e) {
+            // we ignore this
+            this.ignoreException(e);
+        }
+    }
 
-                if ( readAndProcess != null ) {
-                    tryToLoadJob(readAndProcess, this.unloadedJobs);
+    /**
+     * Write a batch of jobs to the repository.
+     * All jobs are written with a single save. If this fails, e.g. because
+     * another instance has written one of the jobs in the meantime, the
+     * changes are discarded and the jobs are written one by one.
+     */
+    private void writeBatch(final Node rootNode, final List<Event> batch) {
+        final long startTime = System.currentTimeMillis();
+        final List<Node> readAndProcess = new ArrayList<Node>(batch.size());
+
+        boolean conflict = false;
+        if ( batch.size() > 1 ) {
+            try {
+                for(final Event event : batch) {
+                    final Node eventNode = this.writeJob(rootNode, event, false);
+                    if ( eventNode != null ) {
+                        readAndProcess.add(eventNode);
+                    }
+                }
+                rootNode.getSession().save();
+            } catch (final RepositoryException re) {
+                this.logger.debug("Unable to write batch of " + batch.size() + " jobs, writing jobs one by one.", re);
+                readAndProcess.clear();
+                this.discardChanges(rootNode);
+                conflict = true;
+            }
+        }
+        if ( batch.size() == 1 || conflict ) {
+            for(final Event event : batch) {
+                final String nodePath = this.getUniquePath(event);
+                try {
+                    final Node eventNode = this.writeJob(rootNode, event, true);
+                    if ( eventNode != null ) {
+                        rootNode.getSession().save();
+                        readAndProcess.add(eventNode);
+                    }
+                } catch (ItemExistsException iee) {
+                    // someone else did already write this node in the meantime
+                    // nothing to do for us
+                    this.discardChanges(rootNode);
+                } catch (final RepositoryException re ) {
+                    // something went wrong, so let's log it
+                    this.logger.error("Exception during writing new job '" + EventUtil.toString(event) + "' to repository at " + nodePath, re);
+                    this.discardChanges(rootNode);
                 }
             }
         }
+        this.writerStatistics.addBatch(batch.size(), readAndProcess.size(),
+                System.currentTimeMillis() - startTime, conflict);
+
+        for(final Node eventNode : readAndProcess) {
+            tryToLoadJob(eventNode, this.unloadedJobs);
+        }
+    }
+
+    /**
+     * Write a single job to the repository without saving.
+     * @param saveFolders Whether missing folders should be saved immediately.
+     * @return The node of the job or <code>null</code> if a job with the
+     *         same job id has already been written.
+     */
+    private Node writeJob(final Node rootNode, final Event event, final boolean saveFolders)
+    throws RepositoryException {
+        if ( logger.isDebugEnabled() ) {
+            logger.debug("Persisting job {}", EventUtil.toString(event));
+        }
+        final String nodePath = this.getUniquePath(event);
+
+        // if the job has a job id, we first search for an existing node with the same id
+        final String jobId = (String)event.getProperty(JobUtil.PROPERTY_JOB_NAME);
+        if ( jobId != null && rootNode.hasNode(nodePath) ) {
+            return null;
+        }
+        // We now write the event into the repository
+        return this.writeEvent(rootNode, event, nodePath, saveFolders);
+    }
+
+    private String getUniquePath(final Event event) {
+        final String jobId = (String)event.getProperty(JobUtil.PROPERTY_JOB_NAME);
+        final String jobTopic = (String)event.getProperty(JobUtil.PROPERTY_JOB_TOPIC);
+        return Utility.getUniquePath(jobTopic, jobId);
+    }
+
+    /**
+     * Discard all pending changes of the writer session.
+     */
+    private void discardChanges(final Node rootNode) {
+        try {
+            rootNode.getSession().refresh(false);
+        } catch (final RepositoryException re) {
+            this.ignoreException(re);
+        }
+    }
+
+    /**
+     * Return the statistics of the job writer.
+     */
+    public WriterStatistics getWriterStatistics() {
+        return this.writerStatistics;
     }
 
     /**
@@ -833,18 +1013,20 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
     }
 
     /**
-     * Write an event to the repository.
+     * Write an event to the repository. The changes are not saved.
      * @param rootNode The root node for all jobs
      * @param e The event
      * @param suggestedName A suggested name/path for the node.
+     * @param saveFolders Whether missing folders should be saved immediately.
      * @throws RepositoryException
      */
-    private Node writeEvent(final Node rootNode, final Event e, final String path)
+    private Node writeEvent(final Node rootNode, final Event e, final String path, final boolean saveFolders)
     throws RepositoryException {
         // create new node with name of topic
         final Node eventNode = this.createPath(rootNode,
                 path,
-                JCRHelper.JOB_NODE_TYPE);
+                JCRHelper.JOB_NODE_TYPE,
+                saveFolders);
         JCRHelper.writeEventProperties(eventNode, e);
 
         eventNode.setProperty(JCRHelper.NODE_PROPERTY_CREATED, Calendar.getInstance());
@@ -857,7 +1039,6 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
         if ( jobId != null ) {
             eventNode.setProperty(JCRHelper.NODE_PROPERTY_JOBID, jobId);
         }
-        rootNode.getSession().save();
         return eventNode;
     }
 
@@ -1059,6 +1240,11 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
      */
     public boolean lock(final JobEvent info) {
         final String path = this.getNodePath(info.uniqueId);
+        // local jobs are always processed by the cluster node which created them
+        if ( info.event.getProperty(JobUtil.PROPERTY_JOB_RUN_LOCAL) == null
+             && !this.lockManager.isResponsible(path) ) {
+            return false;
+        }
         synchronized ( this.backgroundLock ) {
             if ( !this.running ) {
                 return false;
@@ -1068,8 +1254,7 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
                 if ( this.backgroundSession.itemExists(path)
                      && !this.backgroundSession.itemExists(path + '/' + JCRHelper.NODE_PROPERTY_FINISHED)) {
 
-                    final Node eventNode = (Node) this.backgroundSession.getItem(path);
-                    if ( !eventNode.isLocked() ) {
+                    if ( !this.lockManager.isLocked(this.backgroundSession, path) ) {
                         // lock node
                         try {
                             this.lockManager.lock(this.backgroundSession, path);
@@ -1148,7 +1333,7 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
                     }
                     this.backgroundSession.save();
                     // and unlock
-                    if ( jobId != null && eventNode.isLocked() ) {
+                    if ( this.lockManager.isLocked(this.backgroundSession, path) ) {
                         this.lockManager.unlock(this.backgroundSession, path);
                     }
                 }
@@ -1173,7 +1358,7 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
                 try {
                     if ( this.backgroundSession.itemExists(path) ) {
                         final Node eventNode = (Node) this.backgroundSession.getItem(path);
-                        if ( eventNode.isLocked() ) {
+                        if ( this.lockManager.isLocked(this.backgroundSession, path) ) {
                             this.logger.debug("Attempted to cancel a running job at {}", path);
                             return false;
                         }
@@ -1244,7 +1429,8 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
      */
     private Node createPath(Node   parentNode,
                             String relativePath,
-                            String nodeType)
+                            String nodeType,
+                            boolean autoSave)
     throws RepositoryException {
         if (!parentNode.hasNode(relativePath)) {
             Node node = parentNode;
@@ -1254,12 +1440,16 @@ public class PersistenceHandler implements EventListener, Runnable, EventHandler
                 while ( st.hasMoreTokens() ) {
                     final String token = st.nextToken();
                     if ( !node.hasNode(token) ) {
-                        try {
+                        if ( autoSave ) {
+                            try {
+                                node.addNode(token, JCRHelper.NODETYPE_FOLDER);
+                                node.getSession().save();
+                            } catch (RepositoryException re) {
+                                // we ignore this as this folder might be created from a different task
+                                node.getSession().refresh(false);
+                            }
+                        } else {
                             node.addNode(token, JCRHelper.NODETYPE_FOLDER);
-                            node.getSession().save();
-                        } catch (RepositoryException re) {
-                            // we ignore this as this folder might be created from a different task
-                            node.getSession().refresh(false);
                         }
                     }
                     node = node.getNode(token);
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs.jcr;
+
+/**
+ * Statistics of the job writer of the {@link PersistenceHandler}.
+ * The writer persists the jobs of the write queue in batches; for each
+ * batch the number of jobs, the time taken and whether the batch had to be
+ * written job by job because of a conflict is recorded.
+ */
+public class WriterStatistics {
+
+    /** The upper bounds of the batch size histogram buckets. */
+    private static final int[] BUCKETS = {1, 5, 10, 25, 50, 100, Integer.MAX_VALUE};
+
+    private long startTime;
+
+    private long persistedJobs;
+
+    private long batches;
+
+    private long conflicts;
+
+    private long writeTime;
+
+    private final long[] histogram = new long[BUCKETS.length];
+
+    public WriterStatistics() {
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Add a written batch.
+     * @param size      The number of jobs taken from the write queue
+     * @param persisted The number of jobs actually persisted
+     * @param time      The time in ms it took to write the batch
+     * @param conflict  Whether the batch had to be written job by job
+     */
+    public synchronized void addBatch(final int size, final int persisted, final long time, final boolean conflict) {
+        this.batches++;
+        this.persistedJobs += persisted;
+        this.writeTime += time;
+        if ( conflict ) {
+            this.conflicts++;
+        }
+        int index = 0;
+        while ( size > BUCKETS[index] ) {
+            index++;
+        }
+        this.histogram[index]++;
+    }
+
+    public synchronized long getStartTime() {
+        return this.startTime;
+    }
+
+    public synchronized long getNumberOfPersistedJobs() {
+        return this.persistedJobs;
+    }
+
+    public synchronized long getNumberOfBatches() {
+        return this.batches;
+    }
+
+    public synchronized long getNumberOfConflicts() {
+        return this.conflicts;
+    }
+
+    /**
+     * The average number of persisted jobs per batch.
+     */
+    public synchronized double getAverageBatchSize() {
+        if ( this.batches == 0 ) {
+            return 0;
+        }
+        return (double)this.persistedJobs / this.batches;
+    }
+
+    /**
+     * The number of jobs persisted per second of writing.
+     */
+    public synchronized double getWriteThroughput() {
+        if ( this.writeTime == 0 ) {
+            return 0;
+        }
+        return this.persistedJobs * 1000.0 / this.writeTime;
+    }
+
+    /**
+     * The number of jobs persisted per second since the start time.
+     */
+    public synchronized double getThroughput() {
+        final long time = System.currentTimeMillis() - this.startTime;
+        if ( time <= 0 ) {
+            return 0;
+        }
+        return this.persistedJobs * 1000.0 / time;
+    }
+
+    /**
+     * The labels of the batch size histogram buckets.
+     */
+    public String[] getHistogramLabels() {
+        final String[] labels = new String[BUCKETS.length];
+        int lower = 1;
+        for(int i = 0; i < BUCKETS.length; i++) {
+            if ( BUCKETS[i] == Integer.MAX_VALUE ) {
+                labels[i] = lower + "+";
+            } else if ( BUCKETS[i] == lower ) {
+                labels[i] = String.valueOf(lower);
+            } else {
+                labels[i] = lower + "-" + BUCKETS[i];
+            }
+            lower = BUCKETS[i] + 1;
+        }
+        return labels;
+    }
+
+    /**
+     * The number of batches for each bucket of the histogram.
+     * @see #getHistogramLabels()
+     */
+    public synchronized long[] getHistogram() {
+        return this.histogram.clone();
+    }
+
+    public synchronized void reset() {
+        this.startTime = System.currentTimeMillis();
+        this.persistedJobs = 0;
+        this.batches = 0;
+        this.conflicts = 0;
+        this.writeTime = 0;
+        for(int i = 0; i < this.histogram.length; i++) {
+            this.histogram[i] = 0;
+        }
+    }
+}
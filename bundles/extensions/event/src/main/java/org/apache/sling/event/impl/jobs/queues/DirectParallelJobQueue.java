@@ -0,0 +1,347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs.queues;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.event.impl.EnvironmentComponent;
+import org.apache.sling.event.impl.jobs.JobEvent;
+import org.apache.sling.event.impl.jobs.config.InternalQueueConfiguration;
+import org.apache.sling.event.jobs.JobUtil;
+
+/**
+ * A parallel job queue processing the entries FIFO without a
+ * dispatcher thread.
+ * Jobs are started directly by the thread adding a job to the queue
+ * if a processing slot is free. Otherwise the job is started by the
+ * thread finishing a job and thereby freeing a slot.
+ * If the queue has a maximum number of queued jobs, further jobs are
+ * parked and moved into the queue once it has capacity again. At most
+ * the same number of jobs is parked; if this limit is reached as well,
+ * jobs are delayed and offered to the queue again after the retry delay.
+ * Adding a job never blocks the calling thread as this is usually the
+ * shared thread processing the jobs of all queues.
+ * Failing jobs are rescheduled and put at the end of the queue; they are
+ * subject to the same limits as new jobs.
+ */
+public final class DirectParallelJobQueue extends AbstractJobQueue {
+
+    /** The minimum delay in ms for jobs which do not fit into the queue. */
+    private static final long MIN_DELAY = 1000;
+
+    /** The queue. */
+    private final ConcurrentLinkedQueue<JobEvent> queue = new ConcurrentLinkedQueue<JobEvent>();
+
+    /** The number of jobs in the queue. */
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    /** The number of started jobs. */
+    private final AtomicInteger jobCount = new AtomicInteger();
+
+    /** Jobs which did not fit into the queue. */
+    private final ConcurrentLinkedQueue<JobEvent> parked = new ConcurrentLinkedQueue<JobEvent>();
+
+    /** The number of parked jobs. */
+    private final AtomicInteger parkedSize = new AtomicInteger();
+
+    /** Jobs which did not fit into the parked list, by scheduler job name. */
+    private final ConcurrentMap<String, JobEvent> delayed = new ConcurrentHashMap<String, JobEvent>();
+
+    /** The maximum number of queued jobs, 0 for no limit. */
+    private final int maxQueued;
+
+    /** The scheduler for rescheduling. */
+    private final Scheduler scheduler;
+
+    public DirectParallelJobQueue(final String name,
+                           final InternalQueueConfiguration config,
+                           final EnvironmentComponent env,
+                           final Scheduler scheduler) {
+        super(name, config, env);
+        this.scheduler = scheduler;
+        this.maxQueued = config.getMaxQueued();
+    }
+
+    @Override
+    public String getStateInfo() {
+        return super.getStateInfo() + ", jobCount=" + this.jobCount.get() + ", queueSize=" + this.queueSize.get()
+            + ", parkedSize=" + this.parkedSize.get() + ", delayedSize=" + this.delayed.size();
+    }
+
+    /**
+     * This queue does not need a dispatcher thread.
+     * @see org.apache.sling.event.impl.jobs.queues.AbstractJobQueue#start()
+     */
+    @Override
+    public void start() {
+        logger.info("Starting job queue {}", queueName);
+        logger.debug("Configuration for job queue={}", configuration);
+    }
+
+    /**
+     * Add a new job to the queue.
+     * If the queue is full, the job is parked or delayed and this method
+     * returns immediately.
+     */
+    @Override
+    public void process(final JobEvent event) {
+        event.queued = System.currentTimeMillis();
+        this.incQueued();
+        this.enqueue(event);
+    }
+
+    @Override
+    protected void put(final JobEvent event) {
+        // is this a close?
+        if ( event.event == null ) {
+            return;
+        }
+        this.enqueue(event);
+    }
+
+    /**
+     * Add the job to the queue if it has capacity and no jobs are parked,
+     * otherwise park the job or, if too many jobs are parked, delay it.
+     */
+    private void enqueue(final JobEvent event) {
+        if ( this.parkedSize.get() == 0 && this.reserve() ) {
+            this.queue.add(event);
+        } else if ( this.parkedSize.incrementAndGet() <= this.maxQueued ) {
+            this.logger.debug("Job queue {} is full - parking job {}", this.queueName, event);
+            this.parked.add(event);
+            // a slot might have been freed in the meantime
+            this.unpark();
+        } else {
+            this.parkedSize.decrementAndGet();
+            this.delay(event);
+            return;
+        }
+        this.dispatch();
+    }
+
+    /**
+     * Reserve a place in the queue.
+     * @return <code>false</code> if the queue is full.
+     */
+    private boolean reserve() {
+        while ( true ) {
+            final int size = this.queueSize.get();
+            if ( this.maxQueued > 0 && size >= this.maxQueued ) {
+                return false;
+            }
+            if ( this.queueSize.compareAndSet(size, size + 1) ) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Offer the job again after the retry delay.
+     */
+    private void delay(final JobEvent event) {
+        this.logger.debug("Job queue {} is full - delaying job {}", this.queueName, event);
+        final Date fireDate = new Date();
+        fireDate.setTime(System.currentTimeMillis() + Math.max(this.configuration.getRetryDelayInMs(), MIN_DELAY));
+
+        final String jobName = "Delayed:" + queueName + ":" + event.hashCode();
+        this.delayed.put(jobName, event);
+        final Runnable t = new Runnable() {
+            public void run() {
+                // the job might have been removed in the meantime
+                if ( delayed.remove(jobName, event) ) {
+                    enqueue(event);
+                }
+            }
+        };
+        try {
+            scheduler.fireJobAt(jobName, t, null, fireDate);
+        } catch (Exception e) {
+            // we ignore the exception and exceed the limit of parked jobs
+            ignoreException(e);
+            if ( this.delayed.remove(jobName, event) ) {
+                this.parkedSize.incrementAndGet();
+                this.parked.add(event);
+                this.unpark();
+                this.dispatch();
+            }
+        }
+    }
+
+    @Override
+    protected JobEvent take() {
+        final JobEvent event = this.queue.poll();
+        if ( event != null ) {
+            this.queueSize.decrementAndGet();
+            this.unpark();
+        }
+        return event;
+    }
+
+    /**
+     * Move parked jobs into the queue as long as it has capacity.
+     */
+    private void unpark() {
+        while ( this.parkedSize.get() > 0 ) {
+            final int size = this.queueSize.get();
+            if ( size >= this.maxQueued ) {
+                return;
+            }
+            if ( this.queueSize.compareAndSet(size, size + 1) ) {
+                final JobEvent event = this.parked.poll();
+                if ( event == null ) {
+                    this.queueSize.decrementAndGet();
+                    return;
+                }
+                this.parkedSize.decrementAndGet();
+                this.queue.add(event);
+            }
+        }
+    }
+
+    /**
+     * Start queued jobs as long as processing slots are free.
+     */
+    private void dispatch() {
+        while ( this.running && !this.isSuspended() ) {
+            final int count = this.jobCount.get();
+            if ( count >= this.configuration.getMaxParallel() ) {
+                return;
+            }
+            if ( this.jobCount.compareAndSet(count, count + 1) ) {
+                final JobEvent info = this.take();
+                if ( info == null ) {
+                    this.jobCount.decrementAndGet();
+                    // a job might have been added while we held the slot
+                    if ( this.queue.isEmpty() ) {
+                        return;
+                    }
+                } else if ( !this.executeJob(info) ) {
+                    this.jobCount.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected JobEvent start(final JobEvent processInfo) {
+        // never called as there is no dispatcher thread
+        this.put(processInfo);
+        return null;
+    }
+
+    @Override
+    protected void notifyFinished(final JobEvent rescheduleInfo) {
+        if ( rescheduleInfo != null ) {
+            this.put(rescheduleInfo);
+        }
+        this.jobCount.decrementAndGet();
+        this.dispatch();
+    }
+
+    @Override
+    protected JobEvent reschedule(final JobEvent info) {
+        long delay = this.configuration.getRetryDelayInMs();
+        if ( info.event.getProperty(JobUtil.PROPERTY_JOB_RETRY_DELAY) != null ) {
+            delay = (Long)info.event.getProperty(JobUtil.PROPERTY_JOB_RETRY_DELAY);
+        }
+        if ( delay > 0 ) {
+            final Date fireDate = new Date();
+            fireDate.setTime(System.currentTimeMillis() + delay);
+
+            final String jobName = "Waiting:" + queueName + ":" + info.hashCode();
+            final Runnable t = new Runnable() {
+                public void run() {
+                    put(info);
+                }
+            };
+            try {
+                scheduler.fireJobAt(jobName, t, null, fireDate);
+            } catch (Exception e) {
+                // we ignore the exception and just put back the job in the queue
+                ignoreException(e);
+                t.run();
+            }
+            return null;
+        }
+        // put directly into queue when the slot is freed
+        return info;
+    }
+
+    /**
+     * @see org.apache.sling.event.jobs.Queue#resume()
+     */
+    @Override
+    public void resume() {
+        super.resume();
+        this.dispatch();
+    }
+
+    @Override
+    protected boolean isEmpty() {
+        return this.queue.isEmpty() && this.parked.isEmpty() && this.delayed.isEmpty();
+    }
+
+    @Override
+    protected boolean canBeMarkedForRemoval() {
+        boolean result = super.canBeMarkedForRemoval();
+        if ( result ) {
+            result = this.jobCount.get() == 0;
+        }
+        return result;
+    }
+
+    /**
+     * @see org.apache.sling.event.jobs.Queue#clear()
+     */
+    @Override
+    public void clear() {
+        this.removeAllJobs();
+        super.clear();
+    }
+
+    @Override
+    protected Collection<JobEvent> removeAllJobs() {
+        final List<JobEvent> events = new ArrayList<JobEvent>();
+        JobEvent event;
+        while ( (event = this.take()) != null ) {
+            events.add(event);
+        }
+        while ( (event = this.parked.poll()) != null ) {
+            this.parkedSize.decrementAndGet();
+            events.add(event);
+        }
+        final Iterator<String> i = this.delayed.keySet().iterator();
+        while ( i.hasNext() ) {
+            event = this.delayed.remove(i.next());
+            if ( event != null ) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
@@ -31,7 +31,8 @@ public interface QueueConfiguration {
         ORDERED,            // ordered, fifo
         TOPIC_ROUND_ROBIN,  // unordered, parallel processing, executed based on topic
         IGNORE,             // ignore job, but do not remove
-        DROP                // drop job without processing!
+        DROP,               // drop job without processing!
+        DIRECT_PARALLEL     // unordered, parallel processing without dispatcher thread (since 1.2)
     }
 
     /**
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.apache.sling.event.jobs.JobManager.QueryType;
+import org.apache.sling.event.jobs.JobUtil;
+import org.apache.sling.event.jobs.JobsIterator;
+import org.osgi.service.event.Event;
+
+public class JobIndexTest {
+
+    private static final String TOPIC_A = "sling/test/a";
+
+    private static final String TOPIC_B = "sling/test/b";
+
+    protected JobIndex index;
+
+    @org.junit.Before public void setup() {
+        this.index = new JobIndex();
+        for(int i = 0; i < 10; i++) {
+            this.index.add(createJob("a" + i, TOPIC_A, "name" + i));
+        }
+        for(int i = 0; i < 5; i++) {
+            this.index.add(createJob("b" + i, TOPIC_B, null));
+        }
+    }
+
+    private static JobEvent createJob(final String id, final String topic, final String name) {
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(JobUtil.PROPERTY_JOB_TOPIC, topic);
+        props.put("index", Integer.valueOf(id.substring(1)));
+        if ( name != null ) {
+            props.put(JobUtil.PROPERTY_JOB_NAME, name);
+        }
+        return new JobEvent(new Event(JobUtil.TOPIC_JOB, props), id) {
+            public boolean lock() { return true; }
+            public void unlock() { }
+            public void finished() { }
+            public boolean reschedule() { return true; }
+            public boolean remove() { return true; }
+            public void restart() { }
+        };
+    }
+
+    private JobsIterator query(final QueryType type, final String topic, final long limit,
+            final Map<String, Object>... templates) {
+        return new JobsIteratorImpl(this.index.getJobs(topic, type), type, limit, templates);
+    }
+
+    @org.junit.Test public void testQuery() {
+        assertEquals(10, query(QueryType.ALL, TOPIC_A, -1).getSize());
+        assertEquals(5, query(QueryType.ALL, TOPIC_B, -1).getSize());
+        assertEquals(15, query(QueryType.ALL, null, -1).getSize());
+        assertEquals(0, query(QueryType.ALL, "sling/test/c", -1).getSize());
+        assertEquals(0, query(QueryType.ACTIVE, null, -1).getSize());
+
+        // keeps the order of the jobs
+        final JobsIterator i = query(QueryType.ALL, TOPIC_A, -1);
+        for(int n = 0; n < 10; n++) {
+            assertEquals(n, i.getPosition());
+            assertEquals("name" + n, i.next().getProperty(JobUtil.PROPERTY_JOB_NAME));
+        }
+        assertFalse(i.hasNext());
+    }
+
+    @org.junit.Test public void testState() {
+        assertSame(this.index.get("a3"), this.index.setActive("a3", true));
+        this.index.setActive("b1", true);
+        assertNull(this.index.setActive("c1", true));
+        assertEquals(2, query(QueryType.ACTIVE, null, -1).getSize());
+        assertEquals(1, query(QueryType.ACTIVE, TOPIC_A, -1).getSize());
+        assertEquals(9, query(QueryType.QUEUED, TOPIC_A, -1).getSize());
+
+        this.index.setActive("a3", false);
+        assertEquals(0, query(QueryType.ACTIVE, TOPIC_A, -1).getSize());
+        this.index.remove("b1");
+        assertEquals(0, query(QueryType.ACTIVE, null, -1).getSize());
+    }
+
+    @SuppressWarnings("unchecked")
+    @org.junit.Test public void testTemplatesAndPaging() {
+        final Map<String, Object> template = Collections.singletonMap(">index", (Object)Integer.valueOf(6));
+        assertEquals(6, query(QueryType.ALL, TOPIC_A, -1, template).getSize());
+        assertEquals(3, query(QueryType.ALL, TOPIC_A, 3, template).getSize());
+
+        final JobsIterator i = query(QueryType.ALL, TOPIC_A, 4, template);
+        i.skip(2);
+        assertEquals(2, i.getPosition());
+        assertEquals(2, i.next().getProperty("index"));
+        assertEquals(3, i.next().getProperty("index"));
+        assertFalse(i.hasNext());
+    }
+
+    @org.junit.Test public void testByName() {
+        assertSame(this.index.get("a4"), this.index.getByName(TOPIC_A, "name4"));
+        assertNull(this.index.getByName(TOPIC_B, "name4"));
+
+        // replace a job
+        final JobEvent job = createJob("a4", TOPIC_A, "name4");
+        this.index.add(job);
+        assertSame(job, this.index.getByName(TOPIC_A, "name4"));
+        assertEquals(10, query(QueryType.ALL, TOPIC_A, -1).getSize());
+
+        this.index.remove("a4");
+        assertNull(this.index.getByName(TOPIC_A, "name4"));
+        assertNull(this.index.get("a4"));
+    }
+
+    @org.junit.Test public void testRemove() {
+        for(int i = 0; i < 200; i++) {
+            this.index.add(createJob("x" + i, TOPIC_B, null));
+        }
+        assertEquals(205, query(QueryType.ALL, TOPIC_B, -1).getSize());
+        for(int i = 0; i < 200; i++) {
+            this.index.remove("x" + i);
+        }
+        assertEquals(5, query(QueryType.ALL, TOPIC_B, -1).getSize());
+
+        assertEquals(15, this.index.clear().size());
+        assertEquals(0, query(QueryType.ALL, null, -1).getSize());
+        assertTrue(this.index.clear().isEmpty());
+    }
+
+    @org.junit.Test public void testEmptyTopicIsDropped() {
+        assertEquals(2, this.index.getTopicCount());
+        for(int i = 0; i < 5; i++) {
+            this.index.remove("b" + i);
+        }
+        assertEquals(1, this.index.getTopicCount());
+        assertEquals(0, query(QueryType.ALL, TOPIC_B, -1).getSize());
+
+        // replacing the last job keeps the topic
+        this.index.add(createJob("b0", TOPIC_B, null));
+        this.index.add(createJob("b0", TOPIC_B, null));
+        assertEquals(2, this.index.getTopicCount());
+        assertEquals(1, query(QueryType.ALL, TOPIC_B, -1).getSize());
+
+        this.index.clear();
+        assertEquals(0, this.index.getTopicCount());
+    }
+
+    @org.junit.Test public void testSizeIsSnapshot() {
+        final JobsIterator i = query(QueryType.ALL, TOPIC_A, -1);
+        assertEquals(0, i.next().getProperty("index"));
+        assertEquals(10, i.getSize());
+
+        // changes after the size has been calculated are not visible
+        this.index.remove("a5");
+        this.index.add(createJob("a10", TOPIC_A, null));
+        assertEquals(10, i.getSize());
+        int count = 1;
+        while ( i.hasNext() ) {
+            i.next();
+            count++;
+        }
+        assertEquals(10, count);
+        assertEquals(10, i.getPosition());
+    }
+}
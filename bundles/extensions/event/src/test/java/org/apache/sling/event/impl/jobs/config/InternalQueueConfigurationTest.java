@@ -65,6 +65,29 @@ public class InternalQueueConfigurationTest {
         assertEquals(Runtime.getRuntime().availableProcessors(), c.getMaxParallel());
     }
 
+    @org.junit.Test public void testDirectParallelDefaults() {
+        final Map<String, Object> p = new HashMap<String, Object>();
+        p.put(ConfigurationConstants.PROP_TOPICS, new String[] {"a"});
+        p.put(ConfigurationConstants.PROP_NAME, "test");
+        p.put(ConfigurationConstants.PROP_TYPE, "DIRECT_PARALLEL");
+
+        InternalQueueConfiguration c = InternalQueueConfiguration.fromConfiguration(p);
+        assertTrue(c.isValid());
+        assertEquals(Runtime.getRuntime().availableProcessors(), c.getMaxParallel());
+        assertEquals(0, c.getMaxQueued());
+
+        p.put(ConfigurationConstants.PROP_MAX_PARALLEL, 3);
+        p.put(ConfigurationConstants.PROP_MAX_QUEUED, 100);
+        c = InternalQueueConfiguration.fromConfiguration(p);
+        assertTrue(c.isValid());
+        assertEquals(3, c.getMaxParallel());
+        assertEquals(100, c.getMaxQueued());
+
+        p.put(ConfigurationConstants.PROP_MAX_QUEUED, -1);
+        c = InternalQueueConfiguration.fromConfiguration(p);
+        assertFalse(c.isValid());
+    }
+
     @org.junit.Test public void testTopicMatchersDot() {
         final Map<String, Object> p = new HashMap<String, Object>();
         p.put(ConfigurationConstants.PROP_TOPICS, new String[] {"a."});
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs.jcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simulates a cluster of several nodes, each building its own
+ * ring from the heartbeats it has seen.
+ */
+public class ConsistentHashRingTest {
+
+    private static final int NUM_NODES = 6;
+
+    private static final int NUM_JOBS = 6000;
+
+    private List<String> nodeIds;
+
+    private List<String> jobPaths;
+
+    @org.junit.Before public void setup() {
+        this.nodeIds = new ArrayList<String>();
+        for(int i = 0; i < NUM_NODES; i++) {
+            this.nodeIds.add("sling-node-" + i);
+        }
+        this.jobPaths = new ArrayList<String>();
+        for(int i = 0; i < NUM_JOBS; i++) {
+            this.jobPaths.add("/var/eventing/jobs/sling/test/2010/10/" + i + "/job_" + i);
+        }
+    }
+
+    private ConsistentHashRing createRing(final List<String> ids) {
+        return new ConsistentHashRing(ids, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    @org.junit.Test public void testEmptyRing() {
+        assertNull(createRing(Collections.<String>emptyList()).getOwner("/a"));
+    }
+
+    @org.junit.Test public void testSingleNode() {
+        final ConsistentHashRing ring = createRing(Collections.singletonList("a"));
+        for(final String path : this.jobPaths) {
+            assertEquals("a", ring.getOwner(path));
+        }
+    }
+
+    @org.junit.Test public void testAllNodesAgree() {
+        // each cluster node sees the heartbeats in a different order
+        final List<ConsistentHashRing> rings = new ArrayList<ConsistentHashRing>();
+        for(int i = 0; i < NUM_NODES; i++) {
+            final List<String> ids = new ArrayList<String>(this.nodeIds);
+            Collections.rotate(ids, i);
+            rings.add(createRing(ids));
+        }
+        for(final String path : this.jobPaths) {
+            final String owner = rings.get(0).getOwner(path);
+            for(final ConsistentHashRing ring : rings) {
+                assertEquals(owner, ring.getOwner(path));
+            }
+        }
+    }
+
+    @org.junit.Test public void testDistribution() {
+        final ConsistentHashRing ring = createRing(this.nodeIds);
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for(final String path : this.jobPaths) {
+            final String owner = ring.getOwner(path);
+            final Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+        }
+        assertEquals(NUM_NODES, counts.size());
+        final int expected = NUM_JOBS / NUM_NODES;
+        for(final Integer count : counts.values()) {
+            assertTrue("Unbalanced distribution " + counts, count > expected / 2 && count < expected * 2);
+        }
+    }
+
+    @org.junit.Test public void testNodeLeaves() {
+        final ConsistentHashRing ring = createRing(this.nodeIds);
+        final String deadNode = this.nodeIds.get(2);
+        final List<String> remaining = new ArrayList<String>(this.nodeIds);
+        remaining.remove(deadNode);
+        final ConsistentHashRing newRing = createRing(remaining);
+
+        for(final String path : this.jobPaths) {
+            final String oldOwner = ring.getOwner(path);
+            final String newOwner = newRing.getOwner(path);
+            if ( deadNode.equals(oldOwner) ) {
+                // jobs of the dead node are reassigned
+                assertTrue(remaining.contains(newOwner));
+            } else {
+                // all other jobs keep their owner
+                assertEquals(oldOwner, newOwner);
+            }
+        }
+    }
+
+    @org.junit.Test public void testNodeJoins() {
+        final List<String> ids = new ArrayList<String>(this.nodeIds);
+        final ConsistentHashRing ring = createRing(ids);
+        ids.add("sling-node-new");
+        final ConsistentHashRing newRing = createRing(ids);
+
+        for(final String path : this.jobPaths) {
+            final String newOwner = newRing.getOwner(path);
+            if ( !"sling-node-new".equals(newOwner) ) {
+                // only jobs taken over by the new node move
+                assertEquals(ring.getOwner(path), newOwner);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs.jcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.lock.LockException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+import junitx.util.PrivateAccessor;
+
+import org.apache.sling.event.impl.support.Environment;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.integration.junit4.JUnit4Mockery;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for the owner marker written in hash lock mode.
+ */
+@RunWith(JMock.class)
+public class LockManagerTest {
+
+    private static final String PATH = "/var/eventing/jobs/job1";
+
+    private static final String OWNER_PATH = PATH + '/' + JCRHelper.NODE_PROPERTY_OWNER;
+
+    private static final String SELF = "self";
+
+    private static final String OTHER = "other";
+
+    private final Mockery context = new JUnit4Mockery();
+
+    private LockManager lockManager;
+
+    private Session session;
+
+    private Node node;
+
+    private javax.jcr.lock.LockManager jcrLockManager;
+
+    @org.junit.Before public void setup() throws Exception {
+        Environment.APPLICATION_ID = SELF;
+        this.lockManager = new LockManager();
+        final Map<String, Object> props = new HashMap<String, Object>();
+        props.put("lm.mode", "hash");
+        this.lockManager.update(props);
+        this.session = this.context.mock(Session.class);
+        this.node = this.context.mock(Node.class);
+        this.jcrLockManager = this.context.mock(javax.jcr.lock.LockManager.class);
+        final Workspace workspace = this.context.mock(Workspace.class);
+        this.context.checking(new Expectations() {{
+            allowing(session).getWorkspace(); will(returnValue(workspace));
+            allowing(workspace).getLockManager(); will(returnValue(jcrLockManager));
+        }});
+    }
+
+    /**
+     * Expect the repository lock held while the owner is updated.
+     */
+    private void claim(final int times) throws RepositoryException {
+        this.context.checking(new Expectations() {{
+            exactly(times).of(jcrLockManager).lock(with(equal(PATH)), with(equal(false)), with(equal(true)),
+                    with(any(long.class)), with(any(String.class)));
+            exactly(times).of(jcrLockManager).unlock(PATH);
+        }});
+    }
+
+    @SuppressWarnings("unchecked")
+    private void heartbeat(final String id, final long lastModified) throws Exception {
+        ((Map<String, Long>)PrivateAccessor.getField(this.lockManager, "lastModifiedMap")).put(id, lastModified);
+    }
+
+    private void owner(final String id) throws RepositoryException {
+        final Property prop = this.context.mock(Property.class, "owner-" + id);
+        this.context.checking(new Expectations() {{
+            allowing(session).propertyExists(OWNER_PATH); will(returnValue(true));
+            allowing(session).getProperty(OWNER_PATH); will(returnValue(prop));
+            allowing(prop).getString(); will(returnValue(id));
+        }});
+    }
+
+    @org.junit.Test public void testLockWritesOwner() throws Exception {
+        this.context.checking(new Expectations() {{
+            allowing(session).propertyExists(OWNER_PATH); will(returnValue(false));
+            allowing(session).getItem(PATH); will(returnValue(node));
+            oneOf(node).setProperty(JCRHelper.NODE_PROPERTY_OWNER, SELF);
+            oneOf(session).save();
+        }});
+        this.claim(1);
+        assertFalse(this.lockManager.isLocked(this.session, PATH));
+        this.lockManager.lock(this.session, PATH);
+        assertTrue(this.lockManager.isLocked(this.session, PATH));
+    }
+
+    @org.junit.Test public void testConcurrentClaimFails() throws Exception {
+        this.context.checking(new Expectations() {{
+            allowing(session).propertyExists(OWNER_PATH); will(returnValue(false));
+            oneOf(jcrLockManager).lock(with(equal(PATH)), with(equal(false)), with(equal(true)),
+                    with(any(long.class)), with(any(String.class)));
+            will(throwException(new LockException("Locked by another session")));
+            never(session).save();
+            oneOf(session).refresh(false);
+        }});
+        try {
+            this.lockManager.lock(this.session, PATH);
+            fail("Job claimed by another cluster node must not be locked.");
+        } catch (final LockException expected) {
+            // expected
+        }
+        assertFalse(this.lockManager.isLocked(this.session, PATH));
+    }
+
+    @org.junit.Test public void testJobOfLiveOwnerIsNotStarted() throws Exception {
+        this.heartbeat(OTHER, System.currentTimeMillis());
+        this.owner(OTHER);
+        this.context.checking(new Expectations() {{
+            oneOf(session).refresh(false);
+        }});
+        this.claim(1);
+        assertTrue(this.lockManager.isLocked(this.session, PATH));
+        try {
+            this.lockManager.lock(this.session, PATH);
+            fail("Job processed by a live cluster node must not be locked.");
+        } catch (final RepositoryException expected) {
+            // expected
+        }
+    }
+
+    @org.junit.Test public void testJobOfDeadOwnerIsTakenOver() throws Exception {
+        this.heartbeat(OTHER, System.currentTimeMillis() - 10 * 60 * 1000);
+        this.owner(OTHER);
+        this.context.checking(new Expectations() {{
+            allowing(session).getItem(PATH); will(returnValue(node));
+            oneOf(node).setProperty(JCRHelper.NODE_PROPERTY_OWNER, SELF);
+            oneOf(session).save();
+        }});
+        this.claim(1);
+        assertFalse(this.lockManager.isLocked(this.session, PATH));
+        this.lockManager.lock(this.session, PATH);
+    }
+
+    @org.junit.Test public void testUnlockRemovesOwner() throws Exception {
+        this.owner(SELF);
+        final Property prop = this.context.mock(Property.class);
+        this.context.checking(new Expectations() {{
+            allowing(session).getItem(PATH); will(returnValue(node));
+            oneOf(node).setProperty(JCRHelper.NODE_PROPERTY_OWNER, SELF);
+            allowing(node).getProperty(JCRHelper.NODE_PROPERTY_OWNER); will(returnValue(prop));
+            oneOf(prop).remove();
+            exactly(2).of(session).save();
+        }});
+        this.claim(2);
+        // a stale marker of this cluster node does not lock the job
+        assertFalse(this.lockManager.isLocked(this.session, PATH));
+        this.lockManager.lock(this.session, PATH);
+        this.lockManager.unlock(this.session, PATH);
+    }
+
+    @org.junit.Test public void testJoiningNodeTriggersRebalance() throws Exception {
+        final Session backgroundSession = this.context.mock(Session.class, "backgroundSession");
+        PrivateAccessor.setField(this.lockManager, "backgroundSession", backgroundSession);
+        final AtomicInteger rebalanced = new AtomicInteger();
+        this.lockManager.setRebalanceListener(new Runnable() {
+            public void run() {
+                rebalanced.incrementAndGet();
+            }
+        });
+
+        final String propPath = "/var/eventing/cluster/" + OTHER + "/lastModified";
+        final EventIterator events = this.context.mock(EventIterator.class);
+        final Event event = this.context.mock(Event.class);
+        final Property prop = this.context.mock(Property.class);
+        this.context.checking(new Expectations() {{
+            allowing(events).hasNext(); will(onConsecutiveCalls(returnValue(true), returnValue(false),
+                    returnValue(true), returnValue(false)));
+            allowing(events).nextEvent(); will(returnValue(event));
+            allowing(event).getType(); will(returnValue(Event.PROPERTY_CHANGED));
+            allowing(event).getPath(); will(returnValue(propPath));
+            allowing(backgroundSession).propertyExists(propPath); will(returnValue(true));
+            allowing(backgroundSession).getProperty(propPath); will(returnValue(prop));
+            allowing(prop).getParent(); will(returnValue(node));
+            allowing(node).getName(); will(returnValue(OTHER));
+            allowing(prop).getLong(); will(returnValue(System.currentTimeMillis()));
+        }});
+        this.lockManager.onEvent(events);
+        assertEquals(1, rebalanced.get());
+
+        // a heartbeat of a known cluster node does not change the assignment
+        this.lockManager.onEvent(events);
+        assertEquals(1, rebalanced.get());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs.jcr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WriterStatisticsTest {
+
+    protected WriterStatistics stat;
+
+    @org.junit.Before public void setup() {
+        this.stat = new WriterStatistics();
+    }
+
+    @org.junit.Test public void testInitial() {
+        assertEquals(0, this.stat.getNumberOfPersistedJobs());
+        assertEquals(0, this.stat.getNumberOfBatches());
+        assertEquals(0, this.stat.getNumberOfConflicts());
+        assertEquals(0, this.stat.getAverageBatchSize(), 0);
+        assertEquals(0, this.stat.getWriteThroughput(), 0);
+        assertArrayEquals(new long[7], this.stat.getHistogram());
+    }
+
+    @org.junit.Test public void testHistogramLabels() {
+        assertArrayEquals(new String[] {"1", "2-5", "6-10", "11-25", "26-50", "51-100", "101+"},
+                this.stat.getHistogramLabels());
+    }
+
+    @org.junit.Test public void testAddBatch() {
+        this.stat.addBatch(1, 1, 10, false);
+        this.stat.addBatch(5, 4, 20, false);
+        this.stat.addBatch(6, 6, 30, true);
+        this.stat.addBatch(200, 189, 40, false);
+        assertEquals(200, this.stat.getNumberOfPersistedJobs());
+        assertEquals(4, this.stat.getNumberOfBatches());
+        assertEquals(1, this.stat.getNumberOfConflicts());
+        assertEquals(50.0, this.stat.getAverageBatchSize(), 0);
+        assertEquals(2000.0, this.stat.getWriteThroughput(), 0);
+        assertArrayEquals(new long[] {1, 1, 1, 0, 0, 0, 1}, this.stat.getHistogram());
+    }
+
+    @org.junit.Test public void testReset() {
+        this.stat.addBatch(3, 3, 10, true);
+        this.stat.reset();
+        this.testInitial();
+    }
+}
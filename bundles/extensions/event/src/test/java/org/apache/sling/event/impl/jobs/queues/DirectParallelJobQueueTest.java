@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl.jobs.queues;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junitx.util.PrivateAccessor;
+
+import org.apache.sling.event.impl.EnvironmentComponent;
+import org.apache.sling.event.impl.SimpleEventAdmin;
+import org.apache.sling.event.impl.SimpleScheduler;
+import org.apache.sling.event.impl.jobs.JobEvent;
+import org.apache.sling.event.impl.jobs.config.ConfigurationConstants;
+import org.apache.sling.event.impl.jobs.config.InternalQueueConfiguration;
+import org.apache.sling.event.jobs.JobUtil;
+import org.apache.sling.event.jobs.QueueConfiguration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+public class DirectParallelJobQueueTest {
+
+    private static final String TOPIC_A = "sling/test/a";
+
+    private static final String TOPIC_B = "sling/test/b";
+
+    private static final String TOPIC_C = "sling/test/c";
+
+    private static final long TIMEOUT = 5000;
+
+    private final List<Event> startedA = new ArrayList<Event>();
+
+    private final List<Event> startedB = new ArrayList<Event>();
+
+    private EnvironmentComponent environment;
+
+    @org.junit.Before public void setup() throws Exception {
+        this.environment = new EnvironmentComponent();
+        PrivateAccessor.setField(this.environment, "eventAdmin", new SimpleEventAdmin(
+                new String[] {TOPIC_A, TOPIC_B},
+                new EventHandler[] {
+                    new Recorder(this.startedA),
+                    new Recorder(this.startedB)
+                }));
+    }
+
+    private DirectParallelJobQueue createQueue(final String name, final String topic) {
+        return this.createQueue(name, topic, 1, 1);
+    }
+
+    private DirectParallelJobQueue createQueue(final String name, final String topic,
+            final int maxParallel, final int maxQueued) {
+        final Map<String, Object> props = new HashMap<String, Object>();
+        props.put(ConfigurationConstants.PROP_NAME, name);
+        props.put(ConfigurationConstants.PROP_TOPICS, topic);
+        props.put(ConfigurationConstants.PROP_TYPE, QueueConfiguration.Type.DIRECT_PARALLEL);
+        props.put(ConfigurationConstants.PROP_MAX_PARALLEL, maxParallel);
+        props.put(ConfigurationConstants.PROP_MAX_QUEUED, maxQueued);
+        props.put(ConfigurationConstants.PROP_RETRY_DELAY, 100L);
+        final DirectParallelJobQueue queue = new DirectParallelJobQueue(name,
+                InternalQueueConfiguration.fromConfiguration(props),
+                this.environment,
+                new SimpleScheduler());
+        queue.start();
+        return queue;
+    }
+
+    private static JobEvent createJob(final String id, final String topic) {
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(JobUtil.PROPERTY_JOB_TOPIC, topic);
+        props.put(JobUtil.JOB_ID, id);
+        final JobEvent job = new JobEvent(new Event(JobUtil.TOPIC_JOB, props), id) {
+            public boolean lock() { return true; }
+            public void unlock() { }
+            public void finished() { }
+            public boolean reschedule() { return true; }
+            public boolean remove() { return true; }
+            public void restart() { }
+        };
+        job.queueName = topic;
+        return job;
+    }
+
+    private static void waitFor(final List<Event> events, final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        synchronized ( events ) {
+            while ( events.size() < count && System.currentTimeMillis() < end ) {
+                events.wait(100);
+            }
+            assertEquals("Started jobs", count, events.size());
+        }
+    }
+
+    private static void waitForState(final DirectParallelJobQueue queue, final String state) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while ( !queue.getStateInfo().contains(state) && System.currentTimeMillis() < end ) {
+            Thread.sleep(10);
+        }
+        assertTrue(queue.getStateInfo(), queue.getStateInfo().contains(state));
+    }
+
+    private static Event get(final List<Event> events, final int index) {
+        synchronized ( events ) {
+            return events.get(index);
+        }
+    }
+
+    @org.junit.Test public void testFullQueueDoesNotBlockOtherTopics() throws Exception {
+        final DirectParallelJobQueue queueA = this.createQueue("a", TOPIC_A);
+        final DirectParallelJobQueue queueB = this.createQueue("b", TOPIC_B);
+
+        // one job is started, one is queued, one is parked and one is delayed
+        final Thread producer = new Thread() {
+            public void run() {
+                for(int i = 0; i < 4; i++) {
+                    queueA.process(createJob("a" + i, TOPIC_A));
+                }
+            }
+        };
+        producer.start();
+        producer.join(TIMEOUT);
+        assertFalse("Adding jobs to a full queue must not block", producer.isAlive());
+        waitFor(this.startedA, 1);
+        assertTrue(queueA.getStateInfo().contains("queueSize=1, parkedSize=1, delayedSize=1"));
+
+        // jobs for other topics are still processed
+        queueB.process(createJob("b0", TOPIC_B));
+        waitFor(this.startedB, 1);
+
+        // finishing jobs starts the queued, the parked and the delayed jobs in order
+        for(int i = 0; i < 4; i++) {
+            waitFor(this.startedA, i + 1);
+            final Event job = get(this.startedA, i);
+            assertEquals("a" + i, job.getProperty(JobUtil.JOB_ID));
+            assertTrue(queueA.sendAcknowledge(job));
+            queueA.finishedJob(job, false);
+        }
+        assertTrue(queueA.isEmpty());
+        assertEquals(4, queueA.getStatistics().getNumberOfFinishedJobs());
+
+        queueA.close();
+        queueB.close();
+    }
+
+    @org.junit.Test public void testRemoveAllJobsIncludesParkedJobs() throws Exception {
+        final DirectParallelJobQueue queue = this.createQueue("a", TOPIC_A);
+        queue.suspend();
+        for(int i = 0; i < 3; i++) {
+            queue.process(createJob("a" + i, TOPIC_A));
+        }
+        assertFalse(queue.isEmpty());
+        assertTrue(queue.getStateInfo().contains("queueSize=1, parkedSize=1, delayedSize=1"));
+        assertEquals(3, queue.removeAllJobs().size());
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @org.junit.Test public void testRescheduledJobsAreLimited() throws Exception {
+        final DirectParallelJobQueue queue = this.createQueue("a", TOPIC_A);
+        for(int i = 0; i < 3; i++) {
+            queue.process(createJob("a" + i, TOPIC_A));
+        }
+        waitFor(this.startedA, 1);
+        assertTrue(queue.getStateInfo().contains("queueSize=1, parkedSize=1, delayedSize=0"));
+
+        // the failed job is rescheduled behind the parked job
+        final Event failed = get(this.startedA, 0);
+        assertTrue(queue.sendAcknowledge(failed));
+        queue.finishedJob(failed, true);
+        waitFor(this.startedA, 2);
+        waitForState(queue, "queueSize=1, parkedSize=1, delayedSize=0");
+
+        final String[] expected = new String[] {"a1", "a2", "a0"};
+        for(int i = 0; i < expected.length; i++) {
+            waitFor(this.startedA, i + 2);
+            final Event job = get(this.startedA, i + 1);
+            assertEquals(expected[i], job.getProperty(JobUtil.JOB_ID));
+            assertTrue(queue.sendAcknowledge(job));
+            queue.finishedJob(job, false);
+        }
+        assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @org.junit.Test public void testParallelProcessing() throws Exception {
+        final int maxParallel = 5;
+        final int numJobs = 300;
+        final DirectParallelJobQueue[] queue = new DirectParallelJobQueue[1];
+        final AtomicInteger parallelCount = new AtomicInteger();
+        final AtomicInteger maxParallelCount = new AtomicInteger();
+        final List<Event> finished = new ArrayList<Event>();
+        PrivateAccessor.setField(this.environment, "eventAdmin", new SimpleEventAdmin(
+                new String[] {TOPIC_C},
+                new EventHandler[] {
+                    new EventHandler() {
+                        public void handleEvent(final Event event) {
+                            final int count = parallelCount.incrementAndGet();
+                            if ( count > maxParallelCount.get() ) {
+                                maxParallelCount.set(count);
+                            }
+                            queue[0].sendAcknowledge(event);
+                            try {
+                                Thread.sleep(5);
+                            } catch (InterruptedException ie) {
+                                // ignore
+                            }
+                            parallelCount.decrementAndGet();
+                            queue[0].finishedJob(event, false);
+                            synchronized ( finished ) {
+                                finished.add(event);
+                                finished.notifyAll();
+                            }
+                        }
+                    }
+                }));
+        queue[0] = this.createQueue("c", TOPIC_C, maxParallel, 1000);
+
+        // several producers add jobs concurrently
+        final Thread[] producers = new Thread[3];
+        for(int p = 0; p < producers.length; p++) {
+            final String prefix = "c" + p + "-";
+            producers[p] = new Thread() {
+                public void run() {
+                    for(int i = 0; i < numJobs; i++) {
+                        queue[0].process(createJob(prefix + i, TOPIC_C));
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        for(final Thread producer : producers) {
+            producer.join(TIMEOUT);
+        }
+        waitFor(finished, producers.length * numJobs);
+        assertTrue("Parallel jobs: " + maxParallelCount.get(), maxParallelCount.get() <= maxParallel);
+        assertEquals(producers.length * numJobs, queue[0].getStatistics().getNumberOfFinishedJobs());
+        assertEquals(0, queue[0].getStatistics().getNumberOfFailedJobs());
+        assertTrue(queue[0].isEmpty());
+        queue[0].close();
+    }
+
+    private static final class Recorder implements EventHandler {
+
+        private final List<Event> events;
+
+        public Recorder(final List<Event> events) {
+            this.events = events;
+        }
+
+        public void handleEvent(final Event event) {
+            synchronized ( this.events ) {
+                this.events.add(event);
+                this.events.notifyAll();
+            }
+        }
+    }
+}
@@ -142,6 +142,7 @@ public final class JcrModifiablePropertyMap
         this.cache.clear();
         this.valueCache.clear();
         this.fullyRead = false;
+        this.valueCacheFilled = false;
     }
 
     /** Property for the mixin node types. */
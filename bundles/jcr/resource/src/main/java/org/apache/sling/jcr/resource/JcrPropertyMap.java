@@ -70,8 +70,14 @@ public class JcrPropertyMap
     /** Has the node been read completly? */
     boolean fullyRead;
 
+    /** Does the value cache contain the values of all cached properties? */
+    boolean valueCacheFilled;
+
     private final ClassLoader dynamicClassLoader;
 
+    /** Read all properties on first access to a property? */
+    private final boolean prefetch;
+
     /**
      * Constructor
      * @param node The underlying node.
@@ -87,11 +93,28 @@ public class JcrPropertyMap
      * @since 2.0.8
      */
     public JcrPropertyMap(final Node node, final ClassLoader dynamicCL) {
+        this(node, dynamicCL, false);
+    }
+
+    /**
+     * Constructor
+     * @param node The underlying node.
+     * @param dynamicCL Dynamic class loader for loading serialized objects.
+     * @param prefetch Whether all properties of the node are read in one
+     *            pass on the first access to a property instead of reading
+     *            the properties one by one. The values of the properties are
+     *            still only converted when they are accessed.
+     * @since 2.1
+     */
+    public JcrPropertyMap(final Node node, final ClassLoader dynamicCL,
+            final boolean prefetch) {
         this.node = node;
         this.cache = new LinkedHashMap<String, CacheEntry>();
         this.valueCache = new LinkedHashMap<String, Object>();
         this.fullyRead = false;
+        this.valueCacheFilled = false;
         this.dynamicClassLoader = dynamicCL;
+        this.prefetch = prefetch;
     }
 
     /**
@@ -166,7 +189,7 @@ public class JcrPropertyMap
         if (entry == null) {
             entry = read(key);
         }
-        final Object value = (entry == null ? null : entry.defaultValue);
+        final Object value = (entry == null ? null : entry.getDefaultValue());
         return value;
     }
 
@@ -181,7 +204,7 @@ public class JcrPropertyMap
      * @see java.util.Map#containsValue(java.lang.Object)
      */
     public boolean containsValue(Object value) {
-        readFully();
+        readFullyWithValues();
         return valueCache.containsValue(value);
     }
 
@@ -204,7 +227,7 @@ public class JcrPropertyMap
      * @see java.util.Map#entrySet()
      */
     public Set<java.util.Map.Entry<String, Object>> entrySet() {
-        readFully();
+        readFullyWithValues();
         return valueCache.entrySet();
     }
 
@@ -220,7 +243,7 @@ public class JcrPropertyMap
      * @see java.util.Map#values()
      */
     public Collection<Object> values() {
-        readFully();
+        readFullyWithValues();
         return valueCache.values();
     }
 
@@ -250,13 +273,23 @@ public class JcrPropertyMap
             return null;
         }
 
+        // read all properties at once instead of looking up single ones
+        if (prefetch && key.indexOf('/') == -1) {
+            readFully();
+            if (fullyRead) {
+                return cache.get(key);
+            }
+        }
+
         final String name = ISO9075.encodePath(key);
         try {
             if (node.hasProperty(name)) {
                 final Property prop = node.getProperty(name);
                 final CacheEntry entry = new CacheEntry(prop);
                 cache.put(key, entry);
-                valueCache.put(key, entry.defaultValue);
+                if (valueCacheFilled) {
+                    valueCache.put(key, entry.getDefaultValue());
+                }
                 return entry;
             }
         } catch (RepositoryException re) {
@@ -276,9 +309,8 @@ public class JcrPropertyMap
                     final String name = prop.getName();
                     final String key = ISO9075.decode(name);
                     if (!cache.containsKey(key)) {
-                        final CacheEntry entry = new CacheEntry(prop);
-                        cache.put(key, entry);
-                        valueCache.put(key, entry.defaultValue);
+                        cache.put(key, new CacheEntry(prop));
+                        valueCacheFilled = false;
                     }
                 }
                 fullyRead = true;
@@ -288,6 +320,21 @@ public class JcrPropertyMap
         }
     }
 
+    /**
+     * Reads all properties and converts their values for the value cache.
+     * The values are converted in the order of the property cache.
+     */
+    void readFullyWithValues() {
+        readFully();
+        if (!valueCacheFilled) {
+            valueCache.clear();
+            for (final Map.Entry<String, CacheEntry> entry : cache.entrySet()) {
+                valueCache.put(entry.getKey(), entry.getValue().getDefaultValue());
+            }
+            valueCacheFilled = true;
+        }
+    }
+
     // ---------- Unsupported Modification methods
 
     public void clear() {
@@ -343,10 +390,10 @@ public class JcrPropertyMap
             }
 
         } catch (ValueFormatException vfe) {
-            LOGGER.info("converToType: Cannot convert value of " + entry.defaultValue
+            LOGGER.info("converToType: Cannot convert value of " + entry.getDefaultValue()
                 + " to " + type, vfe);
         } catch (RepositoryException re) {
-            LOGGER.info("converToType: Cannot get value of " + entry.defaultValue, re);
+            LOGGER.info("converToType: Cannot get value of " + entry.getDefaultValue(), re);
         }
 
         // fall back to nothing
@@ -375,8 +422,9 @@ public class JcrPropertyMap
                                 final Value jcrValue,
                                 final Class<T> type)
     throws ValueFormatException, RepositoryException {
-        if ( type.isInstance(entry.defaultValue) ) {
-            return (T) entry.defaultValue;
+        final Object defaultValue = entry.getDefaultValue();
+        if ( type.isInstance(defaultValue) ) {
+            return (T) defaultValue;
         }
 
         if (String.class == type) {
@@ -467,7 +515,8 @@ public class JcrPropertyMap
         public final boolean isMulti;
         public final Value[] values;
 
-        public final Object defaultValue;
+        /** The java object of the value(s), converted on first access. */
+        private Object defaultValue;
 
         /**
          * Create a value for the object.
@@ -506,7 +555,31 @@ public class JcrPropertyMap
                 isMulti = false;
                 values = new Value[] {prop.getValue()};
             }
-            this.defaultValue = JcrResourceUtil.toJavaObject(prop);
+        }
+
+        /**
+         * Returns the java object of the value(s) of this entry. For entries
+         * created from a property, the values are converted on first access.
+         */
+        public Object getDefaultValue() {
+            if (defaultValue == null && property != null) {
+                try {
+                    if (isMulti) {
+                        final Object[] result = new Object[values.length];
+                        for (int i = 0; i < values.length; i++) {
+                            if (values[i] != null) {
+                                result[i] = JcrResourceUtil.toJavaObject(values[i]);
+                            }
+                        }
+                        defaultValue = result;
+                    } else {
+                        defaultValue = JcrResourceUtil.toJavaObject(values[0]);
+                    }
+                } catch (RepositoryException re) {
+                    LOGGER.info("getDefaultValue: Cannot get value of " + property, re);
+                }
+            }
+            return defaultValue;
         }
 
         /**
@@ -106,4 +106,18 @@ public class JcrResourceConstants {
      */
     public static final String AUTHENTICATION_INFO_SESSION = "user.jcr.session";
 
+    /**
+     * The name of the authentication info property defining whether the value
+     * maps of the resources provided by the resource resolver read all
+     * properties of a node in one pass on the first access to a property. If
+     * this property is not set, the default configured for the resource
+     * resolver factory applies.
+     * <p>
+     * The type of this property, if present, is <code>Boolean</code> or
+     * <code>String</code>.
+     *
+     * @since 2.1
+     */
+    public static final String AUTHENTICATION_INFO_PREFETCH_PROPERTIES = "user.jcr.prefetch.properties";
+
 }
@@ -53,6 +53,7 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.jcr.resource.JcrResourceConstants;
 import org.apache.sling.jcr.resource.JcrResourceUtil;
 import org.apache.sling.jcr.resource.internal.helper.MapEntry;
@@ -127,6 +128,9 @@ public class JcrResourceResolver
 
     private final boolean useMultiWorkspaces;
 
+    /** Whether value maps read all properties of a node at once. */
+    private final boolean prefetchProperties;
+
     public JcrResourceResolver(final JcrResourceProviderEntry rootProvider,
                                final JcrResourceResolverFactoryImpl factory,
                                final boolean isAdmin,
@@ -137,6 +141,22 @@ public class JcrResourceResolver
         this.isAdmin = isAdmin;
         this.originalAuthInfo = originalAuthInfo;
         this.useMultiWorkspaces = useMultiWorkspaces;
+
+        final Object prefetch = (originalAuthInfo == null)
+                ? null
+                : originalAuthInfo.get(JcrResourceConstants.AUTHENTICATION_INFO_PREFETCH_PROPERTIES);
+        this.prefetchProperties = (prefetch == null)
+                ? factory.isPrefetchProperties()
+                : OsgiUtil.toBoolean(prefetch, false);
+    }
+
+    /**
+     * Returns <code>true</code> if the value maps of the resources of this
+     * resolver read all properties of a node on the first access to a
+     * property.
+     */
+    public boolean isPrefetchProperties() {
+        return prefetchProperties;
     }
 
     /**
@@ -412,7 +432,7 @@ public class JcrResourceResolver
         for (int i = 0; i < 100; i++) {
 
             String[] mappedPath = null;
-            for (MapEntry mapEntry : this.factory.getMapEntries().getResolveMaps()) {
+            for (MapEntry mapEntry : this.factory.getMapEntries().getResolveMaps(requestPath)) {
                 mappedPath = mapEntry.replace(requestPath);
                 if (mappedPath != null) {
                     if ( LOGGER.isDebugEnabled() ) {
@@ -166,6 +166,13 @@ public class JcrResourceResolverFactoryImpl implements
 
     private static final boolean DEFAULT_MULTIWORKSPACE = false;
 
+    /**
+     * @scr.property valueRef="DEFAULT_PREFETCH_PROPERTIES"
+     */
+    private static final String PROP_PREFETCH_PROPERTIES = "resource.resolver.prefetch.properties";
+
+    private static final boolean DEFAULT_PREFETCH_PROPERTIES = false;
+
     /** default log */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -204,6 +211,9 @@ public class JcrResourceResolverFactoryImpl implements
 
     private boolean useMultiWorkspaces;
 
+    // whether value maps read all properties of a node at once
+    private boolean prefetchProperties;
+
     /** The resource listeners for the observation events. */
     private Set<JcrResourceListener> resourceListeners;
 
@@ -386,6 +396,10 @@ public class JcrResourceResolverFactoryImpl implements
 
     }
 
+    boolean isPrefetchProperties() {
+        return prefetchProperties;
+    }
+
     public String getMapRoot() {
         return mapRoot;
     }
@@ -469,6 +483,10 @@ public class JcrResourceResolverFactoryImpl implements
         mangleNamespacePrefixes = OsgiUtil.toBoolean(
             properties.get(PROP_MANGLE_NAMESPACES), false);
 
+        // property prefetching of value maps
+        prefetchProperties = OsgiUtil.toBoolean(
+            properties.get(PROP_PREFETCH_PROPERTIES), DEFAULT_PREFETCH_PROPERTIES);
+
         // the root of the resolver mappings
         mapRoot = OsgiUtil.toString(properties.get(PROP_MAP_LOCATION),
             MapEntries.DEFAULT_MAP_ROOT);
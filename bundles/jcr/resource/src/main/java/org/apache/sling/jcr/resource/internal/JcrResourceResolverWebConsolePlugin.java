@@ -22,8 +22,10 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
@@ -124,6 +126,20 @@ public class JcrResourceResolverWebConsolePlugin extends
 
         separatorHtml(pw);
 
+        titleHtml(pw, "Statistics",
+            "Shows the number of map entries and how long it took to load "
+                + "and update them after changes in the repository.");
+        for (String[] stat : getStatistics(mapEntries)) {
+            pw.println("<tr class='content'>");
+            pw.println("<td class='content'>" + stat[0] + "</td>");
+            pw.print("<td class='content' colspan='2'>");
+            pw.print(stat[1]);
+            pw.print("</td>");
+            pw.println("</tr>");
+        }
+
+        separatorHtml(pw);
+
         titleHtml(
             pw,
             "Configuration Test",
@@ -247,6 +263,13 @@ public class JcrResourceResolverWebConsolePlugin extends
     public void printConfiguration(PrintWriter pw) {
         final MapEntries mapEntries = resolverFactory.getMapEntries();
 
+        pw.println("Statistics");
+        for (String[] stat : getStatistics(mapEntries)) {
+            pw.println(stat[0] + ": " + stat[1]);
+        }
+
+        separatorText(pw);
+
         dumpMapText(
             pw,
             "Resolver Map Entries",
@@ -262,6 +285,28 @@ public class JcrResourceResolverWebConsolePlugin extends
 
     // ---------- internal
 
+    private List<String[]> getStatistics(MapEntries mapEntries) {
+        final List<String[]> stats = new ArrayList<String[]>();
+        stats.add(new String[] { "Resolver Map Entries",
+            String.valueOf(mapEntries.getResolveMaps().size()) });
+        stats.add(new String[] { "Mapping Map Entries",
+            String.valueOf(mapEntries.getMapMaps().size()) });
+        stats.add(new String[] { "Vanity Path Nodes",
+            String.valueOf(mapEntries.getVanityPathCount()) });
+        stats.add(new String[] { "Full Reloads",
+            String.valueOf(mapEntries.getFullReloads()) });
+        stats.add(new String[] { "Incremental Updates",
+            String.valueOf(mapEntries.getIncrementalUpdates()) });
+        stats.add(new String[] { "Last Update Duration",
+            mapEntries.getLastUpdateDuration() + "ms" });
+        stats.add(new String[] { "Total Update Duration",
+            mapEntries.getTotalUpdateDuration() + "ms" });
+        final long lastUpdate = mapEntries.getLastUpdateTime();
+        stats.add(new String[] { "Last Update",
+            lastUpdate > 0 ? new Date(lastUpdate).toString() : "-" });
+        return stats;
+    }
+
     private void dumpMapHtml(PrintWriter pw, String title, String description,
             Collection<MapEntry> list) {
 
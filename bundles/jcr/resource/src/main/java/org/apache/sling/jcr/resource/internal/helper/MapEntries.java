@@ -24,14 +24,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.observation.Event;
@@ -57,6 +60,15 @@ public class MapEntries implements EventListener {
 
     static final String ANY_SCHEME_HOST = "[^/]+/[^/]+";
 
+    /** The mixin node type of nodes providing vanity paths */
+    private static final String VANITY_PATH_MIXIN = "sling:VanityPath";
+
+    private static final String PROP_VANITY_PATH = "sling:vanityPath";
+
+    private static final String PROP_VANITY_ORDER = "sling:vanityOrder";
+
+    private static final String PROP_REDIRECT = "sling:redirect";
+
     /** default log */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -70,11 +82,52 @@ public class MapEntries implements EventListener {
 
     private final String mapRootPrefix;
 
-    private List<MapEntry> resolveMaps;
+    /**
+     * The resolution entries of the mapping location. This immutable index
+     * is replaced as a whole when the mapping location changes such that
+     * readers never have to wait for an update to complete.
+     */
+    private volatile MapEntryIndex mapRootIndex;
+
+    /**
+     * The resolution entries of the vanity paths, which are updated in place
+     * for each node whose vanity paths change.
+     */
+    private final VanityPathIndex vanityIndex = new VanityPathIndex();
+
+    /** The resolution entries of the configuration */
+    private volatile MapEntryIndex configIndex;
+
+    /** The mapping entries, replaced as a whole when they change */
+    private volatile Collection<MapEntry> mapMaps;
+
+    // the fields below are only accessed by the thread updating the entries
+
+    private Map<String, MapEntry> mapRootMapEntries;
+
+    private Map<String, MapEntry> configMapEntries;
+
+    // pending changes collected from observation, guarded by this
+
+    private boolean pendingMapRoot;
 
-    private Collection<MapEntry> mapMaps;
+    private final Set<String> pendingVanityPaths = new HashSet<String>();
 
-    private boolean initializing = false;
+    private final Set<String> pendingRemovals = new HashSet<String>();
+
+    private boolean updating = false;
+
+    // statistics
+
+    private volatile long fullReloads;
+
+    private volatile long incrementalUpdates;
+
+    private volatile long lastUpdateDuration;
+
+    private volatile long totalUpdateDuration;
+
+    private volatile long lastUpdateTime;
 
     private MapEntries() {
         session = null; // not needed
@@ -83,8 +136,9 @@ public class MapEntries implements EventListener {
         mapRoot = DEFAULT_MAP_ROOT;
         mapRootPrefix = mapRoot + "/";
 
-        resolveMaps = Collections.<MapEntry> emptyList();
-        mapMaps = Collections.<MapEntry> emptyList();
+        mapRootIndex = new MapEntryIndex(Collections.<MapEntry> emptyList());
+        configIndex = mapRootIndex;
+        mapMaps = Collections.emptyList();
     }
 
     public MapEntries(JcrResourceResolverFactoryImpl factory,
@@ -107,6 +161,12 @@ public class MapEntries implements EventListener {
         }
     }
 
+    /**
+     * Loads all entries from the mapping location, the vanity paths and the
+     * configuration. This is only called once when the instance is created,
+     * later changes are applied incrementally by the {@link #update()}
+     * method.
+     */
     private void init() {
         synchronized (this) {
             // no initialization if the session has already been reset
@@ -115,32 +175,36 @@ public class MapEntries implements EventListener {
             }
 
             // set the flag
-            initializing = true;
+            updating = true;
         }
 
         try {
 
-            List<MapEntry> newResolveMaps = new ArrayList<MapEntry>();
-            SortedMap<String, MapEntry> newMapMaps = new TreeMap<String, MapEntry>();
+            final long start = System.currentTimeMillis();
 
             // load the /etc/map entries into the maps
-            loadResolverMap(resolver, newResolveMaps, newMapMaps);
+            loadResolverMap(resolver);
+
+            // load the vanity paths into the resolver map
+            loadVanityPaths(resolver);
 
-            // load the configuration into the resolver map
-            loadVanityPaths(resolver, newResolveMaps);
-            loadConfiguration(factory, newResolveMaps);
+            // load the configuration into the resolver and the mapper map
+            final List<MapEntry> configResolveEntries = new ArrayList<MapEntry>();
+            loadConfiguration(factory, configResolveEntries);
+            configIndex = new MapEntryIndex(configResolveEntries);
+            configMapEntries = new TreeMap<String, MapEntry>();
+            loadMapConfiguration(factory, configMapEntries);
 
-            // load the configuration into the mapper map
-            loadMapConfiguration(factory, newMapMaps);
+            publishMapMaps();
 
-            this.resolveMaps = newResolveMaps;
-            this.mapMaps = new TreeSet<MapEntry>(newMapMaps.values());
+            fullReloads++;
+            updateStatistics(start);
 
         } finally {
 
             // reset the flag and notify listeners
             synchronized (this) {
-                initializing = false;
+                updating = false;
                 notifyAll();
             }
         }
@@ -150,9 +214,9 @@ public class MapEntries implements EventListener {
 
         Session oldSession;
 
-        // wait at most 10 seconds for a notifcation during initialization
+        // wait at most 10 seconds for a notifcation during an update
         synchronized (this) {
-            if (initializing) {
+            if (updating) {
                 try {
                     wait(10L * 1000L);
                 } catch (InterruptedException ie) {
@@ -188,8 +252,42 @@ public class MapEntries implements EventListener {
         factory = null;
     }
 
+    /**
+     * Returns all resolution entries in the order in which they are applied.
+     * As this list is created on each call, this method should only be used
+     * for display purposes.
+     */
     public List<MapEntry> getResolveMaps() {
-        return resolveMaps;
+        final List<MapEntry> resolveMaps = new ArrayList<MapEntry>();
+        resolveMaps.addAll(mapRootIndex.getEntries());
+        resolveMaps.addAll(vanityIndex.getEntries());
+        resolveMaps.addAll(configIndex.getEntries());
+        return Collections.unmodifiableList(resolveMaps);
+    }
+
+    /**
+     * Returns the resolution entries which may match the given request path
+     * in the same order as they are contained in the list returned by
+     * {@link #getResolveMaps()}. Entries not returned are known to not match
+     * the request path.
+     *
+     * @param requestPath The request path as created by
+     *            {@link JcrResourceResolver#getMapPath(String, String, int, String)}
+     */
+    public List<MapEntry> getResolveMaps(String requestPath) {
+        final List<MapEntry> mapRoot = mapRootIndex.getCandidates(requestPath);
+        final List<MapEntry> vanity = vanityIndex.getCandidates(requestPath);
+        final List<MapEntry> config = configIndex.getCandidates(requestPath);
+        if (vanity.isEmpty() && config.isEmpty()) {
+            return mapRoot;
+        }
+
+        final List<MapEntry> candidates = new ArrayList<MapEntry>(
+            mapRoot.size() + vanity.size() + config.size());
+        candidates.addAll(mapRoot);
+        candidates.addAll(vanity);
+        candidates.addAll(config);
+        return candidates;
     }
 
     public Collection<MapEntry> getMapMaps() {
@@ -200,19 +298,76 @@ public class MapEntries implements EventListener {
         return session;
     }
 
+    // ---------- statistics
+
+    /**
+     * Returns the number of complete loads of the entries.
+     */
+    public long getFullReloads() {
+        return fullReloads;
+    }
+
+    /**
+     * Returns the number of incremental updates applied to the entries. Any
+     * number of observation events arriving while an update is in progress
+     * are coalesced into a single update.
+     */
+    public long getIncrementalUpdates() {
+        return incrementalUpdates;
+    }
+
+    /**
+     * Returns the duration in milliseconds of the last load or update.
+     */
+    public long getLastUpdateDuration() {
+        return lastUpdateDuration;
+    }
+
+    /**
+     * Returns the total duration in milliseconds of all loads and updates.
+     */
+    public long getTotalUpdateDuration() {
+        return totalUpdateDuration;
+    }
+
+    /**
+     * Returns the time of the last load or update in milliseconds since the
+     * epoch.
+     */
+    public long getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    /**
+     * Returns the number of nodes currently providing vanity paths.
+     */
+    public int getVanityPathCount() {
+        return vanityIndex.size();
+    }
+
     // ---------- EventListener interface
 
     public void onEvent(EventIterator events) {
         boolean handleEvent = false;
-        while (!handleEvent && session != null && events.hasNext()) {
+        while (session != null && events.hasNext()) {
             Event event = events.nextEvent();
             try {
                 String path = event.getPath();
-                handleEvent = mapRoot.equals(path)
-                    || path.startsWith(mapRootPrefix)
-                    || path.endsWith("/sling:vanityPath")
-                    || path.endsWith("/sling:vanityOrder")
-                    || path.endsWith("/sling:redirect");
+                synchronized (this) {
+                    if (mapRoot.equals(path) || path.startsWith(mapRootPrefix)) {
+                        pendingMapRoot = true;
+                        handleEvent = true;
+                    }
+                    if (path.endsWith("/" + PROP_VANITY_PATH)
+                        || path.endsWith("/" + PROP_VANITY_ORDER)
+                        || path.endsWith("/" + PROP_REDIRECT)) {
+                        pendingVanityPaths.add(ResourceUtil.getParent(path));
+                        handleEvent = true;
+                    } else if (event.getType() == Event.NODE_REMOVED) {
+                        pendingRemovals.add(path);
+                        handleEvent = true;
+                    }
+                }
             } catch (Throwable t) {
                 log.warn("onEvent: Cannot complete event handling", t);
             }
@@ -221,12 +376,12 @@ public class MapEntries implements EventListener {
         if (handleEvent) {
             if (session != null) {
                 try {
-                    init();
+                    update();
                 } catch (Throwable t) {
-                    log.warn("onEvent: Failed initializing after changes", t);
+                    log.warn("onEvent: Failed updating after changes", t);
                 }
             } else {
-                log.info("onEvent: Already disposed, not reinitializing");
+                log.info("onEvent: Already disposed, not updating");
             }
         } else if (log.isDebugEnabled()) {
             log.debug("onEvent: Ignoring irrelevant events");
@@ -235,14 +390,121 @@ public class MapEntries implements EventListener {
 
     // ---------- internal
 
-    private void loadResolverMap(JcrResourceResolver resolver,
-            Collection<MapEntry> resolveEntries,
-            Map<String, MapEntry> mapEntries) {
+    /**
+     * Applies the pending changes collected by the {@link #onEvent} method.
+     * If another thread is currently updating, this method returns
+     * immediately and the pending changes are applied by the other thread
+     * once its current update has completed. Thus any events arriving during
+     * an update are coalesced into a single further update.
+     */
+    private void update() {
+        synchronized (this) {
+            if (session == null || updating) {
+                return;
+            }
+            updating = true;
+        }
+
+        boolean done = false;
+        try {
+            while (true) {
+                final boolean reloadMapRoot;
+                final Set<String> vanityPaths;
+                final Set<String> removals;
+                synchronized (this) {
+                    if (session == null
+                        || (!pendingMapRoot && pendingVanityPaths.isEmpty() && pendingRemovals.isEmpty())) {
+                        updating = false;
+                        done = true;
+                        notifyAll();
+                        return;
+                    }
+
+                    reloadMapRoot = pendingMapRoot;
+                    vanityPaths = new HashSet<String>(pendingVanityPaths);
+                    removals = new HashSet<String>(pendingRemovals);
+                    pendingMapRoot = false;
+                    pendingVanityPaths.clear();
+                    pendingRemovals.clear();
+                }
+
+                final long start = System.currentTimeMillis();
+                boolean changed = false;
+
+                if (reloadMapRoot) {
+                    loadResolverMap(resolver);
+                    publishMapMaps();
+                    changed = true;
+                }
+
+                // nodes removed with their vanity path properties
+                for (final String removed : removals) {
+                    vanityPaths.addAll(vanityIndex.getPaths(removed));
+                }
+
+                // only the vanity paths of the affected nodes are updated
+                boolean vanityChanged = false;
+                for (final String path : vanityPaths) {
+                    vanityChanged |= updateVanityTarget(path);
+                }
+                if (vanityChanged) {
+                    vanityIndex.publish();
+                    changed = true;
+                }
+
+                if (changed) {
+                    incrementalUpdates++;
+                    updateStatistics(start);
+                }
+            }
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    updating = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the mapping entries from the entries of the mapping location
+     * and the configuration and makes them available to readers.
+     */
+    private void publishMapMaps() {
+        final SortedMap<String, MapEntry> newMapMaps = new TreeMap<String, MapEntry>(
+            mapRootMapEntries);
+        for (final Entry<String, MapEntry> entry : configMapEntries.entrySet()) {
+            for (final String redirect : entry.getValue().getRedirect()) {
+                addMapEntry(newMapMaps, entry.getKey(), redirect,
+                    entry.getValue().getStatus());
+            }
+        }
+
+        this.mapMaps = Collections.unmodifiableCollection(new TreeSet<MapEntry>(
+            newMapMaps.values()));
+    }
+
+    private void updateStatistics(final long start) {
+        final long now = System.currentTimeMillis();
+        lastUpdateDuration = now - start;
+        totalUpdateDuration += lastUpdateDuration;
+        lastUpdateTime = now;
+        log.debug("Updated map entries in {}ms", lastUpdateDuration);
+    }
+
+    private void loadResolverMap(JcrResourceResolver resolver) {
+        final List<MapEntry> resolveEntries = new ArrayList<MapEntry>();
+        final Map<String, MapEntry> mapEntries = new TreeMap<String, MapEntry>();
+
         // the standard map configuration
         Resource res = resolver.getResource(mapRoot);
         if (res != null) {
             gather(resolver, resolveEntries, mapEntries, res, "");
         }
+
+        this.mapRootIndex = new MapEntryIndex(resolveEntries);
+        this.mapRootMapEntries = mapEntries;
     }
 
     private void gather(JcrResourceResolver resolver,
@@ -295,11 +557,12 @@ public class MapEntries implements EventListener {
         }
     }
 
-    private void loadVanityPaths(JcrResourceResolver resolver,
-            List<MapEntry> entries) {
+    private void loadVanityPaths(JcrResourceResolver resolver) {
+        vanityIndex.clear();
+
         // sling:VanityPath (uppercase V) is the mixin name
         // sling:vanityPath (lowercase) is the property name
-        final String queryString = "SELECT sling:vanityPath, sling:redirect FROM sling:VanityPath WHERE sling:vanityPath IS NOT NULL ORDER BY sling:vanityOrder DESC";
+        final String queryString = "SELECT sling:vanityPath, sling:redirect, sling:vanityOrder FROM sling:VanityPath WHERE sling:vanityPath IS NOT NULL ORDER BY sling:vanityOrder DESC";
         final Iterator<Resource> i = resolver.findResources(
             queryString, Query.SQL);
         while (i.hasNext()) {
@@ -309,35 +572,87 @@ public class MapEntries implements EventListener {
                 continue;
             }
 
-            // url is ignoring scheme and host.port and the path is
-            // what is stored in the sling:vanityPath property
-            String[] pVanityPaths = row.get("sling:vanityPath", new String[0]);
-            for (String pVanityPath : pVanityPaths) {
-                final String url = getVanityPath(pVanityPath);
-                if ( url != null ) {
-                    // redirect target is the node providing the sling:vanityPath
-                    // property (or its parent if the node is called jcr:content)
-                    String redirect = resource.getPath();
-                    if (ResourceUtil.getName(redirect).equals("jcr:content")) {
-                        redirect = ResourceUtil.getParent(redirect);
-                    }
+            final List<MapEntry> entries = createVanityEntries(resource.getPath(), row);
+            if (entries != null) {
+                vanityIndex.put(resource.getPath(), row.get(PROP_VANITY_ORDER, 0L),
+                    entries);
+            }
+        }
+        vanityIndex.publish();
+    }
 
-                    // whether the target is attained by a 302/FOUND or by an
-                    // internal redirect is defined by the sling:redirect property
-                    int status = row.get("sling:redirect", false)
-                            ? HttpServletResponse.SC_FOUND
-                            : -1;
+    /**
+     * Reloads the vanity paths provided by the node at the given path.
+     *
+     * @return <code>true</code> if the vanity paths of the node have been
+     *         added, changed or removed.
+     */
+    private boolean updateVanityTarget(final String path) {
+        List<MapEntry> entries = null;
+        long order = 0;
+
+        final Resource resource = resolver.getResource(path);
+        if (resource != null) {
+            final Node node = resource.adaptTo(Node.class);
+            try {
+                if (node != null && node.isNodeType(VANITY_PATH_MIXIN)) {
+                    final ValueMap props = resource.adaptTo(ValueMap.class);
+                    if (props != null) {
+                        entries = createVanityEntries(path, props);
+                        order = props.get(PROP_VANITY_ORDER, 0L);
+                    }
+                }
+            } catch (RepositoryException re) {
+                log.warn("Cannot check vanity paths of " + path, re);
+            }
+        }
 
-                    // 1. entry with exact match
-                    entries.add(new MapEntry(url + "$", status, false, redirect
-                        + ".html"));
+        if (entries != null) {
+            vanityIndex.put(path, order, entries);
+            return true;
+        }
+        return vanityIndex.remove(path);
+    }
 
-                    // 2. entry with match supporting selectors and extension
-                    entries.add(new MapEntry(url + "(\\..*)", status, false,
-                        redirect + "$1"));
+    /**
+     * Creates the resolution entries for the vanity paths of the node at the
+     * given path or returns <code>null</code> if the node does not provide
+     * any vanity paths.
+     */
+    private List<MapEntry> createVanityEntries(final String path,
+            final ValueMap props) {
+        final List<MapEntry> entries = new ArrayList<MapEntry>();
+
+        // url is ignoring scheme and host.port and the path is
+        // what is stored in the sling:vanityPath property
+        String[] pVanityPaths = props.get(PROP_VANITY_PATH, new String[0]);
+        for (String pVanityPath : pVanityPaths) {
+            final String url = getVanityPath(pVanityPath);
+            if ( url != null ) {
+                // redirect target is the node providing the sling:vanityPath
+                // property (or its parent if the node is called jcr:content)
+                String redirect = path;
+                if (ResourceUtil.getName(redirect).equals("jcr:content")) {
+                    redirect = ResourceUtil.getParent(redirect);
                 }
+
+                // whether the target is attained by a 302/FOUND or by an
+                // internal redirect is defined by the sling:redirect property
+                int status = props.get(PROP_REDIRECT, false)
+                        ? HttpServletResponse.SC_FOUND
+                        : -1;
+
+                // 1. entry with exact match
+                entries.add(new MapEntry(url + "$", status, false, redirect
+                    + ".html"));
+
+                // 2. entry with match supporting selectors and extension
+                entries.add(new MapEntry(url + "(\\..*)", status, false,
+                    redirect + "$1"));
             }
         }
+
+        return entries.isEmpty() ? null : entries;
     }
 
     private String getVanityPath(final String pVanityPath) {
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The <code>MapEntryIndex</code> is an immutable index over an ordered list
+ * of resolution {@link MapEntry} instances. It allows to find the entries
+ * which may possibly match a given request path without having to apply the
+ * regular expression of each and every entry.
+ * <p>
+ * Each entry is indexed by the literal prefix of its regular expression,
+ * that is the leading part of the pattern not containing any regular
+ * expression meta characters. Entries whose pattern starts with the
+ * {@link MapEntries#ANY_SCHEME_HOST} expression -- most notably the entries
+ * created for <code>sling:vanityPath</code> properties -- are indexed by
+ * the literal prefix of the path following the scheme and host part. Entries
+ * without any usable literal prefix are always considered candidates.
+ * <p>
+ * Literal prefixes are kept in hash maps and a lookup probes the request path
+ * once for each distinct prefix length. Therefore the lookup cost depends on
+ * the length of the request path but not on the number of entries in the
+ * index.
+ * <p>
+ * The candidates are returned in the order of the original list such that
+ * the first matching entry is the same as with a linear scan of the list.
+ */
+public class MapEntryIndex {
+
+    /** The regular expression meta characters terminating a literal prefix */
+    private static final String META_CHARS = "\\[](){}.*+?^$|";
+
+    /** The prefix of patterns created by MapEntry for any scheme and host */
+    private static final String ANY_SCHEME_HOST_PREFIX = "^"
+        + MapEntries.ANY_SCHEME_HOST;
+
+    private static final int[] NO_ENTRIES = new int[0];
+
+    /** The indexed entries in their original order */
+    private final MapEntry[] entries;
+
+    /** Entries indexed by the literal prefix of the complete request path */
+    private final PrefixIndex pathIndex;
+
+    /**
+     * Entries indexed by the literal prefix of the path following the scheme
+     * and host part of the request path
+     */
+    private final PrefixIndex anySchemeHostIndex;
+
+    /** Entries which cannot be indexed and are always candidates */
+    private final int[] unindexed;
+
+    public MapEntryIndex(final List<MapEntry> entries) {
+        this.entries = entries.toArray(new MapEntry[entries.size()]);
+
+        final Map<String, List<Integer>> pathPrefixes = new HashMap<String, List<Integer>>();
+        final Map<String, List<Integer>> anySchemeHostPrefixes = new HashMap<String, List<Integer>>();
+        final List<Integer> noPrefix = new ArrayList<Integer>();
+
+        for (int i = 0; i < this.entries.length; i++) {
+            final String pattern = this.entries[i].getPattern();
+
+            // alternatives cannot be indexed by a single prefix
+            if (pattern.indexOf('|') < 0) {
+                if (pattern.startsWith(ANY_SCHEME_HOST_PREFIX)) {
+                    final String prefix = getLiteralPrefix(pattern,
+                        ANY_SCHEME_HOST_PREFIX.length());
+                    if (prefix.startsWith("/")) {
+                        addIndex(anySchemeHostPrefixes, prefix, i);
+                        continue;
+                    }
+                } else if (pattern.startsWith("^")) {
+                    final String prefix = getLiteralPrefix(pattern, 1);
+                    if (prefix.length() > 0) {
+                        addIndex(pathPrefixes, prefix, i);
+                        continue;
+                    }
+                }
+            }
+
+            noPrefix.add(i);
+        }
+
+        this.pathIndex = new PrefixIndex(pathPrefixes);
+        this.anySchemeHostIndex = new PrefixIndex(anySchemeHostPrefixes);
+        this.unindexed = toArray(noPrefix);
+    }
+
+    /**
+     * Returns all entries of this index in their original order.
+     */
+    public List<MapEntry> getEntries() {
+        return Collections.unmodifiableList(Arrays.asList(entries));
+    }
+
+    /**
+     * Returns the number of entries in this index.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Returns the entries which may match the given request path in the order
+     * of the list from which this index has been created. Entries not
+     * contained in the returned list are guaranteed to not match the request
+     * path.
+     *
+     * @param requestPath The request path as created by
+     *            <code>JcrResourceResolver.getMapPath</code>
+     */
+    public List<MapEntry> getCandidates(final String requestPath) {
+        final List<int[]> hits = new ArrayList<int[]>();
+        hits.add(unindexed);
+        pathIndex.collect(requestPath, hits);
+
+        // the path starts after scheme and host: scheme/host.port/path
+        final int schemeEnd = requestPath.indexOf('/');
+        if (schemeEnd >= 0) {
+            final int hostEnd = requestPath.indexOf('/', schemeEnd + 1);
+            if (hostEnd > schemeEnd + 1 && schemeEnd > 0) {
+                anySchemeHostIndex.collect(requestPath.substring(hostEnd),
+                    hits);
+            }
+        }
+
+        // common case: only a single list of hits, which is sorted
+        if (hits.size() == 1) {
+            return toEntries(hits.get(0));
+        } else if (hits.size() == 2 && hits.get(0).length == 0) {
+            return toEntries(hits.get(1));
+        }
+
+        final TreeSet<Integer> ordered = new TreeSet<Integer>();
+        for (final int[] hit : hits) {
+            for (final int index : hit) {
+                ordered.add(index);
+            }
+        }
+        final List<MapEntry> result = new ArrayList<MapEntry>(ordered.size());
+        for (final Integer index : ordered) {
+            result.add(entries[index]);
+        }
+        return result;
+    }
+
+    private List<MapEntry> toEntries(final int[] indices) {
+        if (indices.length == 0) {
+            return Collections.emptyList();
+        }
+        final MapEntry[] result = new MapEntry[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = entries[indices[i]];
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Returns the leading part of the regular expression starting at the
+     * given offset which only consists of literal characters. If a literal
+     * character is followed by an optional quantifier it is not part of the
+     * literal prefix.
+     */
+    static String getLiteralPrefix(final String pattern, final int offset) {
+        int end = offset;
+        while (end < pattern.length()
+            && META_CHARS.indexOf(pattern.charAt(end)) < 0) {
+            end++;
+        }
+
+        if (end < pattern.length() && end > offset) {
+            final char c = pattern.charAt(end);
+            if (c == '?' || c == '*' || c == '{') {
+                end--;
+            }
+        }
+
+        return pattern.substring(offset, end);
+    }
+
+    private static void addIndex(final Map<String, List<Integer>> index,
+            final String prefix, final int entry) {
+        List<Integer> list = index.get(prefix);
+        if (list == null) {
+            list = new ArrayList<Integer>(2);
+            index.put(prefix, list);
+        }
+        list.add(entry);
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        if (list.isEmpty()) {
+            return NO_ENTRIES;
+        }
+        final int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Hash based index of entries by literal prefix. A lookup probes the
+     * prefix of the path for each distinct length of the indexed prefixes.
+     */
+    private static class PrefixIndex {
+
+        private final Map<String, int[]> prefixes;
+
+        private final int[] lengths;
+
+        PrefixIndex(final Map<String, List<Integer>> source) {
+            this.prefixes = new HashMap<String, int[]>(source.size() * 4 / 3 + 1);
+            final TreeSet<Integer> prefixLengths = new TreeSet<Integer>();
+            for (final Map.Entry<String, List<Integer>> entry : source.entrySet()) {
+                prefixes.put(entry.getKey(), toArray(entry.getValue()));
+                prefixLengths.add(entry.getKey().length());
+            }
+            this.lengths = toArray(new ArrayList<Integer>(prefixLengths));
+        }
+
+        void collect(final String path, final List<int[]> hits) {
+            for (final int length : lengths) {
+                if (length > path.length()) {
+                    break;
+                }
+                final int[] hit = prefixes.get(path.substring(0, length));
+                if (hit != null) {
+                    hits.add(hit);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The <code>VanityPathIndex</code> keeps the resolution {@link MapEntry}
+ * instances created for the <code>sling:vanityPath</code> properties of the
+ * nodes in the repository. Unlike the immutable {@link MapEntryIndex} it is
+ * updated in place when the vanity paths of a single node change, such that
+ * the cost of an update only depends on the number of nodes sharing a vanity
+ * path prefix with the updated node. Publishing a batch of updates copies the
+ * prefix map once.
+ * <p>
+ * The entries of a node are indexed by the literal prefix of their vanity
+ * path following the scheme and host part. Entries created for vanity paths
+ * which are complete URLs are always considered candidates.
+ * <p>
+ * The entries are ordered by descending vanity order of their nodes and, for
+ * nodes of equal order, in the order in which the nodes have been added.
+ * <p>
+ * Updates must be applied by a single thread while any number of threads may
+ * look up candidates concurrently. Updates are collected by the updating
+ * thread and only become visible to lookups when {@link #publish()} is
+ * called, which replaces the looked up state in a single step. A lookup thus
+ * sees either all or none of the updates applied since the last call.
+ */
+class VanityPathIndex {
+
+    /** The prefix of patterns created by MapEntries for any scheme and host */
+    private static final String ANY_SCHEME_HOST_PREFIX = "^"
+        + MapEntries.ANY_SCHEME_HOST;
+
+    private static final Target[] NO_TARGETS = new Target[0];
+
+    // the fields below are only accessed by the updating thread
+
+    /** The indexed nodes by path */
+    private final SortedMap<String, Target> targets = new TreeMap<String, Target>();
+
+    /** The number of indexed prefixes per prefix length */
+    private final Map<Integer, Integer> lengthCounts = new HashMap<Integer, Integer>();
+
+    /** Sequence to keep the order of nodes with equal vanity order */
+    private long sequence;
+
+    /** The nodes indexed by literal prefix, each array is sorted */
+    private final Map<String, Target[]> prefixes = new HashMap<String, Target[]>();
+
+    /** The nodes whose entries cannot be indexed, sorted */
+    private Target[] unindexed = NO_TARGETS;
+
+    /** The distinct lengths of the indexed prefixes in ascending order */
+    private int[] lengths = new int[0];
+
+    /** The state used by lookups, replaced by {@link #publish()} */
+    private volatile Snapshot snapshot = new Snapshot(
+        Collections.<String, Target[]> emptyMap(), NO_TARGETS, new int[0], 0);
+
+    /**
+     * Adds the entries of the node at the given path replacing any entries
+     * previously added for the node. The change becomes visible to lookups
+     * with the next call to {@link #publish()}.
+     */
+    void put(final String path, final long order, final List<MapEntry> entries) {
+        remove(path);
+
+        final Target target = new Target(order, sequence++, entries);
+        targets.put(path, target);
+        for (final String prefix : target.prefixes) {
+            if (prefix == null) {
+                unindexed = insert(unindexed, target);
+            } else {
+                final Target[] bucket = prefixes.get(prefix);
+                if (bucket == null) {
+                    prefixes.put(prefix, new Target[] { target });
+                    addLength(prefix.length());
+                } else {
+                    prefixes.put(prefix, insert(bucket, target));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of the node at the given path. The change becomes
+     * visible to lookups with the next call to {@link #publish()}.
+     *
+     * @return <code>true</code> if entries have been removed
+     */
+    boolean remove(final String path) {
+        final Target target = targets.remove(path);
+        if (target == null) {
+            return false;
+        }
+
+        for (final String prefix : target.prefixes) {
+            if (prefix == null) {
+                unindexed = remove(unindexed, target);
+            } else {
+                final Target[] bucket = remove(prefixes.get(prefix), target);
+                if (bucket.length == 0) {
+                    prefixes.remove(prefix);
+                    removeLength(prefix.length());
+                } else {
+                    prefixes.put(prefix, bucket);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the paths of the indexed nodes at or below the given path.
+     */
+    List<String> getPaths(final String path) {
+        final List<String> result = new ArrayList<String>();
+        final String descendants = path + "/";
+        // '0' is the character following '/'
+        for (final String targetPath : targets.subMap(path, path + "0").keySet()) {
+            if (targetPath.equals(path) || targetPath.startsWith(descendants)) {
+                result.add(targetPath);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all entries. The change becomes visible to lookups with the
+     * next call to {@link #publish()}.
+     */
+    void clear() {
+        targets.clear();
+        lengthCounts.clear();
+        prefixes.clear();
+        unindexed = NO_TARGETS;
+        lengths = new int[0];
+    }
+
+    /**
+     * Makes the changes applied since the last call visible to lookups. The
+     * cost of this method depends on the number of indexed prefixes, so
+     * updates should be published in batches.
+     */
+    void publish() {
+        snapshot = new Snapshot(new HashMap<String, Target[]>(prefixes),
+            unindexed, lengths, targets.size());
+    }
+
+    /**
+     * Returns the number of published nodes.
+     */
+    int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * Returns the entries which may match the given request path in the
+     * order of the entries returned by {@link #getEntries()}.
+     *
+     * @param requestPath The request path as created by
+     *            <code>JcrResourceResolver.getMapPath</code>
+     */
+    List<MapEntry> getCandidates(final String requestPath) {
+        final Snapshot current = snapshot;
+        final List<Target[]> hits = new ArrayList<Target[]>();
+        final Target[] always = current.unindexed;
+        if (always.length > 0) {
+            hits.add(always);
+        }
+
+        // the path starts after scheme and host: scheme/host.port/path
+        final int schemeEnd = requestPath.indexOf('/');
+        if (schemeEnd > 0) {
+            final int hostEnd = requestPath.indexOf('/', schemeEnd + 1);
+            if (hostEnd > schemeEnd + 1) {
+                final String path = requestPath.substring(hostEnd);
+                for (final int length : current.lengths) {
+                    if (length > path.length()) {
+                        break;
+                    }
+                    final Target[] hit = current.prefixes.get(path.substring(0, length));
+                    if (hit != null) {
+                        hits.add(hit);
+                    }
+                }
+            }
+        }
+
+        if (hits.isEmpty()) {
+            return Collections.emptyList();
+        } else if (hits.size() == 1) {
+            return toEntries(Arrays.asList(hits.get(0)));
+        }
+
+        final TreeSet<Target> ordered = new TreeSet<Target>();
+        for (final Target[] hit : hits) {
+            ordered.addAll(Arrays.asList(hit));
+        }
+        return toEntries(ordered);
+    }
+
+    /**
+     * Returns all published entries in order.
+     */
+    List<MapEntry> getEntries() {
+        final Snapshot current = snapshot;
+        final TreeSet<Target> ordered = new TreeSet<Target>(
+            Arrays.asList(current.unindexed));
+        for (final Target[] bucket : current.prefixes.values()) {
+            ordered.addAll(Arrays.asList(bucket));
+        }
+        return toEntries(ordered);
+    }
+
+    private List<MapEntry> toEntries(final Iterable<Target> ordered) {
+        final List<MapEntry> result = new ArrayList<MapEntry>();
+        for (final Target target : ordered) {
+            result.addAll(target.entries);
+        }
+        return result;
+    }
+
+    private void addLength(final int length) {
+        final Integer count = lengthCounts.get(length);
+        if (count == null) {
+            lengthCounts.put(length, 1);
+            updateLengths();
+        } else {
+            lengthCounts.put(length, count + 1);
+        }
+    }
+
+    private void removeLength(final int length) {
+        final Integer count = lengthCounts.get(length);
+        if (count != null) {
+            if (count > 1) {
+                lengthCounts.put(length, count - 1);
+            } else {
+                lengthCounts.remove(length);
+                updateLengths();
+            }
+        }
+    }
+
+    private void updateLengths() {
+        final TreeSet<Integer> sorted = new TreeSet<Integer>(lengthCounts.keySet());
+        final int[] newLengths = new int[sorted.size()];
+        int i = 0;
+        for (final Integer length : sorted) {
+            newLengths[i++] = length;
+        }
+        lengths = newLengths;
+    }
+
+    private static Target[] insert(final Target[] targets, final Target target) {
+        int pos = Arrays.binarySearch(targets, target);
+        if (pos >= 0) {
+            return targets;
+        }
+        pos = -pos - 1;
+        final Target[] result = new Target[targets.length + 1];
+        System.arraycopy(targets, 0, result, 0, pos);
+        result[pos] = target;
+        System.arraycopy(targets, pos, result, pos + 1, targets.length - pos);
+        return result;
+    }
+
+    private static Target[] remove(final Target[] targets, final Target target) {
+        if (targets == null) {
+            return NO_TARGETS;
+        }
+        final int pos = Arrays.binarySearch(targets, target);
+        if (pos < 0) {
+            return targets;
+        }
+        final Target[] result = new Target[targets.length - 1];
+        System.arraycopy(targets, 0, result, 0, pos);
+        System.arraycopy(targets, pos + 1, result, pos, result.length - pos);
+        return result;
+    }
+
+    /**
+     * The state of the index seen by lookups. The arrays are never modified
+     * once created, such that the prefix map is copied shallowly.
+     */
+    private static class Snapshot {
+
+        final Map<String, Target[]> prefixes;
+
+        final Target[] unindexed;
+
+        final int[] lengths;
+
+        final int size;
+
+        Snapshot(final Map<String, Target[]> prefixes, final Target[] unindexed,
+                final int[] lengths, final int size) {
+            this.prefixes = prefixes;
+            this.unindexed = unindexed;
+            this.lengths = lengths;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The vanity path entries provided by a single node.
+     */
+    private static class Target implements Comparable<Target> {
+
+        final long order;
+
+        final long sequence;
+
+        final List<MapEntry> entries;
+
+        /**
+         * The distinct literal prefixes of the entries, <code>null</code>
+         * standing for entries which cannot be indexed
+         */
+        final Set<String> prefixes;
+
+        Target(final long order, final long sequence,
+                final List<MapEntry> entries) {
+            this.order = order;
+            this.sequence = sequence;
+            this.entries = entries;
+
+            this.prefixes = new LinkedHashSet<String>();
+            for (final MapEntry entry : entries) {
+                final String pattern = entry.getPattern();
+                String prefix = null;
+                if (pattern.startsWith(ANY_SCHEME_HOST_PREFIX)
+                    && pattern.indexOf('|') < 0) {
+                    prefix = MapEntryIndex.getLiteralPrefix(pattern,
+                        ANY_SCHEME_HOST_PREFIX.length());
+                    if (!prefix.startsWith("/")) {
+                        prefix = null;
+                    }
+                }
+                prefixes.add(prefix);
+            }
+        }
+
+        // descending vanity order, otherwise in the order of adding
+        public int compareTo(final Target other) {
+            if (order != other.order) {
+                return (order > other.order) ? -1 : 1;
+            }
+            if (sequence != other.sequence) {
+                return (sequence < other.sequence) ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -47,6 +47,7 @@ import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.jcr.resource.JcrModifiablePropertyMap;
 import org.apache.sling.jcr.resource.JcrPropertyMap;
 import org.apache.sling.jcr.resource.JcrResourceConstants;
+import org.apache.sling.jcr.resource.internal.JcrResourceResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -118,7 +119,8 @@ class JcrNodeResource extends JcrItemResource {
         } else if (type == URL.class) {
             return (Type) getURL(); // unchecked cast
         } else if (type == Map.class || type == ValueMap.class) {
-            return (Type) new JcrPropertyMap(getNode(), this.dynamicClassLoader); // unchecked cast
+            return (Type) new JcrPropertyMap(getNode(), this.dynamicClassLoader,
+                isPrefetchProperties()); // unchecked cast
         } else if (type == PersistableValueMap.class) {
             // check write
             try {
@@ -155,6 +157,16 @@ class JcrNodeResource extends JcrItemResource {
         return node;
     }
 
+    /**
+     * Returns <code>true</code> if the resource resolver of this resource is
+     * configured to read all properties of the node at once.
+     */
+    private boolean isPrefetchProperties() {
+        final ResourceResolver resolver = getResourceResolver();
+        return (resolver instanceof JcrResourceResolver)
+            && ((JcrResourceResolver) resolver).isPrefetchProperties();
+    }
+
     /**
      * Returns a stream to the <em>jcr:data</em> property if the
      * {@link #getNode() node} is an <em>nt:file</em> or <em>nt:resource</em>
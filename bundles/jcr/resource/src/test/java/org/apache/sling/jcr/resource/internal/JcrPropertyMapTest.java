@@ -149,6 +149,25 @@ public class JcrPropertyMapTest extends RepositoryTestBase {
         assertSame(defaultValue, result);
     }
 
+    public void testPrefetch() throws Exception {
+        rootNode.setProperty(PROP_NAME, "A String Value");
+        rootNode.setProperty("prop_long", 5L);
+        rootNode.setProperty("prop_multi", new String[] { "a", "b" });
+        session.save();
+
+        final JcrPropertyMap map = new JcrPropertyMap(rootNode, null, true);
+        assertEquals("A String Value", map.get(PROP_NAME));
+        assertEquals(Long.valueOf(5), map.get("prop_long", Long.class));
+        assertEquals("5", map.get("prop_long", String.class));
+        final Object[] multi = (Object[]) map.get("prop_multi");
+        assertEquals(2, multi.length);
+        assertEquals("a", multi[0]);
+        assertNull(map.get(PROP_NAME_NIL));
+
+        assertTrue(map.containsValue("A String Value"));
+        assertEquals(map.keySet().size(), map.values().size());
+    }
+
     // ---------- internal
 
     private void testValue(Node node, Object value, Object defaultValue) throws RepositoryException {
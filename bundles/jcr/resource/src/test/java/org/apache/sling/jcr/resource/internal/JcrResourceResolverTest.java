@@ -55,6 +55,7 @@ import org.apache.sling.commons.testing.jcr.RepositoryTestBase;
 import org.apache.sling.commons.testing.jcr.RepositoryUtil;
 import org.apache.sling.jcr.base.util.AccessControlUtil;
 import org.apache.sling.jcr.resource.JcrResourceConstants;
+import org.apache.sling.jcr.resource.internal.helper.MapEntry;
 import org.apache.sling.jcr.resource.internal.helper.MapEntries;
 import org.apache.sling.jcr.resource.internal.helper.Mapping;
 import org.apache.sling.jcr.resource.internal.helper.RedirectResource;
@@ -657,6 +658,58 @@ public class JcrResourceResolverTest extends RepositoryTestBase {
             res.adaptTo(ValueMap.class).get("sling:target", String.class));
     }
 
+    public void testVanityPathIncrementalUpdate() throws Exception {
+        final long fullReloads = mapEntries.getFullReloads();
+        final long incrementalUpdates = mapEntries.getIncrementalUpdates();
+        final int vanityPaths = mapEntries.getVanityPathCount();
+
+        // add a node with a vanity path
+        Node vanity = rootNode.addNode("vanity", "nt:unstructured");
+        vanity.addMixin("sling:VanityPath");
+        vanity.setProperty("sling:vanityPath", "/incremental");
+        session.save();
+
+        Thread.sleep(1000L);
+
+        assertEquals(vanityPaths + 1, mapEntries.getVanityPathCount());
+        assertEquals(rootPath + "/vanity.html",
+            resolveVanityPath("http/localhost.80/incremental"));
+        assertTrue(mapEntries.getIncrementalUpdates() > incrementalUpdates);
+
+        // change the vanity path
+        vanity.setProperty("sling:vanityPath", "/changed");
+        session.save();
+
+        Thread.sleep(1000L);
+
+        assertEquals(vanityPaths + 1, mapEntries.getVanityPathCount());
+        assertNull(resolveVanityPath("http/localhost.80/incremental"));
+        assertEquals(rootPath + "/vanity.html",
+            resolveVanityPath("http/localhost.80/changed"));
+
+        // remove the node
+        vanity.remove();
+        session.save();
+
+        Thread.sleep(1000L);
+
+        assertEquals(vanityPaths, mapEntries.getVanityPathCount());
+        assertNull(resolveVanityPath("http/localhost.80/changed"));
+
+        // none of the updates has reloaded the complete map
+        assertEquals(fullReloads, mapEntries.getFullReloads());
+    }
+
+    private String resolveVanityPath(String requestPath) {
+        for (MapEntry entry : mapEntries.getResolveMaps(requestPath)) {
+            String[] result = entry.replace(requestPath);
+            if (result != null) {
+                return result[0];
+            }
+        }
+        return null;
+    }
+
     public void testResolveResourceInternalRedirectUrl() throws Exception {
         HttpServletRequest request = new ResourceResolverTestRequest("https",
             null, -1, rootPath);
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class MapEntryIndexTest extends TestCase {
+
+    private static final String[] REQUEST_PATHS = {
+        "http/localhost.80/", "http/localhost.80/content",
+        "http/localhost.80/vanity1", "http/localhost.80/vanity1.html",
+        "http/localhost.80/vanity1.a4.html", "http/localhost.80/vanity10",
+        "http/localhost.80/other/path.html", "https/localhost.443/vanity2",
+        "http/www.example.com.80/", "http/www.example.com.80/foo/bar.html",
+        "http/www.example.com.8080/foo", "gurk", "gurk/", "" };
+
+    public void test_literal_prefix() {
+        assertEquals("http/localhost",
+            MapEntryIndex.getLiteralPrefix("^http/localhost.80/", 1));
+        assertEquals("/content",
+            MapEntryIndex.getLiteralPrefix("/content(/.*)", 0));
+        assertEquals("/conten",
+            MapEntryIndex.getLiteralPrefix("/content?", 0));
+        assertEquals("/conten",
+            MapEntryIndex.getLiteralPrefix("/content*", 0));
+        assertEquals("/content",
+            MapEntryIndex.getLiteralPrefix("/content+", 0));
+        assertEquals("", MapEntryIndex.getLiteralPrefix("(?i)/content", 0));
+        assertEquals("", MapEntryIndex.getLiteralPrefix("\\d+", 0));
+    }
+
+    public void test_candidates_in_list_order() {
+        final List<MapEntry> entries = createEntries(100);
+        final MapEntryIndex index = new MapEntryIndex(entries);
+        assertEquals(entries.size(), index.size());
+
+        for (final String requestPath : REQUEST_PATHS) {
+            final List<MapEntry> candidates = index.getCandidates(requestPath);
+
+            // candidates must be a subsequence of the entry list
+            int pos = -1;
+            for (final MapEntry candidate : candidates) {
+                final int next = entries.indexOf(candidate);
+                assertTrue("Candidate order for " + requestPath, next > pos);
+                pos = next;
+            }
+
+            // all matching entries must be candidates
+            for (final MapEntry entry : entries) {
+                if (entry.replace(requestPath) != null) {
+                    assertTrue("Missing candidate " + entry + " for "
+                        + requestPath, candidates.contains(entry));
+                }
+            }
+
+            // the first match must be the same as with a linear scan
+            assertEquals("First match for " + requestPath,
+                firstMatch(entries, requestPath), firstMatch(candidates,
+                    requestPath));
+        }
+    }
+
+    public void test_candidates_independent_of_size() {
+        final MapEntryIndex small = new MapEntryIndex(createEntries(100));
+        final MapEntryIndex large = new MapEntryIndex(createEntries(100000));
+
+        // the number of entries to be checked only depends on the request
+        for (final String requestPath : REQUEST_PATHS) {
+            assertEquals(requestPath,
+                small.getCandidates(requestPath).size(),
+                large.getCandidates(requestPath).size());
+        }
+        assertEquals(7, large.getCandidates("http/localhost.80/vanity1.html").size());
+    }
+
+    private List<MapEntry> createEntries(final int numVanityPaths) {
+        final List<MapEntry> entries = new ArrayList<MapEntry>();
+
+        // /etc/map style entries
+        entries.add(new MapEntry("http/localhost.80/", -1, true, "/content/"));
+        entries.add(new MapEntry("http/www.example.com.80/", 302, true,
+            "http://localhost/"));
+        entries.add(new MapEntry("http/[^/]+\\.8080/", -1, true, "/"));
+        entries.add(new MapEntry("(http|https)/localhost\\.\\d+/other/", -1,
+            true, "/content/other/"));
+
+        // vanity paths as created by MapEntries
+        for (int i = numVanityPaths; i > 0; i--) {
+            final String url = "^" + MapEntries.ANY_SCHEME_HOST + "/vanity" + i;
+            entries.add(new MapEntry(url + "$", -1, false, "/content/page" + i
+                + ".html"));
+            entries.add(new MapEntry(url + "(\\..*)", -1, false,
+                "/content/page" + i + "$1"));
+        }
+
+        // virtual URLs and mappings as created by the configuration
+        entries.add(new MapEntry("^" + MapEntries.ANY_SCHEME_HOST + "/$", -1,
+            false, "/index.html"));
+        entries.add(new MapEntry(MapEntries.ANY_SCHEME_HOST + "/", -1, false,
+            "/"));
+
+        return entries;
+    }
+
+    private String firstMatch(final List<MapEntry> entries,
+            final String requestPath) {
+        for (final MapEntry entry : entries) {
+            final String[] result = entry.replace(requestPath);
+            if (result != null) {
+                return Arrays.toString(result);
+            }
+        }
+        return null;
+    }
+}
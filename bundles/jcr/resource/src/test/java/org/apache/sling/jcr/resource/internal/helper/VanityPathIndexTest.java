@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class VanityPathIndexTest extends TestCase {
+
+    private VanityPathIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        index = new VanityPathIndex();
+    }
+
+    public void test_add() {
+        index.put("/content/a", 0, createEntries("/a", "/content/a"));
+        index.put("/content/b", 0, createEntries("/b", "/content/b"));
+        index.publish();
+
+        assertEquals(2, index.size());
+        assertEquals(4, index.getEntries().size());
+        assertRedirect("/content/a.html", "http/localhost.80/a");
+        assertRedirect("/content/b.html", "http/localhost.80/b");
+        assertRedirect(null, "http/localhost.80/c");
+        assertEquals(2, index.getCandidates("http/localhost.80/a.html").size());
+    }
+
+    public void test_change() {
+        index.put("/content/a", 0, createEntries("/a", "/content/a"));
+        index.put("/content/b", 0, createEntries("/b", "/content/b"));
+
+        index.publish();
+        assertRedirect("/content/a.html", "http/localhost.80/a");
+
+        // move the vanity path of a
+        index.put("/content/a", 0, createEntries("/x", "/content/a"));
+        index.publish();
+
+        assertEquals(2, index.size());
+        assertRedirect(null, "http/localhost.80/a");
+        assertRedirect("/content/a.html", "http/localhost.80/x");
+        assertRedirect("/content/b.html", "http/localhost.80/b");
+        assertEquals(0, index.getCandidates("http/localhost.80/a").size());
+    }
+
+    public void test_remove() {
+        index.put("/content/a", 0, createEntries("/a", "/content/a"));
+        index.put("/content/a/b", 0, createEntries("/b", "/content/a/b"));
+        index.put("/content/ab", 0, createEntries("/ab", "/content/ab"));
+
+        assertEquals(Arrays.asList("/content/a", "/content/a/b"),
+            index.getPaths("/content/a"));
+
+        for (final String path : index.getPaths("/content/a")) {
+            assertTrue(index.remove(path));
+        }
+        assertFalse(index.remove("/content/a"));
+        index.publish();
+
+        assertEquals(1, index.size());
+        assertRedirect(null, "http/localhost.80/a");
+        assertRedirect(null, "http/localhost.80/b");
+        assertRedirect("/content/ab.html", "http/localhost.80/ab");
+    }
+
+    public void test_order() {
+        // same vanity path provided by three nodes
+        index.put("/content/low", -1, createEntries("/v", "/content/low"));
+        index.put("/content/first", 0, createEntries("/v", "/content/first"));
+        index.put("/content/second", 0, createEntries("/v", "/content/second"));
+        index.publish();
+        assertRedirect("/content/first.html", "http/localhost.80/v");
+
+        index.put("/content/high", 10, createEntries("/v", "/content/high"));
+        index.publish();
+        assertRedirect("/content/high.html", "http/localhost.80/v");
+
+        // an updated node goes behind nodes of equal order
+        index.remove("/content/high");
+        index.put("/content/first", 0, createEntries("/v", "/content/first"));
+        index.publish();
+        assertRedirect("/content/second.html", "http/localhost.80/v");
+    }
+
+    public void test_candidates_in_entry_order() {
+        for (int i = 0; i < 50; i++) {
+            index.put("/content/page" + i, i % 3, createEntries("/vanity"
+                + (i % 7), "/content/page" + i));
+        }
+        // a vanity path given as an URL is never indexed
+        index.put("/content/url", 1, createUrlEntries(
+            "http/localhost.80/vanity3", "/content/url"));
+        index.publish();
+
+        final List<MapEntry> entries = index.getEntries();
+        for (final String requestPath : new String[] {
+            "http/localhost.80/vanity3", "http/localhost.80/vanity3.html",
+            "http/localhost.80/vanity31", "http/localhost.80/other", "gurk" }) {
+            final List<MapEntry> candidates = index.getCandidates(requestPath);
+
+            int pos = -1;
+            for (final MapEntry candidate : candidates) {
+                final int next = entries.indexOf(candidate);
+                assertTrue("Candidate order for " + requestPath, next > pos);
+                pos = next;
+            }
+
+            for (final MapEntry entry : entries) {
+                if (entry.replace(requestPath) != null) {
+                    assertTrue("Missing candidate " + entry + " for "
+                        + requestPath, candidates.contains(entry));
+                }
+            }
+        }
+    }
+
+    public void test_publish() {
+        index.put("/content/a", 0, createEntries("/a", "/content/a"));
+        index.publish();
+
+        // changes are not seen before they are published
+        index.put("/content/a", 0, createEntries("/x", "/content/a"));
+        index.put("/content/b", 0, createEntries("/b", "/content/b"));
+        assertEquals(1, index.size());
+        assertRedirect("/content/a.html", "http/localhost.80/a");
+        assertRedirect(null, "http/localhost.80/x");
+        assertRedirect(null, "http/localhost.80/b");
+
+        index.publish();
+        assertEquals(2, index.size());
+        assertRedirect(null, "http/localhost.80/a");
+        assertRedirect("/content/a.html", "http/localhost.80/x");
+        assertRedirect("/content/b.html", "http/localhost.80/b");
+
+        // a reload keeps the published entries until it is published
+        index.clear();
+        index.put("/content/c", 0, createEntries("/c", "/content/c"));
+        assertRedirect("/content/a.html", "http/localhost.80/x");
+        assertRedirect(null, "http/localhost.80/c");
+
+        index.publish();
+        assertEquals(1, index.size());
+        assertRedirect(null, "http/localhost.80/x");
+        assertRedirect("/content/c.html", "http/localhost.80/c");
+    }
+
+    private void assertRedirect(final String expected, final String requestPath) {
+        for (final MapEntry entry : index.getCandidates(requestPath)) {
+            final String[] result = entry.replace(requestPath);
+            if (result != null) {
+                assertEquals(requestPath, expected, result[0]);
+                return;
+            }
+        }
+        assertNull(requestPath, expected);
+    }
+
+    /**
+     * Creates the entries as created by MapEntries for a vanity path.
+     */
+    private List<MapEntry> createEntries(final String vanityPath,
+            final String redirect) {
+        return createUrlEntries("^" + MapEntries.ANY_SCHEME_HOST + vanityPath,
+            redirect);
+    }
+
+    private List<MapEntry> createUrlEntries(final String url,
+            final String redirect) {
+        final List<MapEntry> entries = new ArrayList<MapEntry>();
+        entries.add(new MapEntry(url + "$", -1, false, redirect + ".html"));
+        entries.add(new MapEntry(url + "(\\..*)", -1, false, redirect + "$1"));
+        return entries;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.core.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngineFactory;
+
+import org.apache.sling.api.SlingConstants;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * The <code>CompiledScriptCache</code> keeps the scripts compiled by script
+ * engines implementing the <code>javax.script.Compilable</code> interface.
+ * <p>
+ * The compiled scripts are kept by script path together with the last
+ * modification time of the script resource and the factory of the engine
+ * which compiled the script. A cached script is only used if both still
+ * match. In addition scripts are removed from the cache when a resource event
+ * is received for the script or one of its ancestors and the cache is flushed
+ * when script engine factories are added or removed.
+ */
+public class CompiledScriptCache implements EventHandler {
+
+    /** The event topics this cache is interested in */
+    static final String[] TOPICS = { "org/apache/sling/api/resource/*",
+        "javax/script/ScriptEngineFactory/*" };
+
+    /** The maximum number of compiled scripts kept in the cache */
+    private static final int MAX_SIZE = 500;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Returns the compiled script for the given script path or
+     * <code>null</code> if the script has not been compiled yet or has been
+     * modified since.
+     */
+    public CompiledScript get(final String path, final long modificationTime,
+            final ScriptEngineFactory factory) {
+        final Entry entry = entries.get(path);
+        if (entry != null && entry.modificationTime == modificationTime
+            && entry.factory == factory) {
+            return entry.script;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the compiled script for the given script path.
+     */
+    public void put(final String path, final long modificationTime,
+            final ScriptEngineFactory factory, final CompiledScript script) {
+        // simply flush the cache when it is full
+        if (entries.size() >= MAX_SIZE) {
+            entries.clear();
+        }
+        entries.put(path, new Entry(modificationTime, factory, script));
+    }
+
+    /**
+     * Removes the compiled scripts at or below the given path.
+     */
+    public void invalidate(final String path) {
+        final Iterator<String> iter = entries.keySet().iterator();
+        while (iter.hasNext()) {
+            final String scriptPath = iter.next();
+            if (scriptPath.equals(path)
+                || (scriptPath.startsWith(path) && (path.endsWith("/") || scriptPath.charAt(path.length()) == '/'))) {
+                iter.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @see org.osgi.service.event.EventHandler#handleEvent(org.osgi.service.event.Event)
+     */
+    public void handleEvent(final Event event) {
+        if (event.getTopic().startsWith("javax/script/ScriptEngineFactory/")) {
+            clear();
+            return;
+        }
+
+        String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (path != null) {
+            // strip an optional workspace name
+            if (!path.startsWith("/") && path.indexOf(':') >= 0) {
+                path = path.substring(path.indexOf(':') + 1);
+            }
+            invalidate(path);
+        }
+    }
+
+    private static final class Entry {
+
+        final long modificationTime;
+
+        final ScriptEngineFactory factory;
+
+        final CompiledScript script;
+
+        Entry(final long modificationTime, final ScriptEngineFactory factory,
+                final CompiledScript script) {
+            this.modificationTime = modificationTime;
+            this.factory = factory;
+            this.script = script;
+        }
+    }
+}
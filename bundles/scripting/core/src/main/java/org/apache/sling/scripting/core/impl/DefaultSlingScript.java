@@ -46,6 +46,8 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
@@ -115,6 +117,9 @@ class DefaultSlingScript implements SlingScript, Servlet, ServletConfig {
     /** The cache for services. */
     private final ServiceCache cache;
 
+    /** The cache for compiled scripts, <code>null</code> if disabled. */
+    private final CompiledScriptCache compiledScriptCache;
+
     /**
      * Constructor
      * @param bundleContext The bundle context
@@ -128,11 +133,32 @@ class DefaultSlingScript implements SlingScript, Servlet, ServletConfig {
             final ScriptEngine scriptEngine,
             final Collection<BindingsValuesProvider> bindingsValuesProviders,
             final ServiceCache cache) {
+        this(bundleContext, scriptResource, scriptEngine,
+            bindingsValuesProviders, cache, null);
+    }
+
+    /**
+     * Constructor
+     * @param bundleContext The bundle context
+     * @param scriptResource The script resource
+     * @param scriptEngine The script engine
+     * @param bindingsValuesProviders additional bindings values providers
+     * @param cache serviceCache
+     * @param compiledScriptCache The cache for compiled scripts or
+     *            <code>null</code> if scripts should not be compiled
+     */
+    DefaultSlingScript(final BundleContext bundleContext,
+            final Resource scriptResource,
+            final ScriptEngine scriptEngine,
+            final Collection<BindingsValuesProvider> bindingsValuesProviders,
+            final ServiceCache cache,
+            final CompiledScriptCache compiledScriptCache) {
         this.scriptResource = scriptResource;
         this.scriptEngine = scriptEngine;
         this.bundleContext = bundleContext;
         this.bindingsValuesProviders = bindingsValuesProviders;
         this.cache = cache;
+        this.compiledScriptCache = compiledScriptCache;
         this.scriptName = this.scriptResource.getPath();
         // Now know how to get the input stream, we still have to decide
         // on the encoding of the stream's data. Primarily we assume it is
@@ -349,13 +375,19 @@ class DefaultSlingScript implements SlingScript, Servlet, ServletConfig {
             ctx.setAttribute(SlingScriptConstants.ATTR_SCRIPT_RESOURCE_RESOLVER,
                     this.scriptResource.getResourceResolver(), SlingScriptConstants.SLING_SCOPE);
 
-            reader = getScriptReader();
-            if ( method != null && !(this.scriptEngine instanceof Invocable)) {
-                reader = getWrapperReader(reader, method, args);
-            }
-
             // evaluate the script
-            final Object result = scriptEngine.eval(reader, ctx);
+            final Object result;
+            if (method == null && this.compiledScriptCache != null
+                && this.scriptEngine instanceof Compilable) {
+                result = getCompiledScript().eval(ctx);
+            } else {
+                reader = getScriptReader();
+                if ( method != null && !(this.scriptEngine instanceof Invocable)) {
+                    reader = getWrapperReader(reader, method, args);
+                }
+
+                result = scriptEngine.eval(reader, ctx);
+            }
 
             // call method - if supplied and script engine supports direct invocation
             if ( method != null && (this.scriptEngine instanceof Invocable)) {
@@ -533,6 +565,37 @@ class DefaultSlingScript implements SlingScript, Servlet, ServletConfig {
         return new BufferedReader(new InputStreamReader(new LazyInputStream(this.scriptResource), this.scriptEncoding));
     }
 
+    /**
+     * Returns the compiled script from the cache, compiling the script if it
+     * has not been compiled yet or has been modified since.
+     */
+    private CompiledScript getCompiledScript() throws IOException,
+            ScriptException {
+        final long modificationTime = this.scriptResource.getResourceMetadata().getModificationTime();
+        CompiledScript compiled = this.compiledScriptCache.get(
+            this.scriptName, modificationTime, this.scriptEngine.getFactory());
+        if (compiled == null) {
+            final Reader reader = getScriptReader();
+            try {
+                // the engine takes the name of the script from its context
+                synchronized (this.scriptEngine) {
+                    this.scriptEngine.put(ScriptEngine.FILENAME, this.scriptName);
+                    compiled = ((Compilable) this.scriptEngine).compile(reader);
+                }
+            } finally {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                    // don't care
+                }
+            }
+            this.compiledScriptCache.put(this.scriptName, modificationTime,
+                this.scriptEngine.getFactory(), compiled);
+            LOGGER.debug("Compiled script {}", this.scriptName);
+        }
+        return compiled;
+    }
+
     private Reader getWrapperReader(final Reader scriptReader, final String method, final Object... args) {
         final StringBuilder buffer = new StringBuilder(method);
         buffer.append('(');
@@ -19,7 +19,9 @@ package org.apache.sling.scripting.core.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 
@@ -37,7 +39,10 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 import org.slf4j.Logger;
@@ -92,6 +97,16 @@ public class SlingScriptAdapterFactory implements AdapterFactory, MimeTypeProvid
      */
     private ServiceCache serviceCache;
 
+    /**
+     * The cache of compiled scripts.
+     */
+    private CompiledScriptCache compiledScriptCache;
+
+    /**
+     * The registration of the compiled script cache as an event handler.
+     */
+    private ServiceRegistration compiledScriptCacheReg;
+
     /**
      * The script engine manager.
      *
@@ -113,7 +128,8 @@ public class SlingScriptAdapterFactory implements AdapterFactory, MimeTypeProvid
             Collection<BindingsValuesProvider> bindingsValuesProviders = getBindingsValuesProviders(engine.getFactory());
             // unchecked cast
             return (AdapterType) new DefaultSlingScript(this.bundleContext,
-                    resource, engine, bindingsValuesProviders, this.serviceCache);
+                    resource, engine, bindingsValuesProviders, this.serviceCache,
+                    this.compiledScriptCache);
         }
 
         return null;
@@ -190,9 +206,22 @@ public class SlingScriptAdapterFactory implements AdapterFactory, MimeTypeProvid
             log.warn("Unable to create ServiceTracker for Map-based script bindiings", e);
         }
         this.serviceCache = new ServiceCache(this.bundleContext);
+
+        // drop compiled scripts when scripts or script engines change
+        this.compiledScriptCache = new CompiledScriptCache();
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(EventConstants.EVENT_TOPIC, CompiledScriptCache.TOPICS);
+        this.compiledScriptCacheReg = this.bundleContext.registerService(
+            EventHandler.class.getName(), this.compiledScriptCache, props);
     }
 
     protected void deactivate(ComponentContext context) {
+        if (this.compiledScriptCacheReg != null) {
+            this.compiledScriptCacheReg.unregister();
+            this.compiledScriptCacheReg = null;
+        }
+        this.compiledScriptCache = null;
+
         this.serviceCache.dispose();
         this.serviceCache = null;
 
@@ -18,8 +18,6 @@
  */
 package org.apache.sling.scripting.javascript.helper;
 
-import java.lang.reflect.Field;
-
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.tools.debugger.ScopeProvider;
@@ -43,42 +41,15 @@ public class SlingContextFactory extends ContextFactory {
 
     private boolean debuggerActive;
 
-    // conditionally setup the global ContextFactory to be ours. If
-    // a global context factory has already been set, we have lost
-    // and cannot set this one.
-    public static void setup(ScopeProvider sp) {
-        // TODO what do we do in the other case? debugger won't work
-        if (!hasExplicitGlobal()) {
-            initGlobal(new SlingContextFactory(sp));
-        }
-    }
-
-    public static void teardown() {
-        ContextFactory factory = getGlobal();
-        if (factory instanceof SlingContextFactory) {
-            ((SlingContextFactory) factory).dispose();
-        }
-    }
-
-    // private as instances of this class are only used by setup()
-    private SlingContextFactory(ScopeProvider sp) {
+    /**
+     * Creates a context factory providing the scopes shown by the debugger.
+     * The factory is not installed as the global <code>ContextFactory</code>;
+     * contexts are entered through its <code>call</code> method instead.
+     */
+    public SlingContextFactory(ScopeProvider sp) {
         scopeProvider = sp;
     }
 
-    private void dispose() {
-        // ensure the debugger is closed
-        exitDebugger();
-        
-        // reset the context factory class for future use
-        ContextFactory newGlobal = new ContextFactory();
-        setField(newGlobal, "hasCustomGlobal", Boolean.FALSE);
-        setField(newGlobal, "global", newGlobal);
-        setField(newGlobal, "sealed", Boolean.FALSE);
-        setField(newGlobal, "listeners", null);
-        setField(newGlobal, "disabledListening", Boolean.FALSE);
-        setField(newGlobal, "applicationClassLoader", null);
-    }
-
     @Override
     protected Context makeContext() {
         return new SlingContext();
@@ -135,20 +106,4 @@ public class SlingContextFactory extends ContextFactory {
     public boolean isDebugging() {
         return debuggerActive;
     }
-
-    private void setField(Object instance, String fieldName, Object value) {
-        try {
-            Field field = instance.getClass().getDeclaredField(fieldName);
-            if (!field.isAccessible()) {
-                field.setAccessible(true);
-            }
-            field.set(instance, value);
-        } catch (IllegalArgumentException iae) {
-            // don't care, but it is strange anyhow
-        } catch (IllegalAccessException iae) {
-            // don't care, but it is strange anyhow
-        } catch (NoSuchFieldException nsfe) {
-            // don't care, but it is strange anyhow
-        }
-    }
 }
@@ -17,12 +17,16 @@
 package org.apache.sling.scripting.javascript.internal;
 
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptException;
 
@@ -31,8 +35,11 @@ import org.apache.sling.api.scripting.SlingScriptHelper;
 import org.apache.sling.scripting.api.AbstractSlingScriptEngine;
 import org.apache.sling.scripting.javascript.io.EspReader;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
@@ -43,8 +50,14 @@ import org.slf4j.Logger;
 /**
  * A ScriptEngine that uses the Rhino interpreter to process Sling requests with
  * server-side javascript.
+ * <p>
+ * Scripts may be compiled once through the <code>Compilable</code> interface
+ * and then be executed repeatedly without being parsed again. The name of the
+ * script to compile is taken from the {@link ScriptEngine#FILENAME} attribute
+ * of the engine; ESP scripts are recognized by this name.
  */
-public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
+public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine implements
+        Compilable {
 
     private Scriptable rootScope;
 
@@ -56,6 +69,59 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
 
     public Object eval(Reader scriptReader, ScriptContext scriptContext)
             throws ScriptException {
+        return eval(scriptReader, null, scriptContext);
+    }
+
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(new StringReader(script));
+    }
+
+    public CompiledScript compile(Reader scriptReader) throws ScriptException {
+        final Object fileName = get(ScriptEngine.FILENAME);
+        final String scriptName = (fileName != null)
+                ? fileName.toString()
+                : "NO_SCRIPT_NAME";
+
+        // wrap the reader in an EspReader for ESP scripts
+        if (scriptName.endsWith(RhinoJavaScriptEngineFactory.ESP_SCRIPT_EXTENSION)) {
+            scriptReader = new EspReader(scriptReader);
+        }
+
+        final Reader reader = scriptReader;
+        return (CompiledScript) call(new RhinoAction() {
+            public Object run(Context rhinoContext) throws ScriptException {
+                try {
+                    final Script script = rhinoContext.compileReader(reader,
+                        scriptName, 1, null);
+                    return new RhinoCompiledScript(RhinoJavaScriptEngine.this,
+                        script);
+                } catch (Throwable t) {
+                    final ScriptException se = new ScriptException(
+                        "Failure compiling script " + scriptName + ": "
+                            + t.getMessage());
+                    se.initCause(t);
+                    throw se;
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the compiled <code>script</code> or, if it is
+     * <code>null</code>, evaluates the script read from the
+     * <code>scriptReader</code>.
+     */
+    private Object eval(final Reader scriptReader, final Script script,
+            final ScriptContext scriptContext) throws ScriptException {
+        return call(new RhinoAction() {
+            public Object run(Context rhinoContext) throws ScriptException {
+                return eval(rhinoContext, scriptReader, script, scriptContext);
+            }
+        });
+    }
+
+    private Object eval(Context rhinoContext, Reader scriptReader,
+            Script script, ScriptContext scriptContext) throws ScriptException {
         Bindings bindings = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
         String scriptName = "NO_SCRIPT_NAME";
         {
@@ -66,7 +132,8 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
         }
 
         // wrap the reader in an EspReader for ESP scripts
-        if (scriptName.endsWith(RhinoJavaScriptEngineFactory.ESP_SCRIPT_EXTENSION)) {
+        if (script == null
+            && scriptName.endsWith(RhinoJavaScriptEngineFactory.ESP_SCRIPT_EXTENSION)) {
             scriptReader = new EspReader(scriptReader);
         }
 
@@ -75,11 +142,9 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
         Scriptable scope = null;
         boolean isTopLevelCall = false;
 
-        // create a rhino Context and execute the script
+        // execute the script in the rhino Context
         try {
 
-            final Context rhinoContext = Context.enter();
-
             if (ScriptRuntime.hasTopCall(rhinoContext)) {
                 // reuse the top scope if we are included
                 scope = ScriptRuntime.getTopCallScope(rhinoContext);
@@ -108,6 +173,10 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
             // add initial properties to the scope
             replacedProperties = setBoundProperties(scope, bindings);
 
+            if (script != null) {
+                return script.exec(rhinoContext, scope);
+            }
+
             final int lineNumber = 1;
             final Object securityDomain = null;
 
@@ -163,8 +232,29 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
 
             // if properties have been replaced, reset them
             resetBoundProperties(scope, replacedProperties);
+        }
+    }
 
-            Context.exit();
+    /**
+     * Runs the action in a Rhino context of the <code>ContextFactory</code>
+     * of the engine factory such that scripts are compiled and run with the
+     * context settings of this factory. An included script reuses the
+     * context of the including script.
+     */
+    private Object call(final RhinoAction action) throws ScriptException {
+        final ContextFactory contextFactory = ((RhinoJavaScriptEngineFactory) getFactory()).getContextFactory();
+        try {
+            return contextFactory.call(new ContextAction() {
+                public Object run(Context rhinoContext) {
+                    try {
+                        return action.run(rhinoContext);
+                    } catch (ScriptException se) {
+                        throw new ScriptExceptionWrapper(se);
+                    }
+                }
+            });
+        } catch (ScriptExceptionWrapper sew) {
+            throw sew.getScriptException();
         }
     }
 
@@ -217,4 +307,55 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
             }
         }
     }
+
+    /**
+     * An action run by {@link RhinoJavaScriptEngine#call(RhinoAction)}.
+     */
+    private static interface RhinoAction {
+
+        Object run(Context rhinoContext) throws ScriptException;
+    }
+
+    /**
+     * Carries a <code>ScriptException</code> through the
+     * <code>ContextAction</code>, which may not throw checked exceptions.
+     */
+    private static class ScriptExceptionWrapper extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ScriptExceptionWrapper(ScriptException cause) {
+            super(cause);
+        }
+
+        ScriptException getScriptException() {
+            return (ScriptException) getCause();
+        }
+    }
+
+    /**
+     * The <code>RhinoCompiledScript</code> is a script compiled by the
+     * {@link RhinoJavaScriptEngine}.
+     */
+    private static class RhinoCompiledScript extends CompiledScript {
+
+        private final RhinoJavaScriptEngine engine;
+
+        private final Script script;
+
+        RhinoCompiledScript(RhinoJavaScriptEngine engine, Script script) {
+            this.engine = engine;
+            this.script = script;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return engine.eval(null, script, context);
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
 }
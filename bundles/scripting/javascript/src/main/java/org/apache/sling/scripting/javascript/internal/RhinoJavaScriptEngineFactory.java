@@ -39,6 +39,7 @@ import org.apache.sling.scripting.javascript.wrapper.ScriptableResource;
 import org.apache.sling.scripting.javascript.wrapper.ScriptableVersion;
 import org.apache.sling.scripting.javascript.wrapper.ScriptableVersionHistory;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.NativeJavaClass;
@@ -81,6 +82,9 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
 
     private SlingWrapFactory wrapFactory;
 
+    /** The Rhino context factory of this engine factory */
+    private SlingContextFactory contextFactory;
+
     private Scriptable rootScope;
 
     private final Set<RhinoHostObjectProvider> hostObjectProvider = new HashSet<RhinoHostObjectProvider>();
@@ -116,40 +120,49 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
         return wrapFactory;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Returns the Rhino <code>ContextFactory</code> of this factory, whose
+     * <code>call</code> method runs the compilation and evaluation of scripts.
+     * Before activation, this is the global <code>ContextFactory</code>.
+     */
+    ContextFactory getContextFactory() {
+        final ContextFactory factory = contextFactory;
+        return (factory != null) ? factory : ContextFactory.getGlobal();
+    }
+
     private Scriptable getRootScope() {
         if (rootScope == null) {
-
-            final Context rhinoContext = Context.enter();
-            try {
-
-                Scriptable tmpScope = rhinoContext.initStandardObjects(
-                    new ImporterTopLevel(), false);
-
-                // default classes
-                addHostObjects(tmpScope,
-                    (Class<? extends ScriptableObject>[]) HOSTOBJECT_CLASSES);
-
-                // provided classes
-                for (RhinoHostObjectProvider provider : hostObjectProvider) {
-                    addHostObjects(tmpScope, provider.getHostObjectClasses());
-                    addImportedClasses(rhinoContext, tmpScope,
-                        provider.getImportedClasses());
-                    addImportedPackages(rhinoContext, tmpScope,
-                        provider.getImportedPackages());
+            getContextFactory().call(new ContextAction() {
+                public Object run(Context rhinoContext) {
+                    createRootScope(rhinoContext);
+                    return null;
                 }
+            });
+        }
 
-                // only assign the root scope when complete set up
-                rootScope = tmpScope;
+        return rootScope;
+    }
 
-            } finally {
-                // ensure the context is exited after setting up the
-                // the new root scope
-                Context.exit();
-            }
+    @SuppressWarnings("unchecked")
+    private void createRootScope(final Context rhinoContext) {
+        Scriptable tmpScope = rhinoContext.initStandardObjects(
+            new ImporterTopLevel(), false);
+
+        // default classes
+        addHostObjects(tmpScope,
+            (Class<? extends ScriptableObject>[]) HOSTOBJECT_CLASSES);
+
+        // provided classes
+        for (RhinoHostObjectProvider provider : hostObjectProvider) {
+            addHostObjects(tmpScope, provider.getHostObjectClasses());
+            addImportedClasses(rhinoContext, tmpScope,
+                provider.getImportedClasses());
+            addImportedPackages(rhinoContext, tmpScope,
+                provider.getImportedPackages());
         }
 
-        return rootScope;
+        // only assign the root scope when complete set up
+        rootScope = tmpScope;
     }
 
     private void dropRootScope() {
@@ -157,9 +170,9 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
         // ensure the debugger is closed if the root scope will
         // be replaced to ensure no references to the old scope
         // and context remain
-        ContextFactory contextFactory = ContextFactory.getGlobal();
-        if (contextFactory instanceof SlingContextFactory) {
-            ((SlingContextFactory) contextFactory).exitDebugger();
+        final SlingContextFactory factory = contextFactory;
+        if (factory != null) {
+            factory.exitDebugger();
         }
 
         // drop the scope
@@ -178,28 +191,29 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
         wrapFactory = new SlingWrapFactory();
 
         // initialize the Rhino Context Factory
-        SlingContextFactory.setup(this);
+        final SlingContextFactory factory = new SlingContextFactory(this);
+        factory.setDebugging(debugging);
 
-        Context cx = Context.enter();
-        setEngineName(getEngineName() + " (" + cx.getImplementationVersion()
-            + ")");
-        languageVersion = String.valueOf(cx.getLanguageVersion());
-        Context.exit();
+        // set the dynamic class loader as the application class loader
+        final DynamicClassLoaderManager dclm = this.dynamicClassLoaderManager;
+        if ( dclm != null ) {
+            factory.initApplicationClassLoader(dclm.getDynamicClassLoader());
+        }
+        contextFactory = factory;
+
+        factory.call(new ContextAction() {
+            public Object run(Context cx) {
+                setEngineName(getEngineName() + " ("
+                    + cx.getImplementationVersion() + ")");
+                languageVersion = String.valueOf(cx.getLanguageVersion());
+                return null;
+            }
+        });
 
         setExtensions(ECMA_SCRIPT_EXTENSION, ESP_SCRIPT_EXTENSION);
         setMimeTypes("text/javascript", "application/ecmascript",
             "application/javascript");
         setNames("javascript", ECMA_SCRIPT_EXTENSION, ESP_SCRIPT_EXTENSION);
-
-        final ContextFactory contextFactory = ContextFactory.getGlobal();
-        if (contextFactory instanceof SlingContextFactory) {
-            ((SlingContextFactory) contextFactory).setDebugging(debugging);
-        }
-        // set the dynamic class loader as the application class loader
-        final DynamicClassLoaderManager dclm = this.dynamicClassLoaderManager;
-        if ( dclm != null ) {
-            contextFactory.initApplicationClassLoader(dynamicClassLoaderManager.getDynamicClassLoader());
-        }
     }
 
     protected void deactivate(ComponentContext context) {
@@ -208,7 +222,7 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
         dropRootScope();
 
         // remove our context factory
-        SlingContextFactory.teardown();
+        contextFactory = null;
 
         // remove references
         wrapFactory = null;
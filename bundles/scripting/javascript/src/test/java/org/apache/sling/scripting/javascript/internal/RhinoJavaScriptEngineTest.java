@@ -18,7 +18,12 @@
  */
 package org.apache.sling.scripting.javascript.internal;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
@@ -27,6 +32,7 @@ import junit.framework.TestCase;
 
 import org.apache.sling.scripting.javascript.helper.SlingWrapFactory;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.Scriptable;
 
@@ -47,15 +53,127 @@ public class RhinoJavaScriptEngineTest extends TestCase {
         assertEquals(2.0, result);
     }
 
+    public void testCompiledScriptEvaluatedRepeatedly() throws ScriptException {
+        MockRhinoJavaScriptEngineFactory factory = new MockRhinoJavaScriptEngineFactory();
+        ScriptEngine engine = factory.getScriptEngine();
+        CompiledScript script = ((Compilable) engine).compile("x * 2");
+
+        Bindings context = new SimpleBindings();
+        context.put("x", 2);
+        assertEquals(4.0, script.eval(context));
+
+        context.put("x", 5);
+        assertEquals(10.0, script.eval(context));
+    }
+
+    public void testCompileEspScript() throws ScriptException {
+        MockRhinoJavaScriptEngineFactory factory = new MockRhinoJavaScriptEngineFactory();
+        ScriptEngine engine = factory.getScriptEngine();
+        engine.put(ScriptEngine.FILENAME, "/apps/test/test.esp");
+        CompiledScript script = ((Compilable) engine).compile("<%= \"a\" + \"b\" %>");
+
+        final MockResponse response = new MockResponse();
+        final Bindings context = new SimpleBindings();
+        context.put("response", response);
+        script.eval(context);
+        assertEquals("ab", response.getOutput());
+    }
+
+    public void testCompileUsesContextFactory() throws ScriptException {
+        MockRhinoJavaScriptEngineFactory factory = new MockRhinoJavaScriptEngineFactory();
+        final CountingContextFactory contextFactory = new CountingContextFactory();
+        factory.contextFactory = contextFactory;
+        ScriptEngine engine = factory.getScriptEngine();
+
+        CompiledScript script = ((Compilable) engine).compile("x * 2");
+        assertEquals(1, contextFactory.contexts);
+
+        Bindings context = new SimpleBindings();
+        context.put("x", 2);
+        assertEquals(4.0, script.eval(context));
+        assertEquals(2, contextFactory.contexts);
+    }
+
+    public void testScriptsRunWithContextFactory() throws ScriptException {
+        MockRhinoJavaScriptEngineFactory factory = new MockRhinoJavaScriptEngineFactory();
+        final CountingContextFactory contextFactory = new CountingContextFactory();
+        factory.contextFactory = contextFactory;
+        ScriptEngine engine = factory.getScriptEngine();
+
+        // the settings of the factory apply, not those of the global factory
+        final FactoryProbe probe = new FactoryProbe();
+        Bindings context = new SimpleBindings();
+        context.put("probe", probe);
+        engine.eval("probe.check()", context);
+        assertSame(contextFactory, probe.factory);
+
+        probe.factory = null;
+        ((Compilable) engine).compile("probe.check()").eval(context);
+        assertSame(contextFactory, probe.factory);
+
+        // no context is left entered
+        assertNull(Context.getCurrentContext());
+    }
+
+    public static class FactoryProbe {
+
+        ContextFactory factory;
+
+        public void check() {
+            factory = Context.getCurrentContext().getFactory();
+        }
+    }
+
+    private static class CountingContextFactory extends ContextFactory {
+
+        int contexts;
+
+        @Override
+        protected Context makeContext() {
+            contexts++;
+            return super.makeContext();
+        }
+    }
+
+    public static class MockResponse {
+
+        private final StringWriter output = new StringWriter();
+
+        private final PrintWriter writer = new PrintWriter(output);
+
+        public PrintWriter getWriter() {
+            return writer;
+        }
+
+        String getOutput() {
+            writer.flush();
+            return output.toString();
+        }
+    }
+
     private static class MockRhinoJavaScriptEngineFactory extends RhinoJavaScriptEngineFactory {
 
         protected SlingWrapFactory wrapFactory;
 
+        protected ContextFactory contextFactory;
+
         @Override
         public ScriptEngine getScriptEngine() {
             final Context rhinoContext = Context.enter();
-            Scriptable scope = rhinoContext.initStandardObjects(new ImporterTopLevel(), false);
-            return new RhinoJavaScriptEngine(this, scope);
+            try {
+                Scriptable scope = rhinoContext.initStandardObjects(new ImporterTopLevel(), false);
+                return new RhinoJavaScriptEngine(this, scope);
+            } finally {
+                Context.exit();
+            }
+        }
+
+        @Override
+        ContextFactory getContextFactory() {
+            if (contextFactory != null) {
+                return contextFactory;
+            }
+            return super.getContextFactory();
         }
 
         @Override
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>JspPrecompiler</code> compiles JSPs in the background such that
+ * the first request to a JSP does not have to wait for the compilation.
+ * <p>
+ * When started, all JSPs found below the search path of the resource
+ * resolver are compiled. Afterwards JSPs are compiled again when they or a
+ * file they depend on, e.g. an included fragment or a tag file, is modified.
+ * The JSPs are compiled by a fixed number of worker threads; a JSP is only
+ * queued once until its compilation starts. The generated classes are written
+ * through the <code>ClassLoaderWriter</code> like the classes compiled on
+ * request.
+ */
+class JspPrecompiler {
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(JspPrecompiler.class);
+
+    /** The time in seconds to wait for running compilations when stopping */
+    private static final long STOP_TIMEOUT = 10;
+
+    private final JspScriptEngineFactory factory;
+
+    private final JspRuntimeContext runtimeContext;
+
+    private final ResourceResolverFactory resourceResolverFactory;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    /** The JSPs queued for compilation whose compilation has not started yet */
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+
+    /** The search path, set once the JSPs have been collected */
+    private volatile String[] searchPath;
+
+    private final AtomicLong compiled = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /** The number of JSPs of the initial compilation not compiled yet */
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    private volatile int total;
+
+    private volatile long startTime;
+
+    /** The duration of the initial compilation or -1 while it is running */
+    private volatile long duration = -1;
+
+    JspPrecompiler(final JspScriptEngineFactory factory,
+            final JspRuntimeContext runtimeContext,
+            final ResourceResolverFactory resourceResolverFactory,
+            final int threads) {
+        this.factory = factory;
+        this.runtimeContext = runtimeContext;
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.threads = threads;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "Apache Sling JSP Precompiler "
+                    + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Collects the JSPs below the search path in the background and queues
+     * them for compilation.
+     */
+    void start() {
+        executor.execute(new Runnable() {
+
+            public void run() {
+                precompileAll();
+            }
+        });
+    }
+
+    /**
+     * Drops the queued compilations and waits for running compilations to
+     * finish.
+     */
+    void stop() {
+        // queued compilations return immediately once not pending any longer
+        pending.clear();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("stop: Running JSP compilations did not finish within {} seconds",
+                    STOP_TIMEOUT);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the JSPs affected by the modification of the resource at the
+     * given path for compilation: the resource itself if it is a JSP below the
+     * search path and the JSPs depending on it.
+     */
+    void handleModification(final String path) {
+        if (path == null || searchPath == null) {
+            // the initial compilation will pick up the modification
+            return;
+        }
+        if (isJsp(path) && isInSearchPath(path)) {
+            schedule(path, false);
+        }
+        for (final String jspUri : runtimeContext.getDependentJsps(path)) {
+            schedule(jspUri, false);
+        }
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    long getCompiled() {
+        return compiled.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of JSPs found by the initial compilation.
+     */
+    int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of JSPs of the initial compilation which have not
+     * been compiled yet.
+     */
+    int getRemaining() {
+        return remaining.get();
+    }
+
+    /**
+     * Returns the time in milliseconds the initial compilation took or -1 if
+     * it has not finished yet.
+     */
+    long getDuration() {
+        return duration;
+    }
+
+    private void precompileAll() {
+        startTime = System.currentTimeMillis();
+        final List<String> jsps = new ArrayList<String>();
+        ResourceResolver resolver = null;
+        try {
+            resolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+            final String[] path = resolver.getSearchPath();
+            for (final String root : path) {
+                final Resource resource = resolver.getResource(root);
+                if (resource != null) {
+                    collectJsps(resolver, resource, jsps);
+                }
+            }
+            searchPath = path;
+        } catch (LoginException le) {
+            log.error("precompileAll: Cannot access the JSPs to precompile", le);
+            return;
+        } finally {
+            if (resolver != null) {
+                resolver.close();
+            }
+        }
+
+        total = jsps.size();
+        remaining.set(total);
+        log.info("Precompiling {} JSPs using {} threads", total, threads);
+        if (total == 0) {
+            finished();
+            return;
+        }
+        for (final String jsp : jsps) {
+            if (!schedule(jsp, true)) {
+                // already queued due to a modification
+                countDown();
+            }
+        }
+    }
+
+    private void collectJsps(final ResourceResolver resolver,
+            final Resource parent, final List<String> jsps) {
+        final Iterator<Resource> children = resolver.listChildren(parent);
+        while (children.hasNext()) {
+            final Resource child = children.next();
+            if (isJsp(child.getPath())) {
+                jsps.add(child.getPath());
+            } else {
+                collectJsps(resolver, child, jsps);
+            }
+        }
+    }
+
+    /**
+     * Queues the JSP for compilation unless it is already queued.
+     *
+     * @return <code>true</code> if the JSP has been queued
+     */
+    private boolean schedule(final String jspUri, final boolean initial) {
+        if (pending.putIfAbsent(jspUri, Boolean.TRUE) != null) {
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        compile(jspUri);
+                    } finally {
+                        if (initial) {
+                            countDown();
+                        }
+                    }
+                }
+            });
+            return true;
+        } catch (RuntimeException re) {
+            // rejected as we are stopping
+            pending.remove(jspUri);
+            return false;
+        }
+    }
+
+    private void compile(final String jspUri) {
+        // a modification from now on requires another compilation
+        if (pending.remove(jspUri) == null) {
+            // dropped when stopping
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        ResourceResolver resolver = null;
+        try {
+            resolver = resourceResolverFactory.getAdministrativeResourceResolver(null);
+            if (resolver.getResource(jspUri) == null) {
+                // removed in the meantime
+                return;
+            }
+            factory.precompile(resolver, jspUri);
+            compiled.incrementAndGet();
+            log.debug("compile: Compiled {} in {} ms", jspUri,
+                System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.warn("compile: Cannot compile " + jspUri + ": " + e);
+            log.debug("compile: Compilation failure", e);
+        } finally {
+            if (resolver != null) {
+                resolver.close();
+            }
+        }
+    }
+
+    private void countDown() {
+        if (remaining.decrementAndGet() == 0) {
+            finished();
+        }
+    }
+
+    private void finished() {
+        duration = System.currentTimeMillis() - startTime;
+        log.info("Precompiled {} JSPs in {} ms ({} failed)", new Object[] {
+            total, duration, failed.get() });
+    }
+
+    private boolean isInSearchPath(final String path) {
+        for (final String root : searchPath) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the path denotes a JSP page. Fragments and
+     * tag files are compiled with the JSPs using them.
+     */
+    private static boolean isJsp(final String path) {
+        return path.endsWith(".jsp") || path.endsWith(".jspx");
+    }
+}
@@ -18,9 +18,15 @@ package org.apache.sling.scripting.jsp;
 
 import static org.apache.sling.api.scripting.SlingBindings.SLING;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.script.Bindings;
 import javax.script.ScriptContext;
@@ -39,6 +45,7 @@ import org.apache.sling.api.SlingConstants;
 import org.apache.sling.api.SlingException;
 import org.apache.sling.api.SlingServletException;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.api.scripting.SlingScript;
 import org.apache.sling.api.scripting.SlingScriptConstants;
@@ -78,12 +85,24 @@ import org.slf4j.LoggerFactory;
    @Property(name="jasper.keepgenerated",boolValue=true),
    @Property(name="jasper.mappedfile",boolValue=true),
    @Property(name="jasper.trimSpaces",boolValue=false),
-   @Property(name="jasper.displaySourceFragments",boolValue=false)
+   @Property(name="jasper.displaySourceFragments",boolValue=false),
+   @Property(name=JspScriptEngineFactory.PROP_PRECOMPILE,boolValue=JspScriptEngineFactory.DEFAULT_PRECOMPILE),
+   @Property(name=JspScriptEngineFactory.PROP_PRECOMPILE_THREADS,intValue=JspScriptEngineFactory.DEFAULT_PRECOMPILE_THREADS)
 })
 public class JspScriptEngineFactory
     extends AbstractScriptEngineFactory
     implements EventHandler {
 
+    /** Whether to compile the JSPs in the background */
+    static final String PROP_PRECOMPILE = "precompile.enabled";
+
+    static final boolean DEFAULT_PRECOMPILE = false;
+
+    /** The number of threads compiling JSPs in the background */
+    static final String PROP_PRECOMPILE_THREADS = "precompile.threads";
+
+    static final int DEFAULT_PRECOMPILE_THREADS = 2;
+
     /** Default logger */
     private final Logger logger = LoggerFactory.getLogger(JspScriptEngineFactory.class);
 
@@ -96,6 +115,9 @@ public class JspScriptEngineFactory
     @Reference
     private ClassLoaderWriter classLoaderWriter;
 
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
     /** The class loader for the jsps. */
     private ClassLoader jspClassLoader;
 
@@ -114,6 +136,19 @@ public class JspScriptEngineFactory
 
     private ServiceRegistration eventHandlerRegistration;
 
+    private ServiceRegistration printerRegistration;
+
+    /** The background compilation of the JSPs if enabled */
+    private JspPrecompiler precompiler;
+
+    /**
+     * The wrappers currently being created by script name. Threads requesting
+     * a script whose wrapper is being created wait for the creating thread
+     * instead of creating a second wrapper.
+     */
+    private final ConcurrentMap<String, FutureTask<JspServletWrapperAdapter>> pendingWrappers =
+        new ConcurrentHashMap<String, FutureTask<JspServletWrapperAdapter>>();
+
     /** The handler for the jsp factories. */
     private JspRuntimeContext.JspFactoryHandler jspFactoryHandler;
 
@@ -187,36 +222,91 @@ public class JspScriptEngineFactory
         }
     }
 
+    /**
+     * Compiles and loads the JSP unless it is up to date. This is called by
+     * the {@link JspPrecompiler} to compile JSPs outside of a request.
+     *
+     * @param resolver The resource resolver to read the JSP and its
+     *            dependencies
+     * @param scriptName The path of the JSP
+     */
+    void precompile(final ResourceResolver resolver, final String scriptName)
+    throws ServletException, IOException {
+        final ClassLoader old = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(jspClassLoader);
+
+        final SlingIOProvider io = this.ioProvider;
+        io.setRequestResourceResolver(resolver);
+        // loading the servlet initializes it, which requires our JSP factory
+        jspFactoryHandler.incUsage();
+        try {
+            getJspWrapperAdapter(scriptName).compile();
+        } finally {
+            jspFactoryHandler.decUsage();
+            io.resetRequestResourceResolver();
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
     private JspServletWrapperAdapter getJspWrapperAdapter(final SlingScriptHelper scriptHelper)
+    throws SlingException {
+        final SlingScript script = scriptHelper.getScript();
+        return getJspWrapperAdapter(script.getScriptResource().getPath());
+    }
+
+    private JspServletWrapperAdapter getJspWrapperAdapter(final String scriptName)
     throws SlingException {
         final JspRuntimeContext rctxt = jspRuntimeContext;
 
-        final SlingScript script = scriptHelper.getScript();
-        final String scriptName = script.getScriptResource().getPath();
         JspServletWrapperAdapter wrapper = (JspServletWrapperAdapter) rctxt.getWrapper(scriptName);
         if (wrapper != null) {
             return wrapper;
         }
 
-        synchronized (rctxt) {
-            wrapper = (JspServletWrapperAdapter) rctxt.getWrapper(scriptName);
-            if (wrapper != null) {
-                return wrapper;
-            }
+        // create the wrapper once per script without blocking the lookup of
+        // other scripts; the first compilation of the script is serialized
+        // on the wrapper itself
+        final FutureTask<JspServletWrapperAdapter> task = new FutureTask<JspServletWrapperAdapter>(
+            new Callable<JspServletWrapperAdapter>() {
+                public JspServletWrapperAdapter call() throws JasperException {
+                    // the wrapper may have been registered since the lookup
+                    JspServletWrapperAdapter created = (JspServletWrapperAdapter) rctxt.getWrapper(scriptName);
+                    if (created == null) {
+                        created = new JspServletWrapperAdapter(servletConfig,
+                            options, scriptName, false, rctxt);
+                        rctxt.addWrapper(scriptName, created);
+                    }
+                    return created;
+                }
+            });
 
+        FutureTask<JspServletWrapperAdapter> pending = pendingWrappers.putIfAbsent(scriptName, task);
+        if (pending == null) {
+            pending = task;
             try {
+                task.run();
+            } finally {
+                pendingWrappers.remove(scriptName, task);
+            }
+        }
 
-                wrapper = new JspServletWrapperAdapter(servletConfig, options,
-                    scriptName, false, rctxt);
-                rctxt.addWrapper(scriptName, wrapper);
-
-                return wrapper;
-            } catch (JasperException je) {
-                if (je.getCause() != null) {
-                    throw new SlingException(je.getMessage(), je.getCause());
+        try {
+            return pending.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SlingException("Interrupted while waiting for JSP " + scriptName, ie);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof JasperException) {
+                if (cause.getCause() != null) {
+                    throw new SlingException(cause.getMessage(), cause.getCause());
                 }
-                throw new SlingException("Cannot create JSP", je);
+                throw new SlingException("Cannot create JSP", cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw new SlingException("Cannot create JSP", cause);
         }
     }
 
@@ -271,6 +361,19 @@ public class JspScriptEngineFactory
         this.eventHandlerRegistration = componentContext.getBundleContext()
                   .registerService(EventHandler.class.getName(), this, props);
 
+        final Dictionary<?, ?> config = componentContext.getProperties();
+        if (toBoolean(config.get(PROP_PRECOMPILE), DEFAULT_PRECOMPILE)) {
+            final int threads = toInteger(config.get(PROP_PRECOMPILE_THREADS),
+                DEFAULT_PRECOMPILE_THREADS);
+            this.precompiler = new JspPrecompiler(this, this.jspRuntimeContext,
+                this.resourceResolverFactory, Math.max(1, threads));
+            this.precompiler.start();
+        }
+
+        this.printerRegistration = JspWebConsolePrinter.register(
+            componentContext.getBundleContext(), this.jspRuntimeContext,
+            this.precompiler);
+
         logger.debug("IMPORTANT: Do not modify the generated servlets");
     }
 
@@ -288,6 +391,14 @@ public class JspScriptEngineFactory
             this.eventHandlerRegistration.unregister();
             this.eventHandlerRegistration = null;
         }
+        if ( this.printerRegistration != null ) {
+            this.printerRegistration.unregister();
+            this.printerRegistration = null;
+        }
+        if ( this.precompiler != null ) {
+            this.precompiler.stop();
+            this.precompiler = null;
+        }
         if (jspRuntimeContext != null) {
             try {
                 jspRuntimeContext.destroy();
@@ -377,6 +488,28 @@ public class JspScriptEngineFactory
 
     // ---------- Internal -----------------------------------------------------
 
+    private static boolean toBoolean(final Object value, final boolean defaultValue) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        } else if (value != null) {
+            return Boolean.valueOf(value.toString());
+        }
+        return defaultValue;
+    }
+
+    private static int toInteger(final Object value, final int defaultValue) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException nfe) {
+                // fall back to default
+            }
+        }
+        return defaultValue;
+    }
+
     private class JspScriptEngine extends AbstractSlingScriptEngine {
 
         JspScriptEngine() {
@@ -465,5 +598,11 @@ public class JspScriptEngineFactory
         } else {
             this.jspRuntimeContext.handleModification((String)event.getProperty(SlingConstants.PROPERTY_PATH));
         }
+
+        // compile the modified JSPs again before they are requested
+        final JspPrecompiler jspPrecompiler = this.precompiler;
+        if ( jspPrecompiler != null && !SlingConstants.TOPIC_RESOURCE_REMOVED.equals(event.getTopic()) ) {
+            jspPrecompiler.handleModification((String)event.getProperty(SlingConstants.PROPERTY_PATH));
+        }
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * This is a configuration printer for the web console which prints out the
+ * compilation statistics of the JSP engine.
+ */
+public class JspWebConsolePrinter {
+
+    private static final String HEADLINE = "Apache Sling JSP Script Handler";
+
+    private final JspRuntimeContext runtimeContext;
+
+    private final JspPrecompiler precompiler;
+
+    public static ServiceRegistration register(final BundleContext bundleContext,
+            final JspRuntimeContext runtimeContext,
+            final JspPrecompiler precompiler) {
+        final JspWebConsolePrinter printer = new JspWebConsolePrinter(runtimeContext,
+            precompiler);
+
+        final Dictionary<String, String> props = new Hashtable<String, String>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Apache Sling JSP Script Handler Configuration Printer");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put("felix.webconsole.label", "slingjsp");
+        props.put("felix.webconsole.title", "Sling JSP");
+        props.put("felix.webconsole.configprinter.modes", "always");
+
+        return bundleContext.registerService(JspWebConsolePrinter.class.getName(),
+            printer, props);
+    }
+
+    JspWebConsolePrinter(final JspRuntimeContext runtimeContext,
+            final JspPrecompiler precompiler) {
+        this.runtimeContext = runtimeContext;
+        this.precompiler = precompiler;
+    }
+
+    /**
+     * Print out the compilation statistics.
+     * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
+     */
+    public void printConfiguration(final PrintWriter pw) {
+        pw.println(HEADLINE);
+        pw.println();
+
+        final long compileCount = runtimeContext.getCompileCount();
+        final long compileTime = runtimeContext.getCompileTime();
+        final long lockWaitCount = runtimeContext.getLockWaitCount();
+        final long lockWaitTime = runtimeContext.getLockWaitTime();
+
+        pw.print("Loaded JSPs : ");
+        pw.println(runtimeContext.getJspCount());
+        pw.print("Reloaded JSPs : ");
+        pw.println(runtimeContext.getJspReloadCount());
+        pw.print("Compilations : ");
+        pw.println(compileCount);
+        pw.print("- Total Compile Time : ");
+        pw.print(compileTime);
+        pw.println(" ms");
+        pw.print("- Average Compile Time : ");
+        pw.print((compileCount == 0) ? 0 : compileTime / compileCount);
+        pw.println(" ms");
+        pw.print("Compilations Avoided : ");
+        pw.println(runtimeContext.getClassCache().getHits());
+        pw.print("- Changed Sources : ");
+        pw.println(runtimeContext.getClassCache().getMisses());
+        pw.print("Compilation Lock Waits : ");
+        pw.println(lockWaitCount);
+        pw.print("- Total Wait Time : ");
+        pw.print(lockWaitTime);
+        pw.println(" ms");
+        pw.print("- Average Wait Time : ");
+        pw.print((lockWaitCount == 0) ? 0 : lockWaitTime / lockWaitCount);
+        pw.println(" ms");
+
+        pw.print("Background Compilation : ");
+        if (precompiler == null) {
+            pw.println("disabled");
+            return;
+        }
+        pw.print("enabled, ");
+        pw.print(precompiler.getThreads());
+        pw.println(" threads");
+        pw.print("- Startup : ");
+        final long duration = precompiler.getDuration();
+        if (duration < 0) {
+            pw.print(precompiler.getTotal() - precompiler.getRemaining());
+            pw.print(" of ");
+            pw.print(precompiler.getTotal());
+            pw.println(" JSPs compiled");
+        } else {
+            pw.print(precompiler.getTotal());
+            pw.print(" JSPs compiled in ");
+            pw.print(duration);
+            pw.println(" ms");
+        }
+        pw.print("- Compiled : ");
+        pw.println(precompiler.getCompiled());
+        pw.print("- Failed : ");
+        pw.println(precompiler.getFailed());
+        pw.print("- Queued : ");
+        pw.println(precompiler.getPending());
+    }
+}
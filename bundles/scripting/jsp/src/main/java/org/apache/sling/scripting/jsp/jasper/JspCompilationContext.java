@@ -31,6 +31,7 @@ import java.util.Set;
 import javax.servlet.ServletContext;
 import javax.servlet.jsp.tagext.TagInfo;
 
+import org.apache.sling.scripting.jsp.jasper.compiler.CompiledClassCache;
 import org.apache.sling.scripting.jsp.jasper.compiler.Compiler;
 import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext;
 import org.apache.sling.scripting.jsp.jasper.compiler.JspUtil;
@@ -594,12 +595,26 @@ public class JspCompilationContext {
     public void compile() throws JasperException, IOException, FileNotFoundException {
         createCompiler();
         if (isPackagedTagFile || jspCompiler.isOutDated()) {
+            final CompiledClassCache classCache = getRuntimeContext().getClassCache();
+            CompiledClassCache.Sources sources = null;
+            if (!isTagFile()) {
+                sources = classCache.getSources(this);
+                if (classCache.isUpToDate(this, sources)) {
+                    // the sources have not changed, the class can be reused
+                    this.getRuntimeContext().addJspDependencies(jsw);
+                    return;
+                }
+            }
+            final long start = System.nanoTime();
             try {
                 jspCompiler.removeGeneratedFiles();
                 jspCompiler.compile();
                 jsw.setReload(true);
                 jsw.setCompilationException(null);
                 this.getRuntimeContext().addJspDependencies(jsw);
+                if (sources != null) {
+                    classCache.store(this, sources, jsw.getDependants());
+                }
             } catch (JasperException ex) {
                 // Cache compilation exception
                 jsw.setCompilationException(ex);
@@ -618,6 +633,8 @@ public class JspCompilationContext {
                 // Cache compilation exception
                 jsw.setCompilationException(je);
                 throw je;
+            } finally {
+                this.getRuntimeContext().recordCompilation(System.nanoTime() - start);
             }
         }
     }
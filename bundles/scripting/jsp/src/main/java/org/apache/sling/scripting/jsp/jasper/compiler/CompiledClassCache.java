@@ -0,0 +1,596 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.sling.scripting.jsp.jasper.Constants;
+import org.apache.sling.scripting.jsp.jasper.IOProvider;
+import org.apache.sling.scripting.jsp.jasper.JspCompilationContext;
+import org.apache.sling.scripting.jsp.jasper.Options;
+
+/**
+ * The <code>CompiledClassCache</code> prevents recompiling a JSP whose
+ * sources have not changed although their modification times have, e.g.
+ * because the same content has been installed again or because the sources
+ * have been installed on another cluster node sharing the compiled classes.
+ * <p>
+ * After a JSP page has been compiled, a fingerprint is written next to the
+ * class file through the <code>IOProvider</code>, i.e. the
+ * <code>ClassLoaderWriter</code>. The fingerprint is a hash of
+ * <ul>
+ * <li>the compiler options,</li>
+ * <li>the source of the page and the sources of the files it depends on,
+ * including tag library descriptors; descriptors which are not resources,
+ * e.g. descriptors packaged in a jar, are taken into account by their
+ * last modification time and length,</li>
+ * <li>the class files of the classes referenced by the compiled page as
+ * provided by the JSP class loader. A new version of a bundle providing
+ * one of these classes changes the fingerprint.</li>
+ * </ul>
+ * The sources are read before the page is compiled, so a source changed
+ * while compiling does not end up in the fingerprint of a class compiled
+ * from its previous content. The fingerprint is stored together with the
+ * list of the files the page depends on. When the page is considered out
+ * of date later on, the fingerprint is computed again and if it still
+ * matches the existing class is used instead of compiling the page.
+ */
+public final class CompiledClassCache {
+
+    private final Log log = LogFactory.getLog(CompiledClassCache.class);
+
+    /** The extension of the fingerprint file stored next to the class file */
+    private static final String FINGERPRINT_EXTENSION = ".fingerprint";
+
+    /** The version of the fingerprint format, part of the fingerprint */
+    private static final String FORMAT_VERSION = "3";
+
+    /**
+     * Dependencies modified less than this number of milliseconds before
+     * the sources have been read may have changed while compiling.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION = 1000;
+
+    /** Classes in this package are generated from JSPs and tag files */
+    private static final String JSP_PACKAGE_PREFIX =
+        Constants.JSP_PACKAGE_NAME.replace('.', '/') + '/';
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The compiler options which influence the generated class */
+    private final String optionsKey;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public CompiledClassCache(final Options options) {
+        this(getOptionsKey(options));
+    }
+
+    CompiledClassCache(final String optionsKey) {
+        this.optionsKey = FORMAT_VERSION + ',' + optionsKey;
+    }
+
+    private static String getOptionsKey(final Options options) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(options.getClassDebugInfo());
+        buf.append(',').append(options.getCompilerSourceVM());
+        buf.append(',').append(options.getCompilerTargetVM());
+        buf.append(',').append(options.getErrorOnUseBeanInvalidClassAttribute());
+        buf.append(',').append(options.genStringAsCharArray());
+        buf.append(',').append(options.getIeClassId());
+        buf.append(',').append(options.getJavaEncoding());
+        buf.append(',').append(options.getMappedFile());
+        buf.append(',').append(options.isPoolingEnabled());
+        buf.append(',').append(options.isSmapSuppressed());
+        buf.append(',').append(options.getTrimSpaces());
+        buf.append(',').append(options.isXpoweredBy());
+        return buf.toString();
+    }
+
+    /**
+     * Reads the sources of the JSP page and of the files it depended on when
+     * it was compiled the last time. This is done before the page is
+     * compiled, so that a fingerprint stored afterwards describes the
+     * sources the compiler has read and not sources changed in the meantime.
+     */
+    public Sources getSources(final JspCompilationContext ctxt) {
+        return getSources(ctxt.getRuntimeContext().getIOProvider(),
+            ctxt.getJspFile(), ctxt.getClassFileName());
+    }
+
+    Sources getSources(final IOProvider io, final String jspFile,
+            final String classFileName) {
+        final Sources sources = new Sources(System.currentTimeMillis(),
+            read(io, classFileName + FINGERPRINT_EXTENSION));
+        sources.put(jspFile, digest(io, jspFile));
+        for (final String dep : sources.getDependants()) {
+            sources.put(dep, digest(io, dep));
+        }
+        return sources;
+    }
+
+    /**
+     * Returns <code>true</code> if the class file of the JSP page exists and
+     * has been compiled from the given sources of the page and its
+     * dependencies with the current compiler options.
+     */
+    public boolean isUpToDate(final JspCompilationContext ctxt,
+            final Sources sources) {
+        return isUpToDate(ctxt.getRuntimeContext().getIOProvider(),
+            ctxt.getClassLoader(), ctxt.getJspFile(), ctxt.getClassFileName(),
+            sources);
+    }
+
+    boolean isUpToDate(final IOProvider io, final ClassLoader loader,
+            final String jspFile, final String classFileName,
+            final Sources sources) {
+        if (io.lastModified(classFileName) < 0
+            || sources.getFingerprint() == null) {
+            return false;
+        }
+
+        final String fingerprint = getFingerprint(io, loader, jspFile,
+            classFileName, sources.getDependants(), sources);
+        if (fingerprint != null && fingerprint.equals(sources.getFingerprint())) {
+            hits.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("Sources of " + jspFile
+                    + " are unchanged, using existing class");
+            }
+            return true;
+        }
+
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stores the fingerprint of the JSP page which has just been compiled.
+     *
+     * @param sources The sources read before the page has been compiled
+     * @param dependants The files the page depends on, may be
+     *            <code>null</code>
+     */
+    public void store(final JspCompilationContext ctxt, final Sources sources,
+            final List<String> dependants) {
+        store(ctxt.getRuntimeContext().getIOProvider(), ctxt.getClassLoader(),
+            ctxt.getJspFile(), ctxt.getClassFileName(), sources, dependants);
+    }
+
+    void store(final IOProvider io, final ClassLoader loader,
+            final String jspFile, final String classFileName,
+            final Sources sources, final List<String> dependants) {
+        final List<String> deps = (dependants == null)
+                ? new ArrayList<String>()
+                : dependants;
+        final String fingerprint = getFingerprint(io, loader, jspFile,
+            classFileName, deps, sources);
+        if (fingerprint == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Sources of " + jspFile
+                    + " changed while compiling, not storing a fingerprint");
+            }
+            return;
+        }
+
+        final String fileName = classFileName + FINGERPRINT_EXTENSION;
+        try {
+            final OutputStream out = io.getOutputStream(fileName);
+            try {
+                final StringBuilder buf = new StringBuilder(fingerprint);
+                for (final String dep : deps) {
+                    buf.append('\n').append(dep);
+                }
+                out.write(buf.toString().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            log.warn("Cannot store fingerprint " + fileName, ioe);
+        }
+    }
+
+    /**
+     * Returns the number of compilations avoided because the sources were
+     * unchanged.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of compilations for which a fingerprint existed
+     * but the sources had changed.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Reads the stored fingerprint followed by the dependencies or returns
+     * <code>null</code> if no fingerprint is stored.
+     */
+    private List<String> read(final IOProvider io, final String fileName) {
+        try {
+            final InputStream in = io.getInputStream(fileName);
+            if (in == null) {
+                return null;
+            }
+            try {
+                final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, "UTF-8"));
+                final List<String> lines = new ArrayList<String>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+                return lines.isEmpty() ? null : lines;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            // no (readable) fingerprint
+            return null;
+        }
+    }
+
+    /**
+     * Computes the fingerprint of the page, the given dependencies and the
+     * classes referenced by the class file or returns <code>null</code> if
+     * a source or the class file cannot be read. The sources are taken from
+     * the given snapshot. Dependencies not contained in it are read now but
+     * only if they have not been modified since the snapshot was taken.
+     */
+    private String getFingerprint(final IOProvider io, final ClassLoader loader,
+            final String jspFile, final String classFileName,
+            final List<String> deps, final Sources sources) {
+        try {
+            final MessageDigest md = newDigest();
+            md.update(optionsKey.getBytes("UTF-8"));
+            md.update((byte) 0);
+            if (!update(md, io, jspFile, sources)) {
+                return null;
+            }
+            for (final String dep : deps) {
+                if (!update(md, io, dep, sources)) {
+                    return null;
+                }
+            }
+            if (!updateClasses(md, io, loader, classFileName)) {
+                return null;
+            }
+
+            final byte[] hash = md.digest();
+            final StringBuilder buf = new StringBuilder(hash.length * 2);
+            for (final byte b : hash) {
+                buf.append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+            }
+            return buf.toString();
+        } catch (UnsupportedEncodingException uee) {
+            // UTF-8 is required to be supported by all platforms
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private boolean update(final MessageDigest md, final IOProvider io,
+            final String fileName, final Sources sources)
+    throws UnsupportedEncodingException {
+        byte[] digest = sources.get(fileName);
+        if (digest == null) {
+            // a dependency found while compiling
+            if (lastModified(io, fileName) > sources.getTime() - MODIFICATION_TIME_RESOLUTION) {
+                return false;
+            }
+            digest = digest(io, fileName);
+            if (digest == null) {
+                return false;
+            }
+        }
+        md.update(fileName.getBytes("UTF-8"));
+        md.update((byte) 0);
+        md.update(digest);
+        return true;
+    }
+
+    /**
+     * Returns the last modification time of a dependency or <code>0</code>
+     * if it cannot be determined.
+     */
+    private static long lastModified(final IOProvider io, final String fileName) {
+        if (fileName.startsWith("/")) {
+            return io.lastModified(fileName);
+        }
+        try {
+            final URLConnection conn = new URL(fileName).openConnection();
+            conn.setUseCaches(false);
+            return conn.getLastModified();
+        } catch (IOException ioe) {
+            return 0;
+        }
+    }
+
+    /**
+     * Computes the digest of a dependency or returns <code>null</code> if
+     * it cannot be read. Resources are digested with their content, other
+     * dependencies like tag library descriptors in jar files with the
+     * modification time and length of their URL.
+     */
+    private byte[] digest(final IOProvider io, final String fileName) {
+        final MessageDigest md = newDigest();
+        if (!fileName.startsWith("/")) {
+            return updateURL(md, fileName) ? md.digest() : null;
+        }
+
+        try {
+            final InputStream in = io.getInputStream(fileName);
+            try {
+                update(md, in);
+            } finally {
+                in.close();
+            }
+            return md.digest();
+        } catch (FileNotFoundException fnfe) {
+            return null;
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot read " + fileName, ioe);
+            }
+            return null;
+        }
+    }
+
+    private boolean updateURL(final MessageDigest md, final String location) {
+        final URL url;
+        try {
+            url = new URL(location);
+        } catch (MalformedURLException mue) {
+            // not resolvable, e.g. a tag library uri
+            return true;
+        }
+        try {
+            final URLConnection conn = url.openConnection();
+            conn.setUseCaches(false);
+            md.update(String.valueOf(conn.getLastModified()).getBytes("UTF-8"));
+            md.update((byte) 0);
+            md.update(String.valueOf(conn.getContentLength()).getBytes("UTF-8"));
+            return true;
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot access " + location, ioe);
+            }
+            return false;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            // SHA-256 is required to be supported by all platforms
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Adds the class files of all classes referenced by the class file of
+     * the page to the fingerprint. Classes of the Java platform and classes
+     * generated from JSPs or tag files are not added.
+     */
+    private boolean updateClasses(final MessageDigest md, final IOProvider io,
+            final ClassLoader loader, final String classFileName)
+    throws UnsupportedEncodingException {
+        final Set<String> classNames;
+        try {
+            final InputStream in = io.getInputStream(classFileName);
+            try {
+                classNames = getReferencedClasses(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cannot read " + classFileName, ioe);
+            }
+            return false;
+        }
+
+        for (final String className : classNames) {
+            if (className.startsWith("java/")
+                || className.startsWith(JSP_PACKAGE_PREFIX)) {
+                continue;
+            }
+            md.update(className.getBytes("UTF-8"));
+            md.update((byte) 0);
+            final URL url = (loader == null)
+                    ? null
+                    : loader.getResource(className + ".class");
+            if (url == null) {
+                // the class is missing, the fingerprint changes once it is available
+                continue;
+            }
+            md.update(url.toExternalForm().getBytes("UTF-8"));
+            md.update((byte) 0);
+            try {
+                final InputStream in = url.openStream();
+                try {
+                    update(md, in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ioe) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Cannot read " + url, ioe);
+                }
+                return false;
+            }
+            md.update((byte) 0);
+        }
+        return true;
+    }
+
+    private void update(final MessageDigest md, final InputStream in)
+    throws IOException {
+        final byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) >= 0) {
+            md.update(buffer, 0, len);
+        }
+    }
+
+    /**
+     * Returns the names of the classes in the constant pool of the class
+     * file, sorted and in internal form, e.g. <code>java/lang/String</code>.
+     */
+    static Set<String> getReferencedClasses(final InputStream in)
+    throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        data.readUnsignedShort(); // minor version
+        data.readUnsignedShort(); // major version
+
+        final int count = data.readUnsignedShort();
+        final Map<Integer, String> utf8 = new HashMap<Integer, String>();
+        final List<Integer> classIndexes = new ArrayList<Integer>();
+        for (int i = 1; i < count; i++) {
+            final int tag = data.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8.put(i, data.readUTF());
+                    break;
+                case 7: // Class
+                    classIndexes.add(data.readUnsignedShort());
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    data.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    data.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    data.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    data.skipBytes(8);
+                    // these take two entries
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        final Set<String> classNames = new TreeSet<String>();
+        for (final Integer index : classIndexes) {
+            String name = utf8.get(index);
+            if (name == null) {
+                continue;
+            }
+            // arrays: [[Ljava/lang/String; or [I
+            if (name.startsWith("[")) {
+                name = name.substring(name.lastIndexOf('[') + 1);
+                if (!name.startsWith("L")) {
+                    continue;
+                }
+                name = name.substring(1, name.length() - 1);
+            }
+            classNames.add(name);
+        }
+        return classNames;
+    }
+
+    /**
+     * The digests of the sources of a JSP page and of the files it depended
+     * on when it was compiled the last time, taken before compiling.
+     */
+    public static final class Sources {
+
+        private final long time;
+
+        private final List<String> stored;
+
+        private final Map<String, byte[]> digests = new HashMap<String, byte[]>();
+
+        Sources(final long time, final List<String> stored) {
+            this.time = time;
+            this.stored = stored;
+        }
+
+        void put(final String fileName, final byte[] digest) {
+            if (digest != null) {
+                digests.put(fileName, digest);
+            }
+        }
+
+        byte[] get(final String fileName) {
+            return digests.get(fileName);
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        /** The stored fingerprint or <code>null</code> */
+        String getFingerprint() {
+            return (stored == null) ? null : stored.get(0);
+        }
+
+        /** The dependencies stored with the fingerprint */
+        List<String> getDependants() {
+            return (stored == null)
+                    ? new ArrayList<String>()
+                    : stored.subList(1, stored.size());
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.security.CodeSource;
 import java.security.PermissionCollection;
 import java.security.Policy;
 import java.security.cert.Certificate;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -32,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
@@ -74,6 +76,19 @@ public final class JspRuntimeContext {
      */
     private int jspReloadCount;
 
+    /*
+     * Counts the JSP and tag file compilations and the time spent in them.
+     */
+    private final AtomicLong compileCount = new AtomicLong();
+    private final AtomicLong compileTime = new AtomicLong();
+
+    /*
+     * Counts how often and how long threads had to wait for the compilation
+     * lock of a JSP held by another thread.
+     */
+    private final AtomicLong lockWaitCount = new AtomicLong();
+    private final AtomicLong lockWaitTime = new AtomicLong();
+
     /** The {@link IOProvider} used to get access to output */
     private IOProvider ioProvider = IOProvider.DEFAULT;
 
@@ -190,6 +205,12 @@ public final class JspRuntimeContext {
 
     private static final ThreadLocal<Integer> USE_OWN_FACTORY = new ThreadLocal<Integer>();
 
+    /**
+     * Acquiring an uncontended lock takes far less than this number of
+     * nanoseconds, so only longer waits are counted as lock waits.
+     */
+    private static final long LOCK_WAIT_THRESHOLD = 50000L;
+
     // ----------------------------------------------------------- Constructors
 
     /**
@@ -203,6 +224,7 @@ public final class JspRuntimeContext {
 
         this.context = context;
         this.options = options;
+        this.classCache = new CompiledClassCache(options);
 
         // Get the parent class loader
         parentClassLoader = Thread.currentThread().getContextClassLoader();
@@ -238,6 +260,7 @@ public final class JspRuntimeContext {
      */
     private ServletContext context;
     private Options options;
+    private CompiledClassCache classCache;
     private ClassLoader parentClassLoader;
     private PermissionCollection permissionCollection;
     private CodeSource codeSource;
@@ -272,26 +295,38 @@ public final class JspRuntimeContext {
         }
     }
 
+    /**
+     * Returns the URIs of the JSPs which depend on the given file, e.g.
+     * because they include it or use it as a tag file.
+     */
+    public Set<String> getDependentJsps(final String dep) {
+        synchronized ( depToJsp ) {
+            final Set<String> jspUris = depToJsp.get(dep);
+            if ( jspUris == null ) {
+                return Collections.emptySet();
+            }
+            return new HashSet<String>(jspUris);
+        }
+    }
+
     private void invalidate(final JspServletWrapper jsw) {
         jsw.clearLastModificationTest();
     }
 
     public void handleModification(final String scriptName) {
-        synchronized ( this ) {
-            // first check if jsps contains this
-            JspServletWrapper wrapper = jsps.get(scriptName);
-            if ( wrapper != null ) {
-                invalidate(wrapper);
-            }
-            if ( wrapper == null ) {
-                synchronized ( depToJsp ) {
-                    final Set<String> deps = depToJsp.get(scriptName);
-                    if ( deps != null ) {
-                        for(final String jspName : deps) {
-                            wrapper = jsps.get(jspName);
-                            if ( wrapper != null ) {
-                                invalidate(wrapper);
-                            }
+        // first check if jsps contains this
+        JspServletWrapper wrapper = jsps.get(scriptName);
+        if ( wrapper != null ) {
+            invalidate(wrapper);
+        }
+        if ( wrapper == null ) {
+            synchronized ( depToJsp ) {
+                final Set<String> deps = depToJsp.get(scriptName);
+                if ( deps != null ) {
+                    for(final String jspName : deps) {
+                        wrapper = jsps.get(jspName);
+                        if ( wrapper != null ) {
+                            invalidate(wrapper);
                         }
                     }
                 }
@@ -409,6 +444,59 @@ public final class JspRuntimeContext {
         return jspReloadCount;
     }
 
+    /**
+     * Records a compilation of a JSP or tag file.
+     *
+     * @param time The time in nanoseconds the compilation took
+     */
+    public void recordCompilation(final long time) {
+        compileCount.incrementAndGet();
+        compileTime.addAndGet(time);
+    }
+
+    /**
+     * Records the time a thread waited for the compilation lock of a JSP.
+     * Waits which did not block are not counted.
+     *
+     * @param time The time in nanoseconds the thread waited
+     */
+    public void recordLockWait(final long time) {
+        if (time >= LOCK_WAIT_THRESHOLD) {
+            lockWaitCount.incrementAndGet();
+            lockWaitTime.addAndGet(time);
+        }
+    }
+
+    /**
+     * Returns the number of JSP and tag file compilations.
+     */
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    /**
+     * Returns the accumulated compilation time in milliseconds.
+     */
+    public long getCompileTime() {
+        return compileTime.get() / 1000000L;
+    }
+
+    /**
+     * Returns the number of times a thread had to wait for another thread
+     * compiling or loading the same JSP.
+     */
+    public long getLockWaitCount() {
+        return lockWaitCount.get();
+    }
+
+    /**
+     * Returns the accumulated time in milliseconds threads waited for
+     * another thread compiling or loading the same JSP.
+     */
+    public long getLockWaitTime() {
+        return lockWaitTime.get() / 1000000L;
+    }
+
     /**
      * The classpath that is passed off to the Java compiler.
      */
@@ -416,6 +504,14 @@ public final class JspRuntimeContext {
         return classpath;
     }
 
+    /**
+     * Returns the cache deciding whether a JSP whose sources have been
+     * modified needs to be compiled again.
+     */
+    public CompiledClassCache getClassCache() {
+        return classCache;
+    }
+
     /**
      * Returns the current {@link IOProvider} of this context.
      */
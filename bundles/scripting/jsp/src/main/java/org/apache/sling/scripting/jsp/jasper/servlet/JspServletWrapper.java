@@ -77,7 +77,7 @@ public class JspServletWrapper {
     private long available = 0L;
     private ServletConfig config;
     private Options options;
-    private boolean firstTime = true;
+    private volatile boolean firstTime = true;
     private volatile boolean reload = true;
     private boolean isTagFile;
     private int tripCount;
@@ -139,9 +139,11 @@ public class JspServletWrapper {
             }
         }
         if (reload) {
+            final long waitStart = System.nanoTime();
             synchronized (this) {
                 // Synchronizing on jsw enables simultaneous loading
                 // of different pages, but not the same page.
+                ctxt.getRuntimeContext().recordLockWait(System.nanoTime() - waitStart);
                 if (reload) {
                     // This is to maintain the original protocol.
                     destroy();
@@ -220,7 +222,9 @@ public class JspServletWrapper {
                 throw new FileNotFoundException(jspUri);
             }
             if (firstTime || this.lastModificationTest <= 0) {
+                final long waitStart = System.nanoTime();
                 synchronized (this) {
+                    ctxt.getRuntimeContext().recordLockWait(System.nanoTime() - waitStart);
                     if (firstTime || this.lastModificationTest <= 0 ) {
                         ctxt.compile();
                         this.lastModificationTest = System.currentTimeMillis();
@@ -321,6 +325,52 @@ public class JspServletWrapper {
         return jspUri;
     }
 
+    /**
+     * Compiles the JSP if it has not been compiled yet or has been modified
+     * and loads the servlet without servicing a request. This is used to
+     * precompile JSPs in the background.
+     */
+    public void compile()
+    throws ServletException, IOException, FileNotFoundException {
+        if (ctxt.isRemoved()) {
+            throw new FileNotFoundException(jspUri);
+        }
+        compileAndLoad();
+    }
+
+    private void compileAndLoad()
+    throws ServletException, IOException, FileNotFoundException {
+        /*
+         * (1) Compile
+         */
+        if (firstTime || this.lastModificationTest <= 0 ) {
+            // Synchronizing on jsw compiles each page only once while
+            // different pages are compiled concurrently.
+            final long waitStart = System.nanoTime();
+            synchronized (this) {
+                ctxt.getRuntimeContext().recordLockWait(System.nanoTime() - waitStart);
+                if (firstTime || this.lastModificationTest <= 0 ) {
+                    // The following sets reload to true, if necessary
+                    ctxt.compile();
+                    this.lastModificationTest = System.currentTimeMillis();
+                    firstTime = false;
+                } else if ( compileException != null ) {
+                    // Throw cached compilation exception
+                    throw compileException;
+
+                }
+            }
+        } else if (compileException != null) {
+            // Throw cached compilation exception
+            throw compileException;
+        }
+
+        /*
+         * (2) (Re)load servlet class file
+         */
+        getServlet();
+    }
+
     public void service(HttpServletRequest request,
                         HttpServletResponse response,
                         boolean precompile)
@@ -345,30 +395,9 @@ public class JspServletWrapper {
             }
 
             /*
-             * (1) Compile
-             */
-            if (firstTime || this.lastModificationTest <= 0 ) {
-                synchronized (this) {
-                    if (firstTime || this.lastModificationTest <= 0 ) {
-                        // The following sets reload to true, if necessary
-                        ctxt.compile();
-                        this.lastModificationTest = System.currentTimeMillis();
-                        firstTime = false;
-                    } else if ( compileException != null ) {
-                        // Throw cached compilation exception
-                        throw compileException;
-
-                    }
-                }
-            } else if (compileException != null) {
-                // Throw cached compilation exception
-                throw compileException;
-            }
-
-            /*
-             * (2) (Re)load servlet class file
+             * (1) Compile and (2) (Re)load servlet class file
              */
-            getServlet();
+            compileAndLoad();
 
             // If a page is to be precompiled only, return.
             if (precompile) {
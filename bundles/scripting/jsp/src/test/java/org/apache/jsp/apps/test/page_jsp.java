@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jsp.apps.test;
+
+import java.io.IOException;
+
+import javax.el.ExpressionFactory;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.JspFactory;
+
+import org.apache.sling.scripting.jsp.jasper.runtime.HttpJspBase;
+
+/**
+ * Initializes itself like the servlet generated for /apps/test/page.jsp.
+ */
+public final class page_jsp extends HttpJspBase {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final JspFactory _jspxFactory = JspFactory.getDefaultFactory();
+
+    public static volatile ExpressionFactory expressionFactory;
+
+    @Override
+    public void _jspInit() {
+        expressionFactory = _jspxFactory.getJspApplicationContext(getServletConfig().getServletContext()).getExpressionFactory();
+    }
+
+    @Override
+    public void _jspService(final HttpServletRequest request, final HttpServletResponse response)
+    throws IOException, ServletException {
+        // nothing to render
+    }
+}
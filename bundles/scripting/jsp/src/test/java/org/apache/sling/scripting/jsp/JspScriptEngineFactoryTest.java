@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.jsp;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.jsp.JspFactory;
+
+import org.apache.jsp.apps.test.page_jsp;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.classloader.ClassLoaderWriter;
+import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
+import org.apache.sling.scripting.jsp.jasper.compiler.JspRuntimeContext.JspFactoryHandler;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.ComponentContext;
+
+public class JspScriptEngineFactoryTest {
+
+    private static final String JSP = "/apps/test/page.jsp";
+
+    private static final String CLASS_FILE = "/org/apache/jsp/apps/test/page_jsp.class";
+
+    private final Map<String, byte[]> files = new HashMap<String, byte[]>();
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    private JspScriptEngineFactory factory;
+
+    private ComponentContext componentContext;
+
+    private ResourceResolver resolver;
+
+    @org.junit.Before public void setUp() throws Exception {
+        this.files.put(JSP, "<%@ page session=\"false\" %>Hello".getBytes("UTF-8"));
+        // the servlet compiled with the tests stands in for the class generated
+        // from the JSP, so precompiling the up to date JSP loads and initializes it
+        this.files.put(CLASS_FILE, new byte[0]);
+
+        this.factory = new JspScriptEngineFactory();
+        setField(this.factory, "slingServletContext", stub(ServletContext.class, new Answer() {
+            public Object answer(final String name, final Object[] args) {
+                if ( name.equals("getAttribute") ) {
+                    return attributes.get(args[0]);
+                } else if ( name.equals("setAttribute") ) {
+                    return attributes.put((String) args[0], args[1]);
+                } else if ( name.equals("removeAttribute") ) {
+                    return attributes.remove(args[0]);
+                } else if ( name.equals("getAttributeNames") ) {
+                    return Collections.enumeration(attributes.keySet());
+                }
+                return DEFAULT;
+            }
+        }));
+        setField(this.factory, "classLoaderWriter", new MemoryClassLoaderWriter());
+        this.factory.bindDynamicClassLoaderManager(stub(DynamicClassLoaderManager.class, new Answer() {
+            public Object answer(final String name, final Object[] args) {
+                return (name.equals("getDynamicClassLoader") ? JspScriptEngineFactoryTest.class.getClassLoader() : DEFAULT);
+            }
+        }));
+
+        final BundleContext bundleContext = stub(BundleContext.class, new Answer() {
+            public Object answer(final String name, final Object[] args) {
+                return (name.equals("registerService") ? stub(ServiceRegistration.class, null) : DEFAULT);
+            }
+        });
+        this.componentContext = stub(ComponentContext.class, new Answer() {
+            public Object answer(final String name, final Object[] args) {
+                if ( name.equals("getBundleContext") ) {
+                    return bundleContext;
+                } else if ( name.equals("getProperties") ) {
+                    return new Hashtable<String, Object>();
+                }
+                return DEFAULT;
+            }
+        });
+        this.resolver = stub(ResourceResolver.class, new Answer() {
+            public Object answer(final String name, final Object[] args) {
+                if ( name.equals("getResource") && files.containsKey(args[0]) ) {
+                    return createResource((String) args[0]);
+                }
+                return DEFAULT;
+            }
+        });
+        this.factory.activate(this.componentContext);
+    }
+
+    @org.junit.After public void tearDown() {
+        this.factory.deactivate(this.componentContext);
+    }
+
+    @org.junit.Test public void testPrecompile() throws Exception {
+        // outside of a servlet container there is no default JSP factory
+        assertNull(((JspFactoryHandler) JspFactory.getDefaultFactory()).getOriginal());
+
+        this.factory.precompile(this.resolver, JSP);
+        assertNotNull(page_jsp.expressionFactory);
+    }
+
+    private Resource createResource(final String path) {
+        final ResourceMetadata metadata = new ResourceMetadata();
+        metadata.setModificationTime(1000);
+        return stub(Resource.class, new Answer() {
+            public Object answer(final String name, final Object[] args) {
+                if ( name.equals("getPath") ) {
+                    return path;
+                } else if ( name.equals("getResourceMetadata") ) {
+                    return metadata;
+                } else if ( name.equals("adaptTo") && args[0] == InputStream.class ) {
+                    return new ByteArrayInputStream(files.get(path));
+                }
+                return DEFAULT;
+            }
+        });
+    }
+
+    private static void setField(final Object object, final String name, final Object value) throws Exception {
+        final Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    /**
+     * Create an implementation of the interface which returns the
+     * answer or a default value for all methods.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(final Class<T> type, final Answer answer) {
+        return (T) Proxy.newProxyInstance(JspScriptEngineFactoryTest.class.getClassLoader(),
+            new Class[] {type}, new InvocationHandler() {
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    if ( method.getName().equals("equals") ) {
+                        return proxy == args[0];
+                    } else if ( method.getName().equals("hashCode") ) {
+                        return System.identityHashCode(proxy);
+                    } else if ( method.getName().equals("toString") ) {
+                        return type.getName();
+                    }
+                    final Object result = (answer == null ? Answer.DEFAULT : answer.answer(method.getName(), args));
+                    if ( result != Answer.DEFAULT ) {
+                        return result;
+                    }
+                    final Class<?> returnType = method.getReturnType();
+                    if ( returnType == boolean.class ) {
+                        return Boolean.FALSE;
+                    } else if ( returnType == int.class ) {
+                        return 0;
+                    } else if ( returnType == long.class ) {
+                        return 0L;
+                    } else if ( returnType.isArray() ) {
+                        return Array.newInstance(returnType.getComponentType(), 0);
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private interface Answer {
+
+        Object DEFAULT = new Object();
+
+        Object answer(String name, Object[] args);
+    }
+
+    /**
+     * Class loader writer keeping the files in memory.
+     */
+    private final class MemoryClassLoaderWriter implements ClassLoaderWriter {
+
+        public OutputStream getOutputStream(final String path) {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    files.put(path, this.toByteArray());
+                }
+            };
+        }
+
+        public InputStream getInputStream(final String path) throws IOException {
+            final byte[] data = files.get(path);
+            if ( data == null ) {
+                throw new FileNotFoundException(path);
+            }
+            return new ByteArrayInputStream(data);
+        }
+
+        public long getLastModified(final String path) {
+            return (files.containsKey(path) ? 2000 : -1);
+        }
+
+        public boolean delete(final String path) {
+            return files.remove(path) != null;
+        }
+
+        public boolean rename(final String oldPath, final String newPath) {
+            final byte[] data = files.remove(oldPath);
+            if ( data == null ) {
+                return false;
+            }
+            files.put(newPath, data);
+            return true;
+        }
+    }
+}
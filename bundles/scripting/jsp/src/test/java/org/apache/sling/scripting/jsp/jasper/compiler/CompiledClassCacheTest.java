@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.jsp.jasper.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.scripting.jsp.jasper.IOProvider;
+
+public class CompiledClassCacheTest {
+
+    private static final String JSP = "/apps/test/page.jsp";
+
+    private static final String TLD = "/apps/test/test.tld";
+
+    private static final String CLASS_FILE = ":/org/apache/jsp/apps/test/page_jsp.class";
+
+    private static final String REFERENCED = Referenced.class.getName().replace('.', '/');
+
+    private MemoryIOProvider io;
+
+    private TestClassLoader loader;
+
+    private CompiledClassCache cache;
+
+    private File referencedClassFile;
+
+    private File jarTld;
+
+    @org.junit.Before public void setUp() throws IOException {
+        this.io = new MemoryIOProvider();
+        this.io.put(JSP, "<%= new Object() %>");
+        this.io.put(TLD, "<taglib/>");
+        this.io.put(CLASS_FILE, readClass(Page.class));
+
+        this.referencedClassFile = File.createTempFile("referenced", ".class");
+        write(this.referencedClassFile, readClass(Referenced.class));
+        this.jarTld = File.createTempFile("test", ".tld");
+        write(this.jarTld, "<taglib/>".getBytes("UTF-8"));
+        // installed before the page is compiled
+        this.jarTld.setLastModified(System.currentTimeMillis() - 60000);
+
+        this.loader = new TestClassLoader();
+        this.cache = new CompiledClassCache("options");
+    }
+
+    @org.junit.After public void tearDown() {
+        this.referencedClassFile.delete();
+        this.jarTld.delete();
+    }
+
+    private static byte[] readClass(final Class<?> c) throws IOException {
+        final InputStream in = c.getResourceAsStream(c.getName().substring(c.getName().lastIndexOf('.') + 1) + ".class");
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(final File file, final byte[] content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private CompiledClassCache.Sources getSources() {
+        return this.cache.getSources(this.io, JSP, CLASS_FILE);
+    }
+
+    private void store(final CompiledClassCache.Sources sources, final String... deps) {
+        this.cache.store(this.io, this.loader, JSP, CLASS_FILE, sources, Arrays.asList(deps));
+    }
+
+    private void store(final String... deps) {
+        this.store(this.getSources(), deps);
+    }
+
+    private boolean isUpToDate() {
+        return this.cache.isUpToDate(this.io, this.loader, JSP, CLASS_FILE, this.getSources());
+    }
+
+    @org.junit.Test public void testHit() {
+        this.store(TLD);
+        assertTrue(this.isUpToDate());
+        assertEquals(1, this.cache.getHits());
+        assertEquals(0, this.cache.getMisses());
+    }
+
+    @org.junit.Test public void testNoFingerprint() {
+        assertFalse(this.isUpToDate());
+        assertEquals(0, this.cache.getHits());
+        assertEquals(0, this.cache.getMisses());
+    }
+
+    @org.junit.Test public void testMissingClassFile() {
+        this.store(TLD);
+        this.io.remove(CLASS_FILE);
+        assertFalse(this.isUpToDate());
+    }
+
+    @org.junit.Test public void testChangedPage() {
+        this.store(TLD);
+        this.io.put(JSP, "<%= new java.util.Date() %>");
+        assertFalse(this.isUpToDate());
+        assertEquals(1, this.cache.getMisses());
+    }
+
+    @org.junit.Test public void testTouchedPage() {
+        this.store(TLD);
+        // same content, new modification time
+        this.io.put(JSP, "<%= new Object() %>");
+        assertTrue(this.isUpToDate());
+    }
+
+    @org.junit.Test public void testPageChangedWhileCompiling() {
+        final CompiledClassCache.Sources sources = this.getSources();
+        this.io.put(JSP, "<%= new java.util.Date() %>");
+        this.store(sources, TLD);
+        assertFalse(this.isUpToDate());
+    }
+
+    @org.junit.Test public void testKnownTldChangedWhileCompiling() {
+        this.store(TLD);
+        final CompiledClassCache.Sources sources = this.getSources();
+        this.io.put(TLD, "<taglib><tag/></taglib>");
+        this.store(sources, TLD);
+        assertFalse(this.isUpToDate());
+    }
+
+    @org.junit.Test public void testNewTldChangedWhileCompiling() {
+        final CompiledClassCache.Sources sources = this.getSources();
+        this.io.clock = System.currentTimeMillis();
+        this.io.put(TLD, "<taglib><tag/></taglib>");
+        this.store(sources, TLD);
+        assertFalse(this.isUpToDate());
+        assertEquals(0, this.cache.getMisses());
+    }
+
+    @org.junit.Test public void testChangedTld() {
+        this.store(TLD);
+        this.io.put(TLD, "<taglib><tag/></taglib>");
+        assertFalse(this.isUpToDate());
+        assertEquals(1, this.cache.getMisses());
+    }
+
+    @org.junit.Test public void testRemovedTld() {
+        this.store(TLD);
+        this.io.remove(TLD);
+        assertFalse(this.isUpToDate());
+    }
+
+    @org.junit.Test public void testChangedJarTld() throws Exception {
+        final String location = this.jarTld.toURI().toURL().toExternalForm();
+        this.store(location);
+        assertTrue(this.isUpToDate());
+        write(this.jarTld, "<taglib><tag/></taglib>".getBytes("UTF-8"));
+        assertFalse(this.isUpToDate());
+    }
+
+    @org.junit.Test public void testChangedReferencedClass() throws Exception {
+        this.store(TLD);
+        assertTrue(this.isUpToDate());
+        // a new version of the bundle providing the class
+        write(this.referencedClassFile, readClass(Page.class));
+        assertFalse(this.isUpToDate());
+        assertEquals(1, this.cache.getMisses());
+    }
+
+    @org.junit.Test public void testReferencedClassFromOtherLocation() throws Exception {
+        this.store(TLD);
+        final File other = File.createTempFile("other", ".class");
+        try {
+            write(other, readClass(Referenced.class));
+            this.loader.location = other.toURI().toURL();
+            assertFalse(this.isUpToDate());
+        } finally {
+            other.delete();
+        }
+    }
+
+    @org.junit.Test public void testChangedOptions() {
+        this.store(TLD);
+        this.cache = new CompiledClassCache("other options");
+        assertFalse(this.isUpToDate());
+    }
+
+    @org.junit.Test public void testReferencedClasses() throws IOException {
+        final Set<String> names = CompiledClassCache.getReferencedClasses(
+            new ByteArrayInputStream(readClass(Page.class)));
+        assertTrue(names.toString(), names.contains(REFERENCED));
+        assertTrue(names.toString(), names.contains("java/lang/String"));
+        assertTrue(names.toString(), names.contains("java/util/List"));
+        assertFalse(names.toString(), names.contains("I"));
+    }
+
+    /** The compiled page */
+    static class Page {
+
+        public Object create(final List<String> values) {
+            final int[] counts = new int[values.size()];
+            final String[][] names = new String[counts.length][];
+            return new Object[] {new Referenced(), names};
+        }
+    }
+
+    /** A class provided by a bundle */
+    static class Referenced {
+    }
+
+    /**
+     * Class loader providing the class file of {@link Referenced} from a
+     * changeable location.
+     */
+    private class TestClassLoader extends ClassLoader {
+
+        private URL location;
+
+        public TestClassLoader() {
+            super(CompiledClassCacheTest.class.getClassLoader());
+        }
+
+        @Override
+        public URL getResource(final String name) {
+            if (name.equals(REFERENCED + ".class")) {
+                try {
+                    return (location != null) ? location : referencedClassFile.toURI().toURL();
+                } catch (MalformedURLException mue) {
+                    throw new IllegalStateException(mue);
+                }
+            }
+            return super.getResource(name);
+        }
+    }
+
+    /**
+     * IOProvider keeping all files in memory.
+     */
+    private static final class MemoryIOProvider implements IOProvider {
+
+        private final Map<String, byte[]> files = new HashMap<String, byte[]>();
+
+        private final Map<String, Long> modified = new HashMap<String, Long>();
+
+        private long clock = 1;
+
+        public void put(final String fileName, final String content) {
+            try {
+                put(fileName, content.getBytes("UTF-8"));
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe);
+            }
+        }
+
+        public void put(final String fileName, final byte[] content) {
+            files.put(fileName, content);
+            modified.put(fileName, clock++);
+        }
+
+        public void remove(final String fileName) {
+            files.remove(fileName);
+            modified.remove(fileName);
+        }
+
+        public OutputStream getOutputStream(final String fileName) {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    put(fileName, toByteArray());
+                }
+            };
+        }
+
+        public InputStream getInputStream(final String fileName)
+        throws FileNotFoundException {
+            final byte[] content = files.get(fileName);
+            if (content == null) {
+                throw new FileNotFoundException(fileName);
+            }
+            return new ByteArrayInputStream(content);
+        }
+
+        public long lastModified(final String fileName) {
+            final Long lastModified = modified.get(fileName);
+            return (lastModified == null) ? -1 : lastModified;
+        }
+
+        public boolean delete(final String fileName) {
+            return files.remove(fileName) != null;
+        }
+
+        public boolean rename(final String oldFileName, final String newFileName) {
+            final byte[] content = files.remove(oldFileName);
+            if (content == null) {
+                return false;
+            }
+            put(newFileName, content);
+            return true;
+        }
+
+        public boolean mkdirs(final String path) {
+            return true;
+        }
+    }
+}
@@ -17,13 +17,16 @@
 package org.apache.sling.servlets.get.impl;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.Map;
 import java.util.StringTokenizer;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.sling.api.SlingConstants;
@@ -32,13 +35,18 @@ import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
 import org.apache.sling.commons.osgi.OsgiUtil;
+import org.apache.sling.servlets.get.impl.helpers.ETagCache;
 import org.apache.sling.servlets.get.impl.helpers.HtmlRendererServlet;
 import org.apache.sling.servlets.get.impl.helpers.JsonRendererServlet;
 import org.apache.sling.servlets.get.impl.helpers.PlainTextRendererServlet;
 import org.apache.sling.servlets.get.impl.helpers.StreamRendererServlet;
 import org.apache.sling.servlets.get.impl.helpers.XMLRendererServlet;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -107,6 +115,32 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
     public static final int DEFAULT_JSON_RENDERER_MAXIMUM_RESULTS = 200;
     
     private int jsonMaximumResults;
+
+    /** @scr.property valueRef="DEFAULT_JSON_RENDERER_STREAMING" type="Boolean" */
+    public static final String JSON_RENDERER_STREAMING_PROPERTY = "json.streaming";
+
+    /** Default value for writing JSON directly to the response (value is "false"). */
+    public static final boolean DEFAULT_JSON_RENDERER_STREAMING = false;
+
+    private boolean jsonStreaming;
+
+    /** @scr.property valueRef="DEFAULT_ETAG_PROPERTY" type="Boolean" */
+    private static final String ETAG_PROPERTY = "enable.etag";
+
+    /** Default value for sending entity tags (value is "false"). */
+    private static final boolean DEFAULT_ETAG_PROPERTY = false;
+
+    /** @scr.property valueRef="DEFAULT_ETAG_CACHE_SIZE" type="Integer" */
+    private static final String ETAG_CACHE_SIZE_PROPERTY = "etag.cachesize";
+
+    /** Default number of cached entity tags (value is 1000). */
+    private static final int DEFAULT_ETAG_CACHE_SIZE = 1000;
+
+    /** The entity tags of the rendered resources, null if disabled */
+    private ETagCache etagCache;
+
+    /** The registration of the entity tag cache as an event handler */
+    private ServiceRegistration etagCacheReg;
     
     /** Additional aliases. */
     private String[] aliases;
@@ -143,9 +177,29 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
             DEFAULT_RENDERER_PROPERTY);
         this.jsonMaximumResults = OsgiUtil.toInteger(props.get(JSON_RENDERER_MAXIMUM_RESULTS_PROPERTY), 
             DEFAULT_JSON_RENDERER_MAXIMUM_RESULTS);
+        this.jsonStreaming = OsgiUtil.toBoolean(props.get(JSON_RENDERER_STREAMING_PROPERTY),
+            DEFAULT_JSON_RENDERER_STREAMING);
+
+        if (OsgiUtil.toBoolean(props.get(ETAG_PROPERTY), DEFAULT_ETAG_PROPERTY)) {
+            this.etagCache = new ETagCache(OsgiUtil.toInteger(
+                props.get(ETAG_CACHE_SIZE_PROPERTY),
+                DEFAULT_ETAG_CACHE_SIZE));
+
+            // keep the entity tags current with the resource events
+            final Dictionary<String, Object> etagProps = new Hashtable<String, Object>();
+            etagProps.put(EventConstants.EVENT_TOPIC,
+                new String[] { "org/apache/sling/api/resource/*" });
+            this.etagCacheReg = ctx.getBundleContext().registerService(
+                EventHandler.class.getName(), this.etagCache, etagProps);
+        }
     }
 
     protected void deactivate(ComponentContext ctx) {
+        if (this.etagCacheReg != null) {
+            this.etagCacheReg.unregister();
+            this.etagCacheReg = null;
+        }
+        this.etagCache = null;
         this.aliases = null;
         this.index = false;
         this.indexFiles = null;
@@ -157,7 +211,7 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
 
         // Register renderer servlets
         setupServlet(rendererMap, StreamRendererServlet.EXT_RES,
-            new StreamRendererServlet(index, indexFiles));
+            new StreamRendererServlet(index, indexFiles, etagCache));
 
         if (enableHtml) {
             setupServlet(rendererMap, HtmlRendererServlet.EXT_HTML,
@@ -171,7 +225,7 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
 
         if (enableJson) {
             setupServlet(rendererMap, JsonRendererServlet.EXT_JSON,
-                new JsonRendererServlet(jsonMaximumResults));
+                new JsonRendererServlet(jsonMaximumResults, jsonStreaming));
         }
 
         if (enableXml) {
@@ -245,10 +299,58 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
             return;
         }
 
+        // answer conditional requests for unchanged output
+        final ETagCache etagCache = this.etagCache;
+        if (etagCache != null && !response.isCommitted()
+            && request.getAttribute(SlingConstants.ATTR_REQUEST_SERVLET) == null) {
+            final String etag = etagCache.getETag(request.getResource(),
+                getVariant(request, rendererServlet == streamerServlet),
+                request.getRemoteUser());
+            if (etag != null) {
+                if (ETagCache.matchesIfNoneMatch(request, etag)) {
+                    request.getRequestProgressTracker().log(
+                        "Entity tag " + etag + " matches, not rendering");
+                    response.setHeader("ETag", etag);
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+
+                // the renderer may still fail or respond with another status
+                response = new ETagServletResponse(response, etag);
+            }
+        }
+
         request.getRequestProgressTracker().log(
             "Using " + rendererServlet.getClass().getName()
                 + " to render for extension=" + ext);
         rendererServlet.service(request, response);
+
+        if (response instanceof ETagServletResponse) {
+            ((ETagServletResponse) response).addETag();
+        }
+    }
+
+    /**
+     * Returns the variant of the resource rendered for the request, which is
+     * <code>null</code> if the binary data of the resource is streamed.
+     */
+    private String getVariant(SlingHttpServletRequest request,
+            boolean streamed) {
+        final String suffix = request.getRequestPathInfo().getSuffix();
+        if (streamed && !"/".equals(suffix)) {
+            return null;
+        }
+
+        final StringBuilder variant = new StringBuilder();
+        final String selectors = request.getRequestPathInfo().getSelectorString();
+        if (selectors != null) {
+            variant.append(selectors);
+        }
+        variant.append('.').append(request.getRequestPathInfo().getExtension());
+        if (suffix != null) {
+            variant.append(suffix);
+        }
+        return variant.toString();
     }
 
     @Override
@@ -277,4 +379,96 @@ public class DefaultGetServlet extends SlingSafeMethodsServlet {
             logger.error("Error while initializing servlet " + servlet, t);
         }
     }
+
+    /**
+     * The <code>ETagServletResponse</code> is a Sling response wrapper which
+     * only sends the entity tag if the resource is rendered with a
+     * <i>200/OK</i> status. The header is added before the response is
+     * committed, that is when the renderer starts writing the response, or
+     * after the renderer has finished.
+     */
+    private static class ETagServletResponse extends
+            SlingHttpServletResponseWrapper {
+
+        private final String etag;
+
+        private int status = HttpServletResponse.SC_OK;
+
+        private boolean etagChecked;
+
+        public ETagServletResponse(SlingHttpServletResponse wrappedResponse,
+                String etag) {
+            super(wrappedResponse);
+            this.etag = etag;
+        }
+
+        /**
+         * Adds the entity tag header unless a status other than
+         * <i>200/OK</i> has been set before.
+         */
+        void addETag() {
+            if (!etagChecked) {
+                etagChecked = true;
+                if (status == HttpServletResponse.SC_OK && !isCommitted()) {
+                    super.setHeader("ETag", etag);
+                }
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            this.status = sc;
+            super.setStatus(sc);
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void setStatus(int sc, String sm) {
+            this.status = sc;
+            super.setStatus(sc, sm);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            this.status = sc;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            this.status = sc;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            this.status = HttpServletResponse.SC_FOUND;
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addETag();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addETag();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addETag();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void reset() {
+            this.status = HttpServletResponse.SC_OK;
+            this.etagChecked = false;
+            super.reset();
+        }
+    }
 }
@@ -0,0 +1,457 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * The <code>ETagCache</code> provides the entity tags sent with the responses
+ * of the {@link org.apache.sling.servlets.get.impl.DefaultGetServlet} and its
+ * renderers.
+ * <p>
+ * The entity tag of the binary data of a resource is the MD5 digest of the
+ * data. It is a strong entity tag, which is the same for all instances
+ * serving the same data and may be used in <code>If-Range</code> headers. The
+ * digest is calculated while the complete data is streamed to a client
+ * through a {@link ContentTagStream} and cached together with the
+ * modification time and length of the resource. Until then, and after the
+ * entry has been evicted from the cache, no entity tag is available for the
+ * binary data. Evicting an entry thus never changes the entity tag of the
+ * data.
+ * <p>
+ * The output of the renderers (e.g. JSON or HTML) may depend on the children
+ * of the resource which do not change the modification time of the resource.
+ * The weak entity tags of rendered output therefore include a generation
+ * number which is only changed by a resource event for the resource, one of
+ * its ancestors or one of its descendants. The generations are recorded for
+ * the paths of the resource events. If more paths than the size of the cache
+ * are recorded, the records are dropped and the entity tags of all rendered
+ * output change once. Since the children visible to a user depend on the
+ * access rights, the tags of rendered output are calculated for each user.
+ * <p>
+ * If the cache of binary entity tags is full the least recently used tags are
+ * evicted. As in the resolution cache of the servlet resolver, lookups just
+ * record the time of the last access and the least recently used entry is
+ * only searched when adding an entry to a full cache.
+ */
+public class ETagCache implements EventHandler {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The maximum number of cached entity tags and recorded generations */
+    private final int maxSize;
+
+    /** The entity tags of binary data by path */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** Logical clock to record the time of the last access to an entry */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** Lock to serialize evictions */
+    private final Object evictionLock = new Object();
+
+    /** Distinguishes the rendered entity tags of different instances */
+    private final String instance = String.valueOf(System.currentTimeMillis());
+
+    /** The source of generation numbers */
+    private final AtomicLong generations = new AtomicLong();
+
+    /** The generation of all rendered entity tags */
+    private volatile long baseGeneration;
+
+    /** The generations of paths whose descendant has been changed */
+    private final Map<String, Long> nodeGenerations = new ConcurrentHashMap<String, Long>();
+
+    /** The generations of paths which have been changed with their subtree */
+    private final Map<String, Long> treeGenerations = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Creates a cache keeping up to the given number of entity tags.
+     *
+     * @param maxSize The maximum number of cached entity tags of binary data
+     *            and of paths for which generations are recorded. Values
+     *            below one are replaced by one.
+     */
+    public ETagCache(final int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Returns the entity tag of the given resource.
+     *
+     * @param resource The resource
+     * @param variant The rendering of the resource, that is the selectors and
+     *            extension of the request, or <code>null</code> for the binary
+     *            data of the resource.
+     * @param userId The ID of the user for whom the resource is rendered. This
+     *            is ignored for the binary data of the resource.
+     * @return The quoted entity tag, which is strong for binary data and weak
+     *         for rendered output, or <code>null</code> if the entity tag of
+     *         the binary data is not known.
+     */
+    public String getETag(final Resource resource, final String variant,
+            final String userId) {
+        final ResourceMetadata meta = resource.getResourceMetadata();
+        final long modifTime = meta.getModificationTime();
+        final long length = meta.getContentLength();
+        final String path = resource.getPath();
+
+        if (variant == null) {
+            final Entry entry = entries.get(path);
+            if (entry != null && entry.modifTime == modifTime
+                && entry.length == length) {
+                entry.lastAccess = clock.incrementAndGet();
+                return entry.etag;
+            }
+            return null;
+        }
+
+        return "W/" + quote(digest(path, variant, String.valueOf(userId),
+            String.valueOf(modifTime), String.valueOf(length), instance,
+            String.valueOf(getGeneration(path))));
+    }
+
+    /**
+     * Returns a stream calculating the entity tag of the binary data of the
+     * resource while the data is written to the given stream. The tag is
+     * cached when {@link ContentTagStream#complete()} is called after the
+     * complete data has been written. The tag is not calculated for
+     * resources without modification time.
+     *
+     * @return The stream or <code>null</code> if the resource has no
+     *         modification time.
+     */
+    public ContentTagStream createContentTagStream(final Resource resource,
+            final OutputStream out) {
+        final ResourceMetadata meta = resource.getResourceMetadata();
+        if (meta.getModificationTime() <= 0) {
+            return null;
+        }
+        return new ContentTagStream(out, resource.getPath(),
+            meta.getModificationTime(), meta.getContentLength(),
+            getGeneration(resource.getPath()));
+    }
+
+    /**
+     * Returns the number of cached entity tags of binary data.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Changes the entity tags of resources affected by a change of the
+     * resource at the given path, that is the resource itself, its ancestors
+     * and its descendants.
+     */
+    public void invalidate(final String path) {
+        final Long generation = generations.incrementAndGet();
+        if (nodeGenerations.size() >= maxSize
+            || treeGenerations.size() >= maxSize) {
+            invalidateAll(generation);
+            return;
+        }
+
+        treeGenerations.put(path, generation);
+        String parent = getParent(path);
+        while (parent != null) {
+            nodeGenerations.put(parent, generation);
+            parent = getParent(parent);
+        }
+
+        final Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            final String entryPath = iter.next().path;
+            if (isAncestorOrSelf(entryPath, path)
+                || isAncestorOrSelf(path, entryPath)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * @see org.osgi.service.event.EventHandler#handleEvent(org.osgi.service.event.Event)
+     */
+    public void handleEvent(final Event event) {
+        String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (path != null) {
+            // strip an optional workspace name
+            if (!path.startsWith("/") && path.indexOf(':') >= 0) {
+                path = path.substring(path.indexOf(':') + 1);
+            }
+            invalidate(path);
+        } else {
+            invalidateAll(generations.incrementAndGet());
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the <code>If-None-Match</code> header of the
+     * request matches the given entity tag. Following RFC 2616, section
+     * 14.26, the weak comparison function is used.
+     */
+    public static boolean matchesIfNoneMatch(final HttpServletRequest request,
+            final String etag) {
+        return matchesIfNoneMatch(request.getHeader("If-None-Match"), etag);
+    }
+
+    /**
+     * Returns <code>true</code> if the value of an <code>If-None-Match</code>
+     * header matches the given entity tag.
+     */
+    static boolean matchesIfNoneMatch(final String header, final String etag) {
+        if (header == null || etag == null) {
+            return false;
+        }
+
+        final StringTokenizer tokener = new StringTokenizer(header, ",");
+        while (tokener.hasMoreTokens()) {
+            String tag = tokener.nextToken().trim();
+            if ("*".equals(tag)) {
+                return true;
+            }
+            if (opaqueTag(tag).equals(opaqueTag(etag))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the entity tag of an <code>If-Range</code>
+     * header matches the given entity tag. Following RFC 2616, section 14.27,
+     * the strong comparison function is used, so weak tags never match.
+     */
+    public static boolean matchesIfRange(final String header, final String etag) {
+        return header != null && etag != null && !etag.startsWith("W/")
+            && header.trim().equals(etag);
+    }
+
+    /**
+     * Returns the entity tag without the weakness indicator.
+     */
+    private static String opaqueTag(final String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Returns the generation of the rendered output of the resource at the
+     * given path, which is the latest generation of the path itself, of a
+     * change of one of its descendants or of a change of the subtree of one
+     * of its ancestors.
+     */
+    private long getGeneration(final String path) {
+        long generation = baseGeneration;
+        generation = max(generation, nodeGenerations.get(path));
+        String current = path;
+        while (current != null) {
+            generation = max(generation, treeGenerations.get(current));
+            current = getParent(current);
+        }
+        return generation;
+    }
+
+    private void invalidateAll(final long generation) {
+        baseGeneration = generation;
+        nodeGenerations.clear();
+        treeGenerations.clear();
+        entries.clear();
+    }
+
+    private void put(final String path, final long modifTime,
+            final long length, final String etag) {
+        entries.put(path, new Entry(path, modifTime, length, etag,
+            clock.incrementAndGet()));
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            while (entries.size() > maxSize) {
+                String eldestKey = null;
+                Entry eldest = null;
+                for (final Map.Entry<String, Entry> current : entries.entrySet()) {
+                    if (eldest == null
+                        || current.getValue().lastAccess < eldest.lastAccess) {
+                        eldestKey = current.getKey();
+                        eldest = current.getValue();
+                    }
+                }
+                if (eldest == null) {
+                    break;
+                }
+                entries.remove(eldestKey);
+            }
+        }
+    }
+
+    private static long max(final long generation, final Long other) {
+        return (other != null && other > generation) ? other : generation;
+    }
+
+    private static String getParent(final String path) {
+        final int slash = path.lastIndexOf('/');
+        if (slash < 0 || path.length() == 1) {
+            return null;
+        }
+        return (slash == 0) ? "/" : path.substring(0, slash);
+    }
+
+    private static boolean isAncestorOrSelf(final String ancestor,
+            final String path) {
+        return path.startsWith(ancestor)
+            && (path.length() == ancestor.length()
+                || ancestor.endsWith("/") || path.charAt(ancestor.length()) == '/');
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException nsae) {
+            // MD5 is required to be supported by all platforms
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    private static byte[] digest(final String... parts) {
+        try {
+            final MessageDigest md = createDigest();
+            for (final String part : parts) {
+                md.update(part.getBytes("UTF-8"));
+                md.update((byte) 0);
+            }
+            return md.digest();
+        } catch (UnsupportedEncodingException uee) {
+            // UTF-8 is required to be supported by all platforms
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private static String quote(final byte[] hash) {
+        final StringBuilder buf = new StringBuilder(hash.length * 2 + 2);
+        buf.append('"');
+        for (final byte b : hash) {
+            buf.append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+        }
+        return buf.append('"').toString();
+    }
+
+    /**
+     * The <code>ContentTagStream</code> calculates the entity tag of the
+     * binary data of a resource written through it.
+     */
+    public final class ContentTagStream extends FilterOutputStream {
+
+        private final MessageDigest md = createDigest();
+
+        private final String path;
+
+        private final long modifTime;
+
+        private final long length;
+
+        /** The generation of the resource when the stream was created */
+        private final long generation;
+
+        private long count;
+
+        ContentTagStream(final OutputStream out, final String path,
+                final long modifTime, final long length, final long generation) {
+            super(out);
+            this.path = path;
+            this.modifTime = modifTime;
+            this.length = length;
+            this.generation = generation;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            md.update((byte) b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+                throws IOException {
+            out.write(b, off, len);
+            md.update(b, off, len);
+            count += len;
+        }
+
+        /**
+         * Caches the entity tag of the data written, unless less or more
+         * data than the content length of the resource has been written or
+         * the resource has been changed since the stream was created.
+         *
+         * @return The entity tag or <code>null</code> if the tag has not been
+         *         cached
+         */
+        public String complete() {
+            if ((length >= 0 && count != length)
+                || getGeneration(path) != generation) {
+                return null;
+            }
+            final String etag = quote(md.digest());
+            put(path, modifTime, length, etag);
+            return etag;
+        }
+    }
+
+    private static final class Entry {
+
+        final String path;
+
+        final long modifTime;
+
+        final long length;
+
+        final String etag;
+
+        volatile long lastAccess;
+
+        Entry(final String path, final long modifTime, final long length,
+                final String etag, final long lastAccess) {
+            this.path = path;
+            this.modifTime = modifTime;
+            this.length = length;
+            this.etag = etag;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
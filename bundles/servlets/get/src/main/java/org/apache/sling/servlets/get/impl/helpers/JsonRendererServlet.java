@@ -17,6 +17,7 @@
 package org.apache.sling.servlets.get.impl.helpers;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 import javax.jcr.RepositoryException;
 import javax.servlet.http.HttpServletResponse;
@@ -53,8 +54,19 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
 
     private long maximumResults;
 
+    /**
+     * Whether to write the resources directly to the response instead of
+     * building the complete JSON tree in memory first.
+     */
+    private final boolean streaming;
+
     public JsonRendererServlet(long maximumResults) {
+        this(maximumResults, false);
+    }
+
+    public JsonRendererServlet(long maximumResults, boolean streaming) {
         this.maximumResults = maximumResults;
+        this.streaming = streaming;
     }
 
     @Override
@@ -90,6 +102,11 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
         resp.setContentType(req.getResponseContentType());
         resp.setCharacterEncoding("UTF-8");
 
+        if (streaming) {
+            renderStreaming(r, resp, maxRecursionLevels, isTidy(req));
+            return;
+        }
+
         // We check the tree to see if the nr of nodes isn't bigger than the allowed nr.
         boolean allowDump = true;
         long allowedLevel = 0;
@@ -117,22 +134,75 @@ public class JsonRendererServlet extends SlingSafeMethodsServlet {
 
             } else {
                 // We are not allowed to do the dump.
-                // Send a 300
-                String tidyUrl = (tidy) ? "tidy." : "";
-                resp.setStatus(HttpServletResponse.SC_MULTIPLE_CHOICES);
-                JSONWriter writer = new JSONWriter(resp.getWriter());
-                writer.array();
-                while (allowedLevel >= 0) {
-                    writer.value(r.getResourceMetadata().getResolutionPath() + "." + tidyUrl + allowedLevel + ".json");
-                    allowedLevel--;
+                sendMultipleChoices(r, resp, allowedLevel, tidy);
+            }
+        } catch (JSONException je) {
+            reportException(je);
+        }
+    }
+
+    /**
+     * Writes the resource tree depth-first directly to the response. Before
+     * writing, the resources are counted to decide whether the tree may be
+     * dumped at all. Counting stops as soon as the maximum number of results
+     * is exceeded. Neither counting nor writing keeps more than the current
+     * path of resources in memory.
+     */
+    private void renderStreaming(Resource r, SlingHttpServletResponse resp,
+            int maxRecursionLevels, boolean tidy) throws IOException {
+        try {
+            if (countResources(r, maxRecursionLevels, 0, 0) > maximumResults) {
+                // find the deepest level which can be dumped completely
+                int allowedLevel = 0;
+                while (countResources(r, allowedLevel + 1, 0, 0) <= maximumResults) {
+                    allowedLevel++;
                 }
-                writer.endArray();
+                sendMultipleChoices(r, resp, allowedLevel, tidy);
+            } else {
+                new JsonResourceWriter(null).dump(r, resp.getWriter(),
+                    maxRecursionLevels, tidy);
             }
         } catch (JSONException je) {
             reportException(je);
         }
     }
 
+    /**
+     * Counts the descendants of the resource down to the given number of
+     * levels (-1 for all levels). Counting stops once the count exceeds the
+     * maximum number of results.
+     *
+     * @return The number of resources counted so far
+     */
+    private long countResources(Resource resource, int levels,
+            int currentLevel, long count) {
+        if (levels == -1 || currentLevel < levels) {
+            final Iterator<Resource> children = ResourceUtil.listChildren(resource);
+            while (children.hasNext() && count <= maximumResults) {
+                count = countResources(children.next(), levels,
+                    currentLevel + 1, count + 1);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sends a 300/MULTIPLE CHOICES response listing the URLs of the
+     * recursion levels which may be requested instead.
+     */
+    private void sendMultipleChoices(Resource r, SlingHttpServletResponse resp,
+            long allowedLevel, boolean tidy) throws IOException, JSONException {
+        String tidyUrl = (tidy) ? "tidy." : "";
+        resp.setStatus(HttpServletResponse.SC_MULTIPLE_CHOICES);
+        JSONWriter writer = new JSONWriter(resp.getWriter());
+        writer.array();
+        while (allowedLevel >= 0) {
+            writer.value(r.getResourceMetadata().getResolutionPath() + "." + tidyUrl + allowedLevel + ".json");
+            allowedLevel--;
+        }
+        writer.endArray();
+    }
+
     /** True if our request wants the "tidy" pretty-printed format */
     protected boolean isTidy(SlingHttpServletRequest req) {
         for(String selector : req.getRequestPathInfo().getSelectors()) {
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.sling.api.resource.Resource;
+
+/**
+ * The <code>ResourceStream</code> copies the binary data of a resource or
+ * ranges thereof to an output stream.
+ * <p>
+ * If the data is backed by a file -- the resource adapts to a
+ * <code>FileChannel</code> or <code>File</code> or its stream is a
+ * <code>FileInputStream</code> -- the
+ * data is transferred through the <code>FileChannel</code> of the file, which
+ * positions directly at the start of each range. Note that this is not a
+ * zero-copy transfer: the servlet output stream is not a channel the platform
+ * can transfer to directly, so <code>FileChannel.transferTo</code> copies the
+ * data through an intermediate buffer of the channel wrapping the output
+ * stream.
+ * <p>
+ * Otherwise the data is copied from the input stream of the resource using
+ * pooled buffers whose size is adapted to the length of the data. Ranges
+ * are served by skipping forward in the stream; the stream is only reopened
+ * if a range starts before the current position.
+ */
+abstract class ResourceStream implements Closeable {
+
+    /** The size of the pooled buffers */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The minimal size of buffers for short data */
+    private static final int MIN_BUFFER_SIZE = 2048;
+
+    /** The maximum number of buffers kept in the pool */
+    private static final int MAX_POOLED_BUFFERS = 32;
+
+    private static final Queue<byte[]> BUFFER_POOL = new ConcurrentLinkedQueue<byte[]>();
+
+    /**
+     * Creates a <code>ResourceStream</code> for the given resource.
+     *
+     * @param resource The resource whose data is copied
+     * @param stream The stream already opened on the resource. This stream is
+     *            closed when the returned object is closed.
+     */
+    static ResourceStream create(final Resource resource, final InputStream stream)
+            throws IOException {
+        if (stream instanceof FileInputStream) {
+            return new FileResourceStream(
+                ((FileInputStream) stream).getChannel(), stream);
+        }
+
+        final FileChannel channel = resource.adaptTo(FileChannel.class);
+        if (channel != null) {
+            closeSilently(stream);
+            return new FileResourceStream(channel, channel);
+        }
+
+        final File file = resource.adaptTo(File.class);
+        if (file != null && file.isFile()) {
+            try {
+                final FileInputStream fileStream = new FileInputStream(file);
+                closeSilently(stream);
+                return new FileResourceStream(fileStream.getChannel(),
+                    fileStream);
+            } catch (FileNotFoundException fnfe) {
+                // not readable as a file, fall back to the stream
+            }
+        }
+
+        return new InputResourceStream(resource, stream);
+    }
+
+    private static void closeSilently(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Copies the data starting at <code>start</code> to the output stream.
+     *
+     * @param out The stream to write to
+     * @param start The offset of the first byte to copy
+     * @param length The number of bytes to copy or -1 to copy up to the end
+     *            of the data
+     */
+    abstract void copy(OutputStream out, long start, long length)
+            throws IOException;
+
+    /**
+     * Returns a buffer for copying data of the given length, which may be
+     * unknown (-1). Large buffers are taken from the pool if available.
+     */
+    static byte[] getBuffer(final long length) {
+        if (length >= 0 && length < BUFFER_SIZE) {
+            return new byte[(int) Math.max(length, MIN_BUFFER_SIZE)];
+        }
+
+        final byte[] buffer = BUFFER_POOL.poll();
+        return (buffer != null) ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer gotten from {@link #getBuffer(long)} to the pool.
+     */
+    static void releaseBuffer(final byte[] buffer) {
+        // the size of the pool is only checked approximately
+        if (buffer.length == BUFFER_SIZE
+            && BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+
+    /**
+     * Data backed by a file, transferred through the file channel.
+     */
+    private static final class FileResourceStream extends ResourceStream {
+
+        private final FileChannel channel;
+
+        private final Closeable stream;
+
+        FileResourceStream(final FileChannel channel, final Closeable stream) {
+            this.channel = channel;
+            this.stream = stream;
+        }
+
+        @Override
+        void copy(final OutputStream out, final long start, long length)
+                throws IOException {
+            if (length < 0) {
+                length = channel.size() - start;
+            }
+
+            final WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            final long end = start + length;
+            while (position < end) {
+                final long transferred = channel.transferTo(position, end
+                    - position, target);
+                if (transferred <= 0) {
+                    if (position >= channel.size()) {
+                        throw new IOException("Unexpected end of file at "
+                            + position + "; expected " + end + " bytes");
+                    }
+                } else {
+                    position += transferred;
+                }
+            }
+        }
+
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    /**
+     * Data read from the input stream of the resource.
+     */
+    private static final class InputResourceStream extends ResourceStream {
+
+        private final Resource resource;
+
+        private InputStream stream;
+
+        /** The current position in the stream */
+        private long position;
+
+        InputResourceStream(final Resource resource, final InputStream stream) {
+            this.resource = resource;
+            this.stream = stream;
+        }
+
+        @Override
+        void copy(final OutputStream out, final long start, final long length)
+                throws IOException {
+            seek(start);
+
+            final byte[] buffer = getBuffer(length);
+            try {
+                long remaining = (length < 0) ? Long.MAX_VALUE : length;
+                while (remaining > 0) {
+                    final int rd = stream.read(buffer, 0,
+                        (int) Math.min(buffer.length, remaining));
+                    if (rd < 0) {
+                        break;
+                    }
+                    out.write(buffer, 0, rd);
+                    position += rd;
+                    remaining -= rd;
+                }
+            } finally {
+                releaseBuffer(buffer);
+            }
+        }
+
+        /**
+         * Positions the stream at the given offset. The stream is reopened if
+         * the offset is before the current position.
+         */
+        private void seek(final long start) throws IOException {
+            if (start < position) {
+                final InputStream newStream = resource.adaptTo(InputStream.class);
+                if (newStream == null) {
+                    throw new IOException("Cannot reopen stream of "
+                        + resource.getPath());
+                }
+                close();
+                stream = newStream;
+                position = 0;
+            }
+
+            while (position < start) {
+                final long skipped = stream.skip(start - position);
+                if (skipped <= 0) {
+                    // skip may not be able to tell the end of the stream
+                    if (stream.read() < 0) {
+                        throw new IOException("Failed to skip " + start
+                            + " bytes; only skipped " + position + " bytes");
+                    }
+                    position++;
+                } else {
+                    position += skipped;
+                }
+            }
+        }
+
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -20,7 +20,6 @@ import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static org.apache.sling.api.servlets.HttpConstants.HEADER_IF_MODIFIED_SINCE;
 import static org.apache.sling.api.servlets.HttpConstants.HEADER_LAST_MODIFIED;
 
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -73,8 +72,6 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
      */
     private static ArrayList<Range> FULL = new ArrayList<Range>(0);
 
-    private static final int IO_BUFFER_SIZE = 2048;
-
     /** default log */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -82,9 +79,18 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
     private String[] indexFiles;
 
+    /** The entity tags of the resources, <code>null</code> if disabled */
+    private final ETagCache etagCache;
+
     public StreamRendererServlet(boolean index, String[] indexFiles) {
+        this(index, indexFiles, null);
+    }
+
+    public StreamRendererServlet(boolean index, String[] indexFiles,
+            ETagCache etagCache) {
         this.index = index;
         this.indexFiles = indexFiles;
+        this.etagCache = etagCache;
     }
 
     @Override
@@ -122,7 +128,9 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         }
 
         // check the last modification time and If-Modified-Since header
-        if (!included) {
+        // unless the entity tag has already been checked (RFC 2616, 14.26)
+        if (!included
+            && (etagCache == null || request.getHeader("If-None-Match") == null)) {
             ResourceMetadata meta = resource.getResourceMetadata();
             long modifTime = meta.getModificationTime();
             if (unmodified(request, modifTime)) {
@@ -195,7 +203,9 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             final SlingHttpServletRequest request,
             final SlingHttpServletResponse response) throws IOException {
         // finally stream the resource
+        ResourceStream source = null;
         try {
+            source = ResourceStream.create(resource, stream);
 
             final ArrayList<Range> ranges;
             if (included) {
@@ -206,8 +216,7 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             } else {
 
                 // parse optional ranges
-                ranges = parseRange(request, response,
-                    resource.getResourceMetadata());
+                ranges = parseRange(request, response, resource);
                 if (ranges == null) {
                     // there was something wrong, the parseRange has sent a
                     // response and we are done
@@ -225,11 +234,7 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
                 // return full resource
                 setContentLength(response,
                     resource.getResourceMetadata().getContentLength());
-                byte[] buf = new byte[IO_BUFFER_SIZE];
-                int rd;
-                while ((rd = stream.read(buf)) >= 0) {
-                    out.write(buf, 0, rd);
-                }
+                copyFull(resource, source, out, included);
 
             } else {
 
@@ -243,20 +248,21 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
                         + "-" + range.end + "/" + range.length);
                     setContentLength(response, range.end - range.start + 1);
 
-                    copy(stream, out, range);
+                    copy(source, out, range);
 
                 } else {
 
                     response.setContentType("multipart/byteranges; boundary="
                         + mimeSeparation);
 
-                    copy(resource, out, ranges.iterator());
+                    copy(resource, source, out, ranges.iterator());
                 }
 
             }
 
         } finally {
-            closeSilently(stream);
+            // the stream is owned by the source once it has been created
+            closeSilently(source != null ? source : stream);
         }
     }
 
@@ -440,135 +446,83 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         pw.println();
     }
 
+    /**
+     * Copies the complete data of the resource to the output stream. If
+     * entity tags are enabled and the entity tag of the data is not known
+     * yet, it is calculated from the data copied.
+     */
+    private void copyFull(Resource resource, ResourceStream source,
+            OutputStream ostream, boolean included) throws IOException {
+        ETagCache.ContentTagStream tagStream = null;
+        if (etagCache != null && !included
+            && etagCache.getETag(resource, null, null) == null) {
+            tagStream = etagCache.createContentTagStream(resource, ostream);
+        }
+
+        if (tagStream == null) {
+            source.copy(ostream, 0, -1);
+        } else {
+            source.copy(tagStream, 0, -1);
+            tagStream.complete();
+        }
+    }
+
     //---------- Range header support
     // The following code is copy-derived from the Tomcate DefaultServlet
     // http://svn.apache.org/viewvc/tomcat/trunk/java/org/apache/catalina/servlets/DefaultServlet.java?view=markup
 
     /**
      * Copies a number of ranges from the given resource to the output stream.
-     * Copy the contents of the specified input stream to the specified output
-     * stream, and ensure that both streams are closed before returning (even in
-     * the face of an exception).
+     * The ranges are all copied from the same source which positions at the
+     * start of each range instead of reading the data from the beginning.
      *
      * @param resource The resource from which to send ranges
+     * @param source The source of the data of the resource
      * @param ostream The output stream to write to
      * @param ranges Iterator of the ranges the client wanted to retrieve
-     * @param contentType Content type of the resource
      * @exception IOException if an input/output error occurs
      */
-    private void copy(Resource resource, ServletOutputStream ostream,
-            Iterator<Range> ranges) throws IOException {
+    private void copy(Resource resource, ResourceStream source,
+            ServletOutputStream ostream, Iterator<Range> ranges)
+            throws IOException {
 
         String contentType = resource.getResourceMetadata().getContentType();
-        IOException exception = null;
 
-        while ((exception == null) && (ranges.hasNext())) {
+        while (ranges.hasNext()) {
 
-            InputStream resourceInputStream = resource.adaptTo(InputStream.class);
-            InputStream istream = new BufferedInputStream(resourceInputStream,
-                IO_BUFFER_SIZE);
-
-            try {
-                Range currentRange = ranges.next();
+            Range currentRange = ranges.next();
 
-                // Writing MIME header.
-                ostream.println();
-                ostream.println("--" + mimeSeparation);
-                if (contentType != null) {
-                    ostream.println("Content-Type: " + contentType);
-                }
-                ostream.println("Content-Range: bytes " + currentRange.start + "-"
-                    + currentRange.end + "/" + currentRange.length);
-                ostream.println();
-
-                // Printing content
-                exception = copyRange(istream, ostream, currentRange.start,
-                    currentRange.end);
-            } finally {
-                closeSilently(istream);
+            // Writing MIME header.
+            ostream.println();
+            ostream.println("--" + mimeSeparation);
+            if (contentType != null) {
+                ostream.println("Content-Type: " + contentType);
             }
+            ostream.println("Content-Range: bytes " + currentRange.start + "-"
+                + currentRange.end + "/" + currentRange.length);
+            ostream.println();
 
+            // Printing content
+            copy(source, ostream, currentRange);
         }
 
         ostream.println();
         ostream.print("--" + mimeSeparation + "--");
-
-        // Rethrow any exception that has occurred
-        if (exception != null) throw exception;
-
-    }
-
-    /**
-    * Copy the contents of the specified input stream to the specified
-    * output stream.
-    *
-    * @param cacheEntry The cache entry for the source resource
-    * @param ostream The output stream to write to
-    * @param range Range the client wanted to retrieve
-    * @exception IOException if an input/output error occurs
-    */
-    private void copy(InputStream resourceInputStream, OutputStream ostream,
-            Range range) throws IOException {
-
-        InputStream istream = new BufferedInputStream(resourceInputStream, IO_BUFFER_SIZE);
-        IOException exception = copyRange(istream, ostream, range.start, range.end);
-
-        // Rethrow any exception that has occurred
-        if (exception != null) {
-            throw exception;
-        }
     }
 
     /**
-     * Copy the contents of the specified input stream to the specified output
+     * Copy the range of the data of the source to the specified output
      * stream.
      *
-     * @param istream The input stream to read from
+     * @param source The source of the data of the resource
      * @param ostream The output stream to write to
-     * @param start Start of the range which will be copied
-     * @param end End of the range which will be copied
-     * @return Exception which occurred during processing
+     * @param range Range the client wanted to retrieve
+     * @exception IOException if an input/output error occurs
      */
-    private IOException copyRange(InputStream istream,
-            OutputStream ostream, long start, long end) {
-
-        log.debug("copyRange: Serving bytes: {}-{}", start, end);
-
-        try {
-            long skipped = istream.skip(start);
-            if (skipped < start) {
-                return new IOException("Failed to skip " + start
-                    + " bytes; only skipped " + skipped + " bytes");
-            }
-        } catch (IOException e) {
-            return e;
-        }
-
-        IOException exception = null;
-        long bytesToRead = end - start + 1;
-
-        byte buffer[] = new byte[IO_BUFFER_SIZE];
-        int len = buffer.length;
-        while ((bytesToRead > 0) && (len >= buffer.length)) {
-            try {
-                len = istream.read(buffer);
-                if (bytesToRead >= len) {
-                    ostream.write(buffer, 0, len);
-                    bytesToRead -= len;
-                } else {
-                    ostream.write(buffer, 0, (int) bytesToRead);
-                    bytesToRead = 0;
-                }
-            } catch (IOException e) {
-                exception = e;
-                len = -1;
-            }
-            if (len < buffer.length) {
-                break;
-            }
-        }
-
-        return exception;
+    private void copy(ResourceStream source, OutputStream ostream, Range range)
+            throws IOException {
+        log.debug("copyRange: Serving bytes: {}-{}", range.start, range.end);
+        source.copy(ostream, range.start, range.end - range.start + 1);
     }
 
     /**
@@ -582,9 +536,11 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
      *         finished sending an error status.
      */
     private ArrayList<Range> parseRange(HttpServletRequest request,
-            HttpServletResponse response, ResourceMetadata metadata)
+            HttpServletResponse response, Resource resource)
             throws IOException {
 
+        final ResourceMetadata metadata = resource.getResourceMetadata();
+
         // Checking If-Range
         String headerValue = request.getHeader("If-Range");
         if (headerValue != null) {
@@ -598,10 +554,15 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
             if (headerValueTime == (-1L)) {
 
-                // If the ETag the client gave does not match the entity
-                // etag, then the entire entity is returned.
-                // Sling: no etag support yet, return full range
-                return FULL;
+                // If the entity tag does not match the current strong entity
+                // tag of the data (RFC 2616, 14.27), the entire entity is
+                // returned.
+                final String etag = (etagCache == null)
+                        ? null
+                        : etagCache.getETag(resource, null, null);
+                if (!ETagCache.matchesIfRange(headerValue, etag)) {
+                    return FULL;
+                }
 
             } else if (metadata.getModificationTime() > (headerValueTime + 1000)) {
 
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.servlets.get.impl.helpers.ETagCache.ContentTagStream;
+
+public class ETagCacheTest extends TestCase {
+
+    private ETagCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new ETagCache(1000);
+    }
+
+    public void testBinaryETag() throws IOException {
+        final Resource resource = createResource("/content/file", 1000L, 10L);
+
+        // not known before the data has been sent
+        assertNull(cache.getETag(resource, null, "admin"));
+
+        final String etag = send(cache, resource, "0123456789");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\""));
+        assertEquals(etag, cache.getETag(resource, null, "admin"));
+        assertEquals(etag, cache.getETag(resource, null, "anonymous"));
+
+        // the same on another instance and for the same data elsewhere
+        assertEquals(etag, send(new ETagCache(1000), createResource(
+            "/content/copy", 2000L, 10L), "0123456789"));
+
+        // not known once the modification time changed
+        assertNull(cache.getETag(createResource("/content/file", 2000L, 10L),
+            null, "admin"));
+
+        // changes with the data
+        assertFalse(etag.equals(send(cache, resource, "9876543210")));
+    }
+
+    public void testBinaryETagIncomplete() throws IOException {
+        final Resource resource = createResource("/content/file", 1000L, 10L);
+        assertNull(send(cache, resource, "01234"));
+        assertNull(cache.getETag(resource, null, "admin"));
+
+        // no entity tag without modification time
+        assertNull(cache.createContentTagStream(createResource("/content/file",
+            -1L, 10L), new ByteArrayOutputStream()));
+    }
+
+    public void testBinaryETagChangedWhileSent() throws IOException {
+        final Resource resource = createResource("/content/file", 1000L, 10L);
+        final ContentTagStream out = cache.createContentTagStream(resource,
+            new ByteArrayOutputStream());
+        out.write("0123456789".getBytes("UTF-8"));
+        cache.invalidate("/content/file");
+        assertNull(out.complete());
+        assertNull(cache.getETag(resource, null, "admin"));
+    }
+
+    public void testRenderedETagPerUser() {
+        final Resource resource = createResource("/content/page", 1000L, -1L);
+        final String admin = cache.getETag(resource, ".json", "admin");
+        final String anonymous = cache.getETag(resource, ".json", "anonymous");
+
+        assertTrue(admin.startsWith("W/\""));
+        assertFalse(admin.equals(anonymous));
+        assertEquals(admin, cache.getETag(resource, ".json", "admin"));
+        assertFalse(admin.equals(cache.getETag(resource, ".1.json", "admin")));
+    }
+
+    public void testInvalidate() throws IOException {
+        final Resource resource = createResource("/content/page", 1000L, -1L);
+        final String etag = cache.getETag(resource, ".json", "admin");
+        final Resource file = createResource("/content/page/file", 1000L, 1L);
+        send(cache, file, "x");
+
+        cache.invalidate("/content/other");
+        assertEquals(etag, cache.getETag(resource, ".json", "admin"));
+        assertNotNull(cache.getETag(file, null, "admin"));
+
+        // a change of a child invalidates the rendering of the parent
+        cache.invalidate("/content/page/child");
+        final String changed = cache.getETag(resource, ".json", "admin");
+        assertFalse(etag.equals(changed));
+        assertNotNull(cache.getETag(file, null, "admin"));
+
+        // a change of an ancestor invalidates the rendering of descendants
+        cache.invalidate("/content");
+        assertFalse(changed.equals(cache.getETag(resource, ".json", "admin")));
+        assertNull(cache.getETag(file, null, "admin"));
+
+        // a sibling of the changed child is not affected
+        final Resource sibling = createResource("/content/page/sibling", 1000L, -1L);
+        final String siblingTag = cache.getETag(sibling, ".json", "admin");
+        cache.invalidate("/content/page/child");
+        assertEquals(siblingTag, cache.getETag(sibling, ".json", "admin"));
+    }
+
+    public void testInvalidateAfterTooManyChanges() {
+        cache = new ETagCache(10);
+        final Resource resource = createResource("/content/page", 1000L, -1L);
+        final String etag = cache.getETag(resource, ".json", "admin");
+
+        // unrelated changes only change the tag once too many are recorded
+        String current = etag;
+        for (int i = 0; i < 20; i++) {
+            cache.invalidate("/other/page" + i);
+            current = cache.getETag(resource, ".json", "admin");
+        }
+        assertFalse(etag.equals(current));
+    }
+
+    public void testLeastRecentlyUsedEviction() throws IOException {
+        cache = new ETagCache(100);
+        final Resource first = createResource("/content/first", 1000L, 1L);
+        final String etag = send(cache, first, "x");
+
+        for (int i = 0; i < 200; i++) {
+            // keep the first entry in use
+            assertEquals(etag, cache.getETag(first, null, "admin"));
+            send(cache, createResource("/content/file" + i, 1000L, 1L), "y");
+        }
+
+        assertTrue(cache.size() <= 100);
+        assertEquals(etag, cache.getETag(first, null, "admin"));
+        assertNull(cache.getETag(createResource("/content/file0", 1000L, 1L),
+            null, "admin"));
+
+        // an evicted tag is the same when calculated again
+        final Resource evicted = createResource("/content/file0", 1000L, 1L);
+        assertEquals(etag, send(cache, evicted, "x"));
+    }
+
+    public void testRenderedETagNotChangedByEviction() {
+        cache = new ETagCache(10);
+        final Resource resource = createResource("/content/page", 1000L, -1L);
+        final String etag = cache.getETag(resource, ".json", "admin");
+        for (int i = 0; i < 100; i++) {
+            cache.getETag(createResource("/content/page" + i, 1000L, -1L),
+                ".json", "admin");
+        }
+        assertEquals(etag, cache.getETag(resource, ".json", "admin"));
+    }
+
+    public void testMatchesIfNoneMatch() {
+        assertTrue(ETagCache.matchesIfNoneMatch("\"a\", W/\"b\"", "W/\"b\""));
+        assertTrue(ETagCache.matchesIfNoneMatch("\"b\"", "W/\"b\""));
+        assertTrue(ETagCache.matchesIfNoneMatch("*", "W/\"b\""));
+        assertFalse(ETagCache.matchesIfNoneMatch("\"a\"", "W/\"b\""));
+        assertFalse(ETagCache.matchesIfNoneMatch((String) null, "W/\"b\""));
+    }
+
+    public void testMatchesIfRange() {
+        assertTrue(ETagCache.matchesIfRange("\"b\"", "\"b\""));
+        assertTrue(ETagCache.matchesIfRange(" \"b\" ", "\"b\""));
+        assertFalse(ETagCache.matchesIfRange("\"a\"", "\"b\""));
+        assertFalse(ETagCache.matchesIfRange("W/\"b\"", "\"b\""));
+        assertFalse(ETagCache.matchesIfRange("W/\"b\"", "W/\"b\""));
+        assertFalse(ETagCache.matchesIfRange("\"b\"", null));
+    }
+
+    private String send(final ETagCache cache, final Resource resource,
+            final String data) throws IOException {
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        final ContentTagStream out = cache.createContentTagStream(resource,
+            sent);
+        out.write(data.getBytes("UTF-8"));
+        assertEquals(data, sent.toString("UTF-8"));
+        return out.complete();
+    }
+
+    private Resource createResource(final String path, final long modifTime,
+            final long length) {
+        final ResourceMetadata meta = new ResourceMetadata();
+        meta.setModificationTime(modifTime);
+        meta.setContentLength(length);
+        return new SyntheticResource(null, meta, "nt:file") {
+            @Override
+            public String getPath() {
+                return path;
+            }
+        };
+    }
+}
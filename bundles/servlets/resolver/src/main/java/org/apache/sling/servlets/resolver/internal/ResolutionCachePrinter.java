@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.apache.sling.servlets.resolver.internal.helper.ResolutionCache;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * This is a configuration printer for the web console which prints out the
+ * statistics of the servlet resolution cache.
+ */
+public class ResolutionCachePrinter {
+
+    private static final String HEADLINE = "Apache Sling Servlet Resolver Cache";
+
+    private final ResolutionCache<?, ?> cache;
+
+    public static ServiceRegistration register(final BundleContext bundleContext,
+            final ResolutionCache<?, ?> cache) {
+        final ResolutionCachePrinter printer = new ResolutionCachePrinter(cache);
+
+        final Dictionary<String, String> props = new Hashtable<String, String>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Apache Sling Servlet Resolver Cache Configuration Printer");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put("felix.webconsole.label", "servletresolvercache");
+        props.put("felix.webconsole.title", "Servlet Resolver Cache");
+        props.put("felix.webconsole.configprinter.modes", "always");
+
+        return bundleContext.registerService(ResolutionCachePrinter.class.getName(),
+            printer, props);
+    }
+
+    public ResolutionCachePrinter(final ResolutionCache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Print out the cache statistics.
+     * @see org.apache.felix.webconsole.ConfigurationPrinter#printConfiguration(java.io.PrintWriter)
+     */
+    public void printConfiguration(final PrintWriter pw) {
+        final long hits = cache.getHits();
+        final long misses = cache.getMisses();
+        final long lookups = hits + misses;
+
+        pw.println(HEADLINE);
+        pw.println();
+        pw.println("Size = " + cache.size());
+        pw.println("Maximum Size = " + cache.getMaxSize());
+        pw.println("Hits = " + hits);
+        pw.println("Misses = " + misses);
+        pw.println("Hit Ratio = "
+            + (lookups == 0 ? "-" : (hits * 100 / lookups) + "%"));
+        pw.println("Evictions = " + cache.getEvictions());
+        pw.println("Invalidations = " + cache.getInvalidations());
+        pw.println("Flushes = " + cache.getFlushes());
+    }
+}
@@ -31,12 +31,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
@@ -66,6 +66,7 @@ import org.apache.sling.servlets.resolver.internal.defaults.DefaultErrorHandlerS
 import org.apache.sling.servlets.resolver.internal.defaults.DefaultServlet;
 import org.apache.sling.servlets.resolver.internal.helper.AbstractResourceCollector;
 import org.apache.sling.servlets.resolver.internal.helper.NamedScriptResourceCollector;
+import org.apache.sling.servlets.resolver.internal.helper.ResolutionCache;
 import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
 import org.apache.sling.servlets.resolver.internal.helper.SlingServletConfig;
 import org.apache.sling.servlets.resolver.internal.resource.ServletResourceProvider;
@@ -190,14 +191,17 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
     // a request. This field is set on demand by getDefaultErrorServlet()
     private Servlet fallbackErrorServlet;
 
-    /** The script resolution cache. */
-    private Map<AbstractResourceCollector, Servlet> cache;
+    /**
+     * The script resolution cache of the ordered servlet candidates. An empty
+     * list is cached if no servlet has been found.
+     */
+    private volatile ResolutionCache<AbstractResourceCollector, List<Servlet>> cache;
 
     /** The cache size. */
     private int cacheSize;
 
-    /** Flag to log warning if cache size exceed only once. */
-    private volatile boolean logCacheSizeWarning;
+    /** The web console configuration printer for the cache statistics. */
+    private ServiceRegistration printerReg;
 
     /** Registration as event handler. */
     private ServiceRegistration eventHandlerReg;
@@ -601,6 +605,11 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
      * actually willing to handle the request in case the servlet is an
      * <code>OptingServlet</code>. The first servlet willing to handle the
      * request is used.
+     * <p>
+     * The ordered list of candidate servlets up to and including the first
+     * servlet which is not an <code>OptingServlet</code> is cached. Thus
+     * subsequent requests only have to ask the <code>OptingServlet</code>s
+     * again. An empty list is cached if no servlet has been found at all.
      *
      * @param locationUtil The helper used to find appropriate servlets ordered
      *            by matching priority.
@@ -618,55 +627,77 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
     private Servlet getServlet(final AbstractResourceCollector locationUtil,
             final SlingHttpServletRequest request,
             final ResourceResolver scriptResolver) {
-        final Servlet scriptServlet = (this.cache != null ? this.cache.get(locationUtil) : null);
-        if (scriptServlet != null) {
+        final ResolutionCache<AbstractResourceCollector, List<Servlet>> cache = this.cache;
+        List<Servlet> candidates = (cache != null ? cache.get(locationUtil) : null);
+        if (candidates != null) {
             if ( log.isDebugEnabled() ) {
-                log.debug("Using cached servlet {}", RequestUtil.getServletName(scriptServlet));
+                log.debug("Using {} cached servlet candidates", candidates.size());
+            }
+        } else {
+            final List<String> locations = new ArrayList<String>();
+            candidates = getServletCandidates(locationUtil, scriptResolver, locations);
+            if (cache != null) {
+                cache.put(locationUtil, candidates, locations);
             }
-            return scriptServlet;
         }
 
-        final Collection<Resource> candidates = locationUtil.getServlets(scriptResolver);
+        for (final Servlet candidate : candidates) {
+            if (!(candidate instanceof OptingServlet)
+                || (request != null && ((OptingServlet) candidate).accepts(request))) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Using servlet {}", RequestUtil.getServletName(candidate));
+                }
+                return candidate;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Candidate {} does not accept request, ignored",
+                    RequestUtil.getServletName(candidate));
+            }
+        }
+
+        // exhausted all candidates, we don't have a servlet
+        return null;
+    }
+
+    /**
+     * Returns the ordered list of servlets provided by the resources found by
+     * the <code>locationUtil</code>. The list ends with the first servlet
+     * which is not an <code>OptingServlet</code> because such a servlet
+     * always handles the request.
+     *
+     * @param locationUtil The helper used to find appropriate servlets ordered
+     *            by matching priority.
+     * @param scriptResolver The resource resolver to find the servlets
+     * @param locations The collection to which the searched locations are added
+     * @return The unmodifiable list of candidate servlets, which may be empty.
+     */
+    private List<Servlet> getServletCandidates(final AbstractResourceCollector locationUtil,
+            final ResourceResolver scriptResolver,
+            final Collection<String> locations) {
+        final Collection<Resource> candidateResources = locationUtil.getServlets(scriptResolver, locations);
 
         if (log.isDebugEnabled()) {
-            if (candidates.isEmpty()) {
+            if (candidateResources.isEmpty()) {
                 log.debug("No servlet candidates found");
             } else {
                 log.debug("Ordered list of servlet candidates follows");
-                for (Resource candidateResource : candidates) {
+                for (Resource candidateResource : candidateResources) {
                     log.debug("Servlet candidate: {}", candidateResource.getPath());
                 }
             }
         }
 
-        boolean hasOptingServlet = false;
-        for (Resource candidateResource : candidates) {
+        final List<Servlet> candidates = new ArrayList<Servlet>();
+        for (Resource candidateResource : candidateResources) {
             if (log.isDebugEnabled()) {
-                log.debug("Checking if candidate resource {} adapts to servlet and accepts request", candidateResource
+                log.debug("Checking if candidate resource {} adapts to servlet", candidateResource
                         .getPath());
             }
-            Servlet candidate = candidateResource.adaptTo(Servlet.class);
+            final Servlet candidate = candidateResource.adaptTo(Servlet.class);
             if (candidate != null) {
-                final boolean isOptingServlet = candidate instanceof OptingServlet;
-                boolean servletAcceptsRequest = !isOptingServlet || (request != null && ((OptingServlet) candidate).accepts(request));
-                if (servletAcceptsRequest) {
-                    if (!hasOptingServlet && !isOptingServlet && this.cache != null) {
-                        if ( this.cache.size() < this.cacheSize ) {
-                            this.cache.put(locationUtil, candidate);
-                        } else if ( this.logCacheSizeWarning ) {
-                            this.logCacheSizeWarning = false;
-                            log.warn("Script cache has reached its limit of {}. You might want to increase the cache size for the servlet resolver.",
-                                    this.cacheSize);
-                        }
-                    }
-                    log.debug("Using servlet provided by candidate resource {}", candidateResource.getPath());
-                    return candidate;
-                }
-                if (isOptingServlet) {
-                    hasOptingServlet = true;
-                }
-                if (log.isDebugEnabled()) {
-                    log.debug("Candidate {} does not accept request, ignored", candidateResource.getPath());
+                candidates.add(candidate);
+                if (!(candidate instanceof OptingServlet)) {
+                    break;
                 }
             } else {
                 if (log.isDebugEnabled()) {
@@ -675,8 +706,10 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
             }
         }
 
-        // exhausted all candidates, we don't have a servlet
-        return null;
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(candidates);
     }
 
     /**
@@ -862,8 +895,8 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
         // create cache - if a cache size is configured
         this.cacheSize = OsgiUtil.toInteger(properties.get(PROP_CACHE_SIZE), DEFAULT_CACHE_SIZE);
         if (this.cacheSize > 5) {
-            this.cache = new ConcurrentHashMap<AbstractResourceCollector, Servlet>(cacheSize);
-            this.logCacheSizeWarning = true;
+            this.cache = new ResolutionCache<AbstractResourceCollector, List<Servlet>>(cacheSize);
+            this.printerReg = ResolutionCachePrinter.register(context.getBundleContext(), this.cache);
         } else {
             this.cacheSize = 0;
         }
@@ -886,6 +919,12 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
             this.eventHandlerReg = null;
         }
 
+        // unregister cache statistics printer
+        if (this.printerReg != null) {
+            this.printerReg.unregister();
+            this.printerReg = null;
+        }
+
         // Copy the list of servlets first, to minimize the need for
         // synchronization
         final Collection<ServiceReference> refs;
@@ -1038,7 +1077,8 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
      * @see org.osgi.service.event.EventHandler#handleEvent(org.osgi.service.event.Event)
      */
     public void handleEvent(Event event) {
-        if (this.cache != null) {
+        final ResolutionCache<AbstractResourceCollector, List<Servlet>> cache = this.cache;
+        if (cache != null) {
             boolean flushCache = false;
 
             // we may receive different events
@@ -1054,23 +1094,27 @@ public class SlingServletResolver implements ServletResolver, SlingScriptResolve
                 // this is a resource event
 
                 // if the path of the event is a sub path of a search path
-                // we flush the whole cache
+                // we remove the entries whose resource type hierarchy is
+                // affected by the changed resource
                 String path = (String) event.getProperty(SlingConstants.PROPERTY_PATH);
                 if (path.contains(":")) {
                     path = path.substring(path.indexOf(":") + 1);
                 }
                 final String[] searchPaths = this.scriptResolver.getSearchPath();
-                int index = 0;
-                while (!flushCache && index < searchPaths.length) {
-                    if (path.startsWith(searchPaths[index])) {
-                        flushCache = true;
+                for (int index = 0; index < searchPaths.length; index++) {
+                    if (path.startsWith(searchPaths[index])
+                        || searchPaths[index].startsWith(path)) {
+                        final int removed = cache.invalidate(path);
+                        if (removed > 0 && log.isDebugEnabled()) {
+                            log.debug("Removed {} cached resolutions affected by change of {}",
+                                removed, path);
+                        }
+                        break;
                     }
-                    index++;
                 }
             }
             if (flushCache) {
-                this.cache.clear();
-                this.logCacheSizeWarning = true;
+                cache.clear();
             }
         }
     }
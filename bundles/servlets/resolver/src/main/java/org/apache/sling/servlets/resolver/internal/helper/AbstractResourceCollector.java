@@ -69,12 +69,26 @@ public abstract class AbstractResourceCollector {
     }
 
     public final Collection<Resource> getServlets(ResourceResolver resolver) {
+        return getServlets(resolver, null);
+    }
+
+    /**
+     * Returns the ordered collection of resources which may be used to find
+     * a servlet or script. The locations searched for these resources are
+     * added to the <code>searchedLocations</code> collection unless it is
+     * <code>null</code>.
+     */
+    public final Collection<Resource> getServlets(ResourceResolver resolver,
+            final Collection<String> searchedLocations) {
 
         final SortedSet<Resource> resources = new TreeSet<Resource>();
         final Iterator<String> locations = new LocationIterator(resourceType, resourceSuperType,
                                                                 baseResourceType, workspaceName, resolver);
         while (locations.hasNext()) {
             final String location = locations.next();
+            if ( searchedLocations != null ) {
+                searchedLocations.add(location);
+            }
 
             // get the location resource, use a synthetic resource if there
             // is no real location. There may still be children at this
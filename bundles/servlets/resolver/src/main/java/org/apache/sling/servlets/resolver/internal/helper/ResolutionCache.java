@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>ResolutionCache</code> is a size bounded cache for the results of
+ * the servlet resolution. If the cache is full, the least recently used entry
+ * is evicted.
+ * <p>
+ * Each entry is stored together with the locations (see
+ * {@link LocationIterator}) which have been searched to create the cached
+ * value. This allows to only invalidate the entries whose resource type
+ * hierarchy touches a changed path.
+ * <p>
+ * Lookups do not lock: the entries are kept in a
+ * <code>ConcurrentHashMap</code> and the time of the last access is just
+ * recorded in the entry. Finding the least recently used entry requires a
+ * scan of the entries. This is only done when adding an entry to a full
+ * cache, that is after a cache miss which has required a resolution through
+ * the repository anyway.
+ */
+public class ResolutionCache<K, V> {
+
+    /** The entries of the cache */
+    private final Map<K, CacheEntry<V>> entries;
+
+    /** The maximum number of entries */
+    private final int maxSize;
+
+    /** Logical clock to record the time of the last access to an entry */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** Lock to serialize evictions */
+    private final Object evictionLock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * Creates a cache for at most the given number of entries.
+     */
+    public ResolutionCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new ConcurrentHashMap<K, CacheEntry<V>>(maxSize);
+    }
+
+    /**
+     * Returns the cached value for the key or <code>null</code> if no value
+     * is cached for the key.
+     */
+    public V get(final K key) {
+        final CacheEntry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        entry.lastAccess = this.clock.incrementAndGet();
+        this.hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Caches the value for the key. If the cache is full the least recently
+     * used entries are evicted.
+     *
+     * @param key The key of the entry
+     * @param value The value to cache
+     * @param locations The locations which have been searched to create the
+     *            value. If any of these locations or a resource below or
+     *            above one of them changes, the entry is invalidated.
+     */
+    public void put(final K key, final V value, final Collection<String> locations) {
+        final String[] paths = new String[locations.size()];
+        int i = 0;
+        for (final String location : locations) {
+            if (location.length() > 1 && location.endsWith("/")) {
+                paths[i++] = location.substring(0, location.length() - 1);
+            } else {
+                paths[i++] = location;
+            }
+        }
+
+        this.entries.put(key, new CacheEntry<V>(value, paths,
+            this.clock.incrementAndGet()));
+
+        if (this.entries.size() > this.maxSize) {
+            this.evict();
+        }
+    }
+
+    /**
+     * Removes all entries whose locations are affected by a change of the
+     * resource at the given path.
+     *
+     * @return The number of removed entries
+     */
+    public int invalidate(final String path) {
+        int count = 0;
+        final Iterator<Map.Entry<K, CacheEntry<V>>> iter = this.entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            final Map.Entry<K, CacheEntry<V>> current = iter.next();
+            if (current.getValue().isAffectedBy(path)) {
+                iter.remove();
+                count++;
+            }
+        }
+        this.invalidations.addAndGet(count);
+        return count;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        this.entries.clear();
+        this.flushes.incrementAndGet();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public long getInvalidations() {
+        return this.invalidations.get();
+    }
+
+    public long getFlushes() {
+        return this.flushes.get();
+    }
+
+    private void evict() {
+        synchronized (this.evictionLock) {
+            while (this.entries.size() > this.maxSize) {
+                K eldestKey = null;
+                CacheEntry<V> eldest = null;
+                for (final Map.Entry<K, CacheEntry<V>> current : this.entries.entrySet()) {
+                    if (eldest == null
+                        || current.getValue().lastAccess < eldest.lastAccess) {
+                        eldestKey = current.getKey();
+                        eldest = current.getValue();
+                    }
+                }
+                if (eldest == null) {
+                    break;
+                }
+                if (this.entries.remove(eldestKey) != null) {
+                    this.evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static final class CacheEntry<V> {
+
+        final V value;
+
+        final String[] locations;
+
+        volatile long lastAccess;
+
+        CacheEntry(final V value, final String[] locations,
+                final long lastAccess) {
+            this.value = value;
+            this.locations = locations;
+            this.lastAccess = lastAccess;
+        }
+
+        /**
+         * Returns <code>true</code> if the path is one of the locations, a
+         * descendant of a location (e.g. a script) or an ancestor of a
+         * location (e.g. a resource type folder being deployed or removed).
+         */
+        boolean isAffectedBy(final String path) {
+            for (final String location : this.locations) {
+                if (path.equals(location)) {
+                    return true;
+                }
+                if (path.startsWith(location)
+                    && (location.endsWith("/") || path.charAt(location.length()) == '/')) {
+                    return true;
+                }
+                if (location.startsWith(path)
+                    && (path.endsWith("/") || location.charAt(path.length()) == '/')) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
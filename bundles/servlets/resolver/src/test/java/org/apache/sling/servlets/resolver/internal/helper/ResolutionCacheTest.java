@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ResolutionCacheTest extends TestCase {
+
+    public void testLeastRecentlyUsedEviction() {
+        final ResolutionCache<String, String> cache = new ResolutionCache<String, String>(3);
+        cache.put("a", "A", Arrays.asList("/apps/a/"));
+        cache.put("b", "B", Arrays.asList("/apps/b/"));
+        cache.put("c", "C", Arrays.asList("/apps/c/"));
+
+        // access a, so b is the least recently used entry
+        assertEquals("A", cache.get("a"));
+        cache.put("d", "D", Arrays.asList("/apps/d/"));
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        assertEquals("D", cache.get("d"));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(4, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testSelectiveInvalidation() {
+        final ResolutionCache<String, String> cache = new ResolutionCache<String, String>(10);
+        cache.put("page", "P", Arrays.asList("/apps/site/page/", "/libs/site/page/",
+            "/apps/foundation/base/", "/libs/foundation/base/"));
+        cache.put("teaser", "T", Arrays.asList("/apps/site/teaser/", "/libs/site/teaser/"));
+        cache.put("default", "D", Arrays.asList("/apps/sling/servlet/default/",
+            "/libs/sling/servlet/default/"));
+
+        // unrelated changes
+        assertEquals(0, cache.invalidate("/apps/site/pages"));
+        assertEquals(0, cache.invalidate("/apps/foundation/basement/x.jsp"));
+        assertEquals(3, cache.size());
+
+        // script below a super type location
+        assertEquals(1, cache.invalidate("/libs/foundation/base/html.jsp"));
+        assertNull(cache.get("page"));
+        assertEquals("T", cache.get("teaser"));
+
+        // the resource type location itself
+        assertEquals(1, cache.invalidate("/apps/site/teaser"));
+        assertNull(cache.get("teaser"));
+
+        // parent of a location
+        assertEquals(1, cache.invalidate("/libs/sling"));
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.getInvalidations());
+    }
+
+    public void testClear() {
+        final ResolutionCache<String, String> cache = new ResolutionCache<String, String>(10);
+        cache.put("a", "A", Arrays.asList("/apps/a/"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getFlushes());
+    }
+}
@@ -35,4 +35,14 @@ public abstract class AbstractInstallTask extends InstallTask {
         return this.logger;
     }
 
+    /**
+     * Whether this task may be executed concurrently with the
+     * directly following tasks which may be executed concurrently.
+     * Such tasks must not depend on each other and must not
+     * modify state shared with other tasks.
+     */
+    public boolean isParallel() {
+        return false;
+    }
+
 }
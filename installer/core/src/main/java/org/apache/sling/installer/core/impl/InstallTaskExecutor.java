@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.installer.core.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.installer.api.tasks.InstallTask;
+import org.apache.sling.installer.api.tasks.InstallationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The task executor executes the tasks of an installer cycle.
+ * Consecutive tasks which may be executed in parallel are collected into
+ * a batch and run on a pool of worker threads. The next task is only
+ * started once the whole batch is finished. With a single thread, all
+ * tasks are executed sequentially in the calling thread.
+ */
+class InstallTaskExecutor {
+
+    /** Logger. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** The executor for parallel tasks or <code>null</code> to execute all tasks sequentially. */
+    private final ExecutorService executor;
+
+    /**
+     * Create a new executor.
+     * @param name    The prefix for the names of the worker threads.
+     * @param threads The number of worker threads. A value of 1 or less
+     *                executes all tasks sequentially.
+     */
+    public InstallTaskExecutor(final String name, final int threads) {
+        if ( threads > 1 ) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, name + " Worker " + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Are tasks executed in parallel?
+     */
+    public boolean isParallel() {
+        return this.executor != null;
+    }
+
+    /**
+     * Shutdown the worker threads.
+     */
+    public void shutdown() {
+        if ( this.executor != null ) {
+            this.executor.shutdown();
+        }
+    }
+
+    /**
+     * Remove the next task - or the next batch of tasks which may be
+     * executed in parallel - from the task set and execute it.
+     * New tasks might be added to the set by the executed tasks; callers
+     * adding tasks must synchronize on the task set.
+     * @param tasks The sorted task set
+     * @param ctx   The installation context
+     * @return The number of executed tasks
+     */
+    public int executeNext(final SortedSet<InstallTask> tasks, final InstallationContext ctx) {
+        final List<InstallTask> batch = new ArrayList<InstallTask>();
+        synchronized (tasks) {
+            final Iterator<InstallTask> i = tasks.iterator();
+            if ( !i.hasNext() ) {
+                return 0;
+            }
+            final InstallTask task = i.next();
+            i.remove();
+            batch.add(task);
+            if ( this.executor != null && isParallel(task) ) {
+                while ( i.hasNext() ) {
+                    final InstallTask next = i.next();
+                    if ( !isParallel(next) ) {
+                        break;
+                    }
+                    i.remove();
+                    batch.add(next);
+                }
+            }
+        }
+        if ( batch.size() == 1 ) {
+            this.execute(batch.get(0), ctx);
+        } else {
+            this.executeParallel(batch, ctx);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Check if the task may be executed in parallel with other tasks.
+     */
+    private boolean isParallel(final InstallTask task) {
+        return task instanceof AbstractInstallTask && ((AbstractInstallTask)task).isParallel();
+    }
+
+    /**
+     * Execute a single task.
+     */
+    private void execute(final InstallTask task, final InstallationContext ctx) {
+        logger.debug("Executing task: {}", task);
+        try {
+            task.execute(ctx);
+        } catch (final Throwable t) {
+            logger.error("Uncaught exception during task execution!", t);
+        }
+    }
+
+    /**
+     * Execute the tasks on the worker threads and wait for all of them to finish.
+     */
+    private void executeParallel(final List<InstallTask> batch, final InstallationContext ctx) {
+        final long start = System.currentTimeMillis();
+        final List<Future<?>> futures = new ArrayList<Future<?>>(batch.size());
+        for(final InstallTask task : batch) {
+            futures.add(this.executor.submit(new Runnable() {
+
+                public void run() {
+                    execute(task, ctx);
+                }
+            }));
+        }
+        for(final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException ie) {
+                // we simply ignore this
+            } catch (final ExecutionException ee) {
+                logger.error("Uncaught exception during task execution!", ee.getCause());
+            }
+        }
+        logger.debug("Executed {} tasks in parallel in {} ms", batch.size(), System.currentTimeMillis() - start);
+    }
+}
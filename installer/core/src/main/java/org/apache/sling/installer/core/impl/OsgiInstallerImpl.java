@@ -77,6 +77,17 @@ public class OsgiInstallerImpl
     /** The audit logger */
     private final Logger auditLogger =  LoggerFactory.getLogger("org.apache.sling.audit.osgi.installer");
 
+    /**
+     * The framework property for the number of threads executing
+     * tasks in parallel (value is "sling.installer.parallel.threads").
+     * A value of 1 or less executes all tasks sequentially in the
+     * installer thread.
+     */
+    private static final String PARALLEL_THREADS = "sling.installer.parallel.threads";
+
+    /** The default number of threads executing tasks in parallel. */
+    private static final int DEFAULT_PARALLEL_THREADS = 4;
+
     /** The bundle context. */
     private final BundleContext ctx;
 
@@ -110,6 +121,9 @@ public class OsgiInstallerImpl
     /** New resources lock. */
     private final Object resourcesLock = new Object();
 
+    /** The executor for the tasks. */
+    private InstallTaskExecutor taskExecutor;
+
     /** Constructor */
     public OsgiInstallerImpl(final BundleContext ctx) {
         this.ctx = ctx;
@@ -164,6 +178,18 @@ public class OsgiInstallerImpl
         this.ctx.addFrameworkListener(this);
         this.ctx.addBundleListener(this);
         setName(getClass().getSimpleName());
+
+        // the workers for tasks executed in parallel
+        int threads = DEFAULT_PARALLEL_THREADS;
+        final String threadsValue = this.ctx.getProperty(PARALLEL_THREADS);
+        if ( threadsValue != null ) {
+            try {
+                threads = Integer.parseInt(threadsValue.trim());
+            } catch (final NumberFormatException nfe) {
+                logger.warn("Ignoring invalid value for {} : {}", PARALLEL_THREADS, threadsValue);
+            }
+        }
+        this.taskExecutor = new InstallTaskExecutor(getName(), threads);
         this.logger.info("Apache Sling OSGi Installer Service started.");
     }
 
@@ -182,7 +208,13 @@ public class OsgiInstallerImpl
             final SortedSet<InstallTask> tasks = this.computeTasks();
             final boolean tasksCreated = !tasks.isEmpty();
 
-            this.executeTasks(tasks);
+            final long start = System.currentTimeMillis();
+            final int executed = this.executeTasks(tasks);
+            if ( executed > 0 ) {
+                logger.info("Executed {} tasks in {} ms ({})", new Object[] {executed,
+                        System.currentTimeMillis() - start,
+                        (this.taskExecutor.isParallel() ? "parallel" : "sequential")});
+            }
 
             // clean up and save
             this.cleanupInstallableResources();
@@ -208,6 +240,7 @@ public class OsgiInstallerImpl
                 Thread.sleep(250);
             } catch (final InterruptedException ignore) {}
         }
+        this.taskExecutor.shutdown();
     }
 
     /**
@@ -497,8 +530,12 @@ public class OsgiInstallerImpl
 
     /**
      * Execute all tasks
+     * Tasks which may be executed in parallel are run in batches by
+     * the task executor.
+     * @return The number of executed tasks
      */
-    private void executeTasks(final SortedSet<InstallTask> tasks) {
+    private int executeTasks(final SortedSet<InstallTask> tasks) {
+        int executed = 0;
         if ( !tasks.isEmpty() ) {
 
             final InstallationContext ctx = new InstallationContext() {
@@ -522,20 +559,11 @@ public class OsgiInstallerImpl
                 }
             };
             while (this.active && !tasks.isEmpty()) {
-                InstallTask task = null;
-                synchronized (tasks) {
-                    task = tasks.first();
-                    tasks.remove(task);
-                }
-                logger.debug("Executing task: {}", task);
-                try {
-                    task.execute(ctx);
-                } catch (final Throwable t) {
-                    logger.error("Uncaught exception during task execution!", t);
-                }
+                executed += this.taskExecutor.executeNext(tasks, ctx);
             }
             persistentList.save();
         }
+        return executed;
     }
 
     /**
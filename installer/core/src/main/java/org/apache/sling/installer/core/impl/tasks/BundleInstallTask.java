@@ -91,6 +91,16 @@ public class BundleInstallTask extends AbstractInstallTask {
         }
     }
 
+    /**
+     * Bundles are installed independently of each other, they
+     * are only started and resolved by later tasks.
+     * @see org.apache.sling.installer.core.impl.AbstractInstallTask#isParallel()
+     */
+    @Override
+    public boolean isParallel() {
+        return true;
+    }
+
     @Override
     public String getSortKey() {
         return BUNDLE_INSTALL_ORDER + getResource().getURL();
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.installer.core.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.installer.api.tasks.InstallTask;
+import org.apache.sling.installer.api.tasks.InstallationContext;
+
+/**
+ * Test the execution of tasks in batches.
+ * The sort keys of the tasks follow the ones of the bundle tasks:
+ * update (40-), install (50-), refresh (60-) and start (70-).
+ */
+public class InstallTaskExecutorTest {
+
+    private final List<String> log = new ArrayList<String>();
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    private SortedSet<InstallTask> tasks;
+
+    private InstallationContext ctx;
+
+    private InstallTaskExecutor executor;
+
+    @org.junit.Before public void setUp() {
+        this.tasks = new TreeSet<InstallTask>();
+        this.ctx = new InstallationContext() {
+
+            public void addTaskToNextCycle(final InstallTask t) {
+                // not used
+            }
+
+            public void addTaskToCurrentCycle(final InstallTask t) {
+                synchronized ( tasks ) {
+                    tasks.add(t);
+                }
+            }
+
+            public void log(final String message, final Object... args) {
+                // not used
+            }
+        };
+    }
+
+    @org.junit.After public void tearDown() {
+        if ( this.executor != null ) {
+            this.executor.shutdown();
+        }
+    }
+
+    private List<Integer> executeAll() {
+        final List<Integer> batches = new ArrayList<Integer>();
+        while ( !this.tasks.isEmpty() ) {
+            batches.add(this.executor.executeNext(this.tasks, this.ctx));
+        }
+        return batches;
+    }
+
+    private int indexOf(final String entry) {
+        synchronized ( this.log ) {
+            final int index = this.log.indexOf(entry);
+            assertTrue("Missing " + entry + " in " + this.log, index != -1);
+            return index;
+        }
+    }
+
+    private void assertBefore(final String first, final String second) {
+        assertTrue(first + " before " + second + " in " + this.log, indexOf(first) < indexOf(second));
+    }
+
+    @org.junit.Test public void testInstallBatchBeforeStartTasks() {
+        this.executor = new InstallTaskExecutor("test", 4);
+        assertTrue(this.executor.isParallel());
+        // all installs must be running at the same time to pass the barrier
+        final CyclicBarrier barrier = new CyclicBarrier(4);
+        this.tasks.add(new RecordingTask("40-a", false));
+        for(final String id : new String[] {"a", "b", "c", "d"}) {
+            this.tasks.add(new InstallingTask(id, barrier));
+        }
+        this.tasks.add(new RecordingTask("60-refresh", false));
+
+        final List<Integer> batches = this.executeAll();
+        assertEquals("[1, 4, 1, 1, 1, 1, 1]", batches.toString());
+        for(final String id : new String[] {"a", "b", "c", "d"}) {
+            assertBefore("end:40-a", "start:50-" + id);
+            assertBefore("end:50-" + id, "start:60-refresh");
+            assertBefore("end:60-refresh", "start:70-" + id);
+        }
+        assertBefore("end:70-a", "start:70-b");
+        assertBefore("end:70-b", "start:70-c");
+        assertBefore("end:70-c", "start:70-d");
+    }
+
+    @org.junit.Test public void testFailingTaskInBatch() {
+        this.executor = new InstallTaskExecutor("test", 4);
+        this.tasks.add(new InstallingTask("a", null));
+        this.tasks.add(new RecordingTask("50-b", true) {
+            @Override
+            public void execute(final InstallationContext ctx) {
+                super.execute(ctx);
+                throw new RuntimeException("Installation failed");
+            }
+        });
+        this.tasks.add(new InstallingTask("c", null));
+        this.tasks.add(new RecordingTask("60-refresh", false));
+
+        final List<Integer> batches = this.executeAll();
+        assertEquals("[3, 1, 1, 1]", batches.toString());
+        assertBefore("end:50-a", "start:60-refresh");
+        assertBefore("end:50-c", "start:60-refresh");
+        assertBefore("end:60-refresh", "start:70-a");
+        assertBefore("end:60-refresh", "start:70-c");
+        assertFalse(this.log.contains("start:70-b"));
+    }
+
+    @org.junit.Test public void testSingleThreadIsSequential() {
+        this.executor = new InstallTaskExecutor("test", 1);
+        assertFalse(this.executor.isParallel());
+        this.tasks.add(new RecordingTask("40-a", false));
+        for(final String id : new String[] {"a", "b", "c"}) {
+            this.tasks.add(new InstallingTask(id, null));
+        }
+        this.tasks.add(new RecordingTask("60-refresh", false));
+
+        final List<Integer> batches = this.executeAll();
+        assertEquals("[1, 1, 1, 1, 1, 1, 1, 1]", batches.toString());
+        final List<String> expected = new ArrayList<String>();
+        for(final String key : new String[] {"40-a", "50-a", "50-b", "50-c", "60-refresh", "70-a", "70-b", "70-c"}) {
+            expected.add("start:" + key);
+            expected.add("end:" + key);
+        }
+        assertEquals(expected, this.log);
+        for(final Thread t : this.threads) {
+            assertSame(Thread.currentThread(), t);
+        }
+    }
+
+    /**
+     * A task recording its execution.
+     */
+    private class RecordingTask extends AbstractInstallTask {
+
+        private final String sortKey;
+
+        private final boolean parallel;
+
+        public RecordingTask(final String sortKey, final boolean parallel) {
+            super(null);
+            this.sortKey = sortKey;
+            this.parallel = parallel;
+        }
+
+        @Override
+        public void execute(final InstallationContext ctx) {
+            synchronized ( log ) {
+                log.add("start:" + this.sortKey);
+                threads.add(Thread.currentThread());
+            }
+            this.run(ctx);
+            synchronized ( log ) {
+                log.add("end:" + this.sortKey);
+            }
+        }
+
+        protected void run(final InstallationContext ctx) {
+            // nothing to do
+        }
+
+        @Override
+        public boolean isParallel() {
+            return this.parallel;
+        }
+
+        @Override
+        public String getSortKey() {
+            return this.sortKey;
+        }
+
+        @Override
+        public String toString() {
+            return this.sortKey;
+        }
+    }
+
+    /**
+     * A parallel task adding a start task to the current cycle
+     * like the bundle install task.
+     */
+    private class InstallingTask extends RecordingTask {
+
+        private final String id;
+
+        private final CyclicBarrier barrier;
+
+        public InstallingTask(final String id, final CyclicBarrier barrier) {
+            super("50-" + id, true);
+            this.id = id;
+            this.barrier = barrier;
+        }
+
+        @Override
+        protected void run(final InstallationContext ctx) {
+            if ( this.barrier != null ) {
+                try {
+                    this.barrier.await(5, TimeUnit.SECONDS);
+                } catch (final Exception e) {
+                    throw new RuntimeException("Install tasks are not executed in parallel", e);
+                }
+            }
+            ctx.addTaskToCurrentCycle(new RecordingTask("70-" + this.id, false));
+        }
+    }
+}